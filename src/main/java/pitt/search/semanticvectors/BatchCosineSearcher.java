@@ -0,0 +1,191 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedList;
+import java.util.List;
+
+import pitt.search.semanticvectors.utils.TopKCollector;
+import pitt.search.semanticvectors.vectors.RealVector;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorKernels;
+
+/**
+ * Cosine search for a batch of query vectors in a single pass over the search vector store,
+ * giving the same results as running a {@link VectorSearcher.VectorSearcherCosine} for each
+ * query, but reading the store once per batch rather than once per query.
+ *
+ * <p>
+ * For real vectors, the store is read in blocks of {@link #STORE_BLOCK_SIZE} vectors, which are
+ * copied into a contiguous matrix and multiplied by the matrix of normalized query vectors
+ * using {@link VectorKernels#multiplyTransposed}. For other vector types, each store vector is
+ * compared with each query using {@code measureOverlap}. Each query keeps its own bounded list
+ * of top results.
+ *
+ * <p>
+ * Scores are not weighted by term weights, and {@link FlagConfig#stdev()} is not supported.
+ */
+public class BatchCosineSearcher {
+  /** Number of store vectors scored together against all the queries. */
+  public static final int STORE_BLOCK_SIZE = 256;
+
+  private final VectorStore searchVecStore;
+  private final FlagConfig flagConfig;
+
+  /**
+   * @param searchVecStore The vector store to search.
+   * @param flagConfig Flags, of which {@link FlagConfig#searchresultsminscore()} is used.
+   */
+  public BatchCosineSearcher(VectorStore searchVecStore, FlagConfig flagConfig) {
+    this.searchVecStore = searchVecStore;
+    this.flagConfig = flagConfig;
+  }
+
+  /**
+   * Returns a list of the nearest neighbors of each of the query vectors, in the same order
+   * as the queries. A null or zero query vector gets an empty list of results.
+   */
+  public List<LinkedList<SearchResult>> getNearestNeighbors(Vector[] queryVectors, int numResults) {
+    List<LinkedList<SearchResult>> allResults = new ArrayList<LinkedList<SearchResult>>(queryVectors.length);
+    if (numResults <= 0) {
+      for (int q = 0; q < queryVectors.length; ++q) {
+        allResults.add(new LinkedList<SearchResult>());
+      }
+      return allResults;
+    }
+
+    // Only queries that can have results take part in scoring.
+    int[] activeQueries = new int[queryVectors.length];
+    int numActive = 0;
+    boolean allReal = true;
+    for (int q = 0; q < queryVectors.length; ++q) {
+      if (queryVectors[q] != null && !queryVectors[q].isZeroVector()) {
+        activeQueries[numActive++] = q;
+        allReal &= queryVectors[q] instanceof RealVector;
+      }
+    }
+    TopKCollector[] collectors = new TopKCollector[numActive];
+    ObjectVector[][] heldElements = new ObjectVector[numActive][];
+    for (int i = 0; i < numActive; ++i) {
+      collectors[i] = new TopKCollector(numResults);
+      heldElements[i] = new ObjectVector[numResults];
+    }
+
+    if (numActive > 0) {
+      if (allReal) {
+        searchRealVectors(queryVectors, activeQueries, numActive, collectors, heldElements);
+      } else {
+        searchAnyVectors(queryVectors, activeQueries, numActive, collectors, heldElements);
+      }
+    }
+
+    for (int q = 0, i = 0; q < queryVectors.length; ++q) {
+      if (i < numActive && activeQueries[i] == q) {
+        allResults.add(VectorSearcher.collectorToResults(collectors[i], heldElements[i]));
+        ++i;
+      } else {
+        allResults.add(new LinkedList<SearchResult>());
+      }
+    }
+    return allResults;
+  }
+
+  /** Scores each store vector against each active query using {@code measureOverlap}. */
+  private void searchAnyVectors(Vector[] queryVectors, int[] activeQueries, int numActive,
+      TopKCollector[] collectors, ObjectVector[][] heldElements) {
+    double threshold = flagConfig.searchresultsminscore();
+    Enumeration<ObjectVector> vecEnum = searchVecStore.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      ObjectVector testElement = vecEnum.nextElement();
+      for (int i = 0; i < numActive; ++i) {
+        double score = queryVectors[activeQueries[i]].measureOverlap(testElement.getVector());
+        if (score > threshold) {
+          VectorSearcher.offerToCollector(collectors[i], heldElements[i], score, testElement);
+        }
+      }
+    }
+  }
+
+  /** Scores blocks of real store vectors against the matrix of normalized real queries. */
+  private void searchRealVectors(Vector[] queryVectors, int[] activeQueries, int numActive,
+      TopKCollector[] collectors, ObjectVector[][] heldElements) {
+    int dimension = queryVectors[activeQueries[0]].getDimension();
+    float[] queryMatrix = new float[numActive * dimension];
+    for (int i = 0; i < numActive; ++i) {
+      float[] coordinates = ((RealVector) queryVectors[activeQueries[i]]).getCoordinates();
+      float scale = (float) (1 / Math.sqrt(VectorKernels.dot(coordinates, coordinates, dimension)));
+      for (int k = 0; k < dimension; ++k) {
+        queryMatrix[i * dimension + k] = coordinates[k] * scale;
+      }
+    }
+
+    float[] block = new float[STORE_BLOCK_SIZE * dimension];
+    ObjectVector[] blockElements = new ObjectVector[STORE_BLOCK_SIZE];
+    float[] products = new float[numActive * STORE_BLOCK_SIZE];
+    int blockSize = 0;
+    Enumeration<ObjectVector> vecEnum = searchVecStore.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      ObjectVector testElement = vecEnum.nextElement();
+      System.arraycopy(((RealVector) testElement.getVector()).getCoordinates(), 0,
+          block, blockSize * dimension, dimension);
+      blockElements[blockSize++] = testElement;
+      if (blockSize == STORE_BLOCK_SIZE || !vecEnum.hasMoreElements()) {
+        scoreBlock(queryMatrix, numActive, block, blockElements, blockSize, dimension, products,
+            collectors, heldElements);
+        blockSize = 0;
+      }
+    }
+  }
+
+  private void scoreBlock(float[] queryMatrix, int numActive, float[] block, ObjectVector[] blockElements,
+      int blockSize, int dimension, float[] products, TopKCollector[] collectors, ObjectVector[][] heldElements) {
+    double threshold = flagConfig.searchresultsminscore();
+    VectorKernels.multiplyTransposed(queryMatrix, numActive, block, blockSize, dimension, products);
+    for (int j = 0; j < blockSize; ++j) {
+      double normSquared = VectorKernels.dot(block, j * dimension, block, j * dimension, dimension);
+      // Zero vectors score 0, as for measureOverlap.
+      double inverseNorm = normSquared > 0 ? 1 / Math.sqrt(normSquared) : 0;
+      for (int i = 0; i < numActive; ++i) {
+        double score = products[i * blockSize + j] * inverseNorm;
+        if (score > threshold) {
+          VectorSearcher.offerToCollector(collectors[i], heldElements[i], score, blockElements[j]);
+        }
+      }
+    }
+  }
+}
@@ -83,27 +83,36 @@ public class ClusterResults {
    * cluster each vector belongs to.
    */
   public static Clusters kMeansCluster (ObjectVector[] objectVectors, FlagConfig flagConfig) {
+    return kMeansCluster(objectVectors, flagConfig.numclusters(), Integer.MAX_VALUE, new Random(), flagConfig);
+  }
+
+  /** 
+   * Simple k-means clustering algorithm, stopping when assignments are stable or after
+   * maxIterations reassignment passes, whichever comes first.
+   * 
+   * @param objectVectors Array of object vectors to be clustered.
+   * @param numClusters Number of clusters, used instead of {@link FlagConfig#numclusters()}.
+   * @param random Source of the random initial assignments.
+   * @return Integer array parallel to objectVectors saying which
+   * cluster each vector belongs to.
+   */
+  public static Clusters kMeansCluster (ObjectVector[] objectVectors, int numClusters, int maxIterations,
+      Random random, FlagConfig flagConfig) {
     Clusters clusters = new Clusters();
     clusters.clusterMappings = new int[objectVectors.length];
-    clusters.centroids = new Vector[flagConfig.numclusters()];
-    Random rand = new Random();
+    clusters.centroids = new Vector[numClusters];
 
     logger.info("Initializing clusters ...");
 
     // Initialize cluster mappings randomly.
     for (int i = 0; i < objectVectors.length; ++i) {
-      int randInt = rand.nextInt();
-      while (randInt == Integer.MIN_VALUE) {
-        //fix strange result where abs(MIN_VALUE) returns a negative number
-        randInt = rand.nextInt();
-      }
-      clusters.clusterMappings[i] = Math.abs(randInt) % flagConfig.numclusters();
+      clusters.clusterMappings[i] = random.nextInt(numClusters);
     }
 
     logger.info("Iterating k-means assignment ...");
 
     // Loop that computes centroids and reassigns members.
-    while (true) {
+    for (int iteration = 0; iteration < maxIterations; ++iteration) {
       // Clear centroid register.
       for (int i = 0; i < clusters.centroids.length; ++i) {
         clusters.centroids[i] = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension()); 
@@ -112,8 +121,11 @@ public class ClusterResults {
       for (int i = 0; i < objectVectors.length; ++i) {
         clusters.centroids[clusters.clusterMappings[i]].superpose(objectVectors[i].getVector(), 1, null);
       }
-      for (int i = 0; i < flagConfig.numclusters(); ++i) {
-        clusters.centroids[i].normalize();
+      for (int i = 0; i < numClusters; ++i) {
+        // Empty clusters stay zero, rather than being normalized to NaNs.
+        if (!clusters.centroids[i].isZeroVector()) {
+          clusters.centroids[i].normalize();
+        }
       }
 
       boolean changeFlag = false;
@@ -126,11 +138,11 @@ public class ClusterResults {
         }
       }
       if (changeFlag == false) {
+        logger.info("Got to stable clusters ...");
         break;
       }
     }
 
-    logger.info("Got to stable clusters ...");
     return clusters;
   }
 
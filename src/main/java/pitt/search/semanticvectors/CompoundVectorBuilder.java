@@ -40,12 +40,14 @@ package pitt.search.semanticvectors;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.StringTokenizer;
+import java.util.WeakHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 
 import pitt.search.semanticvectors.Search.SearchType;
+import pitt.search.semanticvectors.utils.LruCache;
 import pitt.search.semanticvectors.utils.VerbatimLogger;
 import pitt.search.semanticvectors.vectors.BinaryVector;
 import pitt.search.semanticvectors.vectors.BinaryVectorUtils;
@@ -81,6 +83,19 @@ public class CompoundVectorBuilder {
   private static final Logger logger =
       Logger.getLogger(CompoundVectorBuilder.class.getCanonicalName());
 
+  /** Estimated memory used by a cache entry in addition to its key and vector coordinates. */
+  private static final int CACHE_ENTRY_OVERHEAD_BYTES = 96;
+
+  /** Query vectors shared by all searches, or null if there is no cache. */
+  private static LruCache<String, Vector> queryVectorCache = null;
+
+  /**
+   * Serial numbers identifying vector stores and Lucene utilities in cache keys,
+   * held weakly so that the cache does not keep closed stores reachable.
+   */
+  private static final WeakHashMap<Object, Integer> cacheIdentities = new WeakHashMap<>();
+  private static int nextCacheIdentity = 0;
+
   public CompoundVectorBuilder (VectorStore vecReader, LuceneUtils lUtils) {
     this.vecReader = vecReader;
     this.luceneUtils = lUtils;
@@ -103,6 +118,20 @@ public class CompoundVectorBuilder {
       LuceneUtils luceneUtils,
       FlagConfig flagConfig,
       String[] queryTerms) throws IllegalArgumentException {
+    String cacheKey = getCacheKey(
+        "permuted", flagConfig, new Object[] {vecReader, luceneUtils}, queryTerms);
+    Vector queryVec = getCachedQueryVector(cacheKey, flagConfig);
+    if (queryVec == null) {
+      queryVec = buildPermutedQueryVector(vecReader, luceneUtils, flagConfig, queryTerms);
+      cacheQueryVector(cacheKey, queryVec, flagConfig);
+    }
+    return queryVec;
+  }
+
+  private static Vector buildPermutedQueryVector(VectorStore vecReader,
+      LuceneUtils luceneUtils,
+      FlagConfig flagConfig,
+      String[] queryTerms) throws IllegalArgumentException {
 
     // Check basic invariant that there must be one and only one "?" in input.
     int queryTermPosition = -1;
@@ -199,6 +228,19 @@ public class CompoundVectorBuilder {
 
   public static Vector getBoundProductQueryVectorFromString(
       FlagConfig flagConfig, VectorStore elementalVectors, VectorStore semanticVectors, VectorStore predicateVectors, LuceneUtils lUtils, String queryString) {
+    String cacheKey = getCacheKey("boundproduct", flagConfig,
+        new Object[] {elementalVectors, semanticVectors, predicateVectors, lUtils}, new String[] {queryString});
+    Vector queryVector = getCachedQueryVector(cacheKey, flagConfig);
+    if (queryVector == null) {
+      queryVector = buildBoundProductQueryVectorFromString(
+          flagConfig, elementalVectors, semanticVectors, predicateVectors, lUtils, queryString);
+      cacheQueryVector(cacheKey, queryVector, flagConfig);
+    }
+    return queryVector;
+  }
+
+  private static Vector buildBoundProductQueryVectorFromString(
+      FlagConfig flagConfig, VectorStore elementalVectors, VectorStore semanticVectors, VectorStore predicateVectors, LuceneUtils lUtils, String queryString) {
     //allow for bundling of multiple concepts/relations - split initially at "+" to construct vectors to be superposed
 	  
 		if (queryString.contains("|")) return getBalancedBoundProductQueryVectorFromString(flagConfig, elementalVectors, semanticVectors, predicateVectors, lUtils, queryString); 
@@ -488,6 +530,18 @@ public class CompoundVectorBuilder {
    */
   public static Vector getQueryVector(
       VectorStore vecReader, LuceneUtils luceneUtils, FlagConfig flagConfig, String[] queryTerms) {
+    String cacheKey = getCacheKey(
+        "sum", flagConfig, new Object[] {vecReader, luceneUtils}, queryTerms);
+    Vector queryVector = getCachedQueryVector(cacheKey, flagConfig);
+    if (queryVector == null) {
+      queryVector = buildQueryVector(vecReader, luceneUtils, flagConfig, queryTerms);
+      cacheQueryVector(cacheKey, queryVector, flagConfig);
+    }
+    return queryVector;
+  }
+
+  private static Vector buildQueryVector(
+      VectorStore vecReader, LuceneUtils luceneUtils, FlagConfig flagConfig, String[] queryTerms) {
     CompoundVectorBuilder builder = new CompoundVectorBuilder(vecReader, luceneUtils);
     Vector returnVector = VectorFactory.createZeroVector(
         flagConfig.vectortype(), flagConfig.dimension());
@@ -508,6 +562,72 @@ public class CompoundVectorBuilder {
     return returnVector;
   }
 
+  /**
+   * Returns the cache of query vectors sized by {@link FlagConfig#querycachemegabytes()}, e.g., for
+   * reporting its statistics, or null if caching is turned off. The cache is shared by all
+   * searches, and is replaced by an empty cache if a different size is requested.
+   */
+  public static synchronized LruCache<String, Vector> getQueryVectorCache(FlagConfig flagConfig) {
+    long maxSizeInBytes = flagConfig.querycachemegabytes() * (1L << 20);
+    if (maxSizeInBytes <= 0) {
+      return null;
+    }
+    if (queryVectorCache == null || queryVectorCache.getMaxSizeInBytes() != maxSizeInBytes) {
+      queryVectorCache = new LruCache<>(maxSizeInBytes);
+    }
+    return queryVectorCache;
+  }
+
+  /**
+   * Returns a key for the query built by the given method from the given stores and terms,
+   * including the flags that affect how query vectors are built.
+   */
+  private static synchronized String getCacheKey(
+      String method, FlagConfig flagConfig, Object[] sources, String[] queryTerms) {
+    if (flagConfig.querycachemegabytes() <= 0) {
+      return null;
+    }
+    StringBuilder key = new StringBuilder(method);
+    for (Object source : sources) {
+      key.append('\t');
+      if (source != null) {
+        Integer identity = cacheIdentities.get(source);
+        if (identity == null) {
+          identity = nextCacheIdentity++;
+          cacheIdentities.put(source, identity);
+        }
+        key.append(identity);
+      }
+    }
+    key.append('\t').append(flagConfig.vectortype()).append('\t').append(flagConfig.dimension())
+        .append('\t').append(flagConfig.vectorlookupsyntax())
+        .append('\t').append(flagConfig.suppressnegatedqueries())
+        .append('\t').append(flagConfig.bindnotreleasehack());
+    for (String term : queryTerms) {
+      key.append('\u0000').append(term);
+    }
+    return key.toString();
+  }
+
+  /** Returns a copy of the cached query vector for cacheKey, or null if there is none. */
+  private static Vector getCachedQueryVector(String cacheKey, FlagConfig flagConfig) {
+    if (cacheKey == null) {
+      return null;
+    }
+    Vector cached = getQueryVectorCache(flagConfig).get(cacheKey);
+    return cached == null ? null : cached.copy();
+  }
+
+  /** Adds a copy of queryVector to the cache, since callers may modify the vector they get. */
+  private static void cacheQueryVector(String cacheKey, Vector queryVector, FlagConfig flagConfig) {
+    if (cacheKey == null) {
+      return;
+    }
+    long sizeInBytes = CACHE_ENTRY_OVERHEAD_BYTES + 2L * cacheKey.length()
+        + VectorFactory.getLuceneByteSize(flagConfig.vectortype(), flagConfig.dimension());
+    getQueryVectorCache(flagConfig).put(cacheKey, queryVector.copy(), sizeInBytes);
+  }
+
   /**
    * Returns a (possibly weighted) normalized query vector created
    * by adding together vectors retrieved from vector store.
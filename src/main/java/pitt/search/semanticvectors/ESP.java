@@ -48,7 +48,9 @@ import org.netlib.blas.BLAS;
 
 import pitt.search.semanticvectors.ElementalVectorStore.ElementalGenerationMethod;
 import pitt.search.semanticvectors.utils.Bobcat;
+import pitt.search.semanticvectors.utils.RandomStreams;
 import pitt.search.semanticvectors.utils.SigmoidTable;
+import pitt.search.semanticvectors.utils.TrainingPipeline;
 import pitt.search.semanticvectors.utils.VerbatimLogger;
 import pitt.search.semanticvectors.vectors.BinaryVector;
 import pitt.search.semanticvectors.vectors.Vector;
@@ -65,13 +67,11 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.logging.Logger;
 
 /**
@@ -102,15 +102,18 @@ public class ESP {
   private double min_alpha = 0.0001;
   private SigmoidTable sigmoidTable = new SigmoidTable(MAX_EXP,1000);
   
-  private ConcurrentHashMap<String,ConcurrentSkipListMap<Double, String>> termDic;
-  private ConcurrentHashMap<String,Double> totalPool; //total pool of terms probabilities for negative sampling corpus
+  /** Negative samplers for each semantic type, or just for "universal" if these are not used. */
+  private HashMap<String, NegativeSampler> negativeSamplers;
 
   private LuceneUtils luceneUtils;
   private ArrayList<String> addedConcepts;
   private static Random random;
   private java.util.concurrent.atomic.AtomicInteger dc = new java.util.concurrent.atomic.AtomicInteger(0);
   private java.util.concurrent.atomic.AtomicInteger pc = new java.util.concurrent.atomic.AtomicInteger(0);
-  private ConcurrentLinkedQueue<Document> theQ = new ConcurrentLinkedQueue<Document>();
+  /** Number of predication-documents in each batch passed from the reader to the training threads. */
+  private static final int PIPELINE_BATCH_SIZE = 1000;
+  /** Number of batches that the reader may prefetch for each training thread. */
+  private static final int PIPELINE_BATCHES_PER_THREAD = 4;
   private ConcurrentLinkedQueue<Integer> randomStartpoints = new ConcurrentLinkedQueue<Integer>();
   private ConcurrentHashMap<String,String> semtypes = new ConcurrentHashMap<String,String>();
   private HashMap<Object,String> cuis = new HashMap<Object,String>();
@@ -126,7 +129,7 @@ public class ESP {
    */
   public static void createIncrementalESPVectors(FlagConfig flagConfig) throws IOException {
     ESP incrementalESPVectors = new ESP(flagConfig);
-    random = new Random();
+    random = RandomStreams.newRandom(flagConfig.seed());
     incrementalESPVectors.flagConfig = flagConfig;
     incrementalESPVectors.initialize();
 
@@ -175,8 +178,8 @@ public class ESP {
     elementalPredicateVectors = new ElementalVectorStore(flagConfig);
      flagConfig.setContentsfields(itemFields);
 
-    termDic 	= new ConcurrentHashMap<String, ConcurrentSkipListMap<Double, String>>();
-    totalPool	= new ConcurrentHashMap<String, Double>();
+    HashMap<String, ArrayList<String>> samplingTerms = new HashMap<String, ArrayList<String>>();
+    HashMap<String, ArrayList<Double>> samplingWeights = new HashMap<String, ArrayList<Double>>();
     
     addedConcepts = new ArrayList<String>();
     
@@ -251,18 +254,17 @@ public class ESP {
         	
           
           //table for negative sampling, stratified by semantic type (if available)
-          if (! termDic.containsKey(semtype))
+          if (! samplingTerms.containsKey(semtype))
           {
-        	  	totalPool.put(semtype,0d);
-        	  	termDic.put(semtype, new ConcurrentSkipListMap<Double, String>());
+        	  	samplingTerms.put(semtype, new ArrayList<String>());
+        	  	samplingWeights.put(semtype, new ArrayList<Double>());
           }
          
           //determine frequency with which a concept is drawn as a negative sample
           //following the word2vec work, we use unigram^.75
-          //totalPool is a ConcurrentHashMap - it defines a range for each concept (for each semantic type, if these are used)
-          //the relative size of the range determines the negative sampling frequency for each concept
-          totalPool.put(semtype, totalPool.get(semtype)+Math.pow(luceneUtils.getGlobalTermFreq(term), .75));
-          termDic.get(semtype).put(totalPool.get(semtype), term.text());
+          //this weight is the relative negative sampling frequency for each concept (within each semantic type, if these are used)
+          samplingTerms.get(semtype).add(term.text());
+          samplingWeights.get(semtype).add(Math.pow(luceneUtils.getGlobalTermFreq(term), .75));
      
           // Output term counter.
           termCounter++;
@@ -273,6 +275,12 @@ public class ESP {
       }
     }
 
+    negativeSamplers = new HashMap<String, NegativeSampler>();
+    for (String semtype : samplingTerms.keySet()) {
+      negativeSamplers.put(semtype, NegativeSampler.build(
+          samplingTerms.get(semtype), samplingWeights.get(semtype), elementalItemVectors));
+    }
+
     // Now elemental vectors for the predicate field.
     Terms predicateTerms = luceneUtils.getTermsForField(PREDICATE_FIELD);
     String[] dummyArray = new String[] { PREDICATE_FIELD };  // To satisfy LuceneUtils.termFilter interface.
@@ -328,37 +336,36 @@ public class ESP {
   }
 
   /**
-   * Each TrainPredThred draws from the predication queue, and sends the predication for processing. 
-   * TrainPredThreads operate in parallel
+   * A predication-document together with its Lucene document number
+   */
+  private static class DocIdPredication
+  {
+	  final int docID;
+	  final Document document;
+
+	  DocIdPredication(int docID, Document document)
+	  {
+		  this.docID = docID;
+		  this.document = document;
+	  }
+  }
+
+  /**
+   * Each TrainPredWorker takes predications from the training pipeline, and sends them for processing.
+   * TrainPredWorkers operate in parallel
    * @author tcohen
    *
    */
-  private class TrainPredThread implements Runnable {
+  private class TrainPredWorker implements TrainingPipeline.Worker<DocIdPredication> {
 	     BLAS blas = null;
 
-	    public TrainPredThread(int threadno) {
+	    public TrainPredWorker(int threadno) {
 	       this.blas = BLAS.getInstance();
 	    }
 
 	    @Override
-	    public void run() {
-
-	    	
-      Document document = null;
-      int complete = 0;
-      
-      while (! (complete == -1 && theQ.isEmpty())) 
-      {
-    	  document = theQ.poll();
-    	  if (document == null)
-    	  	{
-    		  complete = populateQueue();
-    		  document = theQ.poll();
-    	  	}
-    	  if (document != null)
-    		  processPredicationDocument(document, blas);
-    	  
-	  }
+	    public void process(DocIdPredication predication) {
+	    	processPredicationDocument(predication.docID, predication.document, blas);
 	    }
   }
   
@@ -420,11 +427,12 @@ public double shiftToward(Vector v1, Vector v2, FlagConfig flagConfig, BLAS blas
  * @param object
  * @param subsem	subject semantic type
  * @param obsem		object semantic type
+ * @param random	generator for this predication's negative samples, see RandomStreams
  * @param blas
  */
 
 
-private void processPredication(String subject, String predicate, String object, String subsem, String obsem, BLAS blas)
+private void processPredication(String subject, String predicate, String object, String subsem, String obsem, Random random, BLAS blas)
 {
 	  Vector subjectSemanticVector 			= semanticItemVectors.getVector(subject);
       Vector copyOfSubjectSemanticVector 	= semanticItemVectors.getVector(subject).copy();
@@ -455,23 +463,16 @@ private void processPredication(String subject, String predicate, String object,
       //draw negative samples, using a unigram distribution for now
       while (objectsNegativeSample == null)
       	{   
-    	  double test = random.nextDouble()*totalPool.get(obsem);
-              if (termDic.get(obsem).ceilingEntry(test) != null) {
-            
-            	  String testConcept = termDic.get(obsem).ceilingEntry(test).getValue();
-            	 
-            	  if  (++ocnt > 10 && semtypesAndCUIs) //probably a rare semantic type
-            	  {
-            		  test = random.nextDouble()*totalPool.get("dsyn");
-            		  testConcept 	= termDic.get("dsyn").ceilingEntry(test).getValue();
-            	  }
-            	  
-            	  if (duplicates.contains(testConcept)) continue;
-              	  duplicates.add(testConcept);  
+    	  NegativeSampler sampler = negativeSamplers.get(obsem);
+    	  if  (++ocnt > 10 && semtypesAndCUIs) //probably a rare semantic type
+    		  sampler = negativeSamplers.get("dsyn");
+    	  int ordinal = sampler.sample(random);
+    	  String testConcept = sampler.getTerm(ordinal);
+
+    	  if (duplicates.contains(testConcept)) continue;
+    	  duplicates.add(testConcept);
     	  if (!testConcept.equals(object)) // don't use the observed object as a negative sample
-    			  objectsNegativeSample =  elementalItemVectors.getVector(testConcept);
-    			  
-    	}
+    		  objectsNegativeSample = sampler.getVector(ordinal);
       	}
       
       objNegSamples.add(objectsNegativeSample);
@@ -510,15 +511,18 @@ private void processPredication(String subject, String predicate, String object,
 /**
  * Process an individual predication (each Document object contains one predication)
  * in both directions (i.e. a PRED b; b PRED-INV a)
+ * @param docID the Lucene document number, which keys the random stream for this predication
  * @param document
  **/
 
-private void processPredicationDocument(Document document, BLAS blas)
+private void processPredicationDocument(int docID, Document document, BLAS blas)
 {
 	   	  String subject 		= document.get(SUBJECT_FIELD);
 	      String predicate 		= document.get(PREDICATE_FIELD);
 	      String object 		= document.get(OBJECT_FIELD);
 	      String predication   =  subject+predicate+object;
+	      // Each predication-document gets its own random stream in each training cycle, see RandomStreams.
+	      Random random = RandomStreams.forStream(flagConfig.seed(), tc, docID);
 	      String subsem 		= document.get("subject_semtype");
 	      String obsem			= document.get("object_semtype");
 	      	      
@@ -554,8 +558,8 @@ private void processPredicationDocument(Document document, BLAS blas)
 
 	      if (encode)
 	      {
-	    	  this.processPredication(subject, predicate, object, subsem, obsem, blas);
-	    	  this.processPredication(object, predicate+"-INV", subject, obsem, subsem, blas);
+	    	  this.processPredication(subject, predicate, object, subsem, obsem, random, blas);
+	    	  this.processPredication(object, predicate+"-INV", subject, obsem, subsem, random, blas);
 	    	  pc.incrementAndGet();
 	      }
 	      
@@ -587,7 +591,7 @@ private void initializeRandomizationStartpoints()
 	for (int x = 0; x < increments; x++)
 		toRandomize.add(x * 100000);
 
-	Collections.shuffle(toRandomize);
+	Collections.shuffle(toRandomize, random);
 	
 	randomStartpoints.addAll(toRandomize);
 	
@@ -597,50 +601,64 @@ private void initializeRandomizationStartpoints()
   
   /**
    * 
-   * Populate the queue of predication-documents
-   * 100,000 (or fewer if fewer remain) predication-documents are drawn, beginning 
+   * Reads the predication-documents for the training pipeline
+   * 100,000 (or fewer if fewer remain) predication-documents are drawn at a time, beginning 
    * at a random start point in the Lucene index
    * 
    * These random start points are retained in a separate queue and shuffled upon each epoch.
    * So the chunks of 100,000 predications are presented in different order across epochs.
-   * 
-   * @return the number of documents added to the queue
    */
-  
-  private synchronized int populateQueue()
+  private class PredicationSource implements Iterator<DocIdPredication>
   {
-	 	  
-	 if (dc.get() >= luceneUtils.getNumDocs()) return -1; 
-	 if (theQ.size() > 100000) return 0;
-	 if (randomStartpoints.isEmpty()) return -1;
-	 
-	
- 	 int qb = randomStartpoints.poll(); //the index number of the first predication-document to be drawn
- 	 int qe = qb + (100000); //the index number of the last predication-document to be drawn
- 	 int qplus = 0; //the number of predication-documents added to the queue
-     
-     for (int qc=qb; qc < qe && qc < luceneUtils.getNumDocs() && dc.get() < luceneUtils.getNumDocs()-1; qc++)
-		{
-    	 try {   
-    		 	Document nextDoc = luceneUtils.getDoc(qc);
-    		 	dc.incrementAndGet();
-    		 	
-    		 	if (nextDoc != null)
-    		 	{
-    		 		theQ.add(nextDoc);
-    		 		qplus++;
-    		 	}
-    	 	 } catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		}
-  	    
-	    VerbatimLogger.info("Added "+qplus+" documents to queue, now carrying "+theQ.size());
-		if (qplus == 0) return -1;
-		else return qplus;
-   	
-	  
+	  private int qc = 0; //the index number of the next predication-document to be drawn
+	  private int qe = 0; //the index number after the last predication-document in the current chunk
+	  private DocIdPredication next;
+
+	  PredicationSource()
+	  {
+		  next = advance();
+	  }
+
+	  private DocIdPredication advance()
+	  {
+		  while (true)
+		  {
+			  if (qc >= qe)
+			  {
+				  Integer qb = randomStartpoints.poll();
+				  if (qb == null) return null;
+				  qc = qb;
+				  qe = Math.min(qb + 100000, luceneUtils.getNumDocs());
+				  continue;
+			  }
+			  try {
+				  int docID = qc++;
+				  Document nextDoc = luceneUtils.getDoc(docID);
+				  dc.incrementAndGet();
+				  if (nextDoc != null) return new DocIdPredication(docID, nextDoc);
+			  } catch (IOException e) {
+				  throw new IllegalStateException("Failed to read predication document " + (qc - 1), e);
+			  }
+		  }
+	  }
+
+	  @Override
+	  public boolean hasNext() {
+		  return next != null;
+	  }
+
+	  @Override
+	  public DocIdPredication next() {
+		  if (next == null) throw new NoSuchElementException();
+		  DocIdPredication toReturn = next;
+		  next = advance();
+		  return toReturn;
+	  }
+
+	  @Override
+	  public void remove() {
+		  throw new UnsupportedOperationException();
+	  }
   }
   
   
@@ -662,33 +680,28 @@ private void initializeRandomizationStartpoints()
     for (tc=0; tc <= flagConfig.trainingcycles(); tc++)
     {
     	initializeRandomizationStartpoints(); 
-    	theQ = new ConcurrentLinkedQueue<Document>();
     	dc.set(0);
-    	populateQueue();
 
     	double time = System.currentTimeMillis();
     	
  
       int numthreads = flagConfig.numthreads();
-      ExecutorService executor = Executors.newFixedThreadPool(numthreads);
-
+      ArrayList<TrainPredWorker> workers = new ArrayList<TrainPredWorker>();
       for (int q = 0; q < numthreads; q++) {
-        executor.execute(new TrainPredThread(q));
+        workers.add(new TrainPredWorker(q));
       }
-
-      executor.shutdown();
-      
-      
-      // Wait until all threads are finish
-      while (!executor.isTerminated()) {
-    	  
-    	  if (theQ.size() < 50000) 
-    		  populateQueue();
-    	
+      TrainingPipeline<DocIdPredication> pipeline =
+          new TrainingPipeline<DocIdPredication>(PIPELINE_BATCH_SIZE, PIPELINE_BATCHES_PER_THREAD * numthreads);
+      try {
+        pipeline.run(new PredicationSource(), workers);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while training ESP vectors", e);
       }
       
       VerbatimLogger.info("Time for cycle "+tc+" : "+((System.currentTimeMillis() - time) / (1000*60))  +" minutes");
       VerbatimLogger.info("Processed "+pc.get()+" total predications (total on disk = "+luceneUtils.getNumDocs()+")");
+      VerbatimLogger.info("Training pipeline: " + pipeline + "\n");
       
       //normalization with each epoch if the vectors are not binary vectors
       if (!flagConfig.vectortype().equals(VectorType.BINARY))
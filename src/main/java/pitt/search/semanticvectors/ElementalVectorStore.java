@@ -35,6 +35,7 @@ package pitt.search.semanticvectors;
 import java.util.Enumeration;
 import java.util.Random;
 
+import pitt.search.semanticvectors.utils.RandomStreams;
 import pitt.search.semanticvectors.vectors.Vector;
 import pitt.search.semanticvectors.vectors.VectorFactory;
 
@@ -69,7 +70,7 @@ public class ElementalVectorStore implements VectorStore{
     switch(flagConfig.elementalmethod()) {
     case RANDOM:
       backingStore = new VectorStoreRAM(flagConfig);
-      random = new Random();
+      random = RandomStreams.newRandom(flagConfig.seed());
       break;
     case CONTENTHASH:
       backingStore = new VectorStoreDeterministic(flagConfig);
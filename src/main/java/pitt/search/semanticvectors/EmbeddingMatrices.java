@@ -0,0 +1,232 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import pitt.search.semanticvectors.utils.SigmoidTable;
+import pitt.search.semanticvectors.vectors.RealVector;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorKernels;
+
+/**
+ * Input and output weights for skipgram-with-negative-sampling training of real embeddings,
+ * held as two contiguous matrices with one row of {@code dimension} floats for each term. <p>
+ *
+ * Terms are numbered by dense ordinals, in the order of the {@link NegativeSampler} the
+ * matrices are built from, so training looks up each term once per document rather than
+ * each vector for each pair in each window. The rows are copied from the term vectors when
+ * the matrices are built, and copied back by {@link #writeTo} when training is done. <p>
+ *
+ * As in word2vec, threads update the matrices without locking ("Hogwild"): updates are
+ * sparse, so collisions are rare and harmless to training. Each thread passes its own
+ * gradient buffer to {@link #train}, so a step allocates nothing.
+ *
+ * @see TermTermVectorsFromLucene
+ */
+public class EmbeddingMatrices {
+  private final int dimension;
+  private final String[] terms;
+  private final HashMap<String, Integer> ordinals;
+  /** Ordinal in these matrices of each ordinal of the sampler. */
+  private final int[] samplerOrdinals;
+  private final NegativeSampler sampler;
+  private final SigmoidTable sigmoidTable;
+  private final double maxExponent;
+  private final float[] input;
+  private final float[] output;
+
+  private EmbeddingMatrices(String[] terms, HashMap<String, Integer> ordinals, int[] samplerOrdinals,
+      NegativeSampler sampler, SigmoidTable sigmoidTable, double maxExponent, int dimension) {
+    this.dimension = dimension;
+    this.terms = terms;
+    this.ordinals = ordinals;
+    this.samplerOrdinals = samplerOrdinals;
+    this.sampler = sampler;
+    this.sigmoidTable = sigmoidTable;
+    this.maxExponent = maxExponent;
+    this.input = new float[terms.length * dimension];
+    this.output = new float[terms.length * dimension];
+  }
+
+  /**
+   * Returns true if matrices for {@code numTerms} terms of the given dimension fit in the
+   * single arrays {@link #build} allocates.
+   */
+  public static boolean canHold(int numTerms, int dimension) {
+    return (long) numTerms * dimension <= Integer.MAX_VALUE;
+  }
+
+  /**
+   * Builds matrices for the terms of the sampler, which also draws the negative samples.
+   *
+   * @param inputVectors the vectors being learned for each term, whose coordinates are the
+   *        initial rows of the input matrix
+   * @param outputVectors the context vectors for each term, which initialize the output
+   *        matrix; terms with no context vector start from zero
+   * @param sigmoidTable used to approximate the logistic function
+   * @param maxExponent pairs whose scalar product is larger than this in magnitude are skipped
+   * @throws IllegalArgumentException if a term has no input vector, or the matrices are too
+   *         large to hold, see {@link #canHold}
+   */
+  public static EmbeddingMatrices build(NegativeSampler sampler, VectorStore inputVectors,
+      VectorStore outputVectors, int dimension, SigmoidTable sigmoidTable, double maxExponent) {
+    if (!canHold(sampler.size(), dimension)) {
+      throw new IllegalArgumentException("Cannot hold " + sampler.size() + " vectors of dimension "
+          + dimension + " in one array.");
+    }
+    HashMap<String, Integer> ordinals = new HashMap<String, Integer>();
+    String[] terms = new String[sampler.size()];
+    int[] samplerOrdinals = new int[sampler.size()];
+    for (int i = 0; i < sampler.size(); ++i) {
+      String term = sampler.getTerm(i);
+      Integer ordinal = ordinals.get(term);
+      if (ordinal == null) {
+        ordinal = ordinals.size();
+        ordinals.put(term, ordinal);
+        terms[ordinal] = term;
+      }
+      samplerOrdinals[i] = ordinal;
+    }
+    terms = Arrays.copyOf(terms, ordinals.size());
+
+    EmbeddingMatrices matrices = new EmbeddingMatrices(
+        terms, ordinals, samplerOrdinals, sampler, sigmoidTable, maxExponent, dimension);
+    for (int i = 0; i < terms.length; ++i) {
+      Vector inputVector = inputVectors.getVector(terms[i]);
+      if (inputVector == null) {
+        throw new IllegalArgumentException("No vector to train for term: " + terms[i]);
+      }
+      System.arraycopy(((RealVector) inputVector).getCoordinates(), 0, matrices.input, i * dimension, dimension);
+      Vector outputVector = outputVectors.getVector(terms[i]);
+      if (outputVector != null) {
+        System.arraycopy(((RealVector) outputVector).getCoordinates(), 0, matrices.output, i * dimension, dimension);
+      }
+    }
+    return matrices;
+  }
+
+  /** Returns the number of terms, i.e., rows in each matrix. */
+  public int size() {
+    return terms.length;
+  }
+
+  /** Returns the ordinal of the term, or -1 if it is not in the matrices. */
+  public int getOrdinal(String term) {
+    Integer ordinal = ordinals.get(term);
+    return ordinal == null ? -1 : ordinal;
+  }
+
+  /** Returns the term with the given ordinal. */
+  public String getTerm(int ordinal) {
+    return terms[ordinal];
+  }
+
+  /** Returns a copy of the row of the input matrix for the given ordinal. */
+  public float[] getInputRow(int ordinal) {
+    return Arrays.copyOfRange(input, ordinal * dimension, (ordinal + 1) * dimension);
+  }
+
+  /** Returns a copy of the row of the output matrix for the given ordinal. */
+  public float[] getOutputRow(int ordinal) {
+    return Arrays.copyOfRange(output, ordinal * dimension, (ordinal + 1) * dimension);
+  }
+
+  /**
+   * Draws the ordinal of a negative sample from the sampler's distribution, other than the
+   * given context ordinal. Requires at least two terms.
+   */
+  public int sampleNegative(Random random, int context) {
+    while (true) {
+      int ordinal = samplerOrdinals[sampler.sample(random)];
+      if (ordinal != context) return ordinal;
+    }
+  }
+
+  /** Trains the input row of the focus term, see {@link #train}. */
+  public void trainInput(int focus, int context, int[] negatives, int numNegatives, float alpha,
+      float[] gradient) {
+    train(input, focus * dimension, context, negatives, numNegatives, alpha, gradient);
+  }
+
+  /**
+   * Takes one step of stochastic gradient descent, training the vector in {@code in} starting
+   * at {@code inOffset} to predict the context term and not the negative samples, and the
+   * output rows of those terms to be predicted by it. The input vector is updated once with the
+   * gradient summed over all the terms, as in word2vec; output rows are updated as they go.
+   *
+   * @param in either the input matrix or the coordinates of some other vector, e.g., a document
+   * @param gradient buffer of at least {@code dimension} floats, overwritten
+   */
+  public void train(float[] in, int inOffset, int context, int[] negatives, int numNegatives,
+      float alpha, float[] gradient) {
+    Arrays.fill(gradient, 0, dimension, 0);
+    for (int s = -1; s < numNegatives; ++s) {
+      int target = s < 0 ? context : negatives[s];
+      int label = s < 0 ? 1 : 0;
+      int row = target * dimension;
+      double scalarProduct = VectorKernels.dot(in, inOffset, output, row, dimension);
+      if (Math.abs(scalarProduct) > maxExponent) continue;
+      float step = (float) ((label - sigmoidTable.sigmoid(scalarProduct)) * alpha);
+      VectorKernels.axpy(step, output, row, gradient, 0, dimension);
+      VectorKernels.axpy(step, in, inOffset, output, row, dimension);
+    }
+    VectorKernels.axpy(1f, gradient, 0, in, inOffset, dimension);
+  }
+
+  /**
+   * Copies the rows of the input and output matrices back to the vectors for each term.
+   * Terms with no vector are added to the store if it is a {@link VectorStoreRAM}.
+   */
+  public void writeTo(VectorStore inputVectors, VectorStore outputVectors) {
+    for (int i = 0; i < terms.length; ++i) {
+      writeRow(input, i, inputVectors);
+      writeRow(output, i, outputVectors);
+    }
+  }
+
+  private void writeRow(float[] matrix, int ordinal, VectorStore vectorStore) {
+    Vector vector = vectorStore.getVector(terms[ordinal]);
+    if (vector != null) {
+      System.arraycopy(matrix, ordinal * dimension, ((RealVector) vector).getCoordinates(), 0, dimension);
+    } else if (vectorStore instanceof VectorStoreRAM) {
+      ((VectorStoreRAM) vectorStore).putVector(terms[ordinal],
+          new RealVector(Arrays.copyOfRange(matrix, ordinal * dimension, (ordinal + 1) * dimension)));
+    }
+  }
+}
@@ -0,0 +1,272 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+/**
+ * Virtual vector store for PSI searches over combinations of predicates, containing the
+ * vectors of a base store together with vectors released from pairs of them and, optionally,
+ * from triples of them. The composite vectors are those that {@link VectorSearcher#expandSearchSpace}
+ * and {@link VectorSearcher#expandSearchSpace3} used to put into a {@link VectorStoreRAM}, with
+ * objects such as {@code obj2:obj1}, but they are computed during enumeration instead, so memory
+ * use is linear rather than quadratic or cubic in the size of the base store, and scoring can
+ * start at once.
+ *
+ * <p>
+ * Each enumeration works on private copies of the base vectors, since release may change
+ * their representation. The released product of each pair is computed once and reused for all
+ * the triples that extend it, so each vector enumerated costs a single copy and release.
+ * Enumerated vectors are new objects, since searchers keep references to their best results.
+ * Enumeration can be split into partitions for parallel search, see {@link PartitionedVectorStore}.
+ */
+public class ExpandedVectorStore implements PartitionedVectorStore {
+  private final FlagConfig flagConfig;
+  private final ObjectVector[] baseVectors;
+  /** Positions in baseVectors of each object's string, for looking up composite objects. */
+  private final HashMap<String, Integer> positions = new HashMap<>();
+  /** True if triples are included as well as pairs. */
+  private final boolean includeTriples;
+  /** True if composites are released in both directions, as for complex vectors. */
+  private final boolean bothDirections;
+
+  /**
+   * Creates a store expanding the vectors in baseStore.
+   * @param includeTriples if true, include vectors released from triples as well as pairs.
+   */
+  public ExpandedVectorStore(VectorStore baseStore, FlagConfig flagConfig, boolean includeTriples) {
+    this.flagConfig = flagConfig;
+    this.includeTriples = includeTriples;
+    this.bothDirections = flagConfig.vectortype().equals(VectorType.COMPLEX);
+    List<ObjectVector> vectors = new ArrayList<ObjectVector>();
+    Enumeration<ObjectVector> allVectors = baseStore.getAllVectors();
+    while (allVectors.hasMoreElements()) {
+      ObjectVector objectVector = allVectors.nextElement();
+      positions.put(objectVector.getObject().toString(), vectors.size());
+      vectors.add(objectVector);
+    }
+    this.baseVectors = vectors.toArray(new ObjectVector[vectors.size()]);
+  }
+
+  /**
+   * Returns the number of base vectors n, plus the pairs x &lt; y &lt; n - 1 (the last base vector
+   * is never the second of a pair, as in the original expansion) and the triples x &lt; y &lt; z,
+   * each counted twice for complex vectors.
+   */
+  @Override
+  public int getNumVectors() {
+    long n = baseVectors.length;
+    long composites = n < 2 ? 0 : (n - 1) * (n - 2) / 2;
+    if (includeTriples) {
+      composites += n * (n - 1) * (n - 2) / 6;
+    }
+    if (bothDirections) {
+      composites *= 2;
+    }
+    return (int) Math.min(Integer.MAX_VALUE, n + composites);
+  }
+
+  @Override
+  public boolean containsVector(Object object) {
+    return getVector(object) != null;
+  }
+
+  /**
+   * Returns the vector for a base object or a composite object, computing composites
+   * as they would be enumerated, or null if the store does not contain the object.
+   */
+  @Override
+  public Vector getVector(Object object) {
+    String key = object.toString();
+    Integer position = positions.get(key);
+    if (position != null) {
+      return baseVectors[position].getVector();
+    }
+    String[] parts = key.split(":");
+    int[] p = new int[parts.length];
+    for (int i = 0; i < parts.length; ++i) {
+      Integer partPosition = positions.get(parts[i]);
+      if (partPosition == null) {
+        return null;
+      }
+      p[i] = partPosition;
+    }
+    int n = baseVectors.length;
+    if (parts.length == 2) {
+      // Pair x, y is stored as "y:x", and also as "x:y" if both directions are used, as y released from x.
+      int x = Math.min(p[0], p[1]), y = Math.max(p[0], p[1]);
+      if (x == y || y >= n - 1 || (p[1] != x && !bothDirections)) {
+        return null;
+      }
+      return release(copyOf(p[1]), baseVectors[p[0]].getVector().copy());
+    }
+    if (parts.length == 3 && includeTriples) {
+      if (p[0] < p[1] && p[1] < p[2]) {
+        // Triple x, y, z is stored as "x:y:z", (x released from y) released from z.
+        Vector pair = release(copyOf(p[0]), baseVectors[p[1]].getVector().copy());
+        return release(pair, baseVectors[p[2]].getVector().copy());
+      }
+      if (bothDirections && p[0] > p[1] && p[1] > p[2]) {
+        // And as "z:y:x" if both directions are used, z released from (y released from x).
+        // The expansion this replaced stored y released from x here, leaving z out.
+        Vector reversePair = release(copyOf(p[1]), baseVectors[p[2]].getVector().copy());
+        return release(copyOf(p[0]), reversePair);
+      }
+    }
+    return null;
+  }
+
+  private Vector copyOf(int position) {
+    return baseVectors[position].getVector().copy();
+  }
+
+  /** Releases other from vector in place and returns vector, for brevity. */
+  private static Vector release(Vector vector, Vector other) {
+    vector.release(other);
+    return vector;
+  }
+
+  @Override
+  public Enumeration<ObjectVector> getAllVectors() {
+    return new ExpandedEnumeration(0, 1);
+  }
+
+  /**
+   * Partitions are interleaved by the first vector of each pair or triple, since
+   * later first vectors have fewer combinations.
+   */
+  @Override
+  public Enumeration<ObjectVector> getAllVectors(int partition, int numPartitions) {
+    if (partition < 0 || partition >= numPartitions) {
+      throw new IllegalArgumentException(
+          "Partition " + partition + " does not exist in " + numPartitions + " partitions.");
+    }
+    return new ExpandedEnumeration(partition, numPartitions);
+  }
+
+  /**
+   * Enumerates the base vectors in this partition, then for each first vector x in the partition
+   * and each second vector y, the pair and then the triples extending it.
+   */
+  private class ExpandedEnumeration implements Enumeration<ObjectVector> {
+    private final int numPartitions;
+    private final int n = baseVectors.length;
+    /** Private copies of the base vectors, used as arguments to release. */
+    private final Vector[] scratch = new Vector[n];
+    /** Composite vectors produced but not yet returned. */
+    private final ArrayList<ObjectVector> pending = new ArrayList<ObjectVector>(2);
+    private int nextBase;
+    private int x, y, z;
+    /** Released products for the current pair, reused for all its triples. */
+    private Vector pair, reversePair;
+
+    ExpandedEnumeration(int partition, int numPartitions) {
+      this.numPartitions = numPartitions;
+      this.nextBase = partition;
+      this.x = partition;
+      this.y = partition;
+      this.z = n;
+    }
+
+    private Vector scratch(int position) {
+      if (scratch[position] == null) {
+        scratch[position] = baseVectors[position].getVector().copy();
+      }
+      return scratch[position];
+    }
+
+    /** Fills pending with the next composite vectors, returning false if there are no more. */
+    private boolean advance() {
+      while (pending.isEmpty()) {
+        if (includeTriples && pair != null && z < n) {
+          String objects = baseVectors[x].getObject() + ":" + baseVectors[y].getObject() + ":" + baseVectors[z].getObject();
+          pending.add(new ObjectVector(objects, release(pair.copy(), scratch(z))));
+          if (bothDirections) {
+            String reversed = baseVectors[z].getObject() + ":" + baseVectors[y].getObject() + ":" + baseVectors[x].getObject();
+            pending.add(new ObjectVector(reversed, release(scratch(z).copy(), reversePair)));
+          }
+          z++;
+          continue;
+        }
+        // Move to the next pair, i.e., the next y, or the next x in this partition.
+        y++;
+        while (x < n - 2 && y >= n - 1) {
+          x += numPartitions;
+          y = x + 1;
+        }
+        if (x >= n - 2) {
+          pair = null;
+          return false;
+        }
+        String obj1 = baseVectors[x].getObject().toString();
+        String obj2 = baseVectors[y].getObject().toString();
+        pair = release(scratch(x).copy(), scratch(y));
+        pending.add(new ObjectVector(obj2 + ":" + obj1, pair.copy()));
+        if (bothDirections) {
+          reversePair = release(scratch(y).copy(), scratch(x));
+          pending.add(new ObjectVector(obj1 + ":" + obj2, reversePair.copy()));
+        }
+        z = y + 1;
+      }
+      return true;
+    }
+
+    @Override
+    public boolean hasMoreElements() {
+      return nextBase < n || !pending.isEmpty() || advance();
+    }
+
+    @Override
+    public ObjectVector nextElement() {
+      if (nextBase < n) {
+        ObjectVector base = baseVectors[nextBase];
+        nextBase += numPartitions;
+        return base;
+      }
+      if (pending.isEmpty() && !advance()) {
+        throw new NoSuchElementException();
+      }
+      return pending.remove(pending.size() - 1);
+    }
+  }
+}
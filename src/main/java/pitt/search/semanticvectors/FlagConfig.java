@@ -45,6 +45,7 @@ import pitt.search.semanticvectors.VectorStoreUtils.VectorStoreFormat;
 import pitt.search.semanticvectors.utils.VerbatimLogger;
 import pitt.search.semanticvectors.vectors.RealVector;
 import pitt.search.semanticvectors.vectors.RealVector.RealBindMethod;
+import pitt.search.semanticvectors.vectors.VectorEncoding;
 import pitt.search.semanticvectors.vectors.VectorType;
 
 import java.lang.reflect.Field;
@@ -124,10 +125,18 @@ public class FlagConfig {
   
   public int numthreads = 4;
   /** 
-   * Number of threads to use when processing word embeddings
+   * Number of threads to use when processing word embeddings, and in parallel search
+   * (see {@link #parallelsearch()})
    */
   public int numthreads() { return numthreads; }
   
+  private boolean parallelsearch = false;
+  /**
+   * If true, {@link VectorSearcher#getNearestNeighbors} scores the search vector store
+   * on {@link #numthreads()} threads, default false.
+   */
+  public boolean parallelsearch() { return parallelsearch; }
+
   public int negsamples = 5;
   /** 
    * Number of negative samples
@@ -141,6 +150,12 @@ public class FlagConfig {
    */
   public int seedlength() { return seedlength; }
   
+  private int seed = 0;
+  /** Master seed for random numbers in training, default 0, meaning a different seed for each run.
+   * With a nonzero seed, each training thread draws from streams derived from this seed and the
+   * document being processed, so runs with the same seed make the same random choices. */
+  public int seed() { return seed; }
+
   private int minfrequency = 0;
   /** Minimum frequency of a term for it to be indexed, default value 0. */
   public int minfrequency() { return minfrequency; }
@@ -252,6 +267,115 @@ public class FlagConfig {
   /** Format used for serializing / deserializing vectors from disk, default lucene. */
   public VectorStoreFormat indexfileformat() { return indexfileformat; }
 
+  private boolean vectorstoreindex = false;
+  /** If true, {@link VectorStoreReaderLucene} builds an index from object strings to file offsets
+   * on first lookup and saves it next to the store, see {@link VectorStoreOffsetIndex}, default false.
+   * An index file that is already present is used whether or not this is set. */
+  public boolean vectorstoreindex() { return vectorstoreindex; }
+
+  private boolean normalizevectors = false;
+  /** If true, {@link VectorStoreWriter} normalizes vectors as it writes them and records this in
+   * the store header, so that cosine searches over the store can skip computing norms, default false. */
+  public boolean normalizevectors() { return normalizevectors; }
+
+  private VectorEncoding vectorencoding = VectorEncoding.FLOAT32;
+  /** Encoding of real and complex coordinates in Lucene-format and mapped vector stores written by
+   * {@link VectorStoreWriter}, recorded in the store header. Default {@link VectorEncoding#FLOAT32};
+   * "-vectorencoding float16" halves and "-vectorencoding int8" quarters the size of vectors. */
+  public VectorEncoding vectorencoding() { return vectorencoding; }
+
+  private boolean hnswsearch = false;
+  /** If true, cosine searches use the {@link HnswIndex} file saved next to the search vector store,
+   * if there is one, instead of comparing the query with every vector, default false. */
+  public boolean hnswsearch() { return hnswsearch; }
+
+  private int hnswm = 16;
+  /** Maximum number of neighbors of each node in upper layers of an {@link HnswIndex}, twice this
+   * in the bottom layer, default 16. Larger values give better recall and bigger indexes. */
+  public int hnswm() { return hnswm; }
+
+  private int hnswefconstruction = 200;
+  /** Number of candidate neighbors considered when adding each vector to an {@link HnswIndex},
+   * default 200. Larger values give better indexes and slower building. */
+  public int hnswefconstruction() { return hnswefconstruction; }
+
+  private int hnswefsearch = 100;
+  /** Number of candidates kept while searching an {@link HnswIndex}, default 100.
+   * Larger values give better recall and slower searches. */
+  public int hnswefsearch() { return hnswefsearch; }
+
+  private int mihsubstrings = 0;
+  /** If greater than 0, cosine searches of binary vector stores use a {@link MultiIndexHash} with
+   * this many substrings instead of comparing the query with every vector, default 0. Must be at
+   * least dimension / 64; dimension / 16 to dimension / 32 is usually fastest. */
+  public int mihsubstrings() { return mihsubstrings; }
+
+  private boolean ivfsearch = false;
+  /** If true, searches with a single query vector only score the vectors in the nearest lists of
+   * the {@link IvfIndex} file saved next to the search vector store, if there is one, default false. */
+  public boolean ivfsearch() { return ivfsearch; }
+
+  private int ivflists = 1024;
+  /** Number of lists (coarse centroids) when building an {@link IvfIndex}, default 1024.
+   * Around the square root of the number of vectors is usually a good choice. */
+  public int ivflists() { return ivflists; }
+
+  private int ivfnprobe = 8;
+  /** Number of {@link IvfIndex} lists scored for each search, default 8.
+   * Larger values give better recall and slower searches. */
+  public int ivfnprobe() { return ivfnprobe; }
+
+  private boolean pqsearch = false;
+  /** If true, cosine searches of real vectors score the {@link ProductQuantizedStore} saved next to
+   * the search vector store, if there is one, in place of exhaustive search, default false. */
+  public boolean pqsearch() { return pqsearch; }
+
+  private int pqsubspaces = 8;
+  /** Number of subspaces when building a {@link ProductQuantizedStore}, default 8.
+   * Each vector is stored in this many bytes. */
+  public int pqsubspaces() { return pqsubspaces; }
+
+  private int pqrerank = 0;
+  /** Number of top {@link ProductQuantizedStore} candidates rescored exactly using vectors from
+   * the search vector store, default 0, meaning results have approximate scores. */
+  public int pqrerank() { return pqrerank; }
+
+  private int sketchbits = 0;
+  /** If greater than 0, cosine searches of real and complex vector stores first rank all vectors
+   * by the Hamming distance between {@link SketchIndex} sketches of this many bits, default 0. */
+  public int sketchbits() { return sketchbits; }
+
+  private int sketchrerank = 2000;
+  /** Number of candidates with the nearest sketches that a {@link SketchIndex} search scores
+   * exactly, default 2000. */
+  public int sketchrerank() { return sketchrerank; }
+
+  private int searchbatchsize = 1;
+  /** Number of queries from a batch file that {@link SearchBatch} scores together in one pass
+   * over the search vectors, default 1. Only used for {@link Search.SearchType#SUM} searches
+   * without stdev or term weights. */
+  public int searchbatchsize() { return searchbatchsize; }
+
+  private int searchserverport = 8787;
+  /** Local port on which a {@link SearchServer} listens for queries, default 8787.
+   * If 0, any free port is used. */
+  public int searchserverport() { return searchserverport; }
+
+  private int querycachemegabytes = 0;
+  /** Size of the cache of query vectors built by {@link CompoundVectorBuilder}, in megabytes,
+   * default 0, meaning no caching. Only suitable when vector stores do not change while searching. */
+  public int querycachemegabytes() { return querycachemegabytes; }
+
+  private boolean cachesearchresults = false;
+  /** If true, a {@link SearchServer} also caches result lists for repeated requests, in a cache
+   * of size {@link #querycachemegabytes()}, default false. */
+  public boolean cachesearchresults() { return cachesearchresults; }
+
+  private boolean offheapvectors = false;
+  /** If true, a {@link VectorStoreSlab} keeps its coordinates in direct buffers outside the Java heap,
+   * and in-memory search stores of real vectors are read into a {@link VectorStoreSlab}, default false. */
+  public boolean offheapvectors() { return offheapvectors; }
+
   private String termvectorsfile = "termvectors";
   /** File to which termvectors are written during indexing. */
   public String termvectorsfile() { return termvectorsfile; }
@@ -342,6 +466,11 @@ public class FlagConfig {
    * See {@link BuildPositionalIndex}.
    */
   public String luceneindexpath() { return luceneindexpath; }
+
+  private String corpuscache = "";
+  /** If set, positional indexing trains from this pre-tokenized copy of the Lucene index,
+   * writing it first if the file does not exist or is stale. See {@link PositionalCorpusCache}. */
+  public String corpuscache() { return corpuscache; }
   
   private String initialtermvectors = "";
   /** If set, use the vectors in this file for initialization instead of new random vectors. */
@@ -512,9 +641,14 @@ public class FlagConfig {
     return flagConfig;
   }
 
-  public static void mergeWriteableFlagsFromString(String source, FlagConfig target) {
+  /**
+   * Parses a vector store header and merges its writeable flags into target.
+   * @return the flags parsed from the header, e.g., for checking {@link #normalizevectors()}.
+   */
+  public static FlagConfig mergeWriteableFlagsFromString(String source, FlagConfig target) {
     FlagConfig sourceConfig = FlagConfig.parseFlagsFromString(source);
     mergeWriteableFlags(sourceConfig, target);
+    return sourceConfig;
   }
   
   /**
@@ -0,0 +1,731 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
+import java.util.WeakHashMap;
+import java.util.logging.Logger;
+
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+
+import pitt.search.semanticvectors.utils.TopKCollector;
+import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.utils.VisitedMarks;
+import pitt.search.semanticvectors.vectors.ComplexVector;
+import pitt.search.semanticvectors.vectors.RealVector;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorType;
+import pitt.search.semanticvectors.vectors.ZeroVectorException;
+
+/**
+ * Approximate nearest neighbor index for a vector store, using a Hierarchical Navigable
+ * Small World graph (Malkov and Yashunin, 2016).
+ *
+ * <p>
+ * Each vector is a node in a stack of proximity graphs. Upper layers hold exponentially
+ * fewer nodes and are used to find a good entry point, and the bottom layer holds every
+ * node. A search walks greedily down the layers and then explores the bottom layer with a
+ * beam of width {@link FlagConfig#hnswefsearch()}, so it scores a few thousand vectors
+ * rather than the whole store. Similarity is cosine similarity, as for
+ * {@link VectorSearcher.VectorSearcherCosine}.
+ *
+ * <p>
+ * The index is built offline and saved as a file next to the vector store, named by
+ * {@link #getIndexFileName}. The file holds the object strings and the graph but not the
+ * vectors, which are read from the vector store by {@link #attachVectors} when the index
+ * is loaded. The index keeps one normalized copy of each vector, or none if the store is
+ * normalized, and reads the vectors of search results back from the store.
+ * When {@link FlagConfig#hnswsearch()} is set, {@link VectorSearcher.VectorSearcherCosine}
+ * uses the index for the search store in place of an exhaustive scan.
+ *
+ * <p>
+ * Building is single-threaded. Once built or loaded, an index may be searched from
+ * many threads at once.
+ */
+public class HnswIndex {
+  private static final Logger logger = Logger.getLogger(HnswIndex.class.getCanonicalName());
+
+  public static String usageMessage = "HnswIndex class in pitt.search.semanticvectors"
+      + "\nUsage: java pitt.search.semanticvectors.HnswIndex [flags] build STOREFILE"
+      + "\n   or: java pitt.search.semanticvectors.HnswIndex [flags] evaluate STOREFILE [NUMQUERIES]"
+      + "\n'build' writes an index file STOREFILE" + HnswIndex.SUFFIX + " next to the vector store,"
+      + "\nusing -hnswm and -hnswefconstruction."
+      + "\n'evaluate' searches for NUMQUERIES (default 100) vectors taken from the store using the"
+      + "\nindex and -hnswefsearch, and reports recall of the top -numsearchresults results"
+      + "\ncompared with exhaustive search, and the time taken by each.";
+
+  /** Suffix appended to the vector store file name to get the index file name. */
+  public static final String SUFFIX = ".hnsw";
+
+  /** Seed for choosing node levels, fixed so that building the same store gives the same index. */
+  private static final long LEVEL_SEED = 0;
+
+  /** Loaded indexes, so that repeated searches of one store only read its index once. */
+  private static final Map<VectorStore, HnswIndex> attachedIndexes = new WeakHashMap<>();
+
+  /** Maximum number of neighbors of each node on layers above the bottom. */
+  private final int m;
+  /** Maximum number of neighbors of each node on the bottom layer. */
+  private final int maxNeighborsBottom;
+  private final int efConstruction;
+  private final double levelMultiplier;
+  private final Random random = new Random(LEVEL_SEED);
+
+  private int size = 0;
+  private String[] keys;
+  /** The vectors in the representation used for comparisons, see {@link #prepareVector}. */
+  private Vector[] vectors;
+  /**
+   * True if {@link #vectors} holds copies, so that search results are read from the store.
+   * False if the store is normalized, in which case its vectors are used directly.
+   */
+  private boolean copiedVectors = true;
+  /** links[node][layer] holds the neighbors of node on that layer. */
+  private int[][][] links;
+  private int entryPoint = -1;
+  private int maxLevel = -1;
+
+  /** Marks nodes visited during a search, reused across searches by each thread. */
+  private final ThreadLocal<VisitedMarks> visitedNodes = new ThreadLocal<VisitedMarks>() {
+    @Override
+    protected VisitedMarks initialValue() {
+      return new VisitedMarks();
+    }
+  };
+
+  /**
+   * Creates an empty index.
+   * @param m the maximum number of neighbors of each node on upper layers, twice this on the bottom layer.
+   * @param efConstruction the width of the beam used to find neighbors when inserting a node.
+   */
+  public HnswIndex(int m, int efConstruction) {
+    if (m < 2) {
+      throw new IllegalArgumentException("-hnswm must be at least 2, not " + m);
+    }
+    this.m = m;
+    this.maxNeighborsBottom = 2 * m;
+    this.efConstruction = Math.max(efConstruction, m);
+    this.levelMultiplier = 1 / Math.log(m);
+    this.keys = new String[16];
+    this.vectors = new Vector[16];
+    this.links = new int[16][][];
+  }
+
+  /** Returns the name of the index file for the given vector store file. */
+  public static String getIndexFileName(String vectorFileName) {
+    return vectorFileName + SUFFIX;
+  }
+
+  /** Returns the number of vectors in the index. */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Builds an index of all the vectors in the store, using {@link FlagConfig#hnswm()}
+   * and {@link FlagConfig#hnswefconstruction()}.
+   */
+  public static HnswIndex build(VectorStore vectorStore, FlagConfig flagConfig) {
+    checkVectorType(flagConfig);
+    HnswIndex index = new HnswIndex(flagConfig.hnswm(), flagConfig.hnswefconstruction());
+    index.copiedVectors = !isNormalized(vectorStore);
+    Enumeration<ObjectVector> vecEnum = vectorStore.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      ObjectVector objectVector = vecEnum.nextElement();
+      index.add(objectVector.getObject().toString(), objectVector.getVector());
+      if (index.size % 100000 == 0) {
+        VerbatimLogger.info("Indexed " + index.size + " vectors ...\n");
+      }
+    }
+    return index;
+  }
+
+  private static void checkVectorType(FlagConfig flagConfig) {
+    if (flagConfig.vectortype() != VectorType.REAL && flagConfig.vectortype() != VectorType.COMPLEX
+        && flagConfig.vectortype() != VectorType.COMPLEXFLAT) {
+      throw new IllegalArgumentException(
+          "HNSW indexes are only supported for real and complex vectors, not " + flagConfig.vectortype());
+    }
+  }
+
+  private static boolean isNormalized(VectorStore vectorStore) {
+    return vectorStore instanceof NormalizedVectorStore
+        && ((NormalizedVectorStore) vectorStore).isNormalized();
+  }
+
+  /**
+   * Returns the vector normalized and in the representation used for comparisons. If copy is
+   * true, returns a copy, so that comparing it with {@link #similarity} changes neither vector
+   * and is thread-safe. Otherwise the vector must already be normalized, e.g., because it is
+   * from a normalized store, and is only converted in place to the representation used, as in
+   * {@link VectorSearcher.VectorSearcherCosine}.
+   */
+  private static Vector prepareVector(Vector vector, boolean copy) {
+    if (!copy) {
+      if (vector instanceof ComplexVector
+          && ComplexVector.getDominantMode() == ComplexVector.Mode.HERMITIAN) {
+        ((ComplexVector) vector).toCartesian();
+      }
+      return vector;
+    }
+    Vector prepared = vector.copy();
+    if (!prepared.isZeroVector()) {
+      prepared.normalize();
+    }
+    if (prepared instanceof ComplexVector
+        && ComplexVector.getDominantMode() == ComplexVector.Mode.HERMITIAN) {
+      ((ComplexVector) prepared).toCartesian();
+    }
+    return prepared;
+  }
+
+  /** Returns the cosine similarity of two vectors prepared by {@link #prepareVector}. */
+  private static double similarity(Vector first, Vector second) {
+    if (first instanceof RealVector) {
+      return ((RealVector) first).measureUnitLengthOverlap((RealVector) second);
+    }
+    if (first instanceof ComplexVector
+        && ComplexVector.getDominantMode() == ComplexVector.Mode.HERMITIAN) {
+      return ((ComplexVector) first).measureUnitLengthHermitianOverlap((ComplexVector) second);
+    }
+    return first.measureOverlap(second);
+  }
+
+  /**
+   * Adds a vector from the store being indexed under this object string.
+   */
+  private void add(String key, Vector vector) {
+    int node = size;
+    ensureCapacity(node + 1);
+    keys[node] = key;
+    vectors[node] = prepareVector(vector, copiedVectors);
+    int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+    links[node] = new int[level + 1][];
+    for (int layer = 0; layer <= level; ++layer) {
+      links[node][layer] = new int[0];
+    }
+    size++;
+
+    if (entryPoint == -1) {
+      entryPoint = node;
+      maxLevel = level;
+      return;
+    }
+
+    Vector query = vectors[node];
+    int nearest = entryPoint;
+    for (int layer = maxLevel; layer > level; --layer) {
+      nearest = greedySearch(query, nearest, layer);
+    }
+    int[] entryPoints = new int[] {nearest};
+    for (int layer = Math.min(level, maxLevel); layer >= 0; --layer) {
+      TopKCollector found = searchLayer(query, entryPoints, efConstruction, layer);
+      int numFound = found.sortDescending();
+      int[] candidates = new int[numFound];
+      double[] scores = new double[numFound];
+      for (int i = 0; i < numFound; ++i) {
+        candidates[i] = found.getOrdinal(i);
+        scores[i] = found.getScore(i);
+      }
+      int[] neighbors = selectNeighbors(candidates, scores, numFound, m);
+      links[node][layer] = neighbors;
+      for (int neighbor : neighbors) {
+        addLink(neighbor, node, layer);
+      }
+      entryPoints = candidates;
+    }
+
+    if (level > maxLevel) {
+      maxLevel = level;
+      entryPoint = node;
+    }
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= keys.length) {
+      return;
+    }
+    int newCapacity = Math.max(capacity, keys.length + (keys.length >> 1));
+    keys = Arrays.copyOf(keys, newCapacity);
+    vectors = Arrays.copyOf(vectors, newCapacity);
+    links = Arrays.copyOf(links, newCapacity);
+  }
+
+  /**
+   * Adds a link from node to newNeighbor on this layer, pruning the neighbors of node if
+   * there are now too many.
+   */
+  private void addLink(int node, int newNeighbor, int layer) {
+    int[] neighbors = links[node][layer];
+    int maxNeighbors = (layer == 0) ? maxNeighborsBottom : m;
+    if (neighbors.length < maxNeighbors) {
+      int[] extended = Arrays.copyOf(neighbors, neighbors.length + 1);
+      extended[neighbors.length] = newNeighbor;
+      links[node][layer] = extended;
+      return;
+    }
+    TopKCollector sorter = new TopKCollector(neighbors.length + 1);
+    for (int neighbor : neighbors) {
+      sorter.offer(similarity(vectors[node], vectors[neighbor]), neighbor);
+    }
+    sorter.offer(similarity(vectors[node], vectors[newNeighbor]), newNeighbor);
+    int count = sorter.sortDescending();
+    int[] candidates = new int[count];
+    double[] scores = new double[count];
+    for (int i = 0; i < count; ++i) {
+      candidates[i] = sorter.getOrdinal(i);
+      scores[i] = sorter.getScore(i);
+    }
+    links[node][layer] = selectNeighbors(candidates, scores, count, maxNeighbors);
+  }
+
+  /**
+   * Chooses up to maxNeighbors neighbors from candidates, sorted by descending similarity
+   * to the base node. A candidate is preferred if it is closer to the base than to any
+   * neighbor chosen so far, which keeps links pointing in different directions. Other
+   * candidates are used to fill any remaining places.
+   */
+  private int[] selectNeighbors(int[] candidates, double[] scores, int numCandidates, int maxNeighbors) {
+    int[] selected = new int[Math.min(maxNeighbors, numCandidates)];
+    int numSelected = 0;
+    int[] discarded = new int[numCandidates];
+    int numDiscarded = 0;
+    for (int i = 0; i < numCandidates && numSelected < selected.length; ++i) {
+      boolean diverse = true;
+      for (int j = 0; j < numSelected; ++j) {
+        if (similarity(vectors[candidates[i]], vectors[selected[j]]) > scores[i]) {
+          diverse = false;
+          break;
+        }
+      }
+      if (diverse) {
+        selected[numSelected++] = candidates[i];
+      } else {
+        discarded[numDiscarded++] = candidates[i];
+      }
+    }
+    for (int i = 0; i < numDiscarded && numSelected < selected.length; ++i) {
+      selected[numSelected++] = discarded[i];
+    }
+    return numSelected == selected.length ? selected : Arrays.copyOf(selected, numSelected);
+  }
+
+  /** Follows links on this layer to the node most similar to the query. */
+  private int greedySearch(Vector query, int start, int layer) {
+    int current = start;
+    double currentScore = similarity(query, vectors[current]);
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int neighbor : links[current][layer]) {
+        double score = similarity(query, vectors[neighbor]);
+        if (score > currentScore) {
+          currentScore = score;
+          current = neighbor;
+          changed = true;
+        }
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Beam search on one layer, returning up to ef nodes most similar to the query found
+   * by expanding from the entry points.
+   */
+  private TopKCollector searchLayer(Vector query, int[] entryPoints, int ef, int layer) {
+    VisitedMarks visited = visitedNodes.get();
+    visited.reset(size);
+    TopKCollector results = new TopKCollector(ef);
+    CandidateQueue candidates = new CandidateQueue();
+    for (int entry : entryPoints) {
+      if (visited.visit(entry)) {
+        double score = similarity(query, vectors[entry]);
+        results.offer(score, entry);
+        candidates.push(score, entry);
+      }
+    }
+    while (candidates.size() > 0) {
+      if (results.isFull() && candidates.peekScore() < results.getMinScore()) {
+        break;
+      }
+      int candidate = candidates.pop();
+      for (int neighbor : links[candidate][layer]) {
+        if (!visited.visit(neighbor)) {
+          continue;
+        }
+        double score = similarity(query, vectors[neighbor]);
+        if (results.wouldAccept(score)) {
+          results.offer(score, neighbor);
+          candidates.push(score, neighbor);
+        }
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Returns approximately the numResults vectors most similar to the query vector,
+   * best first, with scores above minScore.
+   * @param vectorStore the store the index was built from or attached to, from which the vectors
+   *        of the results are read unless the index uses the store's vectors directly.
+   * @param efSearch the width of the beam on the bottom layer; larger values give better
+   *        recall at the cost of speed. Values below numResults are raised to numResults.
+   */
+  public LinkedList<SearchResult> search(
+      VectorStore vectorStore, Vector queryVector, int numResults, int efSearch, double minScore) {
+    LinkedList<SearchResult> results = new LinkedList<SearchResult>();
+    if (size == 0 || numResults <= 0) {
+      return results;
+    }
+    if (vectors[0] == null) {
+      throw new IllegalStateException("No vectors attached to HNSW index, see attachVectors.");
+    }
+    Vector query = prepareVector(queryVector, true);
+    int nearest = entryPoint;
+    for (int layer = maxLevel; layer > 0; --layer) {
+      nearest = greedySearch(query, nearest, layer);
+    }
+    TopKCollector found = searchLayer(query, new int[] {nearest}, Math.max(efSearch, numResults), 0);
+    int numFound = found.sortDescending();
+    for (int i = 0; i < numFound && results.size() < numResults; ++i) {
+      if (found.getScore(i) <= minScore) {
+        break;
+      }
+      int node = found.getOrdinal(i);
+      Vector vector = copiedVectors ? vectorStore.getVector(keys[node]) : vectors[node];
+      results.add(new SearchResult(found.getScore(i), new ObjectVector(keys[node], vector)));
+    }
+    return results;
+  }
+
+  /**
+   * Reads the vectors for an index loaded by {@link #readFromIndexInput} from the vector
+   * store it was built from.
+   * @throws IllegalArgumentException if the store does not contain every object in the index.
+   */
+  public void attachVectors(VectorStore vectorStore) {
+    copiedVectors = !isNormalized(vectorStore);
+    HashMap<String, Integer> nodes = new HashMap<String, Integer>((int) (size / 0.75f) + 1);
+    for (int i = 0; i < size; ++i) {
+      nodes.put(keys[i], i);
+    }
+    int numAttached = 0;
+    Enumeration<ObjectVector> vecEnum = vectorStore.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      ObjectVector objectVector = vecEnum.nextElement();
+      Integer node = nodes.get(objectVector.getObject().toString());
+      if (node != null && vectors[node] == null) {
+        vectors[node] = prepareVector(objectVector.getVector(), copiedVectors);
+        numAttached++;
+      }
+    }
+    if (numAttached != size) {
+      throw new IllegalArgumentException("Vector store does not match HNSW index: found vectors for "
+          + numAttached + " of " + size + " objects.");
+    }
+  }
+
+  /**
+   * Returns the index saved next to the file of the given store, see
+   * {@link VectorStoreUtils#getSearchStoreFileName}, with vectors attached from the store.
+   * Returns null, so that the caller falls back to exhaustive search, if there is no index
+   * file or if the index does not match the store.
+   * Indexes are cached for each store, so this is cheap after the first call.
+   */
+  public static synchronized HnswIndex getIndexForStore(VectorStore searchVecStore, FlagConfig flagConfig) {
+    if (attachedIndexes.containsKey(searchVecStore)) {
+      return attachedIndexes.get(searchVecStore);
+    }
+    String storeFileName = VectorStoreUtils.getSearchStoreFileName(searchVecStore, flagConfig);
+    if (storeFileName == null) {
+      logger.warning("No HNSW index for expanded search space, falling back to exhaustive search.");
+      return null;
+    }
+    String indexFileName = getIndexFileName(storeFileName);
+    if (!new File(indexFileName).isFile()) {
+      logger.warning("No HNSW index file " + indexFileName + ", falling back to exhaustive search.");
+      return null;
+    }
+    HnswIndex index;
+    try {
+      index = readFromFile(indexFileName);
+    } catch (IOException e) {
+      logger.warning("Failed to read HNSW index " + indexFileName + ": " + e.getMessage()
+          + "\nFalling back to exhaustive search.");
+      return null;
+    }
+    VerbatimLogger.info("Attaching vectors to HNSW index from " + indexFileName + " ...\n");
+    try {
+      index.attachVectors(searchVecStore);
+    } catch (IllegalArgumentException e) {
+      logger.warning("HNSW index " + indexFileName + " does not match the search store: " + e.getMessage()
+          + "\nFalling back to exhaustive search.");
+      index = null;
+    }
+    attachedIndexes.put(searchVecStore, index);
+    return index;
+  }
+
+  /**
+   * Writes this index to the given output.
+   * Caller is responsible for opening and closing the output stream.
+   */
+  public void writeToIndexOutput(IndexOutput outputStream) throws IOException {
+    outputStream.writeInt(m);
+    outputStream.writeInt(efConstruction);
+    outputStream.writeInt(size);
+    outputStream.writeInt(entryPoint);
+    outputStream.writeInt(maxLevel);
+    for (int node = 0; node < size; ++node) {
+      outputStream.writeString(keys[node]);
+      outputStream.writeVInt(links[node].length);
+      for (int[] neighbors : links[node]) {
+        outputStream.writeVInt(neighbors.length);
+        for (int neighbor : neighbors) {
+          outputStream.writeVInt(neighbor);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads an index previously written by {@link #writeToIndexOutput}. Vectors must then be
+   * added using {@link #attachVectors} before searching.
+   */
+  public static HnswIndex readFromIndexInput(IndexInput indexInput) throws IOException {
+    int m = indexInput.readInt();
+    int efConstruction = indexInput.readInt();
+    HnswIndex index = new HnswIndex(m, efConstruction);
+    int size = indexInput.readInt();
+    index.ensureCapacity(size);
+    index.entryPoint = indexInput.readInt();
+    index.maxLevel = indexInput.readInt();
+    for (int node = 0; node < size; ++node) {
+      index.keys[node] = indexInput.readString();
+      int numLayers = indexInput.readVInt();
+      index.links[node] = new int[numLayers][];
+      for (int layer = 0; layer < numLayers; ++layer) {
+        int[] neighbors = new int[indexInput.readVInt()];
+        for (int i = 0; i < neighbors.length; ++i) {
+          neighbors[i] = indexInput.readVInt();
+        }
+        index.links[node][layer] = neighbors;
+      }
+    }
+    index.size = size;
+    return index;
+  }
+
+  /** Reads an index from the given file. */
+  public static HnswIndex readFromFile(String indexFileName) throws IOException {
+    File indexFile = new File(indexFileName);
+    String parentPath = indexFile.getParent();
+    if (parentPath == null) parentPath = "";
+    FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    IndexInput indexInput = fsDirectory.openInput(indexFile.getName(), IOContext.READONCE);
+    try {
+      return readFromIndexInput(indexInput);
+    } finally {
+      indexInput.close();
+      fsDirectory.close();
+    }
+  }
+
+  /** Writes this index to the given file. */
+  public void writeToFile(String indexFileName) throws IOException {
+    File indexFile = new File(indexFileName);
+    String parentPath = indexFile.getParent();
+    if (parentPath == null) parentPath = "";
+    FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    IndexOutput outputStream = fsDirectory.createOutput(indexFile.getName(), IOContext.DEFAULT);
+    writeToIndexOutput(outputStream);
+    outputStream.close();
+    fsDirectory.close();
+  }
+
+  /**
+   * Searches for each of the query vectors using the index and exhaustively, and returns the
+   * mean fraction of the exhaustive top numResults that the index also found.
+   * Timings are logged.
+   */
+  public double evaluateRecall(VectorStore vectorStore, Vector[] queries, FlagConfig flagConfig)
+      throws ZeroVectorException {
+    int numResults = flagConfig.numsearchresults();
+    // The baseline is searched with no index flags, so that it is always exhaustive.
+    FlagConfig exhaustiveConfig = FlagConfig.getFlagConfig(null);
+    FlagConfig.mergeWriteableFlags(flagConfig, exhaustiveConfig);
+    double totalRecall = 0;
+    long indexNanos = 0, exhaustiveNanos = 0;
+    long[] indexQueryNanos = new long[queries.length];
+    for (int q = 0; q < queries.length; ++q) {
+      long start = System.nanoTime();
+      LinkedList<SearchResult> approximate = search(
+          vectorStore, queries[q], numResults, flagConfig.hnswefsearch(), flagConfig.searchresultsminscore());
+      indexQueryNanos[q] = System.nanoTime() - start;
+      indexNanos += indexQueryNanos[q];
+
+      start = System.nanoTime();
+      LinkedList<SearchResult> exact = new VectorSearcher.VectorSearcherCosine(
+          vectorStore, vectorStore, null, exhaustiveConfig, queries[q].copy()).getNearestNeighbors(numResults);
+      exhaustiveNanos += System.nanoTime() - start;
+
+      if (exact.isEmpty()) {
+        totalRecall += 1;
+        continue;
+      }
+      HashSet<Object> found = new HashSet<Object>();
+      for (SearchResult result : approximate) {
+        found.add(result.getObjectVector().getObject());
+      }
+      int hits = 0;
+      for (SearchResult result : exact) {
+        if (found.contains(result.getObjectVector().getObject())) hits++;
+      }
+      totalRecall += (double) hits / exact.size();
+    }
+    Arrays.sort(indexQueryNanos);
+    int p99 = Math.min(queries.length - 1, (int) Math.ceil(0.99 * queries.length) - 1);
+    VerbatimLogger.info(String.format(
+        "HNSW mean query time %.3f ms, p99 %.3f ms; exhaustive mean query time %.3f ms.%n",
+        indexNanos / 1e6 / queries.length, indexQueryNanos[Math.max(p99, 0)] / 1e6,
+        exhaustiveNanos / 1e6 / queries.length));
+    return totalRecall / queries.length;
+  }
+
+  /**
+   * Command line method for building and evaluating indexes.
+   * @see #usageMessage
+   */
+  public static void main(String[] args) throws IOException, ZeroVectorException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(args);
+    String[] remainingArgs = flagConfig.remainingArgs;
+    if (remainingArgs.length < 2
+        || !(remainingArgs[0].equals("build") || remainingArgs[0].equals("evaluate"))) {
+      System.err.println(usageMessage);
+      throw new IllegalArgumentException();
+    }
+    String vectorFileName = VectorStoreUtils.getStoreFileName(remainingArgs[1], flagConfig);
+    VectorStoreRAM vectorStore = VectorStoreRAM.readFromFile(flagConfig, vectorFileName);
+    checkVectorType(flagConfig);
+    String indexFileName = getIndexFileName(vectorFileName);
+
+    if (remainingArgs[0].equals("build")) {
+      long start = System.currentTimeMillis();
+      HnswIndex index = build(vectorStore, flagConfig);
+      index.writeToFile(indexFileName);
+      VerbatimLogger.info("Wrote HNSW index of " + index.size() + " vectors to " + indexFileName
+          + " in " + (System.currentTimeMillis() - start) / 1000 + " seconds.\n");
+      return;
+    }
+
+    int numQueries = remainingArgs.length > 2 ? Integer.parseInt(remainingArgs[2]) : 100;
+    HnswIndex index = readFromFile(indexFileName);
+    index.attachVectors(vectorStore);
+    Random queryRandom = new Random(LEVEL_SEED);
+    Vector[] queries = new Vector[Math.min(numQueries, index.size())];
+    for (int q = 0; q < queries.length; ++q) {
+      queries[q] = vectorStore.getVector(index.keys[queryRandom.nextInt(index.size())]);
+    }
+    double recall = index.evaluateRecall(vectorStore, queries, flagConfig);
+    VerbatimLogger.info(String.format("Recall@%d with -hnswefsearch %d over %d queries: %.4f%n",
+        flagConfig.numsearchresults(), flagConfig.hnswefsearch(), queries.length, recall));
+  }
+
+  /** Binary max-heap of nodes still to be expanded, most similar first. */
+  private static class CandidateQueue {
+    private double[] scores = new double[64];
+    private int[] nodes = new int[64];
+    private int size = 0;
+
+    int size() {
+      return size;
+    }
+
+    double peekScore() {
+      return scores[0];
+    }
+
+    void push(double score, int node) {
+      if (size == scores.length) {
+        scores = Arrays.copyOf(scores, 2 * size);
+        nodes = Arrays.copyOf(nodes, 2 * size);
+      }
+      int index = size++;
+      while (index > 0) {
+        int parent = (index - 1) >>> 1;
+        if (scores[parent] >= score) break;
+        scores[index] = scores[parent];
+        nodes[index] = nodes[parent];
+        index = parent;
+      }
+      scores[index] = score;
+      nodes[index] = node;
+    }
+
+    int pop() {
+      int top = nodes[0];
+      size--;
+      double score = scores[size];
+      int node = nodes[size];
+      int index = 0;
+      while (true) {
+        int child = 2 * index + 1;
+        if (child >= size) break;
+        if (child + 1 < size && scores[child + 1] > scores[child]) child++;
+        if (scores[child] <= score) break;
+        scores[index] = scores[child];
+        nodes[index] = nodes[child];
+        index = child;
+      }
+      scores[index] = score;
+      nodes[index] = node;
+      return top;
+    }
+  }
+}
@@ -0,0 +1,383 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.WeakHashMap;
+import java.util.logging.Logger;
+
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+
+import pitt.search.semanticvectors.utils.TopKCollector;
+import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorUtils;
+
+/**
+ * Inverted file (IVF) index for a vector store: the vectors are clustered around coarse
+ * centroids using {@link ClusterResults#kMeansCluster}, and each vector is listed under its
+ * nearest centroid. A search only scores the vectors in the {@link FlagConfig#ivfnprobe()}
+ * lists whose centroids are nearest the query, so results are approximate.
+ *
+ * <p>
+ * Works for every {@link pitt.search.semanticvectors.vectors.VectorType}, since centroids are
+ * built with {@code superpose} and compared with {@code measureOverlap}. When
+ * {@link FlagConfig#ivfsearch()} is set, {@link VectorSearcher} uses the index saved next to
+ * the search vector store in place of {@link VectorStore#getAllVectors()}, for searchers
+ * with a single query vector.
+ *
+ * <p>
+ * The index file, named by {@link #getIndexFileName}, holds the centroids and the object
+ * strings in each list. Vectors are read from the store by {@link #attachVectors}.
+ */
+public class IvfIndex {
+  private static final Logger logger = Logger.getLogger(IvfIndex.class.getCanonicalName());
+
+  public static String usageMessage = "IvfIndex class in pitt.search.semanticvectors"
+      + "\nUsage: java pitt.search.semanticvectors.IvfIndex [-ivflists NUM] STOREFILE"
+      + "\nWrites an inverted file index STOREFILE" + IvfIndex.SUFFIX + " next to the vector store.";
+
+  /** Suffix appended to the vector store file name to get the index file name. */
+  public static final String SUFFIX = ".ivf";
+
+  /** Number of vectors per list sampled for training centroids. */
+  public static final int TRAINING_SAMPLE_PER_LIST = 64;
+
+  /** Maximum number of k-means passes when training centroids. */
+  public static final int MAX_KMEANS_ITERATIONS = 20;
+
+  /** Loaded indexes, so that repeated searches of one store only read its index once. */
+  private static final Map<VectorStore, IvfIndex> attachedIndexes = new WeakHashMap<>();
+
+  private final Vector[] centroids;
+  private final String[][] listObjects;
+  private ObjectVector[][] listVectors;
+
+  private IvfIndex(Vector[] centroids, String[][] listObjects) {
+    this.centroids = centroids;
+    this.listObjects = listObjects;
+  }
+
+  /** Returns the name of the index file for the given vector store file. */
+  public static String getIndexFileName(String vectorFileName) {
+    return vectorFileName + SUFFIX;
+  }
+
+  /** Returns the number of lists, i.e., of centroids. */
+  public int getNumLists() {
+    return centroids.length;
+  }
+
+  /** Returns the number of vectors in the given list. */
+  public int getListSize(int list) {
+    return listObjects[list].length;
+  }
+
+  /**
+   * Builds an index of all the vectors in the store with up to {@link FlagConfig#ivflists()}
+   * lists. Centroids are trained on a sample of {@link #TRAINING_SAMPLE_PER_LIST} vectors per list.
+   */
+  public static IvfIndex build(VectorStore vectorStore, FlagConfig flagConfig) {
+    ObjectVector[] objectVectors = new ObjectVector[vectorStore.getNumVectors()];
+    int count = 0;
+    Enumeration<ObjectVector> vecEnum = vectorStore.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      if (count == objectVectors.length) {
+        objectVectors = Arrays.copyOf(objectVectors, 2 * count + 1);
+      }
+      objectVectors[count++] = vecEnum.nextElement();
+    }
+    objectVectors = Arrays.copyOf(objectVectors, count);
+    int numLists = Math.max(1, Math.min(flagConfig.ivflists(), count));
+
+    // Partial Fisher-Yates shuffle to pick the training sample.
+    Random random = new Random(0);
+    int sampleSize = (int) Math.min(count, (long) numLists * TRAINING_SAMPLE_PER_LIST);
+    ObjectVector[] shuffled = objectVectors.clone();
+    for (int i = 0; i < sampleSize; ++i) {
+      int j = i + random.nextInt(count - i);
+      ObjectVector swap = shuffled[i];
+      shuffled[i] = shuffled[j];
+      shuffled[j] = swap;
+    }
+    VerbatimLogger.info("Training " + numLists + " IVF centroids on " + sampleSize + " vectors ...\n");
+    Vector[] centroids = ClusterResults.kMeansCluster(Arrays.copyOf(shuffled, sampleSize),
+        numLists, MAX_KMEANS_ITERATIONS, random, flagConfig).centroids;
+
+    VerbatimLogger.info("Assigning " + count + " vectors to IVF lists ...\n");
+    int[] assignments = new int[count];
+    int[] listSizes = new int[numLists];
+    for (int i = 0; i < count; ++i) {
+      assignments[i] = VectorUtils.getNearestVector(objectVectors[i].getVector(), centroids);
+      listSizes[assignments[i]]++;
+    }
+    String[][] listObjects = new String[numLists][];
+    ObjectVector[][] listVectors = new ObjectVector[numLists][];
+    for (int list = 0; list < numLists; ++list) {
+      listObjects[list] = new String[listSizes[list]];
+      listVectors[list] = new ObjectVector[listSizes[list]];
+      listSizes[list] = 0;
+    }
+    for (int i = 0; i < count; ++i) {
+      int list = assignments[i];
+      listObjects[list][listSizes[list]] = objectVectors[i].getObject().toString();
+      listVectors[list][listSizes[list]++] = objectVectors[i];
+    }
+    IvfIndex index = new IvfIndex(centroids, listObjects);
+    index.listVectors = listVectors;
+    return index;
+  }
+
+  /**
+   * Returns the vectors in the nprobe lists whose centroids are nearest the query vector.
+   * The enumeration is a view of the index, and can be used concurrently with other searches.
+   */
+  public Enumeration<ObjectVector> getCandidateVectors(Vector queryVector, int nprobe) {
+    if (listVectors == null) {
+      throw new IllegalStateException("No vectors attached to IVF index, see attachVectors.");
+    }
+    TopKCollector nearestLists = new TopKCollector(Math.min(Math.max(nprobe, 1), centroids.length));
+    for (int list = 0; list < centroids.length; ++list) {
+      nearestLists.offer(queryVector.measureOverlap(centroids[list]), list);
+    }
+    int numProbed = nearestLists.sortDescending();
+    final int[] lists = new int[numProbed];
+    for (int i = 0; i < numProbed; ++i) {
+      lists[i] = nearestLists.getOrdinal(i);
+    }
+    return new Enumeration<ObjectVector>() {
+      private int listIndex = 0;
+      private int position = 0;
+
+      @Override
+      public boolean hasMoreElements() {
+        while (listIndex < lists.length && position >= listVectors[lists[listIndex]].length) {
+          listIndex++;
+          position = 0;
+        }
+        return listIndex < lists.length;
+      }
+
+      @Override
+      public ObjectVector nextElement() {
+        if (!hasMoreElements()) {
+          throw new NoSuchElementException();
+        }
+        return listVectors[lists[listIndex]][position++];
+      }
+    };
+  }
+
+  /**
+   * Reads the vectors for an index loaded by {@link #readFromIndexInput} from the vector
+   * store it was built from.
+   * @throws IllegalArgumentException if the store does not contain every object in the index.
+   */
+  public void attachVectors(VectorStore vectorStore) {
+    int size = 0;
+    for (String[] objects : listObjects) {
+      size += objects.length;
+    }
+    // Positions are encoded as list * 2^32 + position in list.
+    HashMap<String, Long> positions = new HashMap<String, Long>((int) (size / 0.75f) + 1);
+    for (int list = 0; list < listObjects.length; ++list) {
+      for (int i = 0; i < listObjects[list].length; ++i) {
+        positions.put(listObjects[list][i], ((long) list << 32) | i);
+      }
+    }
+    ObjectVector[][] attached = new ObjectVector[listObjects.length][];
+    for (int list = 0; list < listObjects.length; ++list) {
+      attached[list] = new ObjectVector[listObjects[list].length];
+    }
+    int numAttached = 0;
+    Enumeration<ObjectVector> vecEnum = vectorStore.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      ObjectVector objectVector = vecEnum.nextElement();
+      Long position = positions.get(objectVector.getObject().toString());
+      if (position != null) {
+        int list = (int) (position >>> 32);
+        int i = (int) (long) position;
+        if (attached[list][i] == null) {
+          attached[list][i] = objectVector;
+          numAttached++;
+        }
+      }
+    }
+    if (numAttached != size) {
+      throw new IllegalArgumentException("Vector store does not match IVF index: found vectors for "
+          + numAttached + " of " + size + " objects.");
+    }
+    listVectors = attached;
+  }
+
+  /**
+   * Returns the index saved next to the file of the given store, see
+   * {@link VectorStoreUtils#getSearchStoreFileName}, with vectors attached from the store.
+   * Returns null, so that the caller falls back to exhaustive search, if there is no index
+   * file or if the index does not match the store.
+   * Indexes are cached for each store, so this is cheap after the first call.
+   */
+  public static synchronized IvfIndex getIndexForStore(VectorStore searchVecStore, FlagConfig flagConfig) {
+    if (attachedIndexes.containsKey(searchVecStore)) {
+      return attachedIndexes.get(searchVecStore);
+    }
+    String storeFileName = VectorStoreUtils.getSearchStoreFileName(searchVecStore, flagConfig);
+    if (storeFileName == null) {
+      logger.warning("No IVF index for expanded search space, falling back to exhaustive search.");
+      return null;
+    }
+    String indexFileName = getIndexFileName(storeFileName);
+    if (!new File(indexFileName).isFile()) {
+      logger.warning("No IVF index file " + indexFileName + ", falling back to exhaustive search.");
+      return null;
+    }
+    IvfIndex index;
+    try {
+      index = readFromFile(indexFileName, flagConfig);
+    } catch (IOException e) {
+      logger.warning("Failed to read IVF index " + indexFileName + ": " + e.getMessage()
+          + "\nFalling back to exhaustive search.");
+      return null;
+    }
+    VerbatimLogger.info("Attaching vectors to IVF index from " + indexFileName + " ...\n");
+    try {
+      index.attachVectors(searchVecStore);
+    } catch (IllegalArgumentException e) {
+      logger.warning("IVF index " + indexFileName + " does not match the search store: " + e.getMessage()
+          + "\nFalling back to exhaustive search.");
+      index = null;
+    }
+    attachedIndexes.put(searchVecStore, index);
+    return index;
+  }
+
+  /**
+   * Writes this index to the given output.
+   * Caller is responsible for opening and closing the output stream.
+   */
+  public void writeToIndexOutput(IndexOutput outputStream, FlagConfig flagConfig) throws IOException {
+    outputStream.writeString(VectorStoreWriter.generateHeaderString(flagConfig));
+    outputStream.writeInt(centroids.length);
+    for (Vector centroid : centroids) {
+      centroid.writeToLuceneStream(outputStream);
+    }
+    for (String[] objects : listObjects) {
+      outputStream.writeVInt(objects.length);
+      for (String object : objects) {
+        outputStream.writeString(object);
+      }
+    }
+  }
+
+  /**
+   * Reads an index previously written by {@link #writeToIndexOutput}. Vectors must then be
+   * added using {@link #attachVectors} before searching.
+   */
+  public static IvfIndex readFromIndexInput(IndexInput indexInput, FlagConfig flagConfig) throws IOException {
+    FlagConfig.mergeWriteableFlagsFromString(indexInput.readString(), flagConfig);
+    Vector[] centroids = new Vector[indexInput.readInt()];
+    for (int list = 0; list < centroids.length; ++list) {
+      centroids[list] = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
+      centroids[list].readFromLuceneStream(indexInput);
+    }
+    String[][] listObjects = new String[centroids.length][];
+    for (int list = 0; list < centroids.length; ++list) {
+      listObjects[list] = new String[indexInput.readVInt()];
+      for (int i = 0; i < listObjects[list].length; ++i) {
+        listObjects[list][i] = indexInput.readString();
+      }
+    }
+    return new IvfIndex(centroids, listObjects);
+  }
+
+  /** Reads an index from the given file. */
+  public static IvfIndex readFromFile(String indexFileName, FlagConfig flagConfig) throws IOException {
+    File indexFile = new File(indexFileName);
+    String parentPath = indexFile.getParent();
+    if (parentPath == null) parentPath = "";
+    FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    IndexInput indexInput = fsDirectory.openInput(indexFile.getName(), IOContext.READONCE);
+    try {
+      return readFromIndexInput(indexInput, flagConfig);
+    } finally {
+      indexInput.close();
+      fsDirectory.close();
+    }
+  }
+
+  /** Writes this index to the given file. */
+  public void writeToFile(String indexFileName, FlagConfig flagConfig) throws IOException {
+    File indexFile = new File(indexFileName);
+    String parentPath = indexFile.getParent();
+    if (parentPath == null) parentPath = "";
+    FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    IndexOutput outputStream = fsDirectory.createOutput(indexFile.getName(), IOContext.DEFAULT);
+    writeToIndexOutput(outputStream, flagConfig);
+    outputStream.close();
+    fsDirectory.close();
+  }
+
+  /**
+   * Command line method for building index files.
+   * @see #usageMessage
+   */
+  public static void main(String[] args) throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(args);
+    if (flagConfig.remainingArgs.length != 1) {
+      System.err.println(usageMessage);
+      throw new IllegalArgumentException();
+    }
+    String vectorFileName = VectorStoreUtils.getStoreFileName(flagConfig.remainingArgs[0], flagConfig);
+    VectorStoreRAM vectorStore = VectorStoreRAM.readFromFile(flagConfig, vectorFileName);
+    IvfIndex index = build(vectorStore, flagConfig);
+    String indexFileName = getIndexFileName(vectorFileName);
+    index.writeToFile(indexFileName, flagConfig);
+    VerbatimLogger.info("Wrote IVF index with " + index.getNumLists() + " lists of "
+        + vectorStore.getNumVectors() + " vectors to " + indexFileName + "\n");
+  }
+}
@@ -351,6 +351,31 @@ public class LuceneUtils {
     return compositeReader.numDocs();
   }
 
+  /**
+   * Returns the version of the Lucene index, which changes whenever the index is changed.
+   */
+  public long getIndexVersion() {
+    return ((DirectoryReader) compositeReader).getVersion();
+  }
+
+  /**
+   * Describes the settings used by {@link #termFilter(Term)}, so that results that depend on
+   * the filters can be checked against them. The stoplist and startlist are described by
+   * their files and numbers of words.
+   */
+  public String getTermFilterSettings() {
+    return "contentsfields=" + String.join(",", flagConfig.contentsfields())
+        + " minfrequency=" + flagConfig.minfrequency()
+        + " maxfrequency=" + flagConfig.maxfrequency()
+        + " maxnonalphabetchars=" + flagConfig.maxnonalphabetchars()
+        + " filteroutnumbers=" + flagConfig.filteroutnumbers()
+        + " mintermlength=" + flagConfig.mintermlength()
+        + " stoplistfile=" + flagConfig.stoplistfile()
+        + " stopwords=" + (stopwords == null ? 0 : stopwords.size())
+        + " startlistfile=" + flagConfig.startlistfile()
+        + " startwords=" + (startwords == null ? 0 : startwords.size());
+  }
+
   /**
    * Gets the IDF (i.e. log10(numdocs/doc frequency)) of a term
    *  @param term the term whose IDF you would like
@@ -0,0 +1,429 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import pitt.search.semanticvectors.utils.TopKCollector;
+import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.utils.VisitedMarks;
+import pitt.search.semanticvectors.vectors.BinaryVector;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+/**
+ * Multi-index hashing (Norouzi, Punjani and Fleet, 2012) for exact Hamming-space search over
+ * stores of {@link BinaryVector}s.
+ *
+ * <p>
+ * Each vector is split into {@link FlagConfig#mihsubstrings()} disjoint substrings of at most 64
+ * bits, and each substring position has its own table from substring to vectors. If two vectors
+ * are within Hamming distance r of each other, then by the pigeonhole principle at least one
+ * pair of their substrings is within distance r / m. So a search only needs to look up the
+ * query's substrings and their near variants in each table, and then verifies the candidates
+ * found with a full Hamming distance computation. Results are the same as for exhaustive search.
+ *
+ * <p>
+ * Scores are those of {@link BinaryVector#measureOverlap}, i.e., 1 - 2 * (Hamming distance / dimension).
+ * Indexes are built in memory and are searchable from many threads at once.
+ */
+public class MultiIndexHash {
+  /** Built indexes, so that repeated searches of one store only build its index once. */
+  private static final Map<VectorStore, MultiIndexHash> storeIndexes = new WeakHashMap<>();
+
+  private final int dimension;
+  private final int numWords;
+  private final int numSubstrings;
+  private final int[] substringStarts;
+  private final int[] substringLengths;
+
+  private final int size;
+  private final ObjectVector[] objectVectors;
+  /** Words of all vectors, numWords for each vector in turn. */
+  private final long[] codes;
+  /** For each substring position, the substrings of all vectors in sorted order. */
+  private final long[][] tableKeys;
+  /** For each substring position, the vector ordinals in the same order as tableKeys. */
+  private final int[][] tableOrdinals;
+
+  private final ThreadLocal<VisitedMarks> visitedVectors = new ThreadLocal<VisitedMarks>() {
+    @Override
+    protected VisitedMarks initialValue() {
+      return new VisitedMarks();
+    }
+  };
+
+  private MultiIndexHash(int dimension, int numSubstrings, ObjectVector[] objectVectors, long[] codes) {
+    this.dimension = dimension;
+    this.numWords = (dimension + 63) / 64;
+    this.numSubstrings = numSubstrings;
+    this.size = objectVectors.length;
+    this.objectVectors = objectVectors;
+    this.codes = codes;
+
+    substringStarts = new int[numSubstrings];
+    substringLengths = new int[numSubstrings];
+    int start = 0;
+    for (int j = 0; j < numSubstrings; ++j) {
+      substringStarts[j] = start;
+      substringLengths[j] = dimension / numSubstrings + (j < dimension % numSubstrings ? 1 : 0);
+      start += substringLengths[j];
+    }
+
+    tableKeys = new long[numSubstrings][];
+    tableOrdinals = new int[numSubstrings][];
+    for (int j = 0; j < numSubstrings; ++j) {
+      long[] keys = new long[size];
+      int[] ordinals = new int[size];
+      for (int i = 0; i < size; ++i) {
+        keys[i] = substring(codes, i * numWords, substringStarts[j], substringLengths[j]);
+        ordinals[i] = i;
+      }
+      sort(keys, ordinals, 0, size - 1);
+      tableKeys[j] = keys;
+      tableOrdinals[j] = ordinals;
+    }
+  }
+
+  /**
+   * Builds an index of all the vectors in the store, using {@link FlagConfig#mihsubstrings()}
+   * substrings.
+   * @throws IllegalArgumentException if the store is not binary or the substrings would be longer than 64 bits.
+   */
+  public static MultiIndexHash build(VectorStore vectorStore, FlagConfig flagConfig) {
+    if (flagConfig.vectortype() != VectorType.BINARY) {
+      throw new IllegalArgumentException(
+          "Multi-index hashing is only supported for binary vectors, not " + flagConfig.vectortype());
+    }
+    int dimension = flagConfig.dimension();
+    int numSubstrings = flagConfig.mihsubstrings();
+    if (numSubstrings < 1 || (dimension + numSubstrings - 1) / numSubstrings > 64) {
+      throw new IllegalArgumentException("-mihsubstrings must be at least dimension / 64, i.e., "
+          + ((dimension + 63) / 64) + ", not " + numSubstrings);
+    }
+    int numWords = (dimension + 63) / 64;
+    int numVectors = vectorStore.getNumVectors();
+    ObjectVector[] objectVectors = new ObjectVector[numVectors];
+    long[] codes = new long[numVectors * numWords];
+    int count = 0;
+    Enumeration<ObjectVector> vecEnum = vectorStore.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      ObjectVector objectVector = vecEnum.nextElement();
+      if (count == objectVectors.length) {
+        objectVectors = Arrays.copyOf(objectVectors, 2 * count + 1);
+        codes = Arrays.copyOf(codes, (2 * count + 1) * numWords);
+      }
+      objectVectors[count] = objectVector;
+      long[] bits = ((BinaryVector) objectVector.getVector()).getBits();
+      System.arraycopy(bits, 0, codes, count * numWords, Math.min(numWords, bits.length));
+      count++;
+    }
+    if (count != objectVectors.length) {
+      objectVectors = Arrays.copyOf(objectVectors, count);
+      codes = Arrays.copyOf(codes, count * numWords);
+    }
+    return new MultiIndexHash(dimension, numSubstrings, objectVectors, codes);
+  }
+
+  /**
+   * Returns the index for this store, building it on first use.
+   */
+  public static synchronized MultiIndexHash getIndexForStore(VectorStore searchVecStore, FlagConfig flagConfig) {
+    MultiIndexHash index = storeIndexes.get(searchVecStore);
+    if (index == null || index.numSubstrings != flagConfig.mihsubstrings()) {
+      VerbatimLogger.info("Building multi-index hash tables for binary search vectors ...\n");
+      index = build(searchVecStore, flagConfig);
+      storeIndexes.put(searchVecStore, index);
+    }
+    return index;
+  }
+
+  /** Returns the number of vectors in the index. */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the numResults vectors with the highest overlap with the query, best first,
+   * keeping only scores above minScore.
+   */
+  public LinkedList<SearchResult> search(BinaryVector queryVector, int numResults, double minScore) {
+    if (numResults <= 0 || size == 0) {
+      return new LinkedList<SearchResult>();
+    }
+    Query query = new Query(queryVector.getBits(), numResults, maxDistanceAbove(minScore));
+    int subRadius = 0;
+    while (query.maxDistance >= 0) {
+      // After this pass every vector within distance numSubstrings * (subRadius + 1) - 1 is found.
+      if (!probeAll(query, subRadius)) {
+        break;
+      }
+      int coveredDistance = numSubstrings * (subRadius + 1) - 1;
+      if (coveredDistance >= query.maxDistance) {
+        break;
+      }
+      subRadius++;
+    }
+    return query.toResults();
+  }
+
+  /**
+   * Returns all the vectors within this Hamming distance of the query, best first.
+   */
+  public LinkedList<SearchResult> searchRadius(BinaryVector queryVector, int radius) {
+    Query query = new Query(queryVector.getBits(), 0, radius);
+    for (int subRadius = 0; subRadius <= radius / numSubstrings; ++subRadius) {
+      if (!probeAll(query, subRadius)) {
+        break;
+      }
+    }
+    return query.toResults();
+  }
+
+  /**
+   * Returns the largest Hamming distance whose score is above minScore.
+   */
+  public int maxDistanceAbove(double minScore) {
+    // score = 1 - 2 * distance / dimension > minScore  <=>  distance < (1 - minScore) * dimension / 2.
+    double bound = (1 - minScore) * dimension / 2;
+    int distance = (int) Math.ceil(bound) - 1;
+    return Math.min(distance, dimension);
+  }
+
+  private double score(int distance) {
+    return 1 - 2 * (distance / (double) dimension);
+  }
+
+  /**
+   * Looks up all substrings at exactly subRadius from the query's in every table.
+   * If this would take more lookups than there are vectors, verifies all remaining vectors
+   * instead and returns false, since there is nothing more to find.
+   */
+  private boolean probeAll(Query query, int subRadius) {
+    double numProbes = 0;
+    for (int j = 0; j < numSubstrings; ++j) {
+      numProbes += binomial(substringLengths[j], subRadius);
+    }
+    if (numProbes > size || subRadius > 64) {
+      for (int i = 0; i < size; ++i) {
+        query.verify(i);
+      }
+      return false;
+    }
+    for (int j = 0; j < numSubstrings; ++j) {
+      int length = substringLengths[j];
+      if (subRadius > length) {
+        continue;
+      }
+      long querySubstring = substring(query.words, 0, substringStarts[j], length);
+      // Enumerate subsets of subRadius bit positions in increasing order.
+      int[] positions = new int[subRadius];
+      for (int k = 0; k < subRadius; ++k) {
+        positions[k] = k;
+      }
+      while (true) {
+        long key = querySubstring;
+        for (int k = 0; k < subRadius; ++k) {
+          key ^= 1L << positions[k];
+        }
+        lookup(query, j, key);
+        int k = subRadius - 1;
+        while (k >= 0 && positions[k] == length - subRadius + k) {
+          k--;
+        }
+        if (k < 0) {
+          break;
+        }
+        positions[k]++;
+        for (int l = k + 1; l < subRadius; ++l) {
+          positions[l] = positions[l - 1] + 1;
+        }
+      }
+    }
+    return true;
+  }
+
+  /** Verifies every vector whose substring in this table equals key. */
+  private void lookup(Query query, int table, long key) {
+    long[] keys = tableKeys[table];
+    int low = 0, high = size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (keys[mid] < key) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    int[] ordinals = tableOrdinals[table];
+    for (int i = low; i < size && keys[i] == key; ++i) {
+      query.verify(ordinals[i]);
+    }
+  }
+
+  private static double binomial(int n, int k) {
+    if (k < 0 || k > n) return 0;
+    double result = 1;
+    for (int i = 1; i <= k; ++i) {
+      result = result * (n - k + i) / i;
+    }
+    return result;
+  }
+
+  /** Returns the bits [start, start + length) of the vector at offset in words, with length at most 64. */
+  private static long substring(long[] words, int offset, int start, int length) {
+    int word = offset + (start >>> 6);
+    int shift = start & 63;
+    long value = words[word] >>> shift;
+    if (shift + length > 64) {
+      value |= words[word + 1] << (64 - shift);
+    }
+    return length == 64 ? value : value & ((1L << length) - 1);
+  }
+
+  /** Sorts keys in place, applying the same permutation to ordinals. */
+  private static void sort(long[] keys, int[] ordinals, int low, int high) {
+    while (low < high) {
+      long pivot = keys[(low + high) >>> 1];
+      int i = low, j = high;
+      while (i <= j) {
+        while (keys[i] < pivot) i++;
+        while (keys[j] > pivot) j--;
+        if (i <= j) {
+          long key = keys[i];
+          keys[i] = keys[j];
+          keys[j] = key;
+          int ordinal = ordinals[i];
+          ordinals[i] = ordinals[j];
+          ordinals[j] = ordinal;
+          i++;
+          j--;
+        }
+      }
+      // Recurse into the smaller part to bound stack depth.
+      if (j - low < high - i) {
+        sort(keys, ordinals, low, j);
+        low = i;
+      } else {
+        sort(keys, ordinals, i, high);
+        high = j;
+      }
+    }
+  }
+
+  /**
+   * State of a single search: the query, the vectors verified so far and the best results.
+   * For k nearest neighbor searches, maxDistance shrinks as better results are found.
+   */
+  private class Query {
+    final long[] words;
+    final VisitedMarks visited;
+    final TopKCollector topResults;
+    int maxDistance;
+    int[] found = new int[16];
+    int numFound = 0;
+
+    /**
+     * @param numResults the number of results to keep, or 0 to keep all within maxDistance.
+     */
+    Query(long[] words, int numResults, int maxDistance) {
+      this.words = words;
+      this.maxDistance = maxDistance;
+      this.topResults = numResults > 0 ? new TopKCollector(numResults) : null;
+      this.visited = visitedVectors.get();
+      visited.reset(size);
+    }
+
+    void verify(int ordinal) {
+      if (!visited.visit(ordinal)) {
+        return;
+      }
+      int distance = distance(words, ordinal);
+      if (distance > maxDistance) {
+        return;
+      }
+      if (topResults == null) {
+        if (numFound == found.length) {
+          found = Arrays.copyOf(found, 2 * numFound);
+        }
+        found[numFound++] = ordinal;
+        return;
+      }
+      topResults.offer(-distance, ordinal);
+      if (topResults.isFull()) {
+        // Only strictly closer vectors can now improve the results.
+        maxDistance = (int) -topResults.getMinScore() - 1;
+      }
+    }
+
+    LinkedList<SearchResult> toResults() {
+      if (topResults == null) {
+        TopKCollector sorter = new TopKCollector(numFound);
+        for (int i = 0; i < numFound; ++i) {
+          sorter.offer(-distance(words, found[i]), found[i]);
+        }
+        return collectorToResults(sorter);
+      }
+      return collectorToResults(topResults);
+    }
+
+    private LinkedList<SearchResult> collectorToResults(TopKCollector collector) {
+      LinkedList<SearchResult> results = new LinkedList<SearchResult>();
+      int count = collector.sortDescending();
+      for (int i = 0; i < count; ++i) {
+        int ordinal = collector.getOrdinal(i);
+        results.add(new SearchResult(score((int) -collector.getScore(i)), objectVectors[ordinal]));
+      }
+      return results;
+    }
+  }
+
+  /**
+   * Returns the Hamming distance between the query words and the vector with this ordinal,
+   * in a single pass of popcounts over {@code query ^ vector}.
+   */
+  private int distance(long[] words, int ordinal) {
+    int distance = 0;
+    int offset = ordinal * numWords;
+    for (int i = 0; i < numWords; ++i) {
+      distance += Long.bitCount(words[i] ^ codes[offset + i]);
+    }
+    return distance;
+  }
+}
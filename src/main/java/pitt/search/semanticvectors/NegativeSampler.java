@@ -0,0 +1,160 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import pitt.search.semanticvectors.vectors.Vector;
+
+/**
+ * Draws negative samples for embeddings training from a fixed distribution over terms, as in
+ * the skipgram-with-negative-sampling approach of Mikolov et al. (2013). <p>
+ *
+ * Terms are numbered by dense ordinals, and samples are drawn in constant time without
+ * allocation using Vose's alias method: each ordinal i has a probability p[i] of being kept
+ * and an alias a[i] to use otherwise, so a draw takes one uniform ordinal and one coin flip. <p>
+ *
+ * The vector for each term is looked up in the given vector store the first time the term is
+ * sampled and then reused, so later samples of the term need no string-keyed lookup. <p>
+ *
+ * Safe for concurrent use, as long as each thread passes its own {@link Random}.
+ */
+public class NegativeSampler {
+  private final String[] terms;
+  private final double[] keepProbabilities;
+  private final int[] aliases;
+  private final VectorStore vectorStore;
+  /** Vectors looked up so far, by ordinal. */
+  private final AtomicReferenceArray<Vector> vectors;
+
+  private NegativeSampler(String[] terms, double[] keepProbabilities, int[] aliases, VectorStore vectorStore) {
+    this.terms = terms;
+    this.keepProbabilities = keepProbabilities;
+    this.aliases = aliases;
+    this.vectorStore = vectorStore;
+    this.vectors = new AtomicReferenceArray<Vector>(terms.length);
+  }
+
+  /**
+   * Builds a sampler that draws each term with probability proportional to its weight.
+   *
+   * @param terms the terms to sample from; their positions are their ordinals
+   * @param weights nonnegative weights for the terms, e.g., global frequency ^ 0.75
+   * @param vectorStore the store from which {@link #getVector} gets vectors for terms
+   */
+  public static NegativeSampler build(List<String> terms, List<Double> weights, VectorStore vectorStore) {
+    int numTerms = terms.size();
+    if (numTerms == 0 || weights.size() != numTerms) {
+      throw new IllegalArgumentException(
+          "Need the same positive number of terms and weights, not " + numTerms + " and " + weights.size());
+    }
+    double totalWeight = 0;
+    for (double weight : weights) {
+      totalWeight += weight;
+    }
+
+    // Scale weights so that they average 1, then pair each ordinal whose weight is below 1
+    // with one whose weight is above 1, which donates the remainder of the small one's slot.
+    double[] scaled = new double[numTerms];
+    int[] small = new int[numTerms];
+    int[] large = new int[numTerms];
+    int numSmall = 0, numLarge = 0;
+    for (int i = 0; i < numTerms; ++i) {
+      scaled[i] = weights.get(i) * numTerms / totalWeight;
+      if (scaled[i] < 1) {
+        small[numSmall++] = i;
+      } else {
+        large[numLarge++] = i;
+      }
+    }
+    double[] keepProbabilities = new double[numTerms];
+    int[] aliases = new int[numTerms];
+    while (numSmall > 0 && numLarge > 0) {
+      int less = small[--numSmall];
+      int more = large[--numLarge];
+      keepProbabilities[less] = scaled[less];
+      aliases[less] = more;
+      scaled[more] = (scaled[more] + scaled[less]) - 1;
+      if (scaled[more] < 1) {
+        small[numSmall++] = more;
+      } else {
+        large[numLarge++] = more;
+      }
+    }
+    // Whatever is left has weight 1 up to rounding error.
+    while (numLarge > 0) {
+      int more = large[--numLarge];
+      keepProbabilities[more] = 1;
+      aliases[more] = more;
+    }
+    while (numSmall > 0) {
+      int less = small[--numSmall];
+      keepProbabilities[less] = 1;
+      aliases[less] = less;
+    }
+    return new NegativeSampler(terms.toArray(new String[numTerms]), keepProbabilities, aliases, vectorStore);
+  }
+
+  /** Returns the number of terms in the sampler. */
+  public int size() {
+    return terms.length;
+  }
+
+  /** Returns the ordinal of a term drawn at random. */
+  public int sample(Random random) {
+    int ordinal = random.nextInt(terms.length);
+    return random.nextDouble() < keepProbabilities[ordinal] ? ordinal : aliases[ordinal];
+  }
+
+  /** Returns the term with the given ordinal. */
+  public String getTerm(int ordinal) {
+    return terms[ordinal];
+  }
+
+  /**
+   * Returns the vector for the term with the given ordinal, or null if the vector store has none.
+   */
+  public Vector getVector(int ordinal) {
+    Vector vector = vectors.get(ordinal);
+    if (vector == null) {
+      vector = vectorStore.getVector(terms[ordinal]);
+      vectors.set(ordinal, vector);
+    }
+    return vector;
+  }
+}
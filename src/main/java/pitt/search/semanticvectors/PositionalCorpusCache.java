@@ -0,0 +1,456 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+
+import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.BytesRef;
+
+import pitt.search.semanticvectors.utils.VerbatimLogger;
+
+/**
+   Pre-tokenized copy of the positional information in a Lucene index, so that
+   several training cycles, or several runs with different parameters, can read each
+   document as a sequence of terms without rebuilding it from the term vectors. <p>
+
+   The file is written once by {@link #write}, and contains:
+   <ul>
+   <li> A header string, the version of the Lucene index, the term filter settings
+        given by {@link LuceneUtils#getTermFilterSettings()}, and the names of the fields.
+        A cache whose index version or term filter settings differ from the current
+        ones is stale, and is rewritten by {@link TermTermVectorsFromLucene}.</li>
+   <li> For each field of each document that has a term vector, the document number,
+        the field number, and the term ordinals in position order, with the gap from
+        the previous position before each ordinal. All terms are kept, including terms
+        that share a position, and terms outside the vocabulary are dropped as the
+        cache is read.</li>
+   <li> The table of terms, in ordinal order.</li>
+   <li> The offset of the first entry of each document, so that training can start at
+        any document.</li>
+   <li> A footer giving the number of documents and the offsets of the two tables.</li>
+   </ul>
+
+   The file is opened using Lucene's {@link MMapDirectory}, like
+   {@link VectorStoreReaderMapped}. Each call to {@link #read} iterates through its own
+   clone of the mapped input, and returns each sequence as ordinals in the table of terms,
+   so that training can look up its own ordinals and weights for each term once, when the
+   cache is opened, rather than for each occurrence in each cycle.
+
+   @see TermTermVectorsFromLucene
+ **/
+public class PositionalCorpusCache implements Closeable {
+  private static final Logger logger = Logger.getLogger(
+      PositionalCorpusCache.class.getCanonicalName());
+
+  /** Written at the start of each file, and checked when the file is opened. */
+  public static final String HEADER = "semanticvectors-positional-corpus-2";
+  /** Size in bytes of the footer: the number of documents and the two table offsets. */
+  public static final int FOOTER_SIZE = 4 + 8 + 8;
+
+  /**
+   * The terms of one field of one document, in position order. Where two terms share a
+   * position, both are kept, in term order.
+   */
+  public static class TermSequence {
+    public final int docID;
+    public final String field;
+    /** Positions in the document, in ascending order. */
+    public final int[] positions;
+    /** The term at each of the {@link #positions}. */
+    public final String[] terms;
+
+    public TermSequence(int docID, String field, int[] positions, String[] terms) {
+      if (positions.length != terms.length) {
+        throw new IllegalArgumentException(
+            "Got " + positions.length + " positions but " + terms.length + " terms.");
+      }
+      this.docID = docID;
+      this.field = field;
+      this.positions = positions;
+      this.terms = terms;
+    }
+
+    public int size() {
+      return positions.length;
+    }
+  }
+
+  /**
+   * The terms of one field of one document in a corpus cache, in position order, given by
+   * their ordinals in the table of terms; see {@link PositionalCorpusCache#getTerm}.
+   */
+  public static class OrdinalSequence {
+    public final int docID;
+    /** Number of the field in {@link PositionalCorpusCache#getFields}. */
+    public final int fieldIndex;
+    public final String field;
+    /** Positions in the document, in ascending order. */
+    public final int[] positions;
+    /** The ordinal of the term at each of the {@link #positions}. */
+    public final int[] ordinals;
+
+    OrdinalSequence(int docID, int fieldIndex, String field, int[] positions, int[] ordinals) {
+      this.docID = docID;
+      this.fieldIndex = fieldIndex;
+      this.field = field;
+      this.positions = positions;
+      this.ordinals = ordinals;
+    }
+
+    public int size() {
+      return positions.length;
+    }
+  }
+
+  private String fileName;
+  private Directory directory;
+  private IndexInput masterInput;
+  private long indexVersion;
+  private String termFilterSettings;
+  private String[] fields;
+  private String[] dictionary;
+  private int numDocs;
+  private long offsetsOffset;
+
+  /**
+   * Opens a cache written by {@link #write}.
+   *
+   * @param vocabulary if not null, only terms with vectors in this store are returned by
+   *        {@link #read}; other terms are dropped from each sequence.
+   */
+  public PositionalCorpusCache(String fileName, VectorStore vocabulary) throws IOException {
+    File file = new File(fileName);
+    String parentPath = file.getParent();
+    if (parentPath == null) parentPath = "";
+    this.fileName = fileName;
+    this.directory = new MMapDirectory(FileSystems.getDefault().getPath(parentPath));
+    try {
+      this.masterInput = directory.openInput(file.getName(), IOContext.READ);
+      init(vocabulary);
+    } catch (IOException e) {
+      logger.warning("Cannot open corpus cache: " + fileName + "\n" + e.getMessage());
+      close();
+      throw e;
+    }
+  }
+
+  private void init(VectorStore vocabulary) throws IOException {
+    String header = masterInput.readString();
+    if (!header.equals(HEADER)) {
+      throw new IOException("Not a corpus cache written by this version: " + fileName);
+    }
+    indexVersion = masterInput.readLong();
+    termFilterSettings = masterInput.readString();
+    fields = new String[masterInput.readVInt()];
+    for (int i = 0; i < fields.length; ++i) {
+      fields[i] = masterInput.readString();
+    }
+
+    masterInput.seek(masterInput.length() - FOOTER_SIZE);
+    numDocs = masterInput.readInt();
+    long dictionaryOffset = masterInput.readLong();
+    offsetsOffset = masterInput.readLong();
+
+    masterInput.seek(dictionaryOffset);
+    dictionary = new String[masterInput.readVInt()];
+    int numInVocabulary = 0;
+    for (int i = 0; i < dictionary.length; ++i) {
+      String term = masterInput.readString();
+      if (vocabulary == null || vocabulary.containsVector(term)) {
+        dictionary[i] = term;
+        ++numInVocabulary;
+      }
+    }
+    VerbatimLogger.info("Opened corpus cache " + fileName + " with " + numDocs + " documents and "
+        + numInVocabulary + " of " + dictionary.length + " terms in the vocabulary.\n");
+  }
+
+  /** Returns the number of documents in the index the cache was written from. */
+  public int getNumDocs() {
+    return numDocs;
+  }
+
+  /** Returns the version of the Lucene index the cache was written from. */
+  public long getIndexVersion() {
+    return indexVersion;
+  }
+
+  /** Returns the term filter settings the cache was written with. */
+  public String getTermFilterSettings() {
+    return termFilterSettings;
+  }
+
+  /** Returns the names of the fields in the cache. */
+  public String[] getFields() {
+    return fields.clone();
+  }
+
+  /** Returns the number of terms in the table of terms, including terms outside the vocabulary. */
+  public int getNumTerms() {
+    return dictionary.length;
+  }
+
+  /**
+   * Returns the term with the given ordinal, or null if the term is outside the vocabulary
+   * the cache was opened with. Ordinals of such terms are never returned by {@link #read}.
+   */
+  public String getTerm(int ordinal) {
+    return dictionary[ordinal];
+  }
+
+  /**
+   * Returns the term sequences for documents from {@code startDoc} (inclusive) to
+   * {@code stopDoc} (exclusive), in document order.
+   *
+   * @throws IllegalStateException from the iterator if the file cannot be read
+   */
+  public Iterator<OrdinalSequence> read(int startDoc, int stopDoc) throws IOException {
+    if (startDoc < 0 || startDoc > stopDoc || stopDoc > numDocs) {
+      throw new IndexOutOfBoundsException(
+          "Cannot read documents " + startDoc + " to " + stopDoc + " of " + numDocs);
+    }
+    IndexInput input = masterInput.clone();
+    input.seek(offsetsOffset + 8L * stopDoc);
+    long end = input.readLong();
+    input.seek(offsetsOffset + 8L * startDoc);
+    input.seek(input.readLong());
+    return new SequenceIterator(input, end);
+  }
+
+  private class SequenceIterator implements Iterator<OrdinalSequence> {
+    private final IndexInput input;
+    private final long end;
+
+    SequenceIterator(IndexInput input, long end) {
+      this.input = input;
+      this.end = end;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return input.getFilePointer() < end;
+    }
+
+    @Override
+    public OrdinalSequence next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      try {
+        int docID = input.readVInt();
+        int fieldIndex = input.readVInt();
+        int length = input.readVInt();
+        int[] positions = new int[length];
+        int[] ordinals = new int[length];
+        int position = 0;
+        int size = 0;
+        for (int i = 0; i < length; ++i) {
+          position += input.readVInt();
+          int ordinal = input.readVInt();
+          if (dictionary[ordinal] != null) {
+            positions[size] = position;
+            ordinals[size] = ordinal;
+            ++size;
+          }
+        }
+        if (size < length) {
+          positions = Arrays.copyOf(positions, size);
+          ordinals = Arrays.copyOf(ordinals, size);
+        }
+        return new OrdinalSequence(docID, fieldIndex, fields[fieldIndex], positions, ordinals);
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to read corpus cache " + fileName, e);
+      }
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      if (masterInput != null) masterInput.close();
+      directory.close();
+    } catch (IOException e) {
+      logger.severe("Failed to close() mapped resources for: " + fileName);
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Reads the terms in a Lucene term vector into a sequence in position order.
+   *
+   * @param vocabulary if not null, terms without vectors in this store are left out
+   */
+  public static TermSequence readTermVector(
+      int docID, String field, Terms termVector, VectorStore vocabulary) throws IOException {
+    ArrayList<String> terms = new ArrayList<String>();
+    int[] positions = new int[16];
+    TermsEnum termsEnum = termVector.iterator(null);
+    BytesRef text;
+    while ((text = termsEnum.next()) != null) {
+      String theTerm = text.utf8ToString();
+      if (vocabulary != null && !vocabulary.containsVector(theTerm)) continue;
+
+      DocsAndPositionsEnum docsAndPositions = termsEnum.docsAndPositions(null, null);
+      if (docsAndPositions == null) continue;
+      docsAndPositions.nextDoc();
+
+      int freq = docsAndPositions.freq();
+      for (int x = 0; x < freq; x++) {
+        if (terms.size() == positions.length) {
+          positions = Arrays.copyOf(positions, 2 * positions.length);
+        }
+        positions[terms.size()] = docsAndPositions.nextPosition();
+        terms.add(theTerm);
+      }
+    }
+
+    // Sort by position, keeping the index of each term in the low bits.
+    long[] sortKeys = new long[terms.size()];
+    for (int i = 0; i < sortKeys.length; ++i) {
+      sortKeys[i] = ((long) positions[i] << 32) | i;
+    }
+    Arrays.sort(sortKeys);
+    int[] sortedPositions = new int[sortKeys.length];
+    String[] sortedTerms = new String[sortKeys.length];
+    for (int i = 0; i < sortKeys.length; ++i) {
+      sortedPositions[i] = (int) (sortKeys[i] >>> 32);
+      sortedTerms[i] = terms.get((int) sortKeys[i]);
+    }
+    return new TermSequence(docID, field, sortedPositions, sortedTerms);
+  }
+
+  /**
+   * Writes the term vectors of the given fields of all documents in the Lucene index
+   * to a new corpus cache. The file is written under a temporary name and then renamed,
+   * so an interrupted write does not leave a truncated cache.
+   */
+  public static void write(LuceneUtils luceneUtils, String[] fields, String fileName)
+      throws IOException {
+    File file = new File(fileName);
+    String parentPath = file.getParent();
+    if (parentPath == null) parentPath = "";
+    Path parent = FileSystems.getDefault().getPath(parentPath);
+    String tempName = file.getName() + ".tmp";
+    int numDocs = luceneUtils.getNumDocs();
+    int numSequences = 0;
+    long numTokens = 0;
+    double time = System.currentTimeMillis();
+    VerbatimLogger.info("Writing corpus cache " + fileName + " for " + numDocs + " documents ... ");
+
+    try (FSDirectory fsDirectory = FSDirectory.open(parent);
+        IndexOutput output = fsDirectory.createOutput(tempName, IOContext.DEFAULT)) {
+      output.writeString(HEADER);
+      output.writeLong(luceneUtils.getIndexVersion());
+      output.writeString(luceneUtils.getTermFilterSettings());
+      output.writeVInt(fields.length);
+      for (String field : fields) {
+        output.writeString(field);
+      }
+
+      HashMap<String, Integer> ordinals = new HashMap<String, Integer>();
+      ArrayList<String> dictionary = new ArrayList<String>();
+      long[] docOffsets = new long[numDocs + 1];
+      for (int doc = 0; doc < numDocs; ++doc) {
+        docOffsets[doc] = output.getFilePointer();
+        for (int fieldIndex = 0; fieldIndex < fields.length; ++fieldIndex) {
+          Terms termVector = luceneUtils.getTermVector(doc, fields[fieldIndex]);
+          if (termVector == null) continue;
+          TermSequence sequence = readTermVector(doc, fields[fieldIndex], termVector, null);
+          output.writeVInt(doc);
+          output.writeVInt(fieldIndex);
+          output.writeVInt(sequence.size());
+          int previousPosition = 0;
+          for (int i = 0; i < sequence.size(); ++i) {
+            Integer ordinal = ordinals.get(sequence.terms[i]);
+            if (ordinal == null) {
+              ordinal = dictionary.size();
+              ordinals.put(sequence.terms[i], ordinal);
+              dictionary.add(sequence.terms[i]);
+            }
+            output.writeVInt(sequence.positions[i] - previousPosition);
+            output.writeVInt(ordinal);
+            previousPosition = sequence.positions[i];
+          }
+          ++numSequences;
+          numTokens += sequence.size();
+        }
+      }
+      docOffsets[numDocs] = output.getFilePointer();
+
+      long dictionaryOffset = output.getFilePointer();
+      output.writeVInt(dictionary.size());
+      for (String term : dictionary) {
+        output.writeString(term);
+      }
+      long offsetsOffset = output.getFilePointer();
+      for (long docOffset : docOffsets) {
+        output.writeLong(docOffset);
+      }
+      output.writeInt(numDocs);
+      output.writeLong(dictionaryOffset);
+      output.writeLong(offsetsOffset);
+    }
+    Files.move(parent.resolve(tempName), parent.resolve(file.getName()),
+        StandardCopyOption.REPLACE_EXISTING);
+
+    VerbatimLogger.info("wrote " + numTokens + " tokens in " + numSequences + " fields in "
+        + ((System.currentTimeMillis() - time) / 1000) + " seconds.\n");
+  }
+}
@@ -0,0 +1,554 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
+import java.util.WeakHashMap;
+import java.util.logging.Logger;
+
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+
+import pitt.search.semanticvectors.utils.TopKCollector;
+import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.vectors.RealVector;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+/**
+ * Product-quantized copy of a store of real vectors, for searching stores too large to hold
+ * in memory. Each vector is normalized and split into {@link FlagConfig#pqsubspaces()}
+ * subspaces, and each subvector is replaced by the one-byte number of its nearest centroid
+ * in a codebook trained for that subspace, so a 512-dimensional vector takes 8 bytes with the
+ * default of 8 subspaces.
+ *
+ * <p>
+ * Searches use asymmetric distance computation: the query is not quantized, and the products
+ * of each query subvector with every centroid in its subspace are computed once per query,
+ * so that the score of each stored vector is a sum of {@link FlagConfig#pqsubspaces()} table
+ * lookups. Since the stored vectors are normalized, this approximates cosine similarity.
+ * If {@link FlagConfig#pqrerank()} is set, that many of the top candidates are rescored
+ * exactly using vectors read from the original store.
+ *
+ * <p>
+ * When {@link FlagConfig#pqsearch()} is set, {@link VectorSearcher.VectorSearcherCosine} uses
+ * the file named by {@link #getStoreFileName} next to the search vector store in place of
+ * exhaustive search.
+ */
+public class ProductQuantizedStore {
+  private static final Logger logger = Logger.getLogger(ProductQuantizedStore.class.getCanonicalName());
+
+  public static String usageMessage = "ProductQuantizedStore class in pitt.search.semanticvectors"
+      + "\nUsage: java pitt.search.semanticvectors.ProductQuantizedStore [-pqsubspaces NUM] STOREFILE"
+      + "\nWrites a product-quantized copy STOREFILE" + ProductQuantizedStore.SUFFIX
+      + " of a store of real vectors.";
+
+  /** Suffix appended to the vector store file name to get the quantized store file name. */
+  public static final String SUFFIX = ".pq";
+
+  /** Maximum number of centroids per subspace, so that codes fit in a byte. */
+  public static final int MAX_CENTROIDS = 256;
+
+  /** Number of vectors per centroid sampled for training codebooks. */
+  public static final int TRAINING_SAMPLE_PER_CENTROID = 64;
+
+  /** Maximum number of k-means passes when training each codebook. */
+  public static final int MAX_KMEANS_ITERATIONS = 25;
+
+  /** Loaded stores, so that repeated searches of one store only read its quantized copy once. */
+  private static final Map<VectorStore, ProductQuantizedStore> attachedStores = new WeakHashMap<>();
+
+  private final int dimension;
+  private final int numSubspaces;
+  private final int numCentroids;
+  /** Start of each subspace, with the dimension appended. */
+  private final int[] subspaceStarts;
+  /** For each subspace, numCentroids centroids of the subspace's length, one after another. */
+  private final float[][] codebooks;
+  private final String[] objects;
+  /** Codes for each vector, numSubspaces bytes per vector. */
+  private final byte[] codes;
+
+  private ProductQuantizedStore(
+      int dimension, int numCentroids, float[][] codebooks, String[] objects, byte[] codes) {
+    this.dimension = dimension;
+    this.numSubspaces = codebooks.length;
+    this.numCentroids = numCentroids;
+    this.subspaceStarts = getSubspaceStarts(dimension, numSubspaces);
+    this.codebooks = codebooks;
+    this.objects = objects;
+    this.codes = codes;
+  }
+
+  /** Returns the name of the quantized store file for the given vector store file. */
+  public static String getStoreFileName(String vectorFileName) {
+    return vectorFileName + SUFFIX;
+  }
+
+  /** Returns the number of vectors in the store. */
+  public int getNumVectors() {
+    return objects.length;
+  }
+
+  /** Returns the number of subspaces, which is the number of bytes stored for each vector. */
+  public int getNumSubspaces() {
+    return numSubspaces;
+  }
+
+  /** Returns the number of centroids in each subspace's codebook. */
+  public int getNumCentroids() {
+    return numCentroids;
+  }
+
+  private static int[] getSubspaceStarts(int dimension, int numSubspaces) {
+    int[] starts = new int[numSubspaces + 1];
+    for (int j = 0; j <= numSubspaces; ++j) {
+      starts[j] = (int) ((long) j * dimension / numSubspaces);
+    }
+    return starts;
+  }
+
+  /** Returns the coordinates of the given vector scaled to unit length, or zeros for a zero vector. */
+  private static float[] getNormalizedCoordinates(Vector vector) {
+    float[] coordinates = ((RealVector) vector).getCoordinates().clone();
+    double norm = 0;
+    for (float coordinate : coordinates) {
+      norm += coordinate * coordinate;
+    }
+    if (norm > 0) {
+      float scale = (float) (1 / Math.sqrt(norm));
+      for (int i = 0; i < coordinates.length; ++i) {
+        coordinates[i] *= scale;
+      }
+    }
+    return coordinates;
+  }
+
+  /**
+   * Builds a quantized copy of all the vectors in the store, with {@link FlagConfig#pqsubspaces()}
+   * subspaces. Codebooks are trained on a sample of {@link #TRAINING_SAMPLE_PER_CENTROID}
+   * vectors per centroid, and the store is then read again to encode every vector.
+   * @throws IllegalArgumentException if the store does not contain real vectors.
+   */
+  public static ProductQuantizedStore build(VectorStore vectorStore, FlagConfig flagConfig) {
+    if (flagConfig.vectortype() != VectorType.REAL) {
+      throw new IllegalArgumentException(
+          "Product quantization is only supported for real vectors, not " + flagConfig.vectortype());
+    }
+    int dimension = flagConfig.dimension();
+    int numSubspaces = flagConfig.pqsubspaces();
+    if (numSubspaces < 1 || numSubspaces > dimension) {
+      throw new IllegalArgumentException("Number of subspaces must be between 1 and the dimension "
+          + dimension + ", not " + numSubspaces);
+    }
+    int[] subspaceStarts = getSubspaceStarts(dimension, numSubspaces);
+
+    // Reservoir sample of the training vectors. This pass also counts the vectors, since
+    // getNumVectors may itself read through the store.
+    Random random = new Random(0);
+    float[][] sample = new float[MAX_CENTROIDS * TRAINING_SAMPLE_PER_CENTROID][];
+    int seen = 0;
+    Enumeration<ObjectVector> vecEnum = vectorStore.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      Vector vector = vecEnum.nextElement().getVector();
+      int slot = seen < sample.length ? seen : random.nextInt(seen + 1);
+      if (slot < sample.length) {
+        sample[slot] = getNormalizedCoordinates(vector);
+      }
+      seen++;
+    }
+    if (seen < sample.length) {
+      float[][] shortSample = new float[seen][];
+      System.arraycopy(sample, 0, shortSample, 0, seen);
+      sample = shortSample;
+    }
+    int numCentroids = Math.max(1, Math.min(MAX_CENTROIDS, sample.length));
+
+    VerbatimLogger.info("Training " + numSubspaces + " codebooks of " + numCentroids
+        + " centroids on " + sample.length + " vectors ...\n");
+    float[][] codebooks = new float[numSubspaces][];
+    for (int j = 0; j < numSubspaces; ++j) {
+      codebooks[j] = trainCodebook(sample, subspaceStarts[j], subspaceStarts[j + 1] - subspaceStarts[j],
+          numCentroids, random);
+    }
+
+    VerbatimLogger.info("Encoding " + seen + " vectors ...\n");
+    String[] objects = new String[seen];
+    byte[] codes = new byte[objects.length * numSubspaces];
+    int count = 0;
+    vecEnum = vectorStore.getAllVectors();
+    while (vecEnum.hasMoreElements() && count < objects.length) {
+      ObjectVector objectVector = vecEnum.nextElement();
+      objects[count] = objectVector.getObject().toString();
+      float[] coordinates = getNormalizedCoordinates(objectVector.getVector());
+      for (int j = 0; j < numSubspaces; ++j) {
+        codes[count * numSubspaces + j] = (byte) getNearestCentroid(codebooks[j], numCentroids,
+            coordinates, subspaceStarts[j], subspaceStarts[j + 1] - subspaceStarts[j]);
+      }
+      count++;
+    }
+    return new ProductQuantizedStore(dimension, numCentroids, codebooks, objects, codes);
+  }
+
+  /**
+   * Trains a codebook for the given subspace of the sample vectors using k-means with
+   * Euclidean distance. Centroids that lose all their members are moved to a random sample vector.
+   */
+  private static float[] trainCodebook(
+      float[][] sample, int start, int length, int numCentroids, Random random) {
+    float[] centroids = new float[numCentroids * length];
+    // Partial Fisher-Yates shuffle to pick distinct initial centroids.
+    int[] order = new int[sample.length];
+    for (int i = 0; i < order.length; ++i) {
+      order[i] = i;
+    }
+    for (int c = 0; c < numCentroids; ++c) {
+      int i = c + random.nextInt(order.length - c);
+      int swap = order[c];
+      order[c] = order[i];
+      order[i] = swap;
+      System.arraycopy(sample[order[c]], start, centroids, c * length, length);
+    }
+
+    int[] assignments = new int[sample.length];
+    double[] sums = new double[numCentroids * length];
+    int[] counts = new int[numCentroids];
+    for (int iteration = 0; iteration < MAX_KMEANS_ITERATIONS; ++iteration) {
+      boolean changed = false;
+      for (int i = 0; i < sample.length; ++i) {
+        int nearest = getNearestCentroid(centroids, numCentroids, sample[i], start, length);
+        if (iteration == 0 || nearest != assignments[i]) {
+          assignments[i] = nearest;
+          changed = true;
+        }
+      }
+      if (!changed) {
+        break;
+      }
+      Arrays.fill(sums, 0);
+      Arrays.fill(counts, 0);
+      for (int i = 0; i < sample.length; ++i) {
+        int offset = assignments[i] * length;
+        for (int t = 0; t < length; ++t) {
+          sums[offset + t] += sample[i][start + t];
+        }
+        counts[assignments[i]]++;
+      }
+      for (int c = 0; c < numCentroids; ++c) {
+        if (counts[c] == 0) {
+          System.arraycopy(sample[random.nextInt(sample.length)], start, centroids, c * length, length);
+          continue;
+        }
+        for (int t = 0; t < length; ++t) {
+          centroids[c * length + t] = (float) (sums[c * length + t] / counts[c]);
+        }
+      }
+    }
+    return centroids;
+  }
+
+  /** Returns the centroid nearest in Euclidean distance to the given subvector. */
+  private static int getNearestCentroid(
+      float[] centroids, int numCentroids, float[] coordinates, int start, int length) {
+    int nearest = 0;
+    double nearestDistance = Double.MAX_VALUE;
+    for (int c = 0; c < numCentroids; ++c) {
+      double distance = 0;
+      int offset = c * length;
+      for (int t = 0; t < length; ++t) {
+        double difference = coordinates[start + t] - centroids[offset + t];
+        distance += difference * difference;
+      }
+      if (distance < nearestDistance) {
+        nearestDistance = distance;
+        nearest = c;
+      }
+    }
+    return nearest;
+  }
+
+  /**
+   * Returns the lookup table for a normalized query: for each subspace, the products of
+   * the query subvector with each centroid, numCentroids entries per subspace.
+   */
+  private float[] computeLookupTable(float[] query) {
+    float[] table = new float[numSubspaces * numCentroids];
+    for (int j = 0; j < numSubspaces; ++j) {
+      int start = subspaceStarts[j];
+      int length = subspaceStarts[j + 1] - start;
+      float[] codebook = codebooks[j];
+      for (int c = 0; c < numCentroids; ++c) {
+        float product = 0;
+        int offset = c * length;
+        for (int t = 0; t < length; ++t) {
+          product += query[start + t] * codebook[offset + t];
+        }
+        table[j * numCentroids + c] = product;
+      }
+    }
+    return table;
+  }
+
+  /** Returns the approximate vector for the given stored vector, from its centroids. */
+  public RealVector decode(int ordinal) {
+    float[] coordinates = new float[dimension];
+    for (int j = 0; j < numSubspaces; ++j) {
+      int start = subspaceStarts[j];
+      int length = subspaceStarts[j + 1] - start;
+      int centroid = codes[ordinal * numSubspaces + j] & 0xFF;
+      System.arraycopy(codebooks[j], centroid * length, coordinates, start, length);
+    }
+    return new RealVector(coordinates);
+  }
+
+  /**
+   * Returns up to numResults vectors with the highest approximate cosine similarity to the
+   * query vector, and score greater than minScore.
+   *
+   * <p>
+   * If numRerank is greater than numResults and originalStore is not null, the top numRerank
+   * approximate results are rescored exactly with {@link Vector#measureOverlap} against vectors
+   * read from originalStore, and the results have the original vectors. Otherwise results have
+   * vectors decoded from the quantized store and approximate scores.
+   */
+  public LinkedList<SearchResult> search(
+      Vector queryVector, int numResults, int numRerank, VectorStore originalStore, double minScore) {
+    boolean rerank = originalStore != null && numRerank > numResults;
+    int numCandidates = rerank ? numRerank : numResults;
+    float[] table = computeLookupTable(getNormalizedCoordinates(queryVector));
+
+    TopKCollector candidates = new TopKCollector(Math.max(numCandidates, 1));
+    for (int i = 0, offset = 0; i < objects.length; ++i, offset += numSubspaces) {
+      float score = 0;
+      for (int j = 0, tableOffset = 0; j < numSubspaces; ++j, tableOffset += numCentroids) {
+        score += table[tableOffset + (codes[offset + j] & 0xFF)];
+      }
+      if (candidates.wouldAccept(score)) {
+        candidates.offer(score, i);
+      }
+    }
+    int numFound = candidates.sortDescending();
+
+    LinkedList<SearchResult> results = new LinkedList<SearchResult>();
+    if (!rerank) {
+      for (int i = 0; i < numFound && candidates.getScore(i) > minScore; ++i) {
+        int ordinal = candidates.getOrdinal(i);
+        results.add(new SearchResult(candidates.getScore(i),
+            new ObjectVector(objects[ordinal], decode(ordinal))));
+      }
+      return results;
+    }
+
+    TopKCollector reranked = new TopKCollector(Math.max(numResults, 1));
+    Vector[] originalVectors = new Vector[numFound];
+    for (int i = 0; i < numFound; ++i) {
+      originalVectors[i] = originalStore.getVector(objects[candidates.getOrdinal(i)]);
+      if (originalVectors[i] != null) {
+        reranked.offer(queryVector.measureOverlap(originalVectors[i]), i);
+      }
+    }
+    int numReranked = reranked.sortDescending();
+    for (int i = 0; i < numReranked && reranked.getScore(i) > minScore; ++i) {
+      int candidate = reranked.getOrdinal(i);
+      results.add(new SearchResult(reranked.getScore(i), new ObjectVector(
+          objects[candidates.getOrdinal(candidate)], originalVectors[candidate])));
+    }
+    return results;
+  }
+
+  /**
+   * Returns the store itself if the top candidates of a search can be reranked with vectors
+   * looked up from it, otherwise logs a warning and returns null. Looking up a vector in a
+   * {@link VectorStoreReaderText}, or in a {@link VectorStoreReaderLucene} without an offset
+   * index (see {@link FlagConfig#vectorstoreindex()}), reads through the store, which would
+   * make reranking slower than exhaustive search.
+   */
+  public static VectorStore getRerankStore(VectorStore searchVecStore) {
+    if (searchVecStore instanceof VectorStoreReaderText
+        || (searchVecStore instanceof VectorStoreReaderLucene
+            && ((VectorStoreReaderLucene) searchVecStore).getOffsetIndex() == null)) {
+      logger.warning("Search store has no random access, so product-quantized results are not reranked."
+          + " Use -vectorstoreindex to rerank from Lucene stores.");
+      return null;
+    }
+    return searchVecStore;
+  }
+
+  /**
+   * Returns the quantized store saved next to the file of the given store, see
+   * {@link VectorStoreUtils#getSearchStoreFileName}. Returns null, so that the caller falls
+   * back to exhaustive search, if there is no such file or if it does not hold the same number
+   * of vectors as the store.
+   * Stores are cached for each search store, so this is cheap after the first call.
+   */
+  public static synchronized ProductQuantizedStore getStoreForSearch(
+      VectorStore searchVecStore, FlagConfig flagConfig) {
+    if (attachedStores.containsKey(searchVecStore)) {
+      return attachedStores.get(searchVecStore);
+    }
+    String searchFileName = VectorStoreUtils.getSearchStoreFileName(searchVecStore, flagConfig);
+    if (searchFileName == null) {
+      logger.warning("No product-quantized store for expanded search space, falling back to exhaustive search.");
+      return null;
+    }
+    String storeFileName = getStoreFileName(searchFileName);
+    if (!new File(storeFileName).isFile()) {
+      logger.warning("No product-quantized store " + storeFileName + ", falling back to exhaustive search.");
+      return null;
+    }
+    ProductQuantizedStore store;
+    try {
+      store = readFromFile(storeFileName, flagConfig);
+    } catch (IOException e) {
+      logger.warning("Failed to read product-quantized store " + storeFileName + ": " + e.getMessage()
+          + "\nFalling back to exhaustive search.");
+      return null;
+    }
+    if (store.getNumVectors() != searchVecStore.getNumVectors()) {
+      logger.warning("Product-quantized store " + storeFileName + " has " + store.getNumVectors()
+          + " vectors but the search store has " + searchVecStore.getNumVectors()
+          + ".\nFalling back to exhaustive search.");
+      store = null;
+    }
+    attachedStores.put(searchVecStore, store);
+    return store;
+  }
+
+  /**
+   * Writes this store to the given output.
+   * Caller is responsible for opening and closing the output stream.
+   */
+  public void writeToIndexOutput(IndexOutput outputStream, FlagConfig flagConfig) throws IOException {
+    outputStream.writeString(VectorStoreWriter.generateHeaderString(flagConfig));
+    outputStream.writeInt(numSubspaces);
+    outputStream.writeInt(numCentroids);
+    for (float[] codebook : codebooks) {
+      for (float value : codebook) {
+        outputStream.writeInt(Float.floatToIntBits(value));
+      }
+    }
+    outputStream.writeVInt(objects.length);
+    for (int i = 0; i < objects.length; ++i) {
+      outputStream.writeString(objects[i]);
+      outputStream.writeBytes(codes, i * numSubspaces, numSubspaces);
+    }
+  }
+
+  /** Reads a store previously written by {@link #writeToIndexOutput}. */
+  public static ProductQuantizedStore readFromIndexInput(IndexInput indexInput, FlagConfig flagConfig)
+      throws IOException {
+    FlagConfig.mergeWriteableFlagsFromString(indexInput.readString(), flagConfig);
+    int dimension = flagConfig.dimension();
+    int numSubspaces = indexInput.readInt();
+    int numCentroids = indexInput.readInt();
+    int[] subspaceStarts = getSubspaceStarts(dimension, numSubspaces);
+    float[][] codebooks = new float[numSubspaces][];
+    for (int j = 0; j < numSubspaces; ++j) {
+      codebooks[j] = new float[numCentroids * (subspaceStarts[j + 1] - subspaceStarts[j])];
+      for (int i = 0; i < codebooks[j].length; ++i) {
+        codebooks[j][i] = Float.intBitsToFloat(indexInput.readInt());
+      }
+    }
+    String[] objects = new String[indexInput.readVInt()];
+    byte[] codes = new byte[objects.length * numSubspaces];
+    for (int i = 0; i < objects.length; ++i) {
+      objects[i] = indexInput.readString();
+      indexInput.readBytes(codes, i * numSubspaces, numSubspaces);
+    }
+    return new ProductQuantizedStore(dimension, numCentroids, codebooks, objects, codes);
+  }
+
+  /** Reads a store from the given file. */
+  public static ProductQuantizedStore readFromFile(String storeFileName, FlagConfig flagConfig)
+      throws IOException {
+    File storeFile = new File(storeFileName);
+    String parentPath = storeFile.getParent();
+    if (parentPath == null) parentPath = "";
+    FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    IndexInput indexInput = fsDirectory.openInput(storeFile.getName(), IOContext.READONCE);
+    try {
+      return readFromIndexInput(indexInput, flagConfig);
+    } finally {
+      indexInput.close();
+      fsDirectory.close();
+    }
+  }
+
+  /** Writes this store to the given file. */
+  public void writeToFile(String storeFileName, FlagConfig flagConfig) throws IOException {
+    File storeFile = new File(storeFileName);
+    String parentPath = storeFile.getParent();
+    if (parentPath == null) parentPath = "";
+    FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    IndexOutput outputStream = fsDirectory.createOutput(storeFile.getName(), IOContext.DEFAULT);
+    writeToIndexOutput(outputStream, flagConfig);
+    outputStream.close();
+    fsDirectory.close();
+  }
+
+  /**
+   * Command line method for building quantized stores. The vector store is read from disk
+   * rather than into memory, so that stores too large for memory can be quantized.
+   * @see #usageMessage
+   */
+  public static void main(String[] args) throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(args);
+    if (flagConfig.remainingArgs.length != 1) {
+      System.err.println(usageMessage);
+      throw new IllegalArgumentException();
+    }
+    String vectorFileName = VectorStoreUtils.getStoreFileName(flagConfig.remainingArgs[0], flagConfig);
+    CloseableVectorStore vectorStore = VectorStoreReader.openVectorStore(vectorFileName, flagConfig);
+    try {
+      ProductQuantizedStore store = build(vectorStore, flagConfig);
+      String storeFileName = getStoreFileName(vectorFileName);
+      store.writeToFile(storeFileName, flagConfig);
+      VerbatimLogger.info("Wrote " + store.getNumVectors() + " vectors with " + store.getNumSubspaces()
+          + " bytes each to " + storeFileName + "\n");
+    } finally {
+      vectorStore.close();
+    }
+  }
+}
@@ -182,7 +182,6 @@ public class Search {
     PROXIMITY
   }
 
-  private static LuceneUtils luceneUtils;
 
   public static String usageMessage = "\nSearch class in package pitt.search.semanticvectors"
       + "\nUsage: java pitt.search.semanticvectors.Search [-queryvectorfile query_vector_file]"
@@ -221,21 +220,71 @@ public class Search {
       throw new IllegalArgumentException("No query terms left after flag parsing!");
     }
 
-    String[] queryArgs = flagConfig.remainingArgs;
+    SearchStores stores = openSearchStores(flagConfig, false);
+    LinkedList<SearchResult> results = runSearch(flagConfig, flagConfig.remainingArgs, stores);
 
+    // Optional: Release filesystem resources. Temporarily removed because of errors in
+    // ThreadSafetyTest.
+    //
+    // This was not the cleanest control flow anyway, since these are
+    // opened in runSearch but also needed in getSearchResultsVectors.
+    // Really there should be a global variable for indexformat (text
+    // or lucene), and general "openIndexes" and "closeIndexes" methods.
+    stores.close();
+
+    return results;
+  }
+
+  /**
+   * The vector stores and Lucene utilities needed for searching, opened once using
+   * {@link #openSearchStores} and then usable for any number of searches, e.g., by a
+   * {@link SearchServer}.
+   */
+  public static class SearchStores {
     /** Principal vector store for finding query vectors. */
-    CloseableVectorStore queryVecReader = null;
+    VectorStore queryVecReader = null;
     /** Auxiliary vector store used when searching for boundproducts. Used only in some searchtypes. */
-    CloseableVectorStore boundVecReader = null;
+    VectorStore boundVecReader = null;
 
     /** Auxiliary vector stores used when searching for boundproducts. Used only in some searchtypes. */
-    CloseableVectorStore elementalVecReader = null, semanticVecReader = null, predicateVecReader = null;
+    VectorStore elementalVecReader = null, semanticVecReader = null, predicateVecReader = null;
 
     /**
      * Vector store for searching. Defaults to being the same as queryVecReader.
      * May be different from queryVecReader, e.g., when using terms to search for documents.
      */
-    CloseableVectorStore searchVecReader = null;
+    VectorStore searchVecReader = null;
+
+    /** Lucene utilities for term weighting, or null if there is no Lucene index. */
+    LuceneUtils luceneUtils = null;
+
+    /** Releases filesystem resources held by the query, search and bound vector stores. */
+    public void close() {
+      closeIfCloseable(queryVecReader);
+      if (searchVecReader != queryVecReader) {
+        closeIfCloseable(searchVecReader);
+      }
+      closeIfCloseable(boundVecReader);
+    }
+
+    private static void closeIfCloseable(VectorStore store) {
+      if (store instanceof CloseableVectorStore) {
+        ((CloseableVectorStore) store).close();
+      }
+    }
+  }
+
+  /**
+   * Opens the vector stores named in flagConfig, and the Lucene index if there is one.
+   * Dimension and vector type from the stores on disk may overwrite values in flagConfig.
+   *
+   * @param flagConfig configuration giving the store files to open
+   * @param inMemory if true, stores that are not memory mapped are read into a {@link VectorStoreRAM},
+   *        or a {@link VectorStoreSlab} if {@link FlagConfig#offheapvectors()} is set,
+   *        so that they can be searched repeatedly without rereading them from disk
+   */
+  public static SearchStores openSearchStores(FlagConfig flagConfig, boolean inMemory) {
+    SearchStores stores = new SearchStores();
 
     // Stage ii. Open vector stores, and Lucene utils.
     try {
@@ -246,46 +295,46 @@ public class Search {
         VerbatimLogger.info("Opening query vector store from file: " + flagConfig.queryvectorfile() + "\n");
         if (flagConfig.elementalvectorfile().equals("deterministic"))
         {
-          if (flagConfig.elementalmethod().equals(ElementalGenerationMethod.ORTHOGRAPHIC)) elementalVecReader = new VectorStoreOrthographical(flagConfig);
-          else if (flagConfig.elementalmethod().equals(ElementalGenerationMethod.CONTENTHASH)) elementalVecReader = new VectorStoreDeterministic(flagConfig);
+          if (flagConfig.elementalmethod().equals(ElementalGenerationMethod.ORTHOGRAPHIC)) stores.elementalVecReader = new VectorStoreOrthographical(flagConfig);
+          else if (flagConfig.elementalmethod().equals(ElementalGenerationMethod.CONTENTHASH)) stores.elementalVecReader = new VectorStoreDeterministic(flagConfig);
           else VerbatimLogger.info("Please select either -elementalmethod orthographic OR -elementalmethod contenthash depending upon the deterministic approach you would like used.");
         }
-        else elementalVecReader = VectorStoreReader.openVectorStore(flagConfig.elementalvectorfile(), flagConfig);
+        else stores.elementalVecReader = openVectorStore(flagConfig.elementalvectorfile(), flagConfig, inMemory);
 
         VerbatimLogger.info("Opening elemental query vector store from file: " + flagConfig.elementalvectorfile() + "\n");
         VerbatimLogger.info("Opening semantic query vector store from file: " + flagConfig.semanticvectorfile() + "\n");
         VerbatimLogger.info("Opening predicate query vector store from file: " + flagConfig.elementalpredicatevectorfile() + "\n");
 
-        semanticVecReader = VectorStoreReader.openVectorStore(flagConfig.semanticvectorfile(), flagConfig);
-        predicateVecReader = VectorStoreReader.openVectorStore(flagConfig.elementalpredicatevectorfile(), flagConfig);
+        stores.semanticVecReader = openVectorStore(flagConfig.semanticvectorfile(), flagConfig, inMemory);
+        stores.predicateVecReader = openVectorStore(flagConfig.elementalpredicatevectorfile(), flagConfig, inMemory);
       }
       else {
         VerbatimLogger.info("Opening query vector store from file: " + flagConfig.queryvectorfile() + "\n");
         if (flagConfig.queryvectorfile().equals("deterministic")) {
-          if (flagConfig.elementalmethod().equals(ElementalGenerationMethod.ORTHOGRAPHIC)) queryVecReader = new VectorStoreOrthographical(flagConfig);
-          else if (flagConfig.elementalmethod().equals(ElementalGenerationMethod.CONTENTHASH)) queryVecReader = new VectorStoreDeterministic(flagConfig);
+          if (flagConfig.elementalmethod().equals(ElementalGenerationMethod.ORTHOGRAPHIC)) stores.queryVecReader = new VectorStoreOrthographical(flagConfig);
+          else if (flagConfig.elementalmethod().equals(ElementalGenerationMethod.CONTENTHASH)) stores.queryVecReader = new VectorStoreDeterministic(flagConfig);
           else VerbatimLogger.info("Please select either -elementalmethod orthographic OR -elementalmethod contenthash depending upon the deterministic approach you would like used.");
         }
-        else queryVecReader = VectorStoreReader.openVectorStore(flagConfig.queryvectorfile(), flagConfig);
+        else stores.queryVecReader = openVectorStore(flagConfig.queryvectorfile(), flagConfig, inMemory);
       }
 
       if (flagConfig.boundvectorfile().length() > 0) {
         VerbatimLogger.info("Opening second query vector store from file: " + flagConfig.boundvectorfile() + "\n");
-        boundVecReader = VectorStoreReader.openVectorStore(flagConfig.boundvectorfile(), flagConfig);
+        stores.boundVecReader = openVectorStore(flagConfig.boundvectorfile(), flagConfig, inMemory);
       }
 
       // Open second vector store if search vectors are different from query vectors.
       if (flagConfig.queryvectorfile().equals(flagConfig.searchvectorfile())
           || flagConfig.searchvectorfile().isEmpty()) {
-        searchVecReader = queryVecReader;
+        stores.searchVecReader = stores.queryVecReader;
       } else {
         VerbatimLogger.info("Opening search vector store from file: " + flagConfig.searchvectorfile() + "\n");
-        searchVecReader = VectorStoreReader.openVectorStore(flagConfig.searchvectorfile(), flagConfig);
+        stores.searchVecReader = openVectorStore(flagConfig.searchvectorfile(), flagConfig, inMemory);
       }
 
       if (!flagConfig.luceneindexpath().isEmpty()) {
         try {
-          luceneUtils = new LuceneUtils(flagConfig);
+          stores.luceneUtils = new LuceneUtils(flagConfig);
         } catch (IOException e) {
           logger.warning("Couldn't open Lucene index at " + flagConfig.luceneindexpath()
               + ". Will continue without term weighting.");
@@ -295,8 +344,47 @@ public class Search {
     catch (IOException e) {
       e.printStackTrace();
     }
+    return stores;
+  }
+
+  private static VectorStore openVectorStore(String storeName, FlagConfig flagConfig, boolean inMemory)
+      throws IOException {
+    if (inMemory && flagConfig.indexfileformat() != VectorStoreUtils.VectorStoreFormat.MAPPED) {
+      if (flagConfig.offheapvectors()) {
+        CloseableVectorStore diskStore = VectorStoreReader.openVectorStore(storeName, flagConfig);
+        try {
+          if (flagConfig.vectortype() == VectorType.REAL) {
+            return VectorStoreSlab.readFromStore(flagConfig, diskStore);
+          }
+        } finally {
+          diskStore.close();
+        }
+        logger.info("Off-heap vectors are only supported for real vectors, reading "
+            + storeName + " onto the heap.");
+      }
+      return VectorStoreRAM.readFromFile(flagConfig, storeName);
+    }
+    return VectorStoreReader.openVectorStore(storeName, flagConfig);
+  }
+
+  /**
+   * Creates a query vector from queryArgs and searches the given stores, according to
+   * {@link FlagConfig#searchtype()} and other search flags in flagConfig. Safe to call
+   * concurrently for stores that are read-only.
+   * @param flagConfig configuration object for controlling the search
+   * @param queryArgs query terms; lowercased unless {@link FlagConfig#matchcase()} is set
+   * @param stores vector stores opened with {@link #openSearchStores}
+   * @return list containing search results.
+   */
+  public static LinkedList<SearchResult> runSearch(
+      FlagConfig flagConfig, String[] queryArgs, SearchStores stores) throws IllegalArgumentException {
+    VectorStore queryVecReader = stores.queryVecReader, boundVecReader = stores.boundVecReader,
+        elementalVecReader = stores.elementalVecReader, semanticVecReader = stores.semanticVecReader,
+        predicateVecReader = stores.predicateVecReader, searchVecReader = stores.searchVecReader;
+    LuceneUtils luceneUtils = stores.luceneUtils;
 
     // This takes the slice of args from argc to end.
+    queryArgs = queryArgs.clone();
     if (!flagConfig.matchcase()) {
       for (int i = 0; i < queryArgs.length; ++i) {
         queryArgs[i] = queryArgs[i].toLowerCase();
@@ -306,7 +394,6 @@ public class Search {
     // Stage iii. Perform search according to which searchType was selected.
     // Most options have corresponding dedicated VectorSearcher subclasses.
     VectorSearcher vecSearcher;
-    LinkedList<SearchResult> results;
     VerbatimLogger.info("Searching term vectors, searchtype " + flagConfig.searchtype() + "\n");
 
     try {
@@ -399,26 +486,7 @@ public class Search {
       return new LinkedList<>();
     }
 
-    results = vecSearcher.getNearestNeighbors(flagConfig.numsearchresults());
-
-    // Optional: Release filesystem resources. Temporarily removed because of errors in
-    // ThreadSafetyTest.
-    //
-    // This was not the cleanest control flow anyway, since these are
-    // opened in runSearch but also needed in getSearchResultsVectors.
-    // Really there should be a global variable for indexformat (text
-    // or lucene), and general "openIndexes" and "closeIndexes" methods.
-    if (queryVecReader != null) {
-      queryVecReader.close();
-    }
-    if (searchVecReader != null) {
-      searchVecReader.close();
-    }
-    if (boundVecReader != null) {
-      boundVecReader.close();
-    }
-
-    return results;
+    return vecSearcher.getNearestNeighbors(flagConfig.numsearchresults());
   }
 
   /**
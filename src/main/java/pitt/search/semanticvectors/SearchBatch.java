@@ -47,6 +47,7 @@ import pitt.search.semanticvectors.vectors.ZeroVectorException;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.logging.Logger;
 
 /**
@@ -282,40 +283,17 @@ public class SearchBatch {
 
     try {
       BufferedReader queryReader = new BufferedReader(new FileReader(new File(queryArgs[0])));
+      if (flagConfig.searchbatchsize() > 1 && flagConfig.searchtype() == Search.SearchType.SUM
+          && !flagConfig.stdev() && !(luceneUtils != null && flagConfig.usetermweightsinsearch())) {
+        runBatchedSearch(queryReader, queryVecReader, searchVecReader, flagConfig);
+        queryReader.close();
+        return;
+      }
       String queryString = queryReader.readLine();
       int qcnt = 0;
       while (queryString != null) {
-        ArrayList<String> queryTerms = new ArrayList<String>();
         qcnt++;
-        
-        if (!flagConfig.searchtype().equals(pitt.search.semanticvectors.Search.SearchType.ANALOGY))
-        { //have Lucene parse the query string, for consistency
-         StandardAnalyzer  analyzer = new StandardAnalyzer(new CharArraySet(new ArrayList<String>(), true));
-         TokenStream stream = analyzer.tokenStream(null, new StringReader(queryString));
-         CharTermAttribute cattr = stream.addAttribute(CharTermAttribute.class);
-         stream.reset();
-
-         //for each token in the query string
-         while (stream.incrementToken())
-         {
-
-         String term = cattr.toString();
-
-         if ((luceneUtils != null && !luceneUtils.stoplistContains(term)) || luceneUtils == null)
-         {
-         if (! flagConfig.matchcase()) term = term.toLowerCase();
-         queryTerms.add(term);
-         }
-         }
-         stream.end();
-         stream.close();
-         analyzer.close();
-        }
-        else
-        queryTerms.add(queryString);
-
-        //transform to String[] array
-        queryArgs = queryTerms.toArray(new String[0]);
+        queryArgs = getQueryTerms(queryString, flagConfig);
 
         // Stage iii. Perform search according to which searchType was selected.
         // Most options have corresponding dedicated VectorSearcher subclasses.
@@ -412,49 +390,14 @@ public class SearchBatch {
           //no search results returned
         }
 
-        int cnt = 0;
-        // Print out results.
-        if (results.size() > 0) {
-          VerbatimLogger.info("Search output follows ...\n");
-
-          for (SearchResult result : results) {
-
-            boolean printResult = true;
-
-            if (flagConfig.searchtype() == Search.SearchType.ANALOGY) //don't output cue terms
-            {
-              for (String searchTerm : splitArgs) {
-                if (result.getObjectVector().getObject().toString().equals(searchTerm))
-                  printResult = false;
-              }
-            }
-            if (printResult) {
-              if (flagConfig.treceval() != -1) //results in trec_eval format
-              {
-                System.out.println(
-                    String.format("%s\t%s\t%s\t%s\t%f\t%s",
-                        qcnt,
-                        "Q0",
-                        result.getObjectVector().getObject().toString(),
-                        ++cnt,
-                        result.getScore(),
-                        "DEFAULT")
-                );
-              } else System.out.println(  //results in cosine:object format
-                  String.format("%f:%s",
-                      result.getScore(),
-                      result.getObjectVector().getObject().toString()));
-
-              if (flagConfig.searchtype() == Search.SearchType.ANALOGY) {
-                break;
-              }
-            }
-
-          }
-        }
+        printResults(results, qcnt, splitArgs, flagConfig);
         queryString = queryReader.readLine();
       }
       queryReader.close();
+      if (CompoundVectorBuilder.getQueryVectorCache(flagConfig) != null) {
+        VerbatimLogger.info("Query vector cache: "
+            + CompoundVectorBuilder.getQueryVectorCache(flagConfig) + "\n");
+      }
     } catch (FileNotFoundException e1) {
       // TODO Auto-generated catch block
       e1.printStackTrace();
@@ -467,6 +410,116 @@ public class SearchBatch {
   }
 
 
+  /**
+   * Runs {@link Search.SearchType#SUM} searches for blocks of {@link FlagConfig#searchbatchsize()}
+   * queries at a time using a {@link BatchCosineSearcher}, so that the search vector store is
+   * read once per block. Results are printed in the same format and order as for single queries.
+   */
+  private static void runBatchedSearch(BufferedReader queryReader, VectorStore queryVecReader,
+      VectorStore searchVecReader, FlagConfig flagConfig) throws IOException {
+    BatchCosineSearcher batchSearcher = new BatchCosineSearcher(searchVecReader, flagConfig);
+    int qcnt = 0;
+    String queryString = queryReader.readLine();
+    while (queryString != null) {
+      ArrayList<Vector> queryVectors = new ArrayList<Vector>();
+      while (queryString != null && queryVectors.size() < flagConfig.searchbatchsize()) {
+        String[] queryArgs = getQueryTerms(queryString, flagConfig);
+        // Zero query vectors, e.g., with no known terms, get no results.
+        queryVectors.add(CompoundVectorBuilder.getQueryVector(
+            queryVecReader, luceneUtils, flagConfig, queryArgs));
+        queryString = queryReader.readLine();
+      }
+      VerbatimLogger.info("Searching term vectors for a batch of " + queryVectors.size() + " queries\n");
+      List<LinkedList<SearchResult>> batchResults = batchSearcher.getNearestNeighbors(
+          queryVectors.toArray(new Vector[0]), flagConfig.numsearchresults());
+      for (LinkedList<SearchResult> results : batchResults) {
+        printResults(results, ++qcnt, null, flagConfig);
+      }
+    }
+  }
+
+  /**
+   * Returns the terms in the query string, as parsed by Lucene's {@link StandardAnalyzer}
+   * without stopping, then removing stopwords if there is a Lucene index. Analogy queries
+   * are returned whole.
+   */
+  private static String[] getQueryTerms(String queryString, FlagConfig flagConfig) throws IOException {
+    ArrayList<String> queryTerms = new ArrayList<String>();
+    if (!flagConfig.searchtype().equals(pitt.search.semanticvectors.Search.SearchType.ANALOGY)) {
+      //have Lucene parse the query string, for consistency
+      StandardAnalyzer analyzer = new StandardAnalyzer(new CharArraySet(new ArrayList<String>(), true));
+      TokenStream stream = analyzer.tokenStream(null, new StringReader(queryString));
+      CharTermAttribute cattr = stream.addAttribute(CharTermAttribute.class);
+      stream.reset();
+
+      //for each token in the query string
+      while (stream.incrementToken()) {
+        String term = cattr.toString();
+        if ((luceneUtils != null && !luceneUtils.stoplistContains(term)) || luceneUtils == null) {
+          if (! flagConfig.matchcase()) term = term.toLowerCase();
+          queryTerms.add(term);
+        }
+      }
+      stream.end();
+      stream.close();
+      analyzer.close();
+    } else {
+      queryTerms.add(queryString);
+    }
+
+    //transform to String[] array
+    return queryTerms.toArray(new String[0]);
+  }
+
+  /**
+   * Prints results for the query numbered qcnt, in trec_eval format if {@link FlagConfig#treceval()}
+   * is set and otherwise as score:object. For analogy searches, the cue terms in splitArgs are
+   * skipped and only the first other result is printed.
+   */
+  private static void printResults(
+      LinkedList<SearchResult> results, int qcnt, String[] splitArgs, FlagConfig flagConfig) {
+    int cnt = 0;
+    // Print out results.
+    if (results.size() > 0) {
+      VerbatimLogger.info("Search output follows ...\n");
+
+      for (SearchResult result : results) {
+
+        boolean printResult = true;
+
+        if (flagConfig.searchtype() == Search.SearchType.ANALOGY) //don't output cue terms
+        {
+          for (String searchTerm : splitArgs) {
+            if (result.getObjectVector().getObject().toString().equals(searchTerm))
+              printResult = false;
+          }
+        }
+        if (printResult) {
+          if (flagConfig.treceval() != -1) //results in trec_eval format
+          {
+            System.out.println(
+                String.format("%s\t%s\t%s\t%s\t%f\t%s",
+                    qcnt,
+                    "Q0",
+                    result.getObjectVector().getObject().toString(),
+                    ++cnt,
+                    result.getScore(),
+                    "DEFAULT")
+            );
+          } else System.out.println(  //results in cosine:object format
+              String.format("%f:%s",
+                  result.getScore(),
+                  result.getObjectVector().getObject().toString()));
+
+          if (flagConfig.searchtype() == Search.SearchType.ANALOGY) {
+            break;
+          }
+        }
+
+      }
+    }
+  }
+
   /**
    * Takes a user's query, creates a query vector, and searches a vector store.
    * @param args See {@link #usageMessage}
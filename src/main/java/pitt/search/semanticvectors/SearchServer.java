@@ -0,0 +1,350 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import pitt.search.semanticvectors.utils.LruCache;
+import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+/**
+ * Long-running search process that opens the vector stores and Lucene index named in its
+ * flags once, keeps them in memory, and answers queries sent over a local socket.
+ * This avoids the cost of rereading the stores for each query as {@link Search} does.
+ *
+ * <p>
+ * The protocol is line based, in UTF-8. Each request line contains optional flags followed by
+ * query terms, exactly as they would follow the server's own flags on a {@link Search} command
+ * line, for example {@code -searchtype maxsim -numsearchresults 5 king queen}. Flags naming
+ * vector store files or the Lucene index are ignored in requests, since the stores are already
+ * open, as are flags such as {@code -realbindmethod} that set state shared by the whole process,
+ * see {@link #SERVER_ONLY_FLAGS}. The response is one line per result, in the same format as printed by {@link Search},
+ * followed by an empty line. A request that cannot be parsed gets a single line beginning
+ * with {@code ERROR}, followed by an empty line.
+ *
+ * <p>
+ * Each connection may send any number of requests, and is read on a thread of its own, while
+ * the requests themselves are answered on a pool of {@link FlagConfig#numthreads()} threads,
+ * so idle connections do not hold up requests on other connections. The server listens on the loopback address,
+ * on port {@link FlagConfig#searchserverport()}.
+ *
+ * <p>
+ * With {@link FlagConfig#querycachemegabytes()} set, query vectors for repeated queries are
+ * cached by {@link CompoundVectorBuilder}, and with {@link FlagConfig#cachesearchresults()}
+ * the response lines for repeated requests are also cached. Caches are sized from the flags
+ * the server was started with, and requests cannot change them. Cache statistics are logged
+ * when the server is closed.
+ */
+public class SearchServer {
+  private static final Logger logger = Logger.getLogger(SearchServer.class.getCanonicalName());
+
+  /** Estimated memory used by a cached response, and by each line, in addition to the strings. */
+  private static final int RESULT_CACHE_ENTRY_OVERHEAD_BYTES = 96;
+  private static final int RESULT_LINE_OVERHEAD_BYTES = 48;
+
+  public static String usageMessage = "\nSearchServer class in package pitt.search.semanticvectors"
+      + "\nUsage: java pitt.search.semanticvectors.SearchServer [-searchserverport PORT]"
+      + "\n                                                     [Search flags, e.g., -queryvectorfile FILE]"
+      + "\nThen send lines of the form [SEARCH FLAGS] <QUERYTERMS> to the port."
+      + "\nResults for each line are followed by an empty line.";
+
+  /**
+   * Flags that are removed from requests. They name the stores and index, which are opened
+   * once when the server starts, or set state shared by all requests, such as the real
+   * binding method, the type of the vectors, or the size of the caches, which requests cannot
+   * change safely while other requests are being answered.
+   */
+  static final Set<String> SERVER_ONLY_FLAGS = new HashSet<String>(Arrays.asList(
+      "queryvectorfile", "searchvectorfile", "boundvectorfile", "elementalvectorfile",
+      "semanticvectorfile", "elementalpredicatevectorfile", "luceneindexpath", "indexfileformat",
+      "offheapvectors", "vectorstoreindex", "vectortype", "dimension", "realbindmethod",
+      "searchserverport", "querycachemegabytes", "cachesearchresults"));
+
+  /** Flags given when the server was started, prepended to the flags in each request. */
+  private final String[] serverArgs;
+  private final FlagConfig flagConfig;
+  private final Search.SearchStores stores;
+  private final ServerSocket serverSocket;
+  /** Threads reading requests from connections, one for each open connection. */
+  private final ExecutorService connectionThreads;
+  /** Threads answering requests, shared by all connections. */
+  private final ExecutorService requestPool;
+  /** Response lines for recent requests, or null if results are not cached. */
+  private final LruCache<String, List<String>> resultCache;
+
+  /**
+   * Opens the stores named in args and binds the server socket. Call {@link #serve} to start
+   * answering requests.
+   * @param args command line flags; any remaining arguments after the flags are ignored
+   * @throws IOException if the server socket cannot be bound
+   */
+  public SearchServer(String[] args) throws IOException {
+    this.flagConfig = FlagConfig.getFlagConfig(args);
+    int numRemainingArgs = flagConfig.remainingArgs == null ? 0 : flagConfig.remainingArgs.length;
+    this.serverArgs = Arrays.copyOf(args, args.length - numRemainingArgs);
+    this.stores = Search.openSearchStores(flagConfig, true);
+    this.serverSocket = new ServerSocket(
+        flagConfig.searchserverport(), 50, InetAddress.getLoopbackAddress());
+    this.connectionThreads = Executors.newCachedThreadPool();
+    this.requestPool = Executors.newFixedThreadPool(flagConfig.numthreads());
+    // The complex vector mode is shared by the whole process and is set when the first vector
+    // of the server's type is generated, so do this now rather than while answering requests.
+    if (flagConfig.vectortype() == VectorType.COMPLEX || flagConfig.vectortype() == VectorType.COMPLEXFLAT) {
+      VectorFactory.generateRandomVector(flagConfig.vectortype(), flagConfig.dimension(), 1, new Random(0));
+    }
+    this.resultCache = flagConfig.cachesearchresults() && flagConfig.querycachemegabytes() > 0
+        ? new LruCache<String, List<String>>(flagConfig.querycachemegabytes() * (1L << 20)) : null;
+  }
+
+  /** Returns the port the server is listening on. */
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * Accepts connections and answers their requests until {@link #close} is called.
+   */
+  public void serve() throws IOException {
+    VerbatimLogger.info("Search server listening on port " + getPort() + "\n");
+    while (!serverSocket.isClosed()) {
+      final Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (SocketException e) {
+        // Thrown when the server socket is closed.
+        break;
+      }
+      connectionThreads.execute(new Runnable() {
+        @Override
+        public void run() {
+          handleConnection(socket);
+        }
+      });
+    }
+  }
+
+  /** Stops accepting connections and releases the vector stores. */
+  public void close() throws IOException {
+    serverSocket.close();
+    connectionThreads.shutdownNow();
+    requestPool.shutdownNow();
+    stores.close();
+    VerbatimLogger.info(getCacheStatistics() + "\n");
+  }
+
+  private void handleConnection(Socket socket) {
+    try (Socket s = socket;
+         BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream(), "UTF-8"));
+         PrintWriter writer = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), "UTF-8"))) {
+      String request;
+      while ((request = reader.readLine()) != null) {
+        for (String line : submitRequest(request)) {
+          writer.println(line);
+        }
+        writer.println();
+        writer.flush();
+      }
+    } catch (IOException e) {
+      logger.warning("Error serving search connection: " + e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Answers the request on the request pool, waiting for the response lines. */
+  private List<String> submitRequest(final String request) throws InterruptedException {
+    Future<List<String>> response = requestPool.submit(new Callable<List<String>>() {
+      @Override
+      public List<String> call() {
+        return answerRequest(request);
+      }
+    });
+    try {
+      return response.get();
+    } catch (ExecutionException e) {
+      logger.warning("Error answering request '" + request + "': " + e.getCause());
+      return Collections.singletonList("ERROR " + e.getCause());
+    }
+  }
+
+  /**
+   * Returns the request arguments without any {@link #SERVER_ONLY_FLAGS} and their values.
+   * Stops at the first argument that is not a flag, or at a flag that is not recognized,
+   * leaving the rest for {@link FlagConfig#getFlagConfig} to parse or reject.
+   */
+  static String[] removeServerOnlyFlags(String[] requestArgs) {
+    List<String> kept = new ArrayList<String>(requestArgs.length);
+    int argc = 0;
+    while (argc < requestArgs.length && requestArgs[argc].startsWith("-")) {
+      String flagName = requestArgs[argc].replaceFirst("^-+", "");
+      Field field;
+      try {
+        field = FlagConfig.class.getDeclaredField(flagName);
+      } catch (NoSuchFieldException e) {
+        break;
+      }
+      int numArgs = field.getType() == boolean.class ? 1 : 2;
+      int end = Math.min(argc + numArgs, requestArgs.length);
+      if (SERVER_ONLY_FLAGS.contains(flagName)) {
+        logger.fine("Ignoring server-only flag -" + flagName + " in request.");
+      } else {
+        kept.addAll(Arrays.asList(requestArgs).subList(argc, end));
+      }
+      argc = end;
+    }
+    kept.addAll(Arrays.asList(requestArgs).subList(argc, requestArgs.length));
+    return kept.toArray(new String[kept.size()]);
+  }
+
+  /**
+   * Returns the response lines for a single request line, from the result cache if
+   * {@link FlagConfig#cachesearchresults()} is set and the same request has been seen recently.
+   */
+  List<String> answerRequest(String request) {
+    String trimmed = request.trim();
+    String[] requestArgs = removeServerOnlyFlags(
+        trimmed.isEmpty() ? new String[0] : trimmed.split("\\s+"));
+    String cacheKey = null;
+    if (resultCache != null) {
+      StringBuilder key = new StringBuilder();
+      for (String arg : requestArgs) {
+        key.append(arg).append(' ');
+      }
+      cacheKey = key.toString();
+      List<String> cached = resultCache.get(cacheKey);
+      if (cached != null) {
+        return cached;
+      }
+    }
+
+    String[] args = new String[serverArgs.length + requestArgs.length];
+    System.arraycopy(serverArgs, 0, args, 0, serverArgs.length);
+    System.arraycopy(requestArgs, 0, args, serverArgs.length, requestArgs.length);
+
+    FlagConfig requestConfig;
+    try {
+      requestConfig = FlagConfig.getFlagConfig(args);
+    } catch (IllegalArgumentException e) {
+      return Collections.singletonList("ERROR " + e.getMessage().replace('\n', ' '));
+    }
+    if (requestConfig.remainingArgs == null || requestConfig.remainingArgs.length == 0) {
+      return Collections.singletonList("ERROR No query terms left after flag parsing!");
+    }
+    // Dimension and vector type come from the stores, which were read using the server's flags.
+    FlagConfig.mergeWriteableFlags(flagConfig, requestConfig);
+
+    LinkedList<SearchResult> results;
+    try {
+      results = Search.runSearch(requestConfig, requestConfig.remainingArgs, stores);
+    } catch (RuntimeException e) {
+      logger.warning("Error answering request '" + request + "': " + e);
+      return Collections.singletonList("ERROR " + e);
+    }
+    List<String> lines = new ArrayList<String>(results.size());
+    long sizeInBytes = RESULT_CACHE_ENTRY_OVERHEAD_BYTES + 2L * request.length();
+    int ranking = 0;
+    for (SearchResult result : results) {
+      ++ranking;
+      String line;
+      if (requestConfig.treceval() == -1) {
+        line = result.toSimpleString();
+      } else {
+        line = result.toTrecString(requestConfig.treceval(), ranking);
+      }
+      lines.add(line);
+      sizeInBytes += RESULT_LINE_OVERHEAD_BYTES + 2L * line.length();
+    }
+    if (resultCache != null) {
+      lines = Collections.unmodifiableList(lines);
+      resultCache.put(cacheKey, lines, sizeInBytes);
+    }
+    return lines;
+  }
+
+  /** Returns a summary of the query vector and result cache statistics. */
+  public String getCacheStatistics() {
+    LruCache<String, Vector> queryVectorCache = CompoundVectorBuilder.getQueryVectorCache(flagConfig);
+    if (queryVectorCache == null) {
+      return "Query caching is turned off.";
+    }
+    String statistics = "Query vector cache: " + queryVectorCache;
+    if (resultCache != null) {
+      statistics += "\nResult cache: " + resultCache;
+    }
+    return statistics;
+  }
+
+  /**
+   * Starts a search server using the given flags, and serves until the process is stopped.
+   * @param args See {@link #usageMessage}
+   */
+  public static void main(String[] args) throws IOException {
+    SearchServer server;
+    try {
+      server = new SearchServer(args);
+    } catch (IllegalArgumentException e) {
+      System.err.println(usageMessage);
+      throw e;
+    }
+    server.serve();
+  }
+}
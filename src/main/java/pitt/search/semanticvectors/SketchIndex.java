@@ -0,0 +1,235 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
+import java.util.WeakHashMap;
+
+import pitt.search.semanticvectors.utils.TopKCollector;
+import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.vectors.ComplexVector;
+import pitt.search.semanticvectors.vectors.RealVector;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+/**
+ * Two-stage search of real and complex vector stores using sign random projection
+ * sketches (Charikar, 2002).
+ *
+ * <p>
+ * Each vector is summarized by {@link FlagConfig#sketchbits()} bits, bit i being the sign of the
+ * vector's projection onto random hyperplane i. The probability that two vectors' bits differ is
+ * their angle divided by pi, so Hamming distance between sketches estimates angular distance.
+ * A search ranks every vector by the Hamming distance between its sketch and the query's, which
+ * reads a few words per vector instead of the full coordinates, and then rescores the
+ * {@link FlagConfig#sketchrerank()} nearest candidates exactly with {@link Vector#measureOverlap}.
+ *
+ * <p>
+ * Complex vectors are projected using their cartesian coordinates. Indexes are built in memory
+ * on first use and are searchable from many threads at once.
+ */
+public class SketchIndex {
+  /**
+   * Built indexes by store and number of bits, so that repeated searches of one store only build
+   * each of its indexes once, even if searches alternate between values of -sketchbits.
+   */
+  private static final Map<VectorStore, Map<Integer, SketchIndex>> storeIndexes = new WeakHashMap<>();
+
+  /** Seed for the random hyperplanes, fixed so that sketches are reproducible. */
+  private static final long HYPERPLANE_SEED = 0x5EC7C4L;
+
+  private final int numBits;
+  private final int numWords;
+  /** Number of coordinates of each vector that are projected. */
+  private final int numCoordinates;
+  /** Hyperplane normals, numCoordinates for each bit in turn. */
+  private final float[] hyperplanes;
+
+  private final int size;
+  private final ObjectVector[] objectVectors;
+  /** Sketch words of all vectors, numWords for each vector in turn. */
+  private final long[] sketches;
+
+  private SketchIndex(int numBits, int numCoordinates, ObjectVector[] objectVectors) {
+    this.numBits = numBits;
+    this.numWords = (numBits + 63) / 64;
+    this.numCoordinates = numCoordinates;
+    this.hyperplanes = new float[numBits * numCoordinates];
+    Random random = new Random(HYPERPLANE_SEED);
+    for (int i = 0; i < hyperplanes.length; ++i) {
+      hyperplanes[i] = (float) random.nextGaussian();
+    }
+    this.size = objectVectors.length;
+    this.objectVectors = objectVectors;
+    this.sketches = new long[size * numWords];
+    for (int i = 0; i < size; ++i) {
+      sketch(objectVectors[i].getVector(), sketches, i * numWords);
+    }
+  }
+
+  /**
+   * Builds an index of all the vectors in the store, using {@link FlagConfig#sketchbits()} bits.
+   * @throws IllegalArgumentException if the store is not real or complex.
+   */
+  public static SketchIndex build(VectorStore vectorStore, FlagConfig flagConfig) {
+    int numCoordinates;
+    switch (flagConfig.vectortype()) {
+    case REAL:
+      numCoordinates = flagConfig.dimension();
+      break;
+    case COMPLEX:
+    case COMPLEXFLAT:
+      numCoordinates = 2 * flagConfig.dimension();
+      break;
+    default:
+      throw new IllegalArgumentException(
+          "Sketch search is only supported for real and complex vectors, not " + flagConfig.vectortype());
+    }
+    if (flagConfig.sketchbits() <= 0) {
+      throw new IllegalArgumentException("-sketchbits must be positive, not " + flagConfig.sketchbits());
+    }
+    ObjectVector[] objectVectors = new ObjectVector[vectorStore.getNumVectors()];
+    int count = 0;
+    Enumeration<ObjectVector> vecEnum = vectorStore.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      if (count == objectVectors.length) {
+        objectVectors = Arrays.copyOf(objectVectors, 2 * count + 1);
+      }
+      objectVectors[count++] = vecEnum.nextElement();
+    }
+    if (count != objectVectors.length) {
+      objectVectors = Arrays.copyOf(objectVectors, count);
+    }
+    return new SketchIndex(flagConfig.sketchbits(), numCoordinates, objectVectors);
+  }
+
+  /**
+   * Returns the index for this store with {@link FlagConfig#sketchbits()} bits, building it on
+   * first use.
+   */
+  public static synchronized SketchIndex getIndexForStore(VectorStore searchVecStore, FlagConfig flagConfig) {
+    Map<Integer, SketchIndex> indexesByBits = storeIndexes.get(searchVecStore);
+    if (indexesByBits == null) {
+      indexesByBits = new HashMap<>();
+      storeIndexes.put(searchVecStore, indexesByBits);
+    }
+    SketchIndex index = indexesByBits.get(flagConfig.sketchbits());
+    if (index == null) {
+      VerbatimLogger.info("Building " + flagConfig.sketchbits() + "-bit sketches for search vectors ...\n");
+      index = build(searchVecStore, flagConfig);
+      indexesByBits.put(flagConfig.sketchbits(), index);
+    }
+    return index;
+  }
+
+  /** Returns the number of vectors in the index. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns the coordinates that are projected: real coordinates, or cartesian complex coordinates. */
+  private static float[] getCoordinates(Vector vector) {
+    if (vector instanceof RealVector) {
+      return ((RealVector) vector).getCoordinates();
+    }
+    // Copied since converting to cartesian form would change vectors in the store.
+    ComplexVector complexVector = ((ComplexVector) vector).copy();
+    complexVector.toCartesian();
+    return complexVector.getCoordinates();
+  }
+
+  /** Writes the sketch of the vector into words starting at offset. */
+  private void sketch(Vector vector, long[] words, int offset) {
+    float[] coordinates = getCoordinates(vector);
+    for (int bit = 0; bit < numBits; ++bit) {
+      int base = bit * numCoordinates;
+      double projection = 0;
+      for (int j = 0; j < numCoordinates; ++j) {
+        projection += hyperplanes[base + j] * coordinates[j];
+      }
+      if (projection > 0) {
+        words[offset + (bit >>> 6)] |= 1L << (bit & 63);
+      }
+    }
+  }
+
+  /**
+   * Returns the numResults vectors with the highest overlap with the query, best first, keeping
+   * only scores above minScore. The numRerank vectors with the nearest sketches are scored
+   * exactly, so results are approximate only if a true result is not among these.
+   */
+  public LinkedList<SearchResult> search(Vector queryVector, int numResults, int numRerank, double minScore) {
+    LinkedList<SearchResult> results = new LinkedList<SearchResult>();
+    if (numResults <= 0 || size == 0) {
+      return results;
+    }
+    long[] querySketch = new long[numWords];
+    sketch(queryVector, querySketch, 0);
+
+    // Stage 1: keep the candidates with the smallest Hamming distances, i.e., highest negated distances.
+    TopKCollector candidates = new TopKCollector(Math.max(numRerank, numResults));
+    for (int i = 0; i < size; ++i) {
+      int offset = i * numWords;
+      int distance = 0;
+      for (int w = 0; w < numWords; ++w) {
+        distance += Long.bitCount(querySketch[w] ^ sketches[offset + w]);
+      }
+      if (candidates.wouldAccept(-distance)) {
+        candidates.offer(-distance, i);
+      }
+    }
+
+    // Stage 2: exact scores for the candidates.
+    TopKCollector topResults = new TopKCollector(numResults);
+    for (int c = 0; c < candidates.size(); ++c) {
+      int ordinal = candidates.getOrdinal(c);
+      double score = queryVector.measureOverlap(objectVectors[ordinal].getVector());
+      if (score > minScore && topResults.wouldAccept(score)) {
+        topResults.offer(score, ordinal);
+      }
+    }
+    int numFound = topResults.sortDescending();
+    for (int i = 0; i < numFound; ++i) {
+      results.add(new SearchResult(topResults.getScore(i), objectVectors[topResults.getOrdinal(i)]));
+    }
+    return results;
+  }
+}
@@ -39,19 +39,16 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.lucene.index.DocsAndPositionsEnum;
 import org.apache.lucene.index.FieldInfos;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.Terms;
@@ -63,10 +60,15 @@ import org.apache.lucene.util.BytesRef;
 import org.netlib.blas.BLAS;
 
 import pitt.search.semanticvectors.DocVectors.DocIndexingStrategy;
+import pitt.search.semanticvectors.PositionalCorpusCache.OrdinalSequence;
+import pitt.search.semanticvectors.PositionalCorpusCache.TermSequence;
 import pitt.search.semanticvectors.orthography.NumberRepresentation;
+import pitt.search.semanticvectors.utils.RandomStreams;
 import pitt.search.semanticvectors.utils.SigmoidTable;
+import pitt.search.semanticvectors.utils.TrainingPipeline;
 import pitt.search.semanticvectors.utils.VerbatimLogger;
 import pitt.search.semanticvectors.vectors.PermutationUtils;
+import pitt.search.semanticvectors.vectors.RealVector;
 import pitt.search.semanticvectors.vectors.Vector;
 import pitt.search.semanticvectors.vectors.VectorFactory;
 import pitt.search.semanticvectors.vectors.VectorType;
@@ -103,8 +105,12 @@ public class TermTermVectorsFromLucene { //implements VectorStore {
 
   private static final int MAX_EXP = 6;
   private FlagConfig flagConfig;
-  private AtomicBoolean exhaustedQ = new AtomicBoolean();
+  /** Number of documents in each chunk read from the index, see {@link #initializeRandomizationStartpoints}. */
   private int qsize = 100000;
+  /** Number of document term vectors in each batch passed from the reader to the training threads. */
+  private static final int PIPELINE_BATCH_SIZE = 1000;
+  /** Number of batches that the reader may prefetch for each training thread. */
+  private static final int PIPELINE_BATCHES_PER_THREAD = 4;
   private boolean retraining = false;
   private volatile VectorStoreRAM semanticTermVectors;
   private volatile VectorStore elementalTermVectors;
@@ -113,11 +119,23 @@ public class TermTermVectorsFromLucene { //implements VectorStore {
   private LuceneUtils luceneUtils;
   /** Used only with {@link PositionalMethod#PROXIMITY}. */
   private VectorStoreRAM positionalNumberVectors;
+  /** Used on the main thread only; training threads use {@link RandomStreams#forStream}. */
   private Random random;
-  private ConcurrentSkipListMap<Double, String> termDic;
+  /** The current training cycle, which identifies random streams along with the document. */
+  private volatile int trainingCycle = 0;
+  private NegativeSampler negativeSampler;
+  /** Real embeddings being trained, by term ordinal, or null if training the vector objects. */
+  private EmbeddingMatrices embeddingMatrices;
+  /** Pre-tokenized documents to train from, if {@link FlagConfig#corpuscache()} is set. */
+  private PositionalCorpusCache corpusCache;
+  /** Ordinal in the {@link #embeddingMatrices} of each term of the {@link #corpusCache}, or -1. */
+  private int[] cacheTrainingOrdinals;
+  /**
+   * The {@link #subsamplingProbabilities} of each term of the {@link #corpusCache}, by field
+   * number and ordinal, or 0 if the term is not subsampled.
+   */
+  private double[][] cacheSubsamplingProbabilities;
   private ConcurrentHashMap<String, Double> subsamplingProbabilities;
-  private ConcurrentLinkedQueue<DocIdTerms> theQ;
-  private double totalPool 	= 0; //total pool of terms probabilities for negative sampling corpus
   private long 	 totalCount = 0; //total count of terms in corpus
   private double initial_alpha = 0.025;
   private double alpha 		   = 0.025;
@@ -129,19 +147,30 @@ public class TermTermVectorsFromLucene { //implements VectorStore {
 
   /**
    * store Terms objects while retaining their docID
+   * (or, when reading from a {@link PositionalCorpusCache}, the already tokenized sequence)
    * @author tcohen
    *
    */
   private class DocIdTerms
   {
 	  int docID;
+	  String field;
 	  Terms terms;
+	  OrdinalSequence sequence;
 	  
-	  public DocIdTerms(int docID, Terms terms)
+	  public DocIdTerms(int docID, String field, Terms terms)
 	  {
 		  this.docID = docID;
+		  this.field = field;
 		  this.terms = terms;
 	  }
+
+	  public DocIdTerms(OrdinalSequence sequence)
+	  {
+		  this.docID = sequence.docID;
+		  this.field = sequence.field;
+		  this.sequence = sequence;
+	  }
   }
   
   /**
@@ -171,7 +200,7 @@ private ConcurrentLinkedQueue<Integer> randomStartpoints;
   	for (int x = 0; x < increments; x++)
   		toRandomize.add(x * incrementSize);
 
-  	Collections.shuffle(toRandomize);
+  	Collections.shuffle(toRandomize, random);
   	
   	randomStartpoints.addAll(toRandomize);
   	
@@ -185,7 +214,7 @@ private ConcurrentLinkedQueue<Integer> randomStartpoints;
       FlagConfig flagConfig, VectorStore elementalTermVectors) throws IOException {
     this.flagConfig = flagConfig;
 
-    this.random = new Random();
+    this.random = RandomStreams.newRandom(flagConfig.seed());
 
     // Setup elemental vectors, depending on whether they were passed in or not.
     if (elementalTermVectors != null) {
@@ -244,53 +273,97 @@ private ConcurrentLinkedQueue<Integer> randomStartpoints;
   }
 
   /**
-   * Initialize queue of cached Terms objects
+   * Reads the term vectors of all documents for the training pipeline, in chunks of
+   * {@link #qsize} documents beginning at the shuffled start points.
    */
+  private class TermVectorSource implements Iterator<DocIdTerms> {
+    private int doc = 0;
+    private int stopdoc = 0;
+    private int fieldIndex = 0;
+    private DocIdTerms next;
+
+    TermVectorSource() {
+      next = advance();
+    }
 
-
-  private synchronized void populateQueue() {
-	  
-	  
-	  
-	  if (this.totalQueueCount.get() >= luceneUtils.getNumDocs() || randomStartpoints.isEmpty())  
-	  { if (theQ.size() == 0) exhaustedQ.set(true); return; }
-	
-	int added = 0;
-    int startdoc = randomStartpoints.poll();
-    int stopdoc  = Math.min(startdoc+ qsize, luceneUtils.getNumDocs());
-    
-    for (int a = startdoc; a < stopdoc; a++) {
-      for (String field : flagConfig.contentsfields())
+    /** Returns the next document field with a term vector, or null if there are no more. */
+    private DocIdTerms advance() {
+      String[] fields = flagConfig.contentsfields();
+      while (true) {
+        if (fieldIndex == fields.length) {
+          fieldIndex = 0;
+          doc++;
+        }
+        if (doc >= stopdoc) {
+          Integer startdoc = randomStartpoints.poll();
+          if (startdoc == null) return null;
+          doc = startdoc;
+          stopdoc = Math.min(startdoc + qsize, luceneUtils.getNumDocs());
+          continue;
+        }
+        String field = fields[fieldIndex++];
+        if (fieldIndex == 1) totalQueueCount.incrementAndGet();
         try {
-          int docID = a;
-          Terms incomingTermVector = luceneUtils.getTermVector(a, field);
-          totalQueueCount.incrementAndGet();
-          if (incomingTermVector != null){ 
-          theQ.add(new DocIdTerms(docID,incomingTermVector));
-          added++;
-          }
+          Terms incomingTermVector = luceneUtils.getTermVector(doc, field);
+          if (incomingTermVector != null) return new DocIdTerms(doc, field, incomingTermVector);
         } catch (IOException e) {
-          // TODO Auto-generated catch block
-          e.printStackTrace();
+          throw new IllegalStateException("Failed to read term vector from document " + doc, e);
         }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public DocIdTerms next() {
+      if (next == null) throw new NoSuchElementException();
+      DocIdTerms toReturn = next;
+      next = advance();
+      return toReturn;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
     }
-    
-    if (added > 0)
-      System.err.println("Initialized TermVector Queue with " + added + " documents");
-   
   }
 
   /**
-   * Draws from term vector queue, with replacement
+   * Reads the term sequences of all documents from the {@link #corpusCache} for the training
+   * pipeline, in the same chunks as {@link TermVectorSource}.
    */
-  private synchronized DocIdTerms drawFromQueue() {
-    if (theQ.isEmpty()) populateQueue();
-    DocIdTerms toReturn = theQ.poll();
-    return toReturn;
-  }
+  private class CachedSequenceSource implements Iterator<DocIdTerms> {
+    private Iterator<OrdinalSequence> chunk = Collections.<OrdinalSequence>emptyList().iterator();
 
-  private boolean queueExhausted() {
-    return exhaustedQ.get();
+    @Override
+    public boolean hasNext() {
+      while (!chunk.hasNext()) {
+        Integer startdoc = randomStartpoints.poll();
+        if (startdoc == null) return false;
+        int stopdoc = Math.min(startdoc + qsize, corpusCache.getNumDocs());
+        totalQueueCount.addAndGet(stopdoc - startdoc);
+        try {
+          chunk = corpusCache.read(startdoc, stopdoc);
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public DocIdTerms next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      return new DocIdTerms(chunk.next());
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
   }
 
   /**
@@ -325,60 +398,55 @@ private ConcurrentLinkedQueue<Integer> randomStartpoints;
   }
 
 
-  private class TrainTermVectorThread implements Runnable {
+  /** Trains on the documents given to one thread of the training pipeline. */
+  private class TrainTermVectorWorker implements TrainingPipeline.Worker<DocIdTerms> {
     int dcnt = 0;
     int threadno = 0;
     double time = 0;
     BLAS blas = null;
+    /** Reused by this thread for each training step on the {@link #embeddingMatrices}. */
+    float[] gradient;
+    int[] negatives;
 
-    public TrainTermVectorThread(int threadno) {
+    public TrainTermVectorWorker(int threadno) {
       this.threadno = threadno;
       this.blas = BLAS.getInstance();
       this.time = System.currentTimeMillis();
+      this.gradient = new float[flagConfig.dimension()];
+      this.negatives = new int[flagConfig.negsamples()];
     }
 
     @Override
-    public void run() {
-
-      while (!queueExhausted()) {
-        for (String field : flagConfig.contentsfields()) {
-          try {
-            DocIdTerms terms = drawFromQueue();
-            if (terms != null) {
-              //VerbatimLogger.severe("No term vector for document "+dc);
-            	  processTermPositionVector(terms, field, blas);
-               }
-             } catch (ArrayIndexOutOfBoundsException | IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-          }
-        }
+    public void process(DocIdTerms terms) {
+      try {
+        processTermPositionVector(terms, terms.field, blas, gradient, negatives);
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to read term positions from document " + terms.docID, e);
+      }
 
-        // Output progress counter.
-        if ((dcnt % 10000 == 0) || (dcnt < 10000 && dcnt % 1000 == 0)) {
-          VerbatimLogger.info("[T" + threadno + "]" + " processed " + dcnt + " documents in " + ("" + ((System.currentTimeMillis() - time) / (1000 * 60))).replaceAll("\\..*", "") + " min..");
+      // Output progress counter.
+      if ((dcnt % 10000 == 0) || (dcnt < 10000 && dcnt % 1000 == 0)) {
+        VerbatimLogger.info("[T" + threadno + "]" + " processed " + dcnt + " documents in " + ("" + ((System.currentTimeMillis() - time) / (1000 * 60))).replaceAll("\\..*", "") + " min..");
 
-          if (threadno == 0 && dcnt % 10000 == 0) {
-            double proportionComplete = totalDocCount.get() / (double) ( (1+flagConfig.trainingcycles()) * (luceneUtils.getNumDocs()));
-            alpha = initial_alpha - (initial_alpha - minimum_alpha) * proportionComplete;
-            if (alpha < minimum_alpha) alpha = minimum_alpha;
-            VerbatimLogger.info("..Updated alpha to " + alpha + "..");
-          }
+        if (threadno == 0 && dcnt % 10000 == 0) {
+          double proportionComplete = totalDocCount.get() / (double) ( (1+flagConfig.trainingcycles()) * (luceneUtils.getNumDocs()));
+          alpha = initial_alpha - (initial_alpha - minimum_alpha) * proportionComplete;
+          if (alpha < minimum_alpha) alpha = minimum_alpha;
+          VerbatimLogger.info("..Updated alpha to " + alpha + "..");
         }
-        dcnt++;
-      } //all documents processed
+      }
+      dcnt++;
     }
   }
 
   private void trainTermTermVectors() throws IOException, RuntimeException {
     luceneUtils = new LuceneUtils(flagConfig);
-    termDic = new ConcurrentSkipListMap<Double, String>();
+    ArrayList<String> samplingTerms = new ArrayList<String>();
+    ArrayList<Double> samplingWeights = new ArrayList<Double>();
     
     if (flagConfig.positionalmethod().equals(PositionalMethod.EMBEDDINGS) && flagConfig.docindexing().equals(DocIndexingStrategy.INMEMORY))
     	embeddingDocVectors = new VectorStoreRAM(flagConfig);
     	
-    totalPool = 0;
-
     // Check that the Lucene index contains Term Positions.
     FieldInfos fieldsWithPositions = luceneUtils.getFieldInfos();
     if (!fieldsWithPositions.hasVectors()) {
@@ -407,8 +475,8 @@ private ConcurrentLinkedQueue<Integer> randomStartpoints;
         Vector termVector = null;
         // construct negative sampling table
         if (flagConfig.positionalmethod().equals(PositionalMethod.EMBEDDINGS)) {
-          totalPool += Math.pow(luceneUtils.getGlobalTermFreq(term), .75);
-          termDic.put(totalPool, term.text());
+          samplingTerms.add(term.text());
+          samplingWeights.add(Math.pow(luceneUtils.getGlobalTermFreq(term), .75));
           //force dense term vectors
           termVector = VectorFactory.generateRandomVector(flagConfig.vectortype(), flagConfig.dimension(), flagConfig.seedlength(), random);
         
@@ -428,6 +496,20 @@ private ConcurrentLinkedQueue<Integer> randomStartpoints;
       }
     }
 
+    if (flagConfig.positionalmethod().equals(PositionalMethod.EMBEDDINGS)) {
+      negativeSampler = NegativeSampler.build(samplingTerms, samplingWeights, elementalTermVectors);
+      if (flagConfig.vectortype().equals(VectorType.REAL)) {
+        if (EmbeddingMatrices.canHold(negativeSampler.size(), flagConfig.dimension())) {
+          embeddingMatrices = EmbeddingMatrices.build(negativeSampler, semanticTermVectors, elementalTermVectors,
+              flagConfig.dimension(), sigmoidTable, MAX_EXP);
+        } else {
+          // Too large for one array: train the term vectors themselves, as for other vector types.
+          VerbatimLogger.warning("Cannot hold " + negativeSampler.size() + " term vectors of dimension "
+              + flagConfig.dimension() + " in contiguous matrices; training the term vectors directly.\n");
+        }
+      }
+    }
+
     //precalculate probabilities for subsampling (need to iterate again once total term frequency known)
     if (flagConfig.samplingthreshold() > -1 && flagConfig.samplingthreshold() < 1) {
       subsamplingProbabilities = new ConcurrentHashMap<String, Double>();
@@ -466,35 +548,48 @@ private ConcurrentLinkedQueue<Integer> randomStartpoints;
    
     if (qsize > luceneUtils.getNumDocs()) //small document collection
     	qsize = luceneUtils.getNumDocs() / 10;
+
+    if (!flagConfig.corpuscache().isEmpty()) openCorpusCache();
+
+    try {
+      for (int trainingcycle = 0; trainingcycle <= flagConfig.trainingcycles(); trainingcycle++) {
     
-    for (int trainingcycle = 0; trainingcycle <= flagConfig.trainingcycles(); trainingcycle++) {
-    
-      initializeRandomizationStartpoints(qsize);
-      exhaustedQ.set(false);
-      theQ = new ConcurrentLinkedQueue<>();
-      totalQueueCount.set(0);
-      populateQueue();
-      double cycleStart = System.currentTimeMillis();
-
-      int numthreads = flagConfig.numthreads();
-      ExecutorService executor = Executors.newFixedThreadPool(numthreads);
-
-      for (int q = 0; q < numthreads; q++) {
-        executor.execute(new TrainTermVectorThread(q));
-        VerbatimLogger.info("Started thread " + q + "\n");
-      }
+        this.trainingCycle = trainingcycle;
+        initializeRandomizationStartpoints(qsize);
+        totalQueueCount.set(0);
+        double cycleStart = System.currentTimeMillis();
+
+        int numthreads = flagConfig.numthreads();
+        ArrayList<TrainTermVectorWorker> workers = new ArrayList<TrainTermVectorWorker>();
+        for (int q = 0; q < numthreads; q++) {
+          workers.add(new TrainTermVectorWorker(q));
+        }
+        TrainingPipeline<DocIdTerms> pipeline =
+            new TrainingPipeline<DocIdTerms>(PIPELINE_BATCH_SIZE, PIPELINE_BATCHES_PER_THREAD * numthreads);
+        try {
+          pipeline.run(corpusCache == null ? new TermVectorSource() : new CachedSequenceSource(), workers);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while training term vectors", e);
+        }
 
-      executor.shutdown();
-      // Wait until all threads are finish
-      while (!executor.isTerminated()) {
+        VerbatimLogger.info("\nTime for training cycle " + (System.currentTimeMillis() - cycleStart) + "ms \n");
+        VerbatimLogger.info("\nProcessed " +totalQueueCount.get() +" documents");
+        VerbatimLogger.info("\nTraining pipeline: " + pipeline + "\n");
+      } //end of training cycles
 
-    	  if (theQ.size() < qsize/4)
-    	  { populateQueue(); }
+      if (embeddingMatrices != null) {
+        embeddingMatrices.writeTo(semanticTermVectors, elementalTermVectors);
+        embeddingMatrices = null;
       }
-
-      VerbatimLogger.info("\nTime for training cycle " + (System.currentTimeMillis() - cycleStart) + "ms \n");
-      VerbatimLogger.info("\nProcessed " +totalQueueCount.get() +" documents");
-    } //end of training cycles
+    } finally {
+      if (corpusCache != null) {
+        corpusCache.close();
+        corpusCache = null;
+        cacheTrainingOrdinals = null;
+        cacheSubsamplingProbabilities = null;
+      }
+    }
     
     VerbatimLogger.info("\nCreated " + semanticTermVectors.getNumVectors() + " term vectors ...\n");
 
@@ -557,6 +652,55 @@ private ConcurrentLinkedQueue<Integer> randomStartpoints;
     }
   }
 
+  /**
+   * Opens the corpus cache given by {@link FlagConfig#corpuscache()}, first writing it from the
+   * Lucene index if there is no such file, or if the file was written from another version of
+   * the index, for other fields or with other term filter settings. Terms without semantic
+   * vectors are dropped as the cache is read. The training ordinal and subsampling probability
+   * of each term in the cache are looked up here, once for all training cycles.
+   */
+  private void openCorpusCache() throws IOException {
+    if (!new File(flagConfig.corpuscache()).isFile()) {
+      PositionalCorpusCache.write(luceneUtils, flagConfig.contentsfields(), flagConfig.corpuscache());
+    }
+    corpusCache = new PositionalCorpusCache(flagConfig.corpuscache(), semanticTermVectors);
+    if (corpusCache.getNumDocs() != luceneUtils.getNumDocs()
+        || corpusCache.getIndexVersion() != luceneUtils.getIndexVersion()
+        || !corpusCache.getTermFilterSettings().equals(luceneUtils.getTermFilterSettings())
+        || !Arrays.equals(corpusCache.getFields(), flagConfig.contentsfields())) {
+      VerbatimLogger.warning("Corpus cache " + flagConfig.corpuscache() + " was written from index version "
+          + corpusCache.getIndexVersion() + " with fields " + Arrays.toString(corpusCache.getFields())
+          + " and term filters '" + corpusCache.getTermFilterSettings()
+          + "', which do not match the Lucene index and flags. Rewriting it.\n");
+      corpusCache.close();
+      corpusCache = null;
+      PositionalCorpusCache.write(luceneUtils, flagConfig.contentsfields(), flagConfig.corpuscache());
+      corpusCache = new PositionalCorpusCache(flagConfig.corpuscache(), semanticTermVectors);
+    }
+
+    String[] fields = corpusCache.getFields();
+    if (embeddingMatrices != null) {
+      cacheTrainingOrdinals = new int[corpusCache.getNumTerms()];
+      Arrays.fill(cacheTrainingOrdinals, -1);
+    }
+    if (subsamplingProbabilities != null) {
+      cacheSubsamplingProbabilities = new double[fields.length][corpusCache.getNumTerms()];
+    }
+    for (int ordinal = 0; ordinal < corpusCache.getNumTerms(); ++ordinal) {
+      String term = corpusCache.getTerm(ordinal);
+      if (term == null) continue;
+      if (cacheTrainingOrdinals != null) {
+        cacheTrainingOrdinals[ordinal] = embeddingMatrices.getOrdinal(term);
+      }
+      if (cacheSubsamplingProbabilities != null) {
+        for (int fieldIndex = 0; fieldIndex < fields.length; ++fieldIndex) {
+          Double probability = subsamplingProbabilities.get(fields[fieldIndex] + ":" + term);
+          if (probability != null) cacheSubsamplingProbabilities[fieldIndex][ordinal] = probability;
+        }
+      }
+    }
+  }
+
   private void processEmbeddings(
       Vector embeddingVector, ArrayList<Vector> contextVectors,
       ArrayList<Integer> contextLabels, double learningRate, BLAS blas) {
@@ -606,74 +750,101 @@ private ConcurrentLinkedQueue<Integer> randomStartpoints;
    * term frequencies and (3) term positions within a
    * document. The index of a particular term within this array
    * will be referred to as the 'local index' in comments.
+   *
+   * @param gradient buffer for {@link #processEmbeddingWindows}, reused by the calling thread
+   * @param negatives buffer for {@link #processEmbeddingWindows}, reused by the calling thread
    * @throws IOException
    */
-  private void processTermPositionVector(DocIdTerms terms, String field, BLAS blas)
-      throws ArrayIndexOutOfBoundsException, IOException {
+  private void processTermPositionVector(DocIdTerms terms, String field, BLAS blas,
+      float[] gradient, int[] negatives) throws ArrayIndexOutOfBoundsException, IOException {
     if (terms == null) return;
 
-    //Reconstruct document from term positions
-    Hashtable<Integer, String> localTermPositions = new Hashtable<Integer, String>();
-
-    //To accommodate "dynamic" sliding window that includes indexed/sampled terms only
-    ArrayList<Integer> thePositions = new ArrayList<Integer>();
-
-    TermsEnum termsEnum = terms.terms.iterator(null);
-    BytesRef text;
-   
     Integer docID = terms.docID; 
-    
-    while ((text = termsEnum.next()) != null) {
-      String theTerm = text.utf8ToString();
-      if (!semanticTermVectors.containsVector(theTerm)) continue;
+    Random random = RandomStreams.forStream(flagConfig.seed(), trainingCycle, docID, terms.field.hashCode());
 
-      DocsAndPositionsEnum docsAndPositions = termsEnum.docsAndPositions(null, null);
-      if (docsAndPositions == null) continue;
-      docsAndPositions.nextDoc();
-  
-      int freq = docsAndPositions.freq();
-     
-      //iterate through all positions of this term
-      for (int x = 0; x < freq; x++) {
+    //To accommodate "dynamic" sliding window that includes indexed/sampled terms only
+    int[] thePositions;
+    String[] localTerms = null;
+    int[] localOrdinals = null;
+    int numPositions = 0;
+
+    //Reconstruct document from term positions, or take it from the corpus cache.
+    //Terms that share a position (e.g., synonyms added by an analyzer) each take a place in the
+    //sequence, in term order. Before the corpus cache was added, the last such term took the place of the others.
+    if (terms.sequence != null) {
+      //Terms from the corpus cache are ordinals in its table of terms, and are subsampled by ordinal.
+      OrdinalSequence sequence = terms.sequence;
+      double[] subsampling = cacheSubsamplingProbabilities == null ? null
+          : cacheSubsamplingProbabilities[sequence.fieldIndex];
+      thePositions = new int[sequence.size()];
+      localOrdinals = new int[sequence.size()];
+      for (int x = 0; x < sequence.size(); x++) {
+        int ordinal = sequence.ordinals[x];
 
-        int thePosition = docsAndPositions.nextPosition();
+        //subsampling of frequent terms
+        if (subsampling == null || subsampling[ordinal] == 0 || random.nextDouble() > subsampling[ordinal]) {
+          thePositions[numPositions] = sequence.positions[x];
+          localOrdinals[numPositions] = ordinal;
+          numPositions++;
+        }
+      }
+    } else {
+      TermSequence sequence =
+          PositionalCorpusCache.readTermVector(terms.docID, field, terms.terms, semanticTermVectors);
+      thePositions = new int[sequence.size()];
+      localTerms = new String[sequence.size()];
+      for (int x = 0; x < sequence.size(); x++) {
+        String theTerm = sequence.terms[x];
 
         //subsampling of frequent terms
         if (subsamplingProbabilities == null || !subsamplingProbabilities.containsKey(field + ":" + theTerm) || random.nextDouble() > subsamplingProbabilities.get(field + ":" + theTerm)) {
-          localTermPositions.put(thePosition, theTerm);
-          thePositions.add(thePosition);
-            } 
+          thePositions[numPositions] = sequence.positions[x];
+          localTerms[numPositions] = theTerm;
+          numPositions++;
+        }
       }
     }
 
-    // Sort positions with indexed/sampled terms
+    // The sequence is sorted by position, and the positions with indexed/sampled terms are kept in order.
     // Effectively this compresses the sequence of terms in this document, such that
     // terms that were subsampled, stoplisted, or didn't meet frequencey thresholds
     // do not result in "blank" positions - rather, they are squeezed out of the sequence
-    Collections.sort(thePositions);
 
-    //vestigial code for the purpose of error checking for sequence reconstruction from Lucene
-    //int cnt=0;
-    //for (int index:thePositions)
-    //System.out.println(++cnt+" "+index+" "+localTermPositions.get(index));
+    if (embeddingMatrices != null) {
+      if (localOrdinals != null) {
+        for (int x = 0; x < numPositions; x++) localOrdinals[x] = cacheTrainingOrdinals[localOrdinals[x]];
+      } else {
+        localOrdinals = new int[numPositions];
+        for (int x = 0; x < numPositions; x++) localOrdinals[x] = embeddingMatrices.getOrdinal(localTerms[x]);
+      }
+      processEmbeddingWindows(docID, thePositions, localOrdinals, numPositions, random, gradient, negatives);
+      totalDocCount.incrementAndGet();
+      return;
+    }
+
+    if (localTerms == null) {
+      localTerms = new String[numPositions];
+      for (int x = 0; x < numPositions; x++) localTerms[x] = corpusCache.getTerm(localOrdinals[x]);
+    }
 
     //move the sliding window through the sequence (the focus position is the position of the "observed" term)
-    for (int focusposn : thePositions) {
+    for (int focusindex = 0; focusindex < numPositions; focusindex++) {
 
-      String focusterm = localTermPositions.get(focusposn);
+      int focusposn = thePositions[focusindex];
+      String focusterm = localTerms[focusindex];
 
       //word2vec uniformly samples the window size - we will try this too
       int effectiveWindowRadius = flagConfig.windowradius();
       if (flagConfig.subsampleinwindow) effectiveWindowRadius = random.nextInt(flagConfig.windowradius()) + 1;
 
       int windowstart = Math.max(0, focusposn - effectiveWindowRadius);
-      int windowend = Math.min(focusposn + effectiveWindowRadius, thePositions.size());
+      int windowend = Math.min(focusposn + effectiveWindowRadius, numPositions);
 
       for (int cursor = windowstart; cursor < windowend; cursor++) {
 
 	  if (cursor == focusposn && !flagConfig.positionalmethod().equals(PositionalMethod.EMBEDDINGS)) continue;
 
-        String coterm = localTermPositions.get(thePositions.get(cursor));
+        String coterm = localTerms[cursor];
         
         Vector toSuperpose = elementalTermVectors.getVector(coterm);
 
@@ -695,16 +866,12 @@ private ConcurrentLinkedQueue<Integer> randomStartpoints;
           //by Mikolov and other authors
           while (contextVectors.size() <= flagConfig.negsamples) {
             Vector randomTerm = null;
-            double max = totalPool; //total (non unique) term count
 
             while (randomTerm == null) {
-              double test = random.nextDouble()*max;
-              if (termDic.ceilingEntry(test) != null) {
-            	  String testTerm = termDic.ceilingEntry(test).getValue();
-              		if (! testTerm.equals(coterm))
-              		randomTerm = elementalTermVectors.getVector(testTerm);
-              }
-              	}
+              int ordinal = negativeSampler.sample(random);
+              if (!negativeSampler.getTerm(ordinal).equals(coterm))
+                randomTerm = negativeSampler.getVector(ordinal);
+            }
 
             contextVectors.add(randomTerm);
             contextLabels.add(0);
@@ -754,4 +921,61 @@ private ConcurrentLinkedQueue<Integer> randomStartpoints;
 
     totalDocCount.incrementAndGet();
   }
+
+  /**
+   * Implementation of skipgram with negative sampling (Mikolov 2013) on the
+   * {@link #embeddingMatrices}, moving the same sliding window as
+   * {@link #processTermPositionVector} over the ordinals of the terms in the matrices.
+   * Terms without ordinals (-1), i.e., not in the vocabulary built for this corpus, are left out.
+   * Both arrays are compacted in place.
+   */
+  private void processEmbeddingWindows(int docID, int[] thePositions, int[] localOrdinals, int numPositions,
+      Random random, float[] gradient, int[] negatives) {
+    int numOrdinals = 0;
+    for (int x = 0; x < numPositions; x++) {
+      int ordinal = localOrdinals[x];
+      if (ordinal >= 0) {
+        thePositions[numOrdinals] = thePositions[x];
+        localOrdinals[numOrdinals] = ordinal;
+        numOrdinals++;
+      }
+    }
+    if (numOrdinals == 0) return;
+
+    //include the focus term when training document vectors
+    float[] docCoordinates = null;
+    if (flagConfig.docindexing().equals(DocIndexingStrategy.INMEMORY)) {
+      if (!embeddingDocVectors.containsVector(docID))
+        embeddingDocVectors.putVector(docID, VectorFactory.generateRandomVector(flagConfig.vectortype(), flagConfig.dimension(), flagConfig.seedlength, random));
+      docCoordinates = ((RealVector) embeddingDocVectors.getVector(docID)).getCoordinates();
+    }
+
+    for (int focusindex = 0; focusindex < numOrdinals; focusindex++) {
+      int focusposn = thePositions[focusindex];
+      int focus = localOrdinals[focusindex];
+
+      //word2vec uniformly samples the window size - we will try this too
+      int effectiveWindowRadius = flagConfig.windowradius();
+      if (flagConfig.subsampleinwindow) effectiveWindowRadius = random.nextInt(flagConfig.windowradius()) + 1;
+
+      int windowstart = Math.max(0, focusposn - effectiveWindowRadius);
+      int windowend = Math.min(focusposn + effectiveWindowRadius, numOrdinals);
+
+      for (int cursor = windowstart; cursor < windowend; cursor++) {
+        int context = localOrdinals[cursor];
+        float learningRate = (float) alpha;
+
+        //negative samples are drawn with a probability of (global occurrence)^0.75
+        for (int n = 0; n < negatives.length; n++) {
+          negatives[n] = embeddingMatrices.sampleNegative(random, context);
+        }
+
+        if (cursor != focusposn) //skip the focus term when training term vectors
+          embeddingMatrices.trainInput(focus, context, negatives, negatives.length, learningRate, gradient);
+
+        if (docCoordinates != null)
+          embeddingMatrices.train(docCoordinates, 0, context, negatives, negatives.length, learningRate, gradient);
+      }
+    }
+  }
 }
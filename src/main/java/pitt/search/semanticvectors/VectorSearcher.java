@@ -45,6 +45,13 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import org.apache.lucene.document.Document;
@@ -60,11 +67,15 @@ import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 
 import pitt.search.semanticvectors.LuceneUtils;
+import pitt.search.semanticvectors.utils.TopKCollector;
 import pitt.search.semanticvectors.VectorStore;
 import pitt.search.semanticvectors.vectors.BinaryVector;
 import pitt.search.semanticvectors.vectors.BinaryVectorUtils;
+import pitt.search.semanticvectors.vectors.ComplexVector;
 import pitt.search.semanticvectors.vectors.IncompatibleVectorsException;
+import pitt.search.semanticvectors.vectors.RealVector;
 import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorEncoding;
 import pitt.search.semanticvectors.vectors.VectorFactory;
 import pitt.search.semanticvectors.vectors.VectorType;
 import pitt.search.semanticvectors.vectors.VectorUtils;
@@ -74,112 +85,39 @@ import pitt.search.semanticvectors.vectors.ZeroVectorException;
  * Class for searching vector stores using different scoring functions.
  * Each VectorSearcher implements a particular scoring function which is
  * normally query dependent, so each query needs its own VectorSearcher.
+ *
+ * If {@link FlagConfig#parallelsearch()} is set, {@link #getNearestNeighbors}
+ * scores the search store on {@link FlagConfig#numthreads()} worker threads, each using
+ * its own copy of the searcher made by {@link #copyForWorker}.
  */
-abstract public class VectorSearcher {
+abstract public class VectorSearcher implements Cloneable {
   private static final Logger logger = Logger.getLogger(VectorSearcher.class.getCanonicalName());
 
+  /** Number of store vectors handed to a worker at a time in parallel search. */
+  private static final int PARALLEL_BLOCK_SIZE = 1000;
+  /** Marks the end of the blocks of vectors given to parallel search workers. */
+  private static final List<ObjectVector> END_OF_INPUT = new ArrayList<ObjectVector>(0);
+
   private FlagConfig flagConfig;
   private VectorStore searchVecStore;
   private LuceneUtils luceneUtils;
+  private ExecutorService executorService;
 
   
   /**
-   * Expand search space for dual-predicate searches
+   * Expand search space for dual-predicate searches, returning an {@link ExpandedVectorStore}
+   * that computes released pairs of search vectors as it is enumerated.
    */  
   public static VectorStore expandSearchSpace(VectorStore searchVecStore, FlagConfig flagConfig) {
-    VectorStoreRAM nusearchspace = new VectorStoreRAM(flagConfig);
-    Enumeration<ObjectVector> allVectors = searchVecStore.getAllVectors();
-    ArrayList<ObjectVector> storeVectors = new ArrayList<ObjectVector>();
-
-    while (allVectors.hasMoreElements()) {
-      ObjectVector nextObjectVector = allVectors.nextElement();
-      nusearchspace.putVector(nextObjectVector.getObject(), nextObjectVector.getVector());
-      storeVectors.add(nextObjectVector);
-    }
-
-    for (int x=0; x < storeVectors.size()-2; x++) {
-      for (int y=x; y < storeVectors.size()-1; y++) {
-       Vector vec1 = storeVectors.get(x).getVector().copy();
-        Vector vec2 = storeVectors.get(y).getVector().copy();
-       
-        String obj1 = storeVectors.get(x).getObject().toString();
-        String obj2 = storeVectors.get(y).getObject().toString();
-        
-        if (obj1.equals(obj2)) continue;
-        
-        vec1.release(vec2);
-        nusearchspace.putVector(obj2+":"+obj1, vec1.copy());
-
-        if (flagConfig.vectortype().equals(VectorType.COMPLEX)) {
-          vec2.release(storeVectors.get(x).getVector().copy());
-          nusearchspace.putVector(obj1+":"+obj2, vec2);
-        }
-        
-      }
-    }
-    
-    
-    
-    
-   // System.err.println("Expanding search space from "+storeVectors.size()+" to "+nusearchspace.getNumVectors());
-    return nusearchspace;
+    return new ExpandedVectorStore(searchVecStore, flagConfig, false);
   }
   
   /**
-   * Expand search space for triple-predicate searches
+   * Expand search space for triple-predicate searches, returning an {@link ExpandedVectorStore}
+   * that computes released pairs and triples of search vectors as it is enumerated.
    */  
   public static VectorStore expandSearchSpace3(VectorStore searchVecStore, FlagConfig flagConfig) {
-    VectorStoreRAM nusearchspace = new VectorStoreRAM(flagConfig);
-    Enumeration<ObjectVector> allVectors = searchVecStore.getAllVectors();
-    ArrayList<ObjectVector> storeVectors = new ArrayList<ObjectVector>();
-
-    while (allVectors.hasMoreElements()) {
-      ObjectVector nextObjectVector = allVectors.nextElement();
-      nusearchspace.putVector(nextObjectVector.getObject(), nextObjectVector.getVector());
-      storeVectors.add(nextObjectVector);
-    }
-
-    for (int x=0; x < storeVectors.size()-2; x++) {
-      for (int y=x; y < storeVectors.size()-1; y++) {
-    	  for (int z=y; z < storeVectors.size(); z++) {
-        Vector vec1 = storeVectors.get(x).getVector().copy();
-        Vector vec2 = storeVectors.get(y).getVector().copy();
-        Vector vec3 = storeVectors.get(z).getVector().copy();
-       
-        String obj1 = storeVectors.get(x).getObject().toString();
-        String obj2 = storeVectors.get(y).getObject().toString();
-        String obj3 = storeVectors.get(z).getObject().toString();
-        
-        if (obj1.equals(obj2)) continue;
-        
-        vec1.release(vec2);
-        nusearchspace.putVector(obj2+":"+obj1, vec1.copy());
-
-        if (flagConfig.vectortype().equals(VectorType.COMPLEX)) {
-          vec2.release(storeVectors.get(x).getVector().copy());
-          nusearchspace.putVector(obj1+":"+obj2, vec2);
-        }
-        
-        if (obj3.equals(obj2) || obj3.equals(obj1)) continue;
-        
-        vec1.release(vec3);
-        nusearchspace.putVector(obj1+":"+obj2+":"+obj3, vec1);
-
-        if (flagConfig.vectortype().equals(VectorType.COMPLEX)) {
-          vec3.release(vec2);
-          nusearchspace.putVector(obj3+":"+obj2+":"+obj1, vec2);
-        }
-        
-        
-    	  } 
-      }
-    }
-    
-    
-    
-    
-    System.err.println("Expanding search space from "+storeVectors.size()+" to "+nusearchspace.getNumVectors());
-    return nusearchspace;
+    return new ExpandedVectorStore(searchVecStore, flagConfig, true);
   }
 
   /**
@@ -209,6 +147,104 @@ abstract public class VectorSearcher {
     }
   }
 
+  /**
+   * Returns the store actually searched: the store given to the constructor, or its expansion
+   * if {@link FlagConfig#expandsearchspace()} or {@link FlagConfig#expandsearchspace3()} is set.
+   */
+  protected VectorStore getSearchVecStore() {
+    return searchVecStore;
+  }
+
+  /**
+   * Sets the executor used by parallel search. If none is set, each parallel search
+   * creates and shuts down its own pool of {@link FlagConfig#numthreads()} threads.
+   */
+  public void setExecutorService(ExecutorService executorService) {
+    this.executorService = executorService;
+  }
+
+  /** Returns the executor set by {@link #setExecutorService}, or null if none has been set. */
+  protected ExecutorService getExecutorService() {
+    return executorService;
+  }
+
+  /**
+   * Returns a copy of this searcher for use by a single worker thread in parallel search.
+   * Makes a shallow copy and calls {@link #copyQueryState} so that the copy can score
+   * vectors without sharing any mutable state with this searcher.
+   */
+  protected VectorSearcher copyForWorker() {
+    try {
+      VectorSearcher copy = (VectorSearcher) this.clone();
+      copy.copyQueryState();
+      return copy;
+    } catch (CloneNotSupportedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Replaces any vectors used by {@link #getScore} with private copies. Needed because
+   * {@link Vector#measureOverlap} may change the representation of the vectors it compares.
+   * Subclasses with query vectors should override this.
+   */
+  protected void copyQueryState() {}
+
+  /** Returns a list containing copies of the given vectors. */
+  protected static ArrayList<Vector> copyVectors(ArrayList<Vector> vectors) {
+    ArrayList<Vector> copies = new ArrayList<Vector>(vectors.size());
+    for (Vector vector : vectors) {
+      copies.add(vector.copy());
+    }
+    return copies;
+  }
+
+  /**
+   * Returns the single vector that this searcher compares with each candidate using
+   * {@code measureOverlap}, if there is one, so that candidates can be chosen using an
+   * {@link IvfIndex}. Searchers that combine several query vectors return null, and
+   * always scan the whole search store.
+   */
+  protected Vector getIndexQueryVector() {
+    return null;
+  }
+
+  /**
+   * Returns the vectors to be scored: those in the lists of the search store's {@link IvfIndex}
+   * nearest the query if {@link FlagConfig#ivfsearch()} is set and there is an index, otherwise
+   * all the vectors in the search store.
+   */
+  protected Enumeration<ObjectVector> getCandidateVectors() {
+    if (flagConfig.ivfsearch() && !flagConfig.stdev()) {
+      Vector indexQueryVector = getIndexQueryVector();
+      if (indexQueryVector != null) {
+        IvfIndex index = IvfIndex.getIndexForStore(searchVecStore, flagConfig);
+        if (index != null) {
+          return index.getCandidateVectors(indexQueryVector, flagConfig.ivfnprobe());
+        }
+      }
+    }
+    return searchVecStore.getAllVectors();
+  }
+
+  /**
+   * Returns the score for this element, reweighted by global term weight if
+   * {@link FlagConfig#usetermweightsinsearch()} is set.
+   */
+  protected double getWeightedScore(ObjectVector testElement) {
+    double score = getScore(testElement.getVector());
+    // This is a way of using the Lucene Index to get term and
+    // document frequency information to reweight all results. It
+    // seems to be good at moving excessively common terms further
+    // down the results. Note that using this means that scores
+    // returned are no longer just cosine similarities.
+    if (this.luceneUtils != null && flagConfig.usetermweightsinsearch()) {
+      score = score *
+          luceneUtils.getGlobalTermWeightFromString((String) testElement.getObject());
+    }
+    return score;
+  }
+
   /**
    * This nearest neighbor search is implemented in the abstract
    * VectorSearcher class itself: this enables all subclasses to reuse
@@ -219,38 +255,27 @@ abstract public class VectorSearcher {
    * @param numResults the number of results / length of the result list.
    */
   public LinkedList<SearchResult> getNearestNeighbors(int numResults) {
-    final double unsetScore = -Math.PI;
-    final int bufferSize = 1000;
-    final int indexSize = numResults + bufferSize;
+    if (flagConfig.parallelsearch() && flagConfig.numthreads() > 1) {
+      return getNearestNeighborsParallel(numResults);
+    }
     LinkedList<SearchResult> results = new LinkedList<SearchResult>();
-    List<SearchResult> tmpResults = new ArrayList<SearchResult>(indexSize);
+    if (numResults <= 0) {
+      return results;
+    }
+    TopKCollector topResults = new TopKCollector(numResults);
+    ObjectVector[] heldElements = new ObjectVector[numResults];
     double score = -1;
     double threshold = flagConfig.searchresultsminscore();
     if (flagConfig.stdev()) threshold = 0;
     //Counters for statistics to calculate standard deviation
     double sum=0, sumsquared=0;
     int count=0;
-    int pos = 0;
-    for(int i=0; i < indexSize; i++)
-    {
-      tmpResults.add(new SearchResult(unsetScore, null));
-    }
 
-    Enumeration<ObjectVector> vecEnum = searchVecStore.getAllVectors();
+    Enumeration<ObjectVector> vecEnum = getCandidateVectors();
     while (vecEnum.hasMoreElements()) {
       // Test this element.
       ObjectVector testElement = vecEnum.nextElement();
-      score = getScore(testElement.getVector());
-
-      // This is a way of using the Lucene Index to get term and
-      // document frequency information to reweight all results. It
-      // seems to be good at moving excessively common terms further
-      // down the results. Note that using this means that scores
-      // returned are no longer just cosine similarities.
-      if (this.luceneUtils != null && flagConfig.usetermweightsinsearch()) {
-        score = score *
-            luceneUtils.getGlobalTermWeightFromString((String) testElement.getObject());
-      }
+      score = getWeightedScore(testElement);
 
       if (flagConfig.stdev()) {
     	double susq = Math.pow(score, 2);
@@ -263,36 +288,246 @@ abstract public class VectorSearcher {
     	}
 
       if (score > threshold) {
-        // set existing object in buffer space
-        tmpResults.get(numResults+pos++).set(score, testElement);
+        offerToCollector(topResults, heldElements, score, testElement);
       }
+    }
 
-      if(pos == bufferSize)
-      {
-        pos = 0;
-        Collections.sort(tmpResults);
-        threshold = tmpResults.get(indexSize - 1).getScore();
-      }
+    results = collectorToResults(topResults, heldElements);
+    if (flagConfig.stdev()) results = transformToStats(results, count, sum, sumsquared);
+
+    return results;
+  }
+
+  /**
+   * Offers an element to a collector whose ordinals are slots in {@code heldElements},
+   * storing the element in the slot it takes over (either a fresh one or that of the
+   * result it evicts).
+   */
+  static void offerToCollector(
+      TopKCollector collector, ObjectVector[] heldElements, double score, ObjectVector element) {
+    if (!collector.wouldAccept(score)) {
+      return;
     }
-    
-    Collections.sort(tmpResults);
-    
-    for(int i = 0; i < numResults; i++)
-    {
-      SearchResult sr = tmpResults.get(i);
-      if(sr.getScore() == unsetScore)
-      {
-        break;
+    int slot = collector.isFull() ? collector.getOrdinal(0) : collector.size();
+    heldElements[slot] = element;
+    collector.offer(score, slot);
+  }
+
+  /**
+   * Sorts the collector and creates the search results for the elements it holds,
+   * best first.
+   */
+  static LinkedList<SearchResult> collectorToResults(
+      TopKCollector collector, ObjectVector[] heldElements) {
+    LinkedList<SearchResult> results = new LinkedList<SearchResult>();
+    int size = collector.sortDescending();
+    for (int i = 0; i < size; ++i) {
+      results.add(new SearchResult(collector.getScore(i), heldElements[collector.getOrdinal(i)]));
+    }
+    return results;
+  }
+
+  /**
+   * Parallel version of {@link #getNearestNeighbors}. The calling thread enumerates the
+   * search store and hands blocks of vectors to {@link FlagConfig#numthreads()} workers.
+   * Each worker scores with its own copy of this searcher and keeps its own bounded list
+   * of top results, and these lists are merged at the end.
+   *
+   * @param numResults the number of results / length of the result list.
+   */
+  protected LinkedList<SearchResult> getNearestNeighborsParallel(int numResults) {
+    if (numResults <= 0) {
+      return new LinkedList<SearchResult>();
+    }
+    int numWorkers = flagConfig.numthreads();
+    BlockingQueue<List<ObjectVector>> blocks =
+        new ArrayBlockingQueue<List<ObjectVector>>(2 * numWorkers);
+    ExecutorService executor = executorService;
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(numWorkers);
+    }
+
+    List<Future<NearestNeighborWorker>> futures = new ArrayList<Future<NearestNeighborWorker>>();
+    LinkedList<SearchResult> results = new LinkedList<SearchResult>();
+    double sum = 0, sumsquared = 0;
+    int count = 0;
+    try {
+      for (int i = 0; i < numWorkers; ++i) {
+        futures.add(executor.submit(new NearestNeighborWorker(
+            copyForWorker(), blocks, getWorkerPartition(i, numWorkers), numResults)));
+      }
+
+      putCandidateBlocks(blocks, futures.size());
+
+      TopKCollector merged = new TopKCollector(numResults);
+      ObjectVector[] heldElements = new ObjectVector[numResults];
+      for (Future<NearestNeighborWorker> future : futures) {
+        NearestNeighborWorker worker = future.get();
+        if (worker.failure != null) {
+          throw worker.failure;
+        }
+        for (int i = 0; i < worker.topResults.size(); ++i) {
+          offerToCollector(merged, heldElements, worker.topResults.getScore(i),
+              worker.heldElements[worker.topResults.getOrdinal(i)]);
+        }
+        sum += worker.sum;
+        sumsquared += worker.sumsquared;
+        count += worker.count;
+      }
+      results = collectorToResults(merged, heldElements);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted during parallel search", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Parallel search failed", e.getCause());
+    } finally {
+      if (executor != executorService) {
+        executor.shutdownNow();
       }
-      results.add(sr);
     }
-    
-    if (flagConfig.stdev()) results = transformToStats(results, count, sum, sumsquared);
 
-    
+    if (flagConfig.stdev()) results = transformToStats(results, count, sum, sumsquared);
     return results;
   }
 
+  /** Returns true if parallel search workers should each enumerate a partition of the store. */
+  private boolean isPartitionedSearch() {
+    return searchVecStore instanceof PartitionedVectorStore && !flagConfig.ivfsearch();
+  }
+
+  /**
+   * Returns the partition of the search store for the given worker to enumerate itself, or
+   * null if the worker should take blocks from the queue instead.
+   */
+  private Enumeration<ObjectVector> getWorkerPartition(int worker, int numWorkers) {
+    if (!isPartitionedSearch()) {
+      return null;
+    }
+    return ((PartitionedVectorStore) searchVecStore).getAllVectors(worker, numWorkers);
+  }
+
+  /**
+   * Puts the candidate vectors into the queue in blocks of {@link #PARALLEL_BLOCK_SIZE}, then
+   * puts {@link #END_OF_INPUT} once for each of numWorkers workers, even if enumeration fails.
+   * Does nothing for partitioned stores, whose workers enumerate their own partitions.
+   */
+  private void putCandidateBlocks(BlockingQueue<List<ObjectVector>> blocks, int numWorkers)
+      throws InterruptedException {
+    if (isPartitionedSearch()) {
+      return;
+    }
+    try {
+      putBlocks(getCandidateVectors(), blocks);
+    } finally {
+      for (int i = 0; i < numWorkers; ++i) {
+        blocks.put(END_OF_INPUT);
+      }
+    }
+  }
+
+  /** Puts the vectors from the enumeration into the queue in blocks of {@link #PARALLEL_BLOCK_SIZE}. */
+  private static void putBlocks(Enumeration<ObjectVector> vecEnum, BlockingQueue<List<ObjectVector>> blocks)
+      throws InterruptedException {
+    List<ObjectVector> block = new ArrayList<ObjectVector>(PARALLEL_BLOCK_SIZE);
+    while (vecEnum.hasMoreElements()) {
+      block.add(vecEnum.nextElement());
+      if (block.size() == PARALLEL_BLOCK_SIZE) {
+        blocks.put(block);
+        block = new ArrayList<ObjectVector>(PARALLEL_BLOCK_SIZE);
+      }
+    }
+    if (!block.isEmpty()) {
+      blocks.put(block);
+    }
+  }
+
+  /**
+   * Base for parallel search workers. A worker either takes blocks of vectors from a queue
+   * shared with the other workers, or enumerates a partition of the store of its own.
+   */
+  private abstract static class BlockWorker {
+    private final BlockingQueue<List<ObjectVector>> blocks;
+    private final Enumeration<ObjectVector> partition;
+    RuntimeException failure = null;
+
+    BlockWorker(BlockingQueue<List<ObjectVector>> blocks, Enumeration<ObjectVector> partition) {
+      this.blocks = blocks;
+      this.partition = partition;
+    }
+
+    /**
+     * Returns the next block of vectors to score, or {@link #END_OF_INPUT} if there are none left.
+     * After a failure, the queue is still drained so that the producer is not blocked, but a
+     * partition is abandoned.
+     */
+    List<ObjectVector> nextBlock() throws InterruptedException {
+      if (partition == null) {
+        return blocks.take();
+      }
+      if (failure != null) {
+        return END_OF_INPUT;
+      }
+      List<ObjectVector> block = new ArrayList<ObjectVector>(PARALLEL_BLOCK_SIZE);
+      while (block.size() < PARALLEL_BLOCK_SIZE && partition.hasMoreElements()) {
+        block.add(partition.nextElement());
+      }
+      return block.isEmpty() ? END_OF_INPUT : block;
+    }
+  }
+
+  /**
+   * Worker for {@link VectorSearcher#getNearestNeighborsParallel}. Takes blocks of vectors
+   * from the queue until it finds {@link #END_OF_INPUT}, scoring them with its own searcher.
+   */
+  private static class NearestNeighborWorker extends BlockWorker
+      implements Callable<NearestNeighborWorker> {
+
+    private final VectorSearcher searcher;
+    /** Best results so far; ordinals are slots in {@link #heldElements}. */
+    final TopKCollector topResults;
+    final ObjectVector[] heldElements;
+    double sum = 0, sumsquared = 0;
+    int count = 0;
+
+    NearestNeighborWorker(VectorSearcher searcher, BlockingQueue<List<ObjectVector>> blocks,
+        Enumeration<ObjectVector> partition, int numResults) {
+      super(blocks, partition);
+      this.searcher = searcher;
+      this.topResults = new TopKCollector(numResults);
+      this.heldElements = new ObjectVector[numResults];
+    }
+
+    @Override
+    public NearestNeighborWorker call() throws InterruptedException {
+      FlagConfig flagConfig = searcher.flagConfig;
+      double threshold = flagConfig.stdev() ? 0 : flagConfig.searchresultsminscore();
+      while (true) {
+        List<ObjectVector> block = nextBlock();
+        if (block == END_OF_INPUT) {
+          return this;
+        }
+        if (failure != null) {
+          continue;
+        }
+        try {
+          for (ObjectVector testElement : block) {
+            double score = searcher.getWeightedScore(testElement);
+            if (flagConfig.stdev() && !Double.isNaN(score * score)) {
+              count++;
+              sum += score;
+              sumsquared += score * score;
+            }
+            if (score > threshold) {
+              offerToCollector(topResults, heldElements, score, testElement);
+            }
+          }
+        } catch (RuntimeException e) {
+          failure = e;
+        }
+      }
+    }
+  }
+
   /**
    * This search is implemented in the abstract
    * VectorSearcher class itself: this enables all subclasses to reuse
@@ -308,30 +543,176 @@ abstract public class VectorSearcher {
    * @param threshold minimum score required to get into results list.
    */
   public LinkedList<SearchResult> getAllAboveThreshold(float threshold) {
-    LinkedList<SearchResult> results = new LinkedList<SearchResult>();
-    double score;
+    final LinkedList<SearchResult> results = new LinkedList<SearchResult>();
+    streamAllAboveThreshold(threshold, new ResultConsumer() {
+      @Override
+      public void accept(SearchResult result) {
+        results.add(result);
+      }
+    });
+    Collections.sort(results);
+    return results;
+  }
+
+  /**
+   * Receives search results from {@link #streamAllAboveThreshold} as they are found.
+   */
+  public interface ResultConsumer {
+    /** Called for each result, in no particular order. */
+    void accept(SearchResult result);
+  }
+
+  /**
+   * Consumer that keeps only the best results it is given, up to a fixed number, so that
+   * memory use stays bounded however many results a threshold search finds.
+   */
+  public static class BoundedSortingConsumer implements ResultConsumer {
+    private final TopKCollector topResults;
+    private final ObjectVector[] heldElements;
+    private LinkedList<SearchResult> results = null;
+
+    public BoundedSortingConsumer(int maxResults) {
+      this.topResults = new TopKCollector(maxResults);
+      this.heldElements = new ObjectVector[maxResults];
+    }
+
+    @Override
+    public void accept(SearchResult result) {
+      if (results != null) {
+        throw new IllegalStateException("Results have already been sorted.");
+      }
+      offerToCollector(topResults, heldElements, result.getScore(), result.getObjectVector());
+    }
 
-    Enumeration<ObjectVector> vecEnum = null;
-    vecEnum = searchVecStore.getAllVectors();
+    /**
+     * Returns the best results, best first. Call once the search has finished, since no
+     * more results can be accepted afterwards.
+     */
+    public LinkedList<SearchResult> getResults() {
+      if (results == null) {
+        results = collectorToResults(topResults, heldElements);
+      }
+      return new LinkedList<SearchResult>(results);
+    }
+  }
 
+  /**
+   * Finds the same results as {@link #getAllAboveThreshold}, but passes each one to
+   * consumer as soon as it is found rather than collecting and sorting them, so that
+   * callers can start work before the search finishes and need not hold all the results.
+   *
+   * <p>
+   * If {@link FlagConfig#parallelsearch()} is set, the store is scored in blocks on
+   * {@link FlagConfig#numthreads()} workers, and consumer is called from the worker threads.
+   * Calls are synchronized on consumer, so it is never called concurrently.
+   *
+   * @param threshold minimum score required for a result; if {@link Float#MIN_VALUE}, every
+   *        vector is a result.
+   * @param consumer receives the results.
+   */
+  public void streamAllAboveThreshold(float threshold, ResultConsumer consumer) {
+    if (flagConfig.parallelsearch() && flagConfig.numthreads() > 1) {
+      streamAllAboveThresholdParallel(threshold, consumer);
+      return;
+    }
+    Enumeration<ObjectVector> vecEnum = getCandidateVectors();
     while (vecEnum.hasMoreElements()) {
-      // Test this element.
       ObjectVector testElement = vecEnum.nextElement();
-      if (testElement == null) score = Float.MIN_VALUE;
-      else
-      {
+      double score = getThresholdScore(testElement);
+      if (score > threshold || threshold == Float.MIN_VALUE) {
+        consumer.accept(new SearchResult(score, testElement));
+      }
+    }
+  }
 
-        Vector testVector = testElement.getVector();
-        score = getScore(testVector);
+  /** Returns the unweighted score used in threshold searches, {@link Float#MIN_VALUE} for null elements. */
+  private double getThresholdScore(ObjectVector testElement) {
+    if (testElement == null) {
+      return Float.MIN_VALUE;
+    }
+    return getScore(testElement.getVector());
+  }
 
+  private void streamAllAboveThresholdParallel(float threshold, ResultConsumer consumer) {
+    int numWorkers = flagConfig.numthreads();
+    BlockingQueue<List<ObjectVector>> blocks =
+        new ArrayBlockingQueue<List<ObjectVector>>(2 * numWorkers);
+    ExecutorService executor = executorService;
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(numWorkers);
+    }
+
+    List<Future<ThresholdWorker>> futures = new ArrayList<Future<ThresholdWorker>>();
+    try {
+      for (int i = 0; i < numWorkers; ++i) {
+        futures.add(executor.submit(new ThresholdWorker(
+            copyForWorker(), blocks, getWorkerPartition(i, numWorkers), threshold, consumer)));
+      }
+      putCandidateBlocks(blocks, futures.size());
+      for (Future<ThresholdWorker> future : futures) {
+        ThresholdWorker worker = future.get();
+        if (worker.failure != null) {
+          throw worker.failure;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted during parallel search", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Parallel search failed", e.getCause());
+    } finally {
+      if (executor != executorService) {
+        executor.shutdownNow();
       }
+    }
+  }
 
-      if (score > threshold || threshold == Float.MIN_VALUE) {
-        results.add(new SearchResult(score, testElement));}
+  /**
+   * Worker for {@link VectorSearcher#streamAllAboveThreshold}. Scores blocks of vectors
+   * and passes each block's results to the consumer together.
+   */
+  private static class ThresholdWorker extends BlockWorker implements Callable<ThresholdWorker> {
+    private final VectorSearcher searcher;
+    private final float threshold;
+    private final ResultConsumer consumer;
+
+    ThresholdWorker(VectorSearcher searcher, BlockingQueue<List<ObjectVector>> blocks,
+        Enumeration<ObjectVector> partition, float threshold, ResultConsumer consumer) {
+      super(blocks, partition);
+      this.searcher = searcher;
+      this.threshold = threshold;
+      this.consumer = consumer;
     }
 
-    Collections.sort(results);
-    return results;
+    @Override
+    public ThresholdWorker call() throws InterruptedException {
+      List<SearchResult> blockResults = new ArrayList<SearchResult>();
+      while (true) {
+        List<ObjectVector> block = nextBlock();
+        if (block == END_OF_INPUT) {
+          return this;
+        }
+        if (failure != null) {
+          continue;
+        }
+        try {
+          blockResults.clear();
+          for (ObjectVector testElement : block) {
+            double score = searcher.getThresholdScore(testElement);
+            if (score > threshold || threshold == Float.MIN_VALUE) {
+              blockResults.add(new SearchResult(score, testElement));
+            }
+          }
+          synchronized (consumer) {
+            for (SearchResult result : blockResults) {
+              consumer.accept(result);
+            }
+          }
+        } catch (RuntimeException e) {
+          failure = e;
+        }
+      }
+    }
   }
 
   /**
@@ -348,6 +729,16 @@ abstract public class VectorSearcher {
       this.queryVector = queryVector;
     }
 
+    @Override
+    protected void copyQueryState() {
+      queryVector = queryVector.copy();
+    }
+
+    @Override
+    protected Vector getIndexQueryVector() {
+      return queryVector;
+    }
+
     @Override
     public double getScore(Vector testVector) {
       return queryVector.measureOverlap(testVector);
@@ -360,6 +751,25 @@ abstract public class VectorSearcher {
    */
   static public class VectorSearcherCosine extends VectorSearcher {
     Vector queryVector;
+    /** True if both query and search vectors are known to be normalized, see {@link NormalizedVectorStore}. */
+    boolean unitLengthScoring = false;
+    /** Index used in place of exhaustive search if {@link FlagConfig#hnswsearch()} is set. */
+    HnswIndex hnswIndex = null;
+    int hnswEfSearch;
+    double indexMinScore;
+    /** Index used in place of exhaustive search of binary vectors if {@link FlagConfig#mihsubstrings()} is set. */
+    MultiIndexHash multiIndexHash = null;
+    /** Quantized store searched in place of the search store if {@link FlagConfig#pqsearch()} is set. */
+    ProductQuantizedStore quantizedStore = null;
+    VectorStore rerankStore;
+    int pqRerank;
+    /** Sketches ranked before exact rescoring if {@link FlagConfig#sketchbits()} is set. */
+    SketchIndex sketchIndex = null;
+    int sketchRerank;
+    /** Quantized mapped store scored without decoding vectors, see {@link VectorStoreReaderMapped#searchEncoded}. */
+    VectorStoreReaderMapped encodedStore = null;
+    /** Number of ranges of the encoded store scored concurrently, following {@link FlagConfig#parallelsearch()}. */
+    int encodedPartitions = 1;
     /**
      * @param queryVecStore Vector store to use for query generation.
      * @param searchVecStore The vector store to search.
@@ -377,6 +787,8 @@ abstract public class VectorSearcher {
       if (this.queryVector.isZeroVector()) {
         throw new ZeroVectorException("Query vector is zero ... no results.");
       }
+      initUnitLengthScoring(getSearchVecStore());
+      initSearchIndex(getSearchVecStore(), luceneUtils, flagConfig);
     }
 
     /**
@@ -397,10 +809,139 @@ abstract public class VectorSearcher {
       if (this.queryVector.isZeroVector()) {
         throw new ZeroVectorException("Query vector is zero ... no results.");
       }
+      initUnitLengthScoring(getSearchVecStore());
+      initSearchIndex(getSearchVecStore(), luceneUtils, flagConfig);
+    }
+
+    /**
+     * Looks up the {@link MultiIndexHash} for binary search stores if {@link FlagConfig#mihsubstrings()}
+     * is set, the {@link ProductQuantizedStore} for real search stores if {@link FlagConfig#pqsearch()}
+     * is set, or else the {@link HnswIndex} for the search store if {@link FlagConfig#hnswsearch()} is set.
+     * Failing these, mapped search stores with a quantized {@link VectorEncoding} are scored directly
+     * unless {@link FlagConfig#ivfsearch()} is set.
+     * The index is not used with term weighting or {@link FlagConfig#stdev()}, which need every score.
+     */
+    private void initSearchIndex(VectorStore searchVecStore, LuceneUtils luceneUtils, FlagConfig flagConfig) {
+      if (flagConfig.stdev() || (luceneUtils != null && flagConfig.usetermweightsinsearch())) {
+        return;
+      }
+      indexMinScore = flagConfig.searchresultsminscore();
+      if (flagConfig.mihsubstrings() > 0 && queryVector instanceof BinaryVector) {
+        multiIndexHash = MultiIndexHash.getIndexForStore(searchVecStore, flagConfig);
+      } else if (flagConfig.pqsearch() && queryVector instanceof RealVector) {
+        quantizedStore = ProductQuantizedStore.getStoreForSearch(searchVecStore, flagConfig);
+        if (quantizedStore != null && flagConfig.pqrerank() > 0) {
+          rerankStore = ProductQuantizedStore.getRerankStore(searchVecStore);
+        }
+        pqRerank = flagConfig.pqrerank();
+      } else if (flagConfig.sketchbits() > 0
+          && (queryVector instanceof RealVector || queryVector instanceof ComplexVector)) {
+        sketchIndex = SketchIndex.getIndexForStore(searchVecStore, flagConfig);
+        sketchRerank = flagConfig.sketchrerank();
+      } else if (flagConfig.hnswsearch()) {
+        hnswIndex = HnswIndex.getIndexForStore(searchVecStore, flagConfig);
+        hnswEfSearch = flagConfig.hnswefsearch();
+      } else if (!flagConfig.ivfsearch() && searchVecStore instanceof VectorStoreReaderMapped) {
+        VectorStoreReaderMapped mappedStore = (VectorStoreReaderMapped) searchVecStore;
+        if (mappedStore.getVectorEncoding() != VectorEncoding.FLOAT32
+            && mappedStore.supportsEncodedSearch(queryVector)) {
+          encodedStore = mappedStore;
+          encodedPartitions = flagConfig.parallelsearch() ? flagConfig.numthreads() : 1;
+        }
+      }
+    }
+
+    /**
+     * If the search store is known to be normalized and the vector type has a plain scalar
+     * product that agrees with {@code measureOverlap} on unit vectors, switches to scoring with
+     * that product, using a normalized copy of the query vector.
+     */
+    private void initUnitLengthScoring(VectorStore searchVecStore) {
+      if (!(searchVecStore instanceof NormalizedVectorStore)
+          || !((NormalizedVectorStore) searchVecStore).isNormalized()) {
+        return;
+      }
+      if (queryVector instanceof RealVector
+          || (queryVector instanceof ComplexVector
+              && ComplexVector.getDominantMode() == ComplexVector.Mode.HERMITIAN)) {
+        queryVector = queryVector.copy();
+        queryVector.normalize();
+        unitLengthScoring = true;
+      }
+    }
+
+    /**
+     * Uses the {@link MultiIndexHash}, {@link ProductQuantizedStore}, {@link SketchIndex}, {@link HnswIndex}
+     * or encoded mapped search store if there is one, otherwise the exhaustive search in {@link VectorSearcher#getNearestNeighbors}.
+     */
+    @Override
+    public LinkedList<SearchResult> getNearestNeighbors(int numResults) {
+      if (multiIndexHash != null) {
+        return multiIndexHash.search((BinaryVector) queryVector, numResults, indexMinScore);
+      }
+      if (quantizedStore != null) {
+        return quantizedStore.search(queryVector, numResults, pqRerank, rerankStore, indexMinScore);
+      }
+      if (encodedStore != null) {
+        return encodedStore.searchEncoded(
+            queryVector, numResults, indexMinScore, getExecutorService(), encodedPartitions);
+      }
+      if (sketchIndex != null) {
+        return sketchIndex.search(queryVector, numResults, sketchRerank, indexMinScore);
+      }
+      if (hnswIndex != null) {
+        return hnswIndex.search(getSearchVecStore(), queryVector, numResults, hnswEfSearch, indexMinScore);
+      }
+      return super.getNearestNeighbors(numResults);
+    }
+
+    /**
+     * Uses the {@link MultiIndexHash} for the search store if there is one, otherwise
+     * the exhaustive search in {@link VectorSearcher#getAllAboveThreshold}.
+     */
+    @Override
+    public LinkedList<SearchResult> getAllAboveThreshold(float threshold) {
+      if (multiIndexHash != null) {
+        int radius = (threshold == Float.MIN_VALUE)
+            ? Integer.MAX_VALUE : multiIndexHash.maxDistanceAbove(threshold);
+        return multiIndexHash.searchRadius((BinaryVector) queryVector, radius);
+      }
+      return super.getAllAboveThreshold(threshold);
+    }
+
+    /**
+     * Uses the {@link MultiIndexHash} for the search store if there is one, otherwise
+     * the exhaustive search in {@link VectorSearcher#streamAllAboveThreshold}.
+     */
+    @Override
+    public void streamAllAboveThreshold(float threshold, ResultConsumer consumer) {
+      if (multiIndexHash != null) {
+        for (SearchResult result : getAllAboveThreshold(threshold)) {
+          consumer.accept(result);
+        }
+        return;
+      }
+      super.streamAllAboveThreshold(threshold, consumer);
+    }
+
+    @Override
+    protected void copyQueryState() {
+      queryVector = queryVector.copy();
+    }
+
+    @Override
+    protected Vector getIndexQueryVector() {
+      return queryVector;
     }
 
     @Override
     public double getScore(Vector testVector) {
+      if (unitLengthScoring) {
+        if (queryVector instanceof RealVector) {
+          return ((RealVector) queryVector).measureUnitLengthOverlap((RealVector) testVector);
+        }
+        return ((ComplexVector) queryVector).measureUnitLengthHermitianOverlap((ComplexVector) testVector);
+      }
       return this.queryVector.measureOverlap(testVector);
     }
   }
@@ -481,6 +1022,16 @@ abstract public class VectorSearcher {
       }
     }
 
+    @Override
+    protected void copyQueryState() {
+      queryVector = queryVector.copy();
+    }
+
+    @Override
+    protected Vector getIndexQueryVector() {
+      return queryVector;
+    }
+
     @Override
     public double getScore(Vector testVector) {
       return this.queryVector.measureOverlap(testVector);
@@ -528,6 +1079,11 @@ abstract public class VectorSearcher {
       this.disjunctSpace = incomingDisjunctSpace;
     }
 
+    @Override
+    protected void copyQueryState() {
+      disjunctSpace = copyVectors(disjunctSpace);
+    }
+
     @Override
     public double getScore(Vector testVector) {
       return VectorUtils.compareWithProjection(testVector, disjunctSpace);
@@ -572,6 +1128,11 @@ abstract public class VectorSearcher {
       this.disjunctSpace = incomingDisjunctSpace;
     }
 
+    @Override
+    protected void copyQueryState() {
+      disjunctSpace = copyVectors(disjunctSpace);
+    }
+
     @Override
   public double getScore(Vector testVector) {
     	double score = 0; 
@@ -606,6 +1167,16 @@ abstract public class VectorSearcher {
 	    }
   
   
+  @Override
+  protected void copyQueryState() {
+    intersection = intersection.copy();
+  }
+
+  @Override
+  protected Vector getIndexQueryVector() {
+    return intersection;
+  }
+
   public double getScore(Vector testVector) {
  
   	return this.intersection.measureOverlap(testVector);
@@ -655,6 +1226,11 @@ abstract public class VectorSearcher {
       else BinaryVectorUtils.orthogonalizeVectors(this.disjunctSpace);
     }
 
+    @Override
+    protected void copyQueryState() {
+      disjunctSpace = copyVectors(disjunctSpace);
+    }
+
     /**
      * Scoring works by taking scalar product with disjunctSpace
      * (which must by now be represented using an orthogonal basis).
@@ -732,6 +1308,11 @@ abstract public class VectorSearcher {
     }
 
 
+    @Override
+    protected void copyQueryState() {
+      disjunctVectors = copyVectors(disjunctVectors);
+    }
+
     /**
      * Scoring works by taking scalar product with disjunctSpace
      * (which must by now be represented using an orthogonal basis).
@@ -818,6 +1399,11 @@ abstract public class VectorSearcher {
     }
 
 
+    @Override
+    protected void copyQueryState() {
+      disjunctVectors = copyVectors(disjunctVectors);
+    }
+
     /**
      * Scoring works by taking scalar product with disjunctSpace
      * (which must by now be represented using an orthogonal basis).
@@ -876,6 +1462,16 @@ abstract public class VectorSearcher {
       }
     }
 
+    @Override
+    protected void copyQueryState() {
+      theAvg = theAvg.copy();
+    }
+
+    @Override
+    protected Vector getIndexQueryVector() {
+      return theAvg;
+    }
+
     @Override
     public double getScore(Vector testVector) {
       return theAvg.measureOverlap(testVector);
@@ -913,6 +1509,16 @@ abstract public class VectorSearcher {
       //this.queryVector.release(relationVec);
     }
 
+    @Override
+    protected void copyQueryState() {
+      queryVector = queryVector.copy();
+    }
+
+    @Override
+    protected Vector getIndexQueryVector() {
+      return queryVector;
+    }
+
     @Override
     public double getScore(Vector testVector) {
       return queryVector.measureOverlap(testVector);
@@ -951,6 +1557,8 @@ abstract public class VectorSearcher {
         FlagConfig flagConfig, String[] queryTerms)
             throws IllegalArgumentException, ZeroVectorException {
       super(queryVecStore, searchVecStore, luceneUtils, flagConfig);
+      this.queryVecStore = queryVecStore;
+      this.searchVecStore = searchVecStore;
       specialFlagConfig = flagConfig;
       specialLuceneUtils = luceneUtils;
       try {
@@ -980,6 +1588,11 @@ abstract public class VectorSearcher {
     @Override
     public LinkedList<SearchResult> getNearestNeighbors(int numResults) {
       LinkedList<SearchResult> results = new LinkedList<SearchResult>();
+      if (numResults <= 0) {
+        return results;
+      }
+      TopKCollector topResults = new TopKCollector(numResults);
+      ObjectVector[] heldElements = new ObjectVector[numResults];
       double score, score1, score2 = -1;
       double threshold = specialFlagConfig.searchresultsminscore();
       if (specialFlagConfig.stdev())
@@ -1016,37 +1629,32 @@ abstract public class VectorSearcher {
         }
 
         if (score > threshold) {
-          boolean added = false;
-          for (int i = 0; i < results.size(); ++i) {
-            // Add to list if this is right place.
-            if (score > results.get(i).getScore() && added == false) {
-              results.add(i, new SearchResult(score, testElement));
-              added = true;
-            }
-          }
-          // Prune list if there are already numResults.
-          if (results.size() > numResults) {
-            results.removeLast();
-            threshold = results.getLast().getScore();
-          } else {
-            if (added == false) {
-              results.add(new SearchResult(score, testElement));
-            }
-          }
+          offerToCollector(topResults, heldElements, score, testElement);
         }
       }
+      results = collectorToResults(topResults, heldElements);
       if (specialFlagConfig.stdev()) results = transformToStats(results, count, sum, sumsquared);
       return results;
     }
 
     @Override
     public double getScore(Vector testVector) {
-      testVector.normalize();
-      return oneDirection.measureOverlap(testVector);
+      return oneDirection.measureOverlap(normalizeForOverlap(testVector));
     }
     public double getScore2(Vector testVector) {
+      return (otherDirection.measureOverlap(normalizeForOverlap(testVector)));
+    }
+
+    /**
+     * Real and complex overlaps are cosines, which do not depend on the length of the test
+     * vector, so these are scored as they are. Binary overlap does, so a binary test vector
+     * is normalized first, as a copy since it belongs to a store that may be shared.
+     */
+    private static Vector normalizeForOverlap(Vector testVector) {
+      if (!testVector.getVectorType().equals(VectorType.BINARY)) return testVector;
+      testVector = testVector.copy();
       testVector.normalize();
-      return (otherDirection.measureOverlap(testVector));
+      return testVector;
     }
   }
 
@@ -1204,6 +1812,13 @@ public double getScore(Vector testVector) {
 		// TODO Auto-generated constructor stub
 	}
 
+    @Override
+    protected void copyQueryState() {
+      comparisonVectors = copyVectors(comparisonVectors);
+      numberVector1 = numberVector1.copy();
+      numberVector2 = numberVector2.copy();
+    }
+
 	@Override
     public double getScore(Vector testVector) {
     	double proximityScore = 0;
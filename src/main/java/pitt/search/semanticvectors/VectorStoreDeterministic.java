@@ -39,7 +39,6 @@ import pitt.search.semanticvectors.vectors.VectorType;
 public class VectorStoreDeterministic implements VectorStore, CloseableVectorStore {
   private FlagConfig flagConfig;
   private ConcurrentHashMap<Object, ObjectVector> objectVectors;
-  private Random random = new Random();
   private VectorType vectorType;
   private int dimension;
   private boolean cacheVectors = true;
@@ -94,7 +93,8 @@ public class VectorStoreDeterministic implements VectorStore, CloseableVectorSto
      if (objectVector != null) {
        return objectVector.getVector();
      } else {
-       random.setSeed(Bobcat.asLong(desiredObject.toString()));
+       // A generator of its own for each call, since getVector may be called from several threads.
+       Random random = new Random(Bobcat.asLong(desiredObject.toString()));
        Vector v = VectorFactory.generateRandomVector(vectorType,
            dimension, flagConfig.seedlength(), random);
        if (cacheVectors)
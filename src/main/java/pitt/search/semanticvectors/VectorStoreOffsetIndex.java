@@ -0,0 +1,256 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+
+import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+
+/**
+ * Index from each object string in a Lucene-format vector store (as written by
+ * {@link VectorStoreWriter#writeToIndexOutput}) to the file offset of its vector.
+ *
+ * <p>
+ * The index holds the start of every record, i.e., the offset of each object string in the
+ * store, and a table of record numbers sorted by object string. Lookups are binary searches
+ * that read the object strings from the store itself, as {@link VectorStoreReaderMapped#getOrdinal}
+ * does from its sorted key index, so the index takes 12 bytes of memory for each object.
+ * When an object appears more than once, the first record is the one found, as by the
+ * linear scan in {@link VectorStoreReaderLucene#getVector}.
+ *
+ * <p>
+ * The index can be saved as a sidecar file next to the store, named by
+ * {@link #getIndexFileName}, so that it only needs to be built once for each store.
+ * {@link VectorStoreReaderLucene} uses it to answer {@code getVector},
+ * {@code containsVector} and {@code getNumVectors} without scanning the whole file.
+ *
+ * <p>
+ * Sidecar files can be built ahead of time from the command line:
+ * <code>java pitt.search.semanticvectors.VectorStoreOffsetIndex STOREFILE ...</code>,
+ * or lazily by the reader when {@link FlagConfig#vectorstoreindex()} is set.
+ */
+public class VectorStoreOffsetIndex {
+  public static String usageMessage = "VectorStoreOffsetIndex class in pitt.search.semanticvectors"
+      + "\nUsage: java pitt.search.semanticvectors.VectorStoreOffsetIndex STOREFILE [STOREFILE ...]"
+      + "\nWrites an offset index file STOREFILE" + VectorStoreOffsetIndex.SUFFIX
+      + " next to each Lucene-format vector store.";
+
+  /** Suffix appended to the vector store file name to get the sidecar file name. */
+  public static final String SUFFIX = ".idx";
+
+  /** Length of the vector store this index was built from, used to detect stale indexes. */
+  private final long sourceLength;
+  /** Start of each record in the store, in file order, including repeated objects. */
+  private final long[] recordStarts;
+  /** Number of the first record for each object, sorted by object string. */
+  private final int[] sortedRecords;
+
+  private VectorStoreOffsetIndex(long sourceLength, long[] recordStarts, int[] sortedRecords) {
+    this.sourceLength = sourceLength;
+    this.recordStarts = recordStarts;
+    this.sortedRecords = sortedRecords;
+  }
+
+  /** Returns the name of the sidecar index file for the given vector store file. */
+  public static String getIndexFileName(String vectorFileName) {
+    return vectorFileName + SUFFIX;
+  }
+
+  /**
+   * Returns the offset of the vector for this object, i.e., the position just after
+   * its object string, or -1 if the object is not in the store.
+   *
+   * @param storeInput input on the store this index was built from, used to read object
+   *        strings. Its position is changed.
+   */
+  public long getOffset(IndexInput storeInput, Object object) throws IOException {
+    String target = object.toString();
+    int low = 0;
+    int high = sortedRecords.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      storeInput.seek(recordStarts[sortedRecords[mid]]);
+      int comparison = storeInput.readString().compareTo(target);
+      if (comparison < 0) {
+        low = mid + 1;
+      } else if (comparison > 0) {
+        high = mid - 1;
+      } else {
+        return storeInput.getFilePointer();
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the offset of the start of the given record, i.e., of its object string. Records
+   * are numbered in file order from 0 to {@link #size()}, including repeated objects.
+   */
+  public long getRecordStart(int record) {
+    return recordStarts[record];
+  }
+
+  /**
+   * Returns the number of vectors in the store, counting repeated objects each time as
+   * {@link VectorStoreReaderLucene#getNumVectors} does without an index.
+   */
+  public int size() {
+    return recordStarts.length;
+  }
+
+  /** Returns the length of the vector store file from which this index was built. */
+  public long getSourceLength() {
+    return sourceLength;
+  }
+
+  /**
+   * Builds an index by scanning a Lucene-format vector store from the start. Flags in
+   * {@code flagConfig} are set from the header of the store, as for other readers.
+   * The position of {@code indexInput} is left at the end of the file.
+   */
+  public static VectorStoreOffsetIndex buildFromIndexInput(IndexInput indexInput, FlagConfig flagConfig)
+      throws IOException {
+    indexInput.seek(0);
+    FlagConfig headerConfig = FlagConfig.mergeWriteableFlagsFromString(indexInput.readString(), flagConfig);
+    int vectorByteSize = VectorFactory.getLuceneByteSize(
+        flagConfig.vectortype(), flagConfig.dimension(), headerConfig.vectorencoding());
+    TreeMap<String, Integer> firstRecords = new TreeMap<String, Integer>();
+    long[] recordStarts = new long[1024];
+    int numRecords = 0;
+    long length = indexInput.length();
+    while (indexInput.getFilePointer() < length) {
+      if (numRecords == recordStarts.length) {
+        recordStarts = Arrays.copyOf(recordStarts, 2 * numRecords);
+      }
+      recordStarts[numRecords] = indexInput.getFilePointer();
+      String objectString = indexInput.readString();
+      if (!firstRecords.containsKey(objectString)) {
+        firstRecords.put(objectString, numRecords);
+      }
+      ++numRecords;
+      indexInput.seek(indexInput.getFilePointer() + vectorByteSize);
+    }
+    int[] sortedRecords = new int[firstRecords.size()];
+    int i = 0;
+    for (int record : firstRecords.values()) {
+      sortedRecords[i++] = record;
+    }
+    return new VectorStoreOffsetIndex(length, Arrays.copyOf(recordStarts, numRecords), sortedRecords);
+  }
+
+  /**
+   * Reads an index previously written by {@link #writeToIndexOutput}.
+   */
+  public static VectorStoreOffsetIndex readFromIndexInput(IndexInput indexInput) throws IOException {
+    long sourceLength = indexInput.readLong();
+    long[] recordStarts = new long[indexInput.readInt()];
+    for (int i = 0; i < recordStarts.length; ++i) {
+      recordStarts[i] = indexInput.readLong();
+    }
+    int[] sortedRecords = new int[indexInput.readInt()];
+    for (int i = 0; i < sortedRecords.length; ++i) {
+      sortedRecords[i] = indexInput.readInt();
+    }
+    return new VectorStoreOffsetIndex(sourceLength, recordStarts, sortedRecords);
+  }
+
+  /**
+   * Writes this index to the given output: the length of the store, the start of each
+   * record, and the record numbers sorted by object string, each table preceded by its length.
+   * Caller is responsible for opening and closing the output stream.
+   */
+  public void writeToIndexOutput(IndexOutput outputStream) throws IOException {
+    outputStream.writeLong(sourceLength);
+    outputStream.writeInt(recordStarts.length);
+    for (long recordStart : recordStarts) {
+      outputStream.writeLong(recordStart);
+    }
+    outputStream.writeInt(sortedRecords.length);
+    for (int record : sortedRecords) {
+      outputStream.writeInt(record);
+    }
+  }
+
+  /**
+   * Builds an offset index for the given Lucene-format vector store and writes it
+   * to the sidecar file given by {@link #getIndexFileName}.
+   */
+  public static VectorStoreOffsetIndex buildAndWriteIndex(String vectorFileName, FlagConfig flagConfig)
+      throws IOException {
+    File vectorFile = new File(vectorFileName);
+    String parentPath = vectorFile.getParent();
+    if (parentPath == null) parentPath = "";
+    FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    IndexInput indexInput = fsDirectory.openInput(vectorFile.getName(), IOContext.READONCE);
+    VectorStoreOffsetIndex index = buildFromIndexInput(indexInput, flagConfig);
+    indexInput.close();
+    IndexOutput outputStream = fsDirectory.createOutput(
+        getIndexFileName(vectorFile.getName()), IOContext.DEFAULT);
+    index.writeToIndexOutput(outputStream);
+    outputStream.close();
+    fsDirectory.close();
+    return index;
+  }
+
+  /**
+   * Command line method for building sidecar index files.
+   * @throws IOException if any of the vector stores on disk cannot be opened.
+   * @see #usageMessage
+   */
+  public static void main(String[] args) throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(args);
+    if (flagConfig.remainingArgs.length == 0) {
+      System.err.println(usageMessage);
+      throw new IllegalArgumentException();
+    }
+    for (String storeName : flagConfig.remainingArgs) {
+      String vectorFileName = VectorStoreUtils.getStoreFileName(storeName, flagConfig);
+      VectorStoreOffsetIndex index = buildAndWriteIndex(vectorFileName, flagConfig);
+      VerbatimLogger.info("Wrote offsets for " + index.size() + " vectors to "
+          + getIndexFileName(vectorFileName) + "\n");
+    }
+  }
+}
@@ -36,8 +36,17 @@
 package pitt.search.semanticvectors;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -57,7 +66,7 @@ import pitt.search.semanticvectors.vectors.*;
    @see VectorStoreReaderLucene
    @see ObjectVector
 **/
-public class VectorStoreRAM implements VectorStore {
+public class VectorStoreRAM implements NormalizedVectorStore {
   private static final Logger logger =
     Logger.getLogger(VectorStoreRAM.class.getCanonicalName());
   private FlagConfig flagConfig;
@@ -66,6 +75,8 @@ public class VectorStoreRAM implements VectorStore {
   private int dimension;
   /** Used for checking compatibility of new vectors. */
   private Vector zeroVector;
+  /** True if all vectors came from normalized stores on disk, see {@link #isNormalized}. */
+  private boolean normalized = false;
   
   public VectorStoreRAM(FlagConfig flagConfig) {
     this.objectVectors = new ConcurrentHashMap<Object, ObjectVector>();
@@ -89,20 +100,95 @@ public class VectorStoreRAM implements VectorStore {
     return store;
   }
   
-  /** Initializes a vector store from disk. */
+  /**
+   * Initializes a vector store from disk. Stores that can be read in slices, see
+   * {@link PartitionedVectorStore}, are read into an empty store on
+   * {@link FlagConfig#numthreads()} threads.
+   *
+   * <p>
+   * If an object appears more than once in the file, its first vector is kept, as by
+   * {@link VectorStoreReaderLucene#getVector} and {@link VectorStoreOffsetIndex}. Vectors
+   * already in this store are kept as well.
+   */
   public void initFromFile(String vectorFile) throws IOException {
     CloseableVectorStore vectorReaderDisk = VectorStoreReader.openVectorStore(vectorFile, flagConfig);
-    Enumeration<ObjectVector> vectorEnumeration = vectorReaderDisk.getAllVectors();
-		
+    normalized = (objectVectors.isEmpty() || normalized)
+        && vectorReaderDisk instanceof NormalizedVectorStore
+        && ((NormalizedVectorStore) vectorReaderDisk).isNormalized();
+
     logger.fine("Reading vectors from store on disk into memory cache  ...");
-    while (vectorEnumeration.hasMoreElements()) {
-      ObjectVector objectVector = vectorEnumeration.nextElement();
-      this.objectVectors.put(objectVector.getObject().toString(), objectVector);
+    try {
+      if (vectorReaderDisk instanceof PartitionedVectorStore && flagConfig.numthreads() > 1
+          && objectVectors.isEmpty()) {
+        putPartitions((PartitionedVectorStore) vectorReaderDisk, flagConfig.numthreads());
+      } else {
+        putAll(vectorReaderDisk.getAllVectors(), null);
+      }
+    } finally {
+      vectorReaderDisk.close();
     }
-    vectorReaderDisk.close();
     logger.log(Level.FINE, "Cached {0} vectors.", objectVectors.size());
   }
   
+  /**
+   * Puts the vectors that are not in the store already, keeping the first vector of each object.
+   * @param repeated if not null, objects whose vectors were already in the store are added to it.
+   */
+  private void putAll(Enumeration<ObjectVector> vectorEnumeration, Set<Object> repeated) {
+    while (vectorEnumeration.hasMoreElements()) {
+      ObjectVector objectVector = vectorEnumeration.nextElement();
+      String key = objectVector.getObject().toString();
+      if (this.objectVectors.putIfAbsent(key, objectVector) != null && repeated != null) {
+        repeated.add(key);
+      }
+    }
+  }
+
+  /**
+   * Reads numPartitions partitions of the source store concurrently into this store, which
+   * must be empty. Partitions finish in any order, so the first vector of each repeated object
+   * is then found again by reading the source in order, up to the last repeated object.
+   */
+  private void putPartitions(final PartitionedVectorStore source, final int numPartitions)
+      throws IOException {
+    final Set<Object> repeated = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+    ExecutorService readers = Executors.newFixedThreadPool(numPartitions);
+    try {
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (int i = 0; i < numPartitions; ++i) {
+        final int partition = i;
+        futures.add(readers.submit(new Callable<Void>() {
+          @Override
+          public Void call() {
+            putAll(source.getAllVectors(partition, numPartitions), repeated);
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reading vectors", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Failed to read vectors", e.getCause());
+    } finally {
+      readers.shutdownNow();
+    }
+    if (!repeated.isEmpty()) {
+      logger.info("Store has " + repeated.size() + " repeated objects, keeping the first vector of each.");
+      Enumeration<ObjectVector> vecEnum = source.getAllVectors();
+      while (!repeated.isEmpty() && vecEnum.hasMoreElements()) {
+        ObjectVector objectVector = vecEnum.nextElement();
+        String key = objectVector.getObject().toString();
+        if (repeated.remove(key)) {
+          this.objectVectors.put(key, objectVector);
+        }
+      }
+    }
+  }
+
   /**
    * Adds a single vector with the given key and value.
    * Overwrites any existing vector with this key.
@@ -111,6 +197,16 @@ public class VectorStoreRAM implements VectorStore {
     IncompatibleVectorsException.checkVectorsCompatible(zeroVector, vector);
     ObjectVector objectVector = new ObjectVector(key, vector);
     this.objectVectors.put(key, objectVector);
+    normalized = false;
+  }
+
+  /**
+   * Returns true if the store was initialized only from stores on disk that were written
+   * with {@link FlagConfig#normalizevectors()}, and no vectors have been put since.
+   */
+  @Override
+  public boolean isNormalized() {
+    return normalized;
   }
 
   @Override
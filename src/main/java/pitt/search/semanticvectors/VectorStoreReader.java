@@ -46,7 +46,7 @@ public class VectorStoreReader {
   /**
    * Opens a vector store for reading, setting flags appropriately.
    * 
-   * @param storeName The name/path of the vector store to read (doesn't need ".txt" or ".bin" suffix).
+   * @param storeName The name/path of the vector store to read (doesn't need ".txt", ".bin" or ".mbin" suffix).
    * @param flagConfig Supplies expected file format; vectortype and dimension will be set to the values
    *        given in the header line of the vector store.
    * @return Vector store object backed by the file given.
@@ -62,6 +62,9 @@ public class VectorStoreReader {
     case TEXT:
       vectorStore = new VectorStoreReaderText(storeName, flagConfig);
       break;
+    case MAPPED:
+      vectorStore = new VectorStoreReaderMapped(storeName, flagConfig);
+      break;
     default:
       throw new IllegalStateException("Unknown -indexfileformat: " + flagConfig.indexfileformat());
     }
@@ -46,9 +46,11 @@ import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
 
 import pitt.search.semanticvectors.utils.VerbatimLogger;
 import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorEncoding;
 import pitt.search.semanticvectors.vectors.VectorType;
 import pitt.search.semanticvectors.vectors.VectorFactory;
 
@@ -60,12 +62,20 @@ import pitt.search.semanticvectors.vectors.VectorFactory;
 
    The implementation uses Lucene's I/O package, which proved much faster
    than the native java.io.DataOutputStream.
+
+   Lookups by object scan the whole file unless a {@link VectorStoreOffsetIndex}
+   is available, either as a sidecar file next to the store or built on first
+   lookup when {@link FlagConfig#vectorstoreindex()} is set.
    
+   The store can be enumerated in contiguous slices on several threads at once, see
+   {@link #getAllVectors(int, int)}.
+
    Attempts to be thread-safe but this is not fully tested.
    
    @see ObjectVector
  **/
-public class VectorStoreReaderLucene implements CloseableVectorStore {
+public class VectorStoreReaderLucene
+    implements CloseableVectorStore, NormalizedVectorStore, PartitionedVectorStore {
   private static final Logger logger = Logger.getLogger(
       VectorStoreReaderLucene.class.getCanonicalName());
 
@@ -76,9 +86,22 @@ public class VectorStoreReaderLucene implements CloseableVectorStore {
   
   private ThreadLocal<IndexInput> threadLocalIndexInput;
 
+  /** Set by {@link #getOffsetIndex} before {@link #offsetIndexChecked}, so readers need no lock. */
+  private volatile VectorStoreOffsetIndex offsetIndex;
+  private volatile boolean offsetIndexChecked = false;
+  /** Offsets of the records that start each slice, and the end of the file, from {@link #getSliceStarts}. */
+  private long[] sliceStarts;
+  private boolean normalized = false;
+  private VectorEncoding encoding = VectorEncoding.FLOAT32;
+
   public IndexInput getIndexInput() {
     return threadLocalIndexInput.get();
   }
+
+  /** Returns the name of the file this store was opened from, or null if it was given an input. */
+  public String getVectorFileName() {
+    return vectorFileName;
+  }
   
   public VectorStoreReaderLucene(String vectorFileName, FlagConfig flagConfig) throws IOException {
     this.flagConfig = flagConfig;
@@ -124,7 +147,19 @@ public class VectorStoreReaderLucene implements CloseableVectorStore {
    */
   public void readHeadersFromIndexInput(FlagConfig flagConfig) throws IOException {
     String header = threadLocalIndexInput.get().readString();
-    FlagConfig.mergeWriteableFlagsFromString(header, flagConfig);
+    FlagConfig headerConfig = FlagConfig.mergeWriteableFlagsFromString(header, flagConfig);
+    normalized = headerConfig.normalizevectors();
+    encoding = headerConfig.vectorencoding();
+  }
+
+  @Override
+  public boolean isNormalized() {
+    return normalized;
+  }
+
+  /** Returns the encoding of coordinates in this store, see {@link FlagConfig#vectorencoding()}. */
+  public VectorEncoding getVectorEncoding() {
+    return encoding;
   }
 
   public void close() {
@@ -158,6 +193,69 @@ public class VectorStoreReaderLucene implements CloseableVectorStore {
     return new VectorEnumeration(getIndexInput());
   }
 
+  /**
+   * Returns an enumeration of one of numPartitions contiguous slices of the store, of roughly
+   * equal size, using an input of its own so that slices can be decoded concurrently.
+   */
+  @Override
+  public Enumeration<ObjectVector> getAllVectors(int partition, int numPartitions) {
+    long[] starts = getSliceStarts(numPartitions);
+    IndexInput indexInput = getIndexInput().clone();
+    try {
+      indexInput.seek(starts[partition]);
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot read slice of vector store: " + vectorFileName, e);
+    }
+    return new VectorEnumeration(indexInput, starts[partition + 1]);
+  }
+
+  /**
+   * Returns the offsets of the records that start each of numSlices slices, followed by the
+   * length of the file. Uses the offset index if there is one, otherwise skims the object
+   * strings of the store, skipping over the vectors.
+   */
+  private synchronized long[] getSliceStarts(int numSlices) {
+    if (sliceStarts != null && sliceStarts.length == numSlices + 1) {
+      return sliceStarts;
+    }
+    long[] starts = new long[numSlices + 1];
+    try {
+      IndexInput indexInput = getIndexInput().clone();
+      long length = indexInput.length();
+      VectorStoreOffsetIndex index = getOffsetIndex();
+      if (index != null) {
+        for (int slice = 0; slice < numSlices; ++slice) {
+          int record = (int) ((long) slice * index.size() / numSlices);
+          starts[slice] = record < index.size() ? index.getRecordStart(record) : length;
+        }
+      } else {
+        indexInput.seek(0);
+        indexInput.readString();
+        long dataStart = indexInput.getFilePointer();
+        int vectorByteSize = VectorFactory.getLuceneByteSize(
+            flagConfig.vectortype(), flagConfig.dimension(), encoding);
+        int slice = 0;
+        while (indexInput.getFilePointer() < length) {
+          long recordStart = indexInput.getFilePointer();
+          while (slice < numSlices
+              && recordStart >= dataStart + (length - dataStart) * slice / numSlices) {
+            starts[slice++] = recordStart;
+          }
+          indexInput.readString();
+          indexInput.seek(indexInput.getFilePointer() + vectorByteSize);
+        }
+        for (; slice < numSlices; ++slice) {
+          starts[slice] = length;
+        }
+      }
+      starts[numSlices] = length;
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot read vector store: " + vectorFileName, e);
+    }
+    sliceStarts = starts;
+    return starts;
+  }
+
   /**
    * Given an object, get its corresponding vector <br>
    * This implementation only works for string objects so far <br>
@@ -166,6 +264,25 @@ public class VectorStoreReaderLucene implements CloseableVectorStore {
    * @return vector from the VectorStore, or null if not found.
    */
   public Vector getVector(Object desiredObject) {
+    VectorStoreOffsetIndex index = getOffsetIndex();
+    if (index != null) {
+      try {
+        long offset = index.getOffset(getIndexInput(), desiredObject);
+        if (offset < 0) {
+          VerbatimLogger.info("Didn't find vector for '" + desiredObject + "'\n");
+          return null;
+        }
+        getIndexInput().seek(offset);
+        Vector vector = VectorFactory.createZeroVector(
+            flagConfig.vectortype(), flagConfig.dimension());
+        vector.readFromLuceneStream(getIndexInput(), encoding);
+        return vector;
+      } catch (IOException e) {
+        e.printStackTrace();
+        return null;
+      }
+    }
+
     try {
       String stringTarget = desiredObject.toString();
       getIndexInput().seek(0);
@@ -177,12 +294,12 @@ public class VectorStoreReaderLucene implements CloseableVectorStore {
           VerbatimLogger.info("Found vector for '" + stringTarget + "'\n");
           Vector vector = VectorFactory.createZeroVector(
               flagConfig.vectortype(), flagConfig.dimension());
-          vector.readFromLuceneStream(getIndexInput());
+          vector.readFromLuceneStream(getIndexInput(), encoding);
           return vector;
         }
         else{
           getIndexInput().seek(getIndexInput().getFilePointer()
-              + VectorFactory.getLuceneByteSize(flagConfig.vectortype(), flagConfig.dimension()));
+              + VectorFactory.getLuceneByteSize(flagConfig.vectortype(), flagConfig.dimension(), encoding));
         }
       }
     }
@@ -194,9 +311,80 @@ public class VectorStoreReaderLucene implements CloseableVectorStore {
   }
 
   /**
-   * Trivial (costly) implementation of getNumVectors that iterates and counts vectors.
+   * Returns the offset index for this store, or null if none is available.
+   *
+   * <p>
+   * On first call, reads the sidecar file if there is one that matches the length of
+   * the store. Otherwise, if {@link FlagConfig#vectorstoreindex()} is set, builds the
+   * index by scanning the store once and tries to save it as a sidecar file. Later calls
+   * only read a volatile field, so concurrent lookups do not contend for a lock.
+   */
+  public VectorStoreOffsetIndex getOffsetIndex() {
+    if (offsetIndexChecked) {
+      return offsetIndex;
+    }
+    synchronized (this) {
+      if (!offsetIndexChecked) {
+        offsetIndex = loadOffsetIndex();
+        offsetIndexChecked = true;
+      }
+      return offsetIndex;
+    }
+  }
+
+  /** Reads or builds the offset index, see {@link #getOffsetIndex}. */
+  private VectorStoreOffsetIndex loadOffsetIndex() {
+    String indexFileName = null;
+    if (vectorFile != null) {
+      indexFileName = VectorStoreOffsetIndex.getIndexFileName(vectorFile.getName());
+      File indexFile = new File(VectorStoreOffsetIndex.getIndexFileName(vectorFileName));
+      if (indexFile.exists() && indexFile.lastModified() >= vectorFile.lastModified()) {
+        try {
+          IndexInput indexInput = directory.openInput(indexFileName, IOContext.READONCE);
+          VectorStoreOffsetIndex index = VectorStoreOffsetIndex.readFromIndexInput(indexInput);
+          indexInput.close();
+          if (index.getSourceLength() == getIndexInput().length()) {
+            return index;
+          }
+          logger.info("Ignoring stale offset index: " + indexFile);
+        } catch (IOException e) {
+          logger.warning("Cannot read offset index: " + indexFile + "\n" + e.getMessage());
+        }
+      }
+    }
+
+    if (!flagConfig.vectorstoreindex()) {
+      return null;
+    }
+    VectorStoreOffsetIndex index;
+    try {
+      IndexInput indexInput = getIndexInput().clone();
+      index = VectorStoreOffsetIndex.buildFromIndexInput(indexInput, flagConfig);
+    } catch (IOException e) {
+      logger.warning("Cannot build offset index for: " + vectorFileName + "\n" + e.getMessage());
+      return null;
+    }
+    if (indexFileName != null) {
+      try {
+        IndexOutput outputStream = directory.createOutput(indexFileName, IOContext.DEFAULT);
+        index.writeToIndexOutput(outputStream);
+        outputStream.close();
+      } catch (IOException e) {
+        logger.info("Cannot write offset index for: " + vectorFileName + "\n" + e.getMessage());
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Returns the number of vectors from the offset index if there is one, otherwise
+   * iterates and counts vectors, which is costly.
    */
   public int getNumVectors() {
+    VectorStoreOffsetIndex index = getOffsetIndex();
+    if (index != null) {
+      return index.size();
+    }
     Enumeration<ObjectVector> allVectors = this.getAllVectors();
     int i = 0;
     while (allVectors.hasMoreElements()) {
@@ -212,13 +400,20 @@ public class VectorStoreReaderLucene implements CloseableVectorStore {
    */
   public class VectorEnumeration implements Enumeration<ObjectVector> {
     IndexInput indexInput;
+    /** Offset at which the enumeration stops. */
+    long end;
 
     public VectorEnumeration(IndexInput indexInput) {
+      this(indexInput, indexInput.length());
+    }
+
+    public VectorEnumeration(IndexInput indexInput, long end) {
       this.indexInput = indexInput;
+      this.end = end;
     }
 
     public boolean hasMoreElements() {
-      return (indexInput.getFilePointer() < indexInput.length());
+      return (indexInput.getFilePointer() < end);
     }
 
     public ObjectVector nextElement() {
@@ -226,7 +421,7 @@ public class VectorStoreReaderLucene implements CloseableVectorStore {
       Vector vector = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
       try {
         object = indexInput.readString();
-        vector.readFromLuceneStream(indexInput);
+        vector.readFromLuceneStream(indexInput, encoding);
       }
       catch (IOException e) {
         e.printStackTrace();
@@ -237,6 +432,15 @@ public class VectorStoreReaderLucene implements CloseableVectorStore {
   
   @Override
   public boolean containsVector(Object object) {
+    VectorStoreOffsetIndex index = getOffsetIndex();
+    if (index != null) {
+      try {
+        return index.getOffset(getIndexInput(), object) >= 0;
+      } catch (IOException e) {
+        e.printStackTrace();
+        return false;
+      }
+    }
 	  return this.getVector(object) != null;
   }
 
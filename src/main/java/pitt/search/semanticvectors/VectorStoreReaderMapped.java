@@ -0,0 +1,477 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.MMapDirectory;
+
+import pitt.search.semanticvectors.utils.TopKCollector;
+import pitt.search.semanticvectors.vectors.ComplexVector;
+import pitt.search.semanticvectors.vectors.RealVector;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorEncoding;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+
+/**
+   This class provides random access to a vector store written in the
+   {@link VectorStoreUtils.VectorStoreFormat#MAPPED} format. <p>
+
+   All vectors are laid out in a single fixed-stride region, so the vector with
+   ordinal {@code i} starts at {@code vectorsOffset + i * stride}. The region is
+   followed by a table of object strings (in ordinal order) and an index of
+   ordinals sorted by object string, so that {@link #getVector} does a binary search
+   rather than a scan of the whole file. <p>
+
+   The file is opened using Lucene's {@link MMapDirectory}, which maps the file with
+   {@code FileChannel.map}. Reads therefore go through the OS page cache, which can be
+   shared by several processes searching the same store. <p>
+
+   Thread-safe: each thread reads through its own clone of the mapped input.
+
+   @see VectorStoreWriter#writeToMappedIndexOutput
+   @see ObjectVector
+ **/
+public class VectorStoreReaderMapped implements CloseableVectorStore, NormalizedVectorStore {
+  private static final Logger logger = Logger.getLogger(
+      VectorStoreReaderMapped.class.getCanonicalName());
+
+  /** Size in bytes of the footer written by {@link VectorStoreWriter#writeToMappedIndexOutput}. */
+  public static final int FOOTER_SIZE = 4 + 8 + 8 + 8;
+  /** Size in bytes of each entry in the sorted key index: a long key offset and an int ordinal. */
+  public static final int INDEX_ENTRY_SIZE = 8 + 4;
+
+  private String vectorFileName;
+  /** Path of the file this store was opened from, or null if it was opened from a directory. */
+  private String vectorFilePath;
+  private Directory directory;
+  private FlagConfig flagConfig;
+  private IndexInput masterInput;
+  private ThreadLocal<IndexInput> threadLocalIndexInput;
+
+  private int numVectors;
+  private int stride;
+  private long vectorsOffset;
+  private long keysOffset;
+  private long indexOffset;
+  private boolean normalized;
+  private VectorEncoding encoding;
+
+  public VectorStoreReaderMapped(String vectorFileName, FlagConfig flagConfig) throws IOException {
+    this.vectorFilePath = vectorFileName;
+    File vectorFile = new File(vectorFileName);
+    String parentPath = vectorFile.getParent();
+    if (parentPath == null) parentPath = "";
+    try {
+      this.directory = new MMapDirectory(FileSystems.getDefault().getPath(parentPath));
+      init(vectorFile.getName(), flagConfig);
+    } catch (IOException e) {
+      logger.warning("Cannot open file: " + vectorFileName + "\n" + e.getMessage());
+      throw e;
+    }
+  }
+
+  /**
+   * Opens a mapped store from the given directory. Mostly useful for testing with
+   * a {@code RAMDirectory}: the directory is owned and closed by this reader.
+   */
+  public VectorStoreReaderMapped(Directory directory, String fileName, FlagConfig flagConfig)
+      throws IOException {
+    this.directory = directory;
+    init(fileName, flagConfig);
+  }
+
+  /** Returns the path of the file this store was opened from, or null if it was opened from a directory. */
+  public String getVectorFileName() {
+    return vectorFilePath;
+  }
+
+  private void init(String fileName, FlagConfig flagConfig) throws IOException {
+    this.vectorFileName = fileName;
+    this.flagConfig = flagConfig;
+    this.masterInput = directory.openInput(fileName, IOContext.READ);
+    this.threadLocalIndexInput = new ThreadLocal<IndexInput>() {
+      @Override
+      protected IndexInput initialValue() {
+        return masterInput.clone();
+      }
+    };
+
+    String header = masterInput.readString();
+    FlagConfig headerConfig = FlagConfig.mergeWriteableFlagsFromString(header, flagConfig);
+    normalized = headerConfig.normalizevectors();
+    encoding = headerConfig.vectorencoding();
+    this.stride = VectorFactory.getLuceneByteSize(flagConfig.vectortype(), flagConfig.dimension(), encoding);
+
+    masterInput.seek(masterInput.length() - FOOTER_SIZE);
+    this.numVectors = masterInput.readInt();
+    this.vectorsOffset = masterInput.readLong();
+    this.keysOffset = masterInput.readLong();
+    this.indexOffset = masterInput.readLong();
+    if (vectorsOffset + (long) numVectors * stride != keysOffset) {
+      throw new IOException("Vector region of " + fileName + " does not match header: expected "
+          + numVectors + " vectors of " + stride + " bytes.");
+    }
+  }
+
+  public IndexInput getIndexInput() {
+    return threadLocalIndexInput.get();
+  }
+
+  @Override
+  public void close() {
+    try {
+      this.masterInput.close();
+      this.directory.close();
+    } catch (IOException e) {
+      logger.severe("Failed to close() mapped resources for: " + vectorFileName);
+      e.printStackTrace();
+    }
+  }
+
+  @Override
+  public boolean isNormalized() {
+    return normalized;
+  }
+
+  /** Returns the encoding of coordinates in this store, see {@link FlagConfig#vectorencoding()}. */
+  public VectorEncoding getVectorEncoding() {
+    return encoding;
+  }
+
+  /**
+   * Returns the number of vectors, which is recorded in the file so this is O(1).
+   */
+  @Override
+  public int getNumVectors() {
+    return numVectors;
+  }
+
+  /**
+   * Returns the vector with the given ordinal, i.e., the position at which it was written.
+   */
+  public Vector getVector(int ordinal) {
+    if (ordinal < 0 || ordinal >= numVectors) {
+      throw new IndexOutOfBoundsException("No vector with ordinal " + ordinal);
+    }
+    IndexInput input = getIndexInput();
+    Vector vector = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
+    try {
+      input.seek(vectorsOffset + (long) ordinal * stride);
+      vector.readFromLuceneStream(input, encoding);
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    }
+    return vector;
+  }
+
+  /**
+   * Returns the ordinal of the given object in the store, or -1 if it is not present.
+   * Implemented as a binary search over the sorted key index.
+   */
+  public int getOrdinal(Object desiredObject) {
+    String target = desiredObject.toString();
+    IndexInput input = getIndexInput();
+    int low = 0;
+    int high = numVectors - 1;
+    try {
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        input.seek(indexOffset + (long) mid * INDEX_ENTRY_SIZE);
+        long keyOffset = input.readLong();
+        int ordinal = input.readInt();
+        input.seek(keyOffset);
+        int comparison = input.readString().compareTo(target);
+        if (comparison < 0) {
+          low = mid + 1;
+        } else if (comparison > 0) {
+          high = mid - 1;
+        } else {
+          return ordinal;
+        }
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    return -1;
+  }
+
+  /**
+   * Given an object, get its corresponding vector. <br>
+   * This implementation only works for string objects so far. <br>
+   *
+   * @param desiredObject - the string you're searching for
+   * @return vector from the VectorStore, or null if not found.
+   */
+  @Override
+  public Vector getVector(Object desiredObject) {
+    int ordinal = getOrdinal(desiredObject);
+    if (ordinal < 0) {
+      return null;
+    }
+    return getVector(ordinal);
+  }
+
+  /**
+   * Returns true if {@link #searchEncoded} can score the given query against this store: the query
+   * must be a real vector, or a complex vector compared using {@link ComplexVector.Mode#HERMITIAN},
+   * for which cosine similarity is the cosine of the cartesian coordinates.
+   */
+  public boolean supportsEncodedSearch(Vector queryVector) {
+    return queryVector instanceof RealVector
+        || (queryVector instanceof ComplexVector
+            && ComplexVector.getDominantMode() == ComplexVector.Mode.HERMITIAN);
+  }
+
+  /**
+   * Returns up to numResults vectors with the highest cosine similarity to the query vector,
+   * and score greater than minScore. Vectors are scored in the mapped region with
+   * {@link VectorEncoding#measureEncodedOverlap}, without decoding them, and only the results
+   * are read as vectors. Uses its own clone of the mapped input, so is thread-safe.
+   *
+   * @see #supportsEncodedSearch
+   */
+  public LinkedList<SearchResult> searchEncoded(Vector queryVector, int numResults, double minScore) {
+    return searchEncoded(queryVector, numResults, minScore, null, 1);
+  }
+
+  /**
+   * As {@link #searchEncoded(Vector, int, double)}, but scores numPartitions contiguous ranges
+   * of the store concurrently on the given executor, or on a pool of its own that is shut down
+   * afterwards if executor is null.
+   */
+  public LinkedList<SearchResult> searchEncoded(Vector queryVector, final int numResults,
+      final double minScore, ExecutorService executor, int numPartitions) {
+    final float[] unitQuery = getUnitCoordinates(queryVector);
+    TopKCollector topResults = new TopKCollector(Math.max(numResults, 1));
+    numPartitions = Math.max(1, Math.min(numPartitions, numVectors));
+    if (numPartitions == 1) {
+      scoreEncoded(unitQuery, 0, numVectors, minScore, topResults);
+    } else {
+      ExecutorService pool = executor != null ? executor : Executors.newFixedThreadPool(numPartitions);
+      List<Future<TopKCollector>> futures = new ArrayList<Future<TopKCollector>>();
+      try {
+        for (int i = 0; i < numPartitions; ++i) {
+          final int start = (int) ((long) numVectors * i / numPartitions);
+          final int end = (int) ((long) numVectors * (i + 1) / numPartitions);
+          futures.add(pool.submit(new Callable<TopKCollector>() {
+            @Override
+            public TopKCollector call() {
+              TopKCollector partitionResults = new TopKCollector(Math.max(numResults, 1));
+              scoreEncoded(unitQuery, start, end, minScore, partitionResults);
+              return partitionResults;
+            }
+          }));
+        }
+        for (Future<TopKCollector> future : futures) {
+          topResults.merge(future.get());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted during encoded search", e);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Encoded search failed", e.getCause());
+      } finally {
+        if (pool != executor) {
+          pool.shutdownNow();
+        }
+      }
+    }
+
+    int numFound = topResults.sortDescending();
+    int[] ordinals = new int[numFound];
+    for (int i = 0; i < numFound; ++i) {
+      ordinals[i] = topResults.getOrdinal(i);
+    }
+    String[] objects = getObjects(ordinals);
+    LinkedList<SearchResult> results = new LinkedList<SearchResult>();
+    for (int i = 0; i < numFound; ++i) {
+      results.add(new SearchResult(topResults.getScore(i),
+          new ObjectVector(objects[i], getVector(ordinals[i]))));
+    }
+    return results;
+  }
+
+  /** Returns the coordinates of the query, cartesian for complex vectors, scaled to unit length. */
+  private static float[] getUnitCoordinates(Vector queryVector) {
+    float[] unitQuery;
+    if (queryVector instanceof ComplexVector) {
+      ComplexVector cartesianQuery = (ComplexVector) queryVector.copy();
+      cartesianQuery.toCartesian();
+      unitQuery = cartesianQuery.getCoordinates().clone();
+    } else {
+      unitQuery = ((RealVector) queryVector).getCoordinates().clone();
+    }
+    double norm = 0;
+    for (float coordinate : unitQuery) {
+      norm += coordinate * coordinate;
+    }
+    if (norm > 0) {
+      float scale = (float) (1 / Math.sqrt(norm));
+      for (int i = 0; i < unitQuery.length; ++i) {
+        unitQuery[i] *= scale;
+      }
+    }
+    return unitQuery;
+  }
+
+  /**
+   * Offers the vectors with ordinals from start up to end and score greater than minScore to
+   * the collector, using a clone of the mapped input of its own.
+   */
+  private void scoreEncoded(float[] unitQuery, int start, int end, double minScore, TopKCollector topResults) {
+    IndexInput input = masterInput.clone();
+    byte[] encoded = new byte[stride];
+    try {
+      input.seek(vectorsOffset + (long) start * stride);
+      for (int ordinal = start; ordinal < end; ++ordinal) {
+        input.readBytes(encoded, 0, stride);
+        double score = encoding.measureEncodedOverlap(unitQuery, encoded, unitQuery.length);
+        if (score > minScore && topResults.wouldAccept(score)) {
+          topResults.offer(score, ordinal);
+        }
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Returns the object strings for the given ordinals, found with a single pass over the key
+   * index that stops once all have been found.
+   */
+  private String[] getObjects(int[] ordinals) {
+    HashMap<Integer, Integer> positions = new HashMap<Integer, Integer>();
+    for (int i = 0; i < ordinals.length; ++i) {
+      positions.put(ordinals[i], i);
+    }
+    String[] objects = new String[ordinals.length];
+    IndexInput input = getIndexInput();
+    try {
+      long[] keyOffsets = new long[ordinals.length];
+      int numFound = 0;
+      input.seek(indexOffset);
+      for (int i = 0; i < numVectors && numFound < ordinals.length; ++i) {
+        long keyOffset = input.readLong();
+        Integer position = positions.get(input.readInt());
+        if (position != null) {
+          keyOffsets[position] = keyOffset;
+          numFound++;
+        }
+      }
+      for (int i = 0; i < ordinals.length; ++i) {
+        input.seek(keyOffsets[i]);
+        objects[i] = input.readString();
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    return objects;
+  }
+
+  @Override
+  public boolean containsVector(Object object) {
+    return getOrdinal(object) >= 0;
+  }
+
+  /**
+   * Returns an enumeration of all vectors, in ordinal order. Each enumeration uses
+   * its own clones of the mapped input, so several can be used concurrently.
+   */
+  @Override
+  public Enumeration<ObjectVector> getAllVectors() {
+    return new VectorEnumeration();
+  }
+
+  /**
+   * Implements the hasMoreElements() and nextElement() methods
+   * to give Enumeration interface from store on disk.
+   */
+  public class VectorEnumeration implements Enumeration<ObjectVector> {
+    private final IndexInput keyInput = masterInput.clone();
+    private final IndexInput vectorInput = masterInput.clone();
+    private int ordinal = 0;
+
+    public VectorEnumeration() {
+      try {
+        keyInput.seek(keysOffset);
+        vectorInput.seek(vectorsOffset);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+
+    @Override
+    public boolean hasMoreElements() {
+      return ordinal < numVectors;
+    }
+
+    @Override
+    public ObjectVector nextElement() {
+      if (ordinal >= numVectors) {
+        throw new NoSuchElementException("No more vectors in " + vectorFileName);
+      }
+      String object = null;
+      Vector vector = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
+      try {
+        object = keyInput.readString();
+        vector.readFromLuceneStream(vectorInput, encoding);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      ++ordinal;
+      return new ObjectVector(object, vector);
+    }
+  }
+}
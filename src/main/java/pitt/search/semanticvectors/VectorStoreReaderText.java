@@ -68,7 +68,7 @@ import pitt.search.semanticvectors.vectors.VectorType;
    @see VectorStoreReaderLucene
    @see ObjectVector
  **/
-public class VectorStoreReaderText implements CloseableVectorStore {
+public class VectorStoreReaderText implements CloseableVectorStore, NormalizedVectorStore {
   private static final Logger logger = Logger.getLogger(
       VectorStoreReaderText.class.getCanonicalName());
 
@@ -76,6 +76,7 @@ public class VectorStoreReaderText implements CloseableVectorStore {
   private int dimension;
   private String vectorFileText;
   private BufferedReader inBuf;
+  private boolean normalized = false;
   
   /**
    * Initializes a VectorStoreReaderText from a file.
@@ -89,7 +90,7 @@ public class VectorStoreReaderText implements CloseableVectorStore {
     try {
       // Read number of dimension from header information.
       String firstLine = inBuf.readLine();
-      FlagConfig.mergeWriteableFlagsFromString(firstLine, flagConfig);
+      normalized = FlagConfig.mergeWriteableFlagsFromString(firstLine, flagConfig).normalizevectors();
       this.dimension = flagConfig.dimension();
       this.vectorType = flagConfig.vectortype();
     } catch (IOException e) {
@@ -97,6 +98,11 @@ public class VectorStoreReaderText implements CloseableVectorStore {
     }
   }
 
+  /** Returns the name of the file this store was opened from. */
+  public String getVectorFileName() {
+    return vectorFileText;
+  }
+
   public void close() {
     try {
       this.inBuf.close(); //closes underlying filereader too
@@ -106,6 +112,11 @@ public class VectorStoreReaderText implements CloseableVectorStore {
     }
   }
 
+  @Override
+  public boolean isNormalized() {
+    return normalized;
+  }
+
   public Enumeration<ObjectVector> getAllVectors() {
     //create new buffered reader to guarantee that it closes properly
     BufferedReader vecBuf;
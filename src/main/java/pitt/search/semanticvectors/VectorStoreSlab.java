@@ -0,0 +1,530 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+
+import pitt.search.semanticvectors.vectors.IncompatibleVectorsException;
+import pitt.search.semanticvectors.vectors.RealVector;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorEncoding;
+import pitt.search.semanticvectors.vectors.VectorKernels;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+/**
+ * A compact in-memory alternative to {@link VectorStoreRAM} for large stores of
+ * {@link VectorType#REAL} vectors. <p>
+ *
+ * Each key is stored once and mapped to an int ordinal by an open-addressing hash table,
+ * and the coordinates of all vectors are packed into large primitive pages, so there are no
+ * per-entry map nodes, {@link ObjectVector}s, {@link Vector}s or coordinate arrays. <p>
+ *
+ * {@link #getVector} and {@link #getAllVectors} return new vectors copied from the pages, so
+ * changes to them are not written back: use {@link #putVector}, or {@link #getVectorView} for a
+ * flyweight vector that reads and writes the stored coordinates in place. <p>
+ *
+ * If {@link FlagConfig#offheapvectors()} is set, the pages are direct buffers outside the Java
+ * heap, so the garbage collector never traces or copies the coordinates. {@link #close()} drops
+ * the pages, after which their memory is freed as soon as the few buffer objects are collected. <p>
+ *
+ * Vectors may be put concurrently, but reads concurrent with puts are not supported.
+ *
+ * @see VectorStoreRAM
+ */
+public class VectorStoreSlab implements NormalizedVectorStore, CloseableVectorStore {
+  private static final Logger logger =
+      Logger.getLogger(VectorStoreSlab.class.getCanonicalName());
+
+  /** Approximate number of floats in each page of coordinates. */
+  private static final int PAGE_FLOATS = 1 << 20;
+  private static final int INITIAL_TABLE_SIZE = 1 << 10;
+
+  private final FlagConfig flagConfig;
+  private final int dimension;
+  private final int vectorsPerPage;
+  private final boolean offHeap;
+  /** Used for checking compatibility of new vectors. */
+  private final RealVector zeroVector;
+
+  /** Keys indexed by ordinal. */
+  private Object[] keys = new Object[INITIAL_TABLE_SIZE / 2];
+  /** Hash slots holding ordinal + 1, or 0 if empty; always a power of two in size. */
+  private int[] slots = new int[INITIAL_TABLE_SIZE];
+  /** Coordinates of the vector with ordinal i start at pages[i / vectorsPerPage].get((i % vectorsPerPage) * dimension). */
+  private FloatBuffer[] pages = new FloatBuffer[0];
+  private int numVectors = 0;
+  /** True if all vectors came from normalized stores on disk, see {@link #isNormalized}. */
+  private boolean normalized = false;
+
+  public VectorStoreSlab(FlagConfig flagConfig) {
+    if (flagConfig.vectortype() != VectorType.REAL) {
+      throw new IllegalArgumentException("VectorStoreSlab only works with VectorType.REAL vectors.");
+    }
+    this.flagConfig = flagConfig;
+    this.dimension = flagConfig.dimension();
+    this.vectorsPerPage = Math.max(1, PAGE_FLOATS / dimension);
+    this.zeroVector = new RealVector(new float[dimension]);
+    this.offHeap = flagConfig.offheapvectors();
+  }
+
+  /**
+   * Returns a new vector store, initialized from disk with the given vectorFile.
+   *
+   * Dimension and vector type from store on disk may overwrite any previous values in flagConfig.
+   */
+  public static VectorStoreSlab readFromFile(FlagConfig flagConfig, String vectorFile) throws IOException {
+    if (vectorFile.isEmpty()) {
+      throw new IllegalArgumentException("vectorFile argument cannot be empty.");
+    }
+    CloseableVectorStore vectorReaderDisk = VectorStoreReader.openVectorStore(vectorFile, flagConfig);
+    try {
+      return readFromStore(flagConfig, vectorReaderDisk);
+    } finally {
+      vectorReaderDisk.close();
+    }
+  }
+
+  /**
+   * Returns a new vector store, initialized with copies of all the vectors in the given store.
+   * If an object appears more than once, its first vector is kept, as by {@link VectorStoreRAM#initFromFile}.
+   */
+  public static VectorStoreSlab readFromStore(FlagConfig flagConfig, VectorStore source) {
+    VectorStoreSlab store = new VectorStoreSlab(flagConfig);
+    store.normalized = source instanceof NormalizedVectorStore
+        && ((NormalizedVectorStore) source).isNormalized();
+    Enumeration<ObjectVector> vectorEnumeration = source.getAllVectors();
+    while (vectorEnumeration.hasMoreElements()) {
+      ObjectVector objectVector = vectorEnumeration.nextElement();
+      String key = objectVector.getObject().toString();
+      if (store.getOrdinal(key) < 0) {
+        store.putCoordinates(key, objectVector.getVector());
+      }
+    }
+    logger.log(Level.FINE, "Cached {0} vectors.", store.numVectors);
+    return store;
+  }
+
+  /**
+   * Adds a single vector with the given key and value.
+   * Overwrites any existing vector with this key.
+   */
+  public void putVector(Object key, Vector vector) {
+    putCoordinates(key, vector);
+    normalized = false;
+  }
+
+  private synchronized void putCoordinates(Object key, Vector vector) {
+    if (vector instanceof VectorView) {
+      vector = ((VectorView) vector).copy();
+    }
+    IncompatibleVectorsException.checkVectorsCompatible(zeroVector, vector);
+    int ordinal = getOrdinal(key);
+    if (ordinal < 0) {
+      ordinal = addKey(key);
+    }
+    FloatBuffer page = pages[ordinal / vectorsPerPage].duplicate();
+    page.position((ordinal % vectorsPerPage) * dimension);
+    page.put(((RealVector) vector).getCoordinates(), 0, dimension);
+  }
+
+  /** Returns the ordinal of the given key, or -1 if it is not in the store. */
+  public int getOrdinal(Object key) {
+    int mask = slots.length - 1;
+    for (int slot = hash(key) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+      if (keys[slots[slot] - 1].equals(key)) {
+        return slots[slot] - 1;
+      }
+    }
+    return -1;
+  }
+
+  /** Returns the key with the given ordinal. */
+  public Object getKey(int ordinal) {
+    if (ordinal < 0 || ordinal >= numVectors) {
+      throw new IndexOutOfBoundsException("No vector with ordinal " + ordinal);
+    }
+    return keys[ordinal];
+  }
+
+  private int addKey(Object key) {
+    int ordinal = numVectors++;
+    if (ordinal == keys.length) {
+      Object[] newKeys = new Object[keys.length * 2];
+      System.arraycopy(keys, 0, newKeys, 0, keys.length);
+      keys = newKeys;
+    }
+    keys[ordinal] = key;
+    if (2 * numVectors > slots.length) {
+      rehash(slots.length * 2);
+    } else {
+      insertSlot(slots, ordinal);
+    }
+    if (ordinal / vectorsPerPage == pages.length) {
+      FloatBuffer[] newPages = new FloatBuffer[pages.length + 1];
+      System.arraycopy(pages, 0, newPages, 0, pages.length);
+      newPages[pages.length] = allocatePage(vectorsPerPage * dimension);
+      pages = newPages;
+    }
+    return ordinal;
+  }
+
+  private FloatBuffer allocatePage(int numFloats) {
+    if (!offHeap) {
+      return FloatBuffer.wrap(new float[numFloats]);
+    }
+    return ByteBuffer.allocateDirect(4 * numFloats).order(ByteOrder.nativeOrder()).asFloatBuffer();
+  }
+
+  private void rehash(int newSize) {
+    int[] newSlots = new int[newSize];
+    for (int ordinal = 0; ordinal < numVectors; ++ordinal) {
+      insertSlot(newSlots, ordinal);
+    }
+    slots = newSlots;
+  }
+
+  private void insertSlot(int[] table, int ordinal) {
+    int mask = table.length - 1;
+    int slot = hash(keys[ordinal]) & mask;
+    while (table[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    table[slot] = ordinal + 1;
+  }
+
+  /** Spreads the bits of the key's hash code, since linear probing is sensitive to clustering. */
+  private static int hash(Object key) {
+    int h = key.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Returns true if the store was initialized from a store on disk that was written
+   * with {@link FlagConfig#normalizevectors()}, and no vectors have been put since.
+   */
+  @Override
+  public boolean isNormalized() {
+    return normalized;
+  }
+
+  /**
+   * Returns a new copy of the vector stored for this object, or null if not found.
+   */
+  @Override
+  public Vector getVector(Object object) {
+    int ordinal = getOrdinal(object);
+    return ordinal < 0 ? null : copyVector(ordinal);
+  }
+
+  private RealVector copyVector(int ordinal) {
+    return copyCoordinates(pages[ordinal / vectorsPerPage], (ordinal % vectorsPerPage) * dimension, dimension);
+  }
+
+  private static RealVector copyCoordinates(FloatBuffer page, int offset, int dimension) {
+    float[] coordinates = new float[dimension];
+    FloatBuffer source = page.duplicate();
+    source.position(offset);
+    source.get(coordinates, 0, dimension);
+    return new RealVector(coordinates);
+  }
+
+  /**
+   * Returns a flyweight view of the vector stored for this object, or null if not found.
+   */
+  public VectorView getVectorView(Object object) {
+    int ordinal = getOrdinal(object);
+    return ordinal < 0 ? null : getVectorView(ordinal);
+  }
+
+  /**
+   * Returns a flyweight view of the vector with the given ordinal.
+   */
+  public VectorView getVectorView(int ordinal) {
+    if (ordinal < 0 || ordinal >= numVectors) {
+      throw new IndexOutOfBoundsException("No vector with ordinal " + ordinal);
+    }
+    return new VectorView(pages[ordinal / vectorsPerPage], (ordinal % vectorsPerPage) * dimension, dimension);
+  }
+
+  @Override
+  public boolean containsVector(Object object) {
+    return getOrdinal(object) >= 0;
+  }
+
+  /**
+   * Returns an enumeration of new copies of all the vectors in the store, in the order
+   * their keys were first added.
+   */
+  @Override
+  public Enumeration<ObjectVector> getAllVectors() {
+    return new Enumeration<ObjectVector>() {
+      private int ordinal = 0;
+
+      @Override
+      public boolean hasMoreElements() {
+        return ordinal < numVectors;
+      }
+
+      @Override
+      public ObjectVector nextElement() {
+        if (ordinal >= numVectors) {
+          throw new NoSuchElementException();
+        }
+        ObjectVector objectVector = new ObjectVector(keys[ordinal], copyVector(ordinal));
+        ++ordinal;
+        return objectVector;
+      }
+    };
+  }
+
+  @Override
+  public int getNumVectors() {
+    return numVectors;
+  }
+
+  /**
+   * Removes all vectors and drops the pages that held them. Views obtained earlier keep
+   * their own pages alive and remain usable.
+   */
+  @Override
+  public synchronized void close() {
+    keys = new Object[INITIAL_TABLE_SIZE / 2];
+    slots = new int[INITIAL_TABLE_SIZE];
+    pages = new FloatBuffer[0];
+    numVectors = 0;
+  }
+
+  /**
+   * A {@link VectorType#REAL} vector whose coordinates are a range of a page in a
+   * {@link VectorStoreSlab}, so that changes to it change the stored vector. <p>
+   *
+   * Views can be used as the receiver of any vector operation, and as the argument of
+   * operations on other views. Other vector classes expect arguments of their own class,
+   * so pass them a {@link #copy()} instead.
+   */
+  public static class VectorView implements Vector {
+    private final FloatBuffer page;
+    private final int offset;
+    private final int dimension;
+
+    private VectorView(FloatBuffer page, int offset, int dimension) {
+      this.page = page;
+      this.offset = offset;
+      this.dimension = dimension;
+    }
+
+    private void checkCompatible(Vector other) {
+      if (!(other instanceof VectorView || other instanceof RealVector)) {
+        throw new IncompatibleVectorsException("Trying to combine vectors of type: "
+            + getClass().getCanonicalName() + ", " + other.getClass().getCanonicalName());
+      }
+      if (other.getDimension() != dimension) {
+        throw new IncompatibleVectorsException("Trying to combine vectors of dimension: "
+            + dimension + ", " + other.getDimension());
+      }
+    }
+
+    /** Returns the coordinates of the other vector, which must be real. */
+    private static float[] coordinatesOf(Vector other) {
+      if (other instanceof VectorView) {
+        return ((VectorView) other).copy().getCoordinates();
+      }
+      return ((RealVector) other).getCoordinates();
+    }
+
+    /** Returns the scalar product of this vector's coordinates with the given coordinates. */
+    private double dot(float[] coordinates) {
+      if (page.hasArray()) {
+        return VectorKernels.dot(page.array(), page.arrayOffset() + offset, coordinates, 0, dimension);
+      }
+      double sum = 0;
+      for (int i = 0; i < dimension; ++i) {
+        sum += page.get(offset + i) * coordinates[i];
+      }
+      return sum;
+    }
+
+    /** Returns the scalar product of this vector with itself. */
+    private double normSq() {
+      if (page.hasArray()) {
+        int arrayOffset = page.arrayOffset() + offset;
+        return VectorKernels.dot(page.array(), arrayOffset, page.array(), arrayOffset, dimension);
+      }
+      double sum = 0;
+      for (int i = offset; i < offset + dimension; ++i) {
+        sum += page.get(i) * page.get(i);
+      }
+      return sum;
+    }
+
+    /** Overwrites the stored coordinates with those of the given real vector. */
+    private void setCoordinates(RealVector vector) {
+      FloatBuffer target = page.duplicate();
+      target.position(offset);
+      target.put(vector.getCoordinates(), 0, dimension);
+    }
+
+    @Override
+    public RealVector copy() {
+      return copyCoordinates(page, offset, dimension);
+    }
+
+    @Override
+    public RealVector generateRandomVector(int dimension, int numEntries, Random random) {
+      return copy().generateRandomVector(dimension, numEntries, random);
+    }
+
+    @Override
+    public int getDimension() {
+      return dimension;
+    }
+
+    @Override
+    public VectorType getVectorType() {
+      return VectorType.REAL;
+    }
+
+    @Override
+    public boolean isZeroVector() {
+      for (int i = offset; i < offset + dimension; ++i) {
+        if (page.get(i) != 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public double measureOverlap(Vector other) {
+      checkCompatible(other);
+      float[] otherCoordinates = coordinatesOf(other);
+      double normSq = normSq();
+      double otherNormSq = VectorKernels.dot(otherCoordinates, otherCoordinates, dimension);
+      if (normSq == 0 || otherNormSq == 0) return 0;
+      return dot(otherCoordinates) / Math.sqrt(normSq * otherNormSq);
+    }
+
+    @Override
+    public void superpose(Vector other, double weight, int[] permutation) {
+      checkCompatible(other);
+      float[] otherCoordinates = coordinatesOf(other);
+      if (VectorKernels.containsNaN(otherCoordinates, dimension)) return;
+      for (int i = 0; i < dimension; ++i) {
+        int position = offset + (permutation == null ? i : permutation[i]);
+        page.put(position, (float) (page.get(position) + otherCoordinates[i] * weight));
+      }
+    }
+
+    @Override
+    public void bind(Vector other) {
+      RealVector result = copy();
+      result.bind(other instanceof VectorView ? ((VectorView) other).copy() : other);
+      setCoordinates(result);
+    }
+
+    @Override
+    public void release(Vector other) {
+      RealVector result = copy();
+      result.release(other instanceof VectorView ? ((VectorView) other).copy() : other);
+      setCoordinates(result);
+    }
+
+    @Override
+    public void normalize() {
+      float norm = (float) Math.sqrt(normSq());
+      for (int i = offset; i < offset + dimension; ++i) {
+        page.put(i, page.get(i) / norm);
+      }
+    }
+
+    @Override
+    public void writeToLuceneStream(IndexOutput outputStream) {
+      copy().writeToLuceneStream(outputStream);
+    }
+
+    @Override
+    public void writeToLuceneStream(IndexOutput outputStream, int k) {
+      copy().writeToLuceneStream(outputStream, k);
+    }
+
+    @Override
+    public void readFromLuceneStream(IndexInput inputStream) {
+      RealVector result = new RealVector(new float[dimension]);
+      result.readFromLuceneStream(inputStream);
+      setCoordinates(result);
+    }
+
+    @Override
+    public void writeToLuceneStream(IndexOutput outputStream, VectorEncoding encoding) {
+      copy().writeToLuceneStream(outputStream, encoding);
+    }
+
+    @Override
+    public void readFromLuceneStream(IndexInput inputStream, VectorEncoding encoding) {
+      RealVector result = new RealVector(new float[dimension]);
+      result.readFromLuceneStream(inputStream, encoding);
+      setCoordinates(result);
+    }
+
+    @Override
+    public String writeToString() {
+      return copy().writeToString();
+    }
+
+    @Override
+    public void readFromString(String input) {
+      RealVector result = new RealVector(new float[dimension]);
+      result.readFromString(input);
+      setCoordinates(result);
+    }
+
+    @Override
+    public String toString() {
+      return "VectorStoreSlab.VectorView of " + copy().toString();
+    }
+  }
+}
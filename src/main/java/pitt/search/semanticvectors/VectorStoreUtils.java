@@ -40,14 +40,21 @@
      LUCENE,
 
      /** Plan text format, used for interchange with external systems. */
-     TEXT
+     TEXT,
+
+     /**
+      * Fixed-stride binary format read using memory-mapped I/O, with an index of
+      * object strings for random access. See {@link VectorStoreReaderMapped}.
+      */
+     MAPPED
    }
 
    /**
     * Returns "$storeName.bin" if {@link FlagConfig#indexfileformat()} is {@link VectorStoreFormat#LUCENE}.
     * Returns "$storeName.txt" if {@link FlagConfig#indexfileformat()} is {@link VectorStoreFormat#TEXT}.
+    * Returns "$storeName.mbin" if {@link FlagConfig#indexfileformat()} is {@link VectorStoreFormat#MAPPED}.
     * 
-    * Method is idempotent: if file already ends with ".bin" or ".txt" as appropriate, input
+    * Method is idempotent: if file already ends with ".bin", ".txt" or ".mbin" as appropriate, input
     * is returned unchanged.
     */
    public static String getStoreFileName(String storeName, FlagConfig flagConfig) {
@@ -66,8 +73,35 @@
        else {
          return storeName + ".txt";
        }
+     case MAPPED:
+       if (storeName.endsWith(".mbin")) {
+         return storeName;
+       }
+       else {
+         return storeName + ".mbin";
+       }
      default:
        throw new IllegalStateException("Unknown -indexfileformat: " + flagConfig.indexfileformat());
      }
    }
+
+   /**
+    * Returns the name of the file that a search store was read from, next to which its
+    * indexes are saved. This is the reader's own file if it was opened from one, otherwise
+    * the file given by {@link FlagConfig#searchvectorfile()}. Returns null for an
+    * {@link ExpandedVectorStore}, whose vectors are not in any file.
+    */
+   public static String getSearchStoreFileName(VectorStore searchVecStore, FlagConfig flagConfig) {
+     String fileName = null;
+     if (searchVecStore instanceof ExpandedVectorStore) {
+       return null;
+     } else if (searchVecStore instanceof VectorStoreReaderLucene) {
+       fileName = ((VectorStoreReaderLucene) searchVecStore).getVectorFileName();
+     } else if (searchVecStore instanceof VectorStoreReaderMapped) {
+       fileName = ((VectorStoreReaderMapped) searchVecStore).getVectorFileName();
+     } else if (searchVecStore instanceof VectorStoreReaderText) {
+       fileName = ((VectorStoreReaderText) searchVecStore).getVectorFileName();
+     }
+     return fileName != null ? fileName : getStoreFileName(flagConfig.searchvectorfile(), flagConfig);
+   }
  }
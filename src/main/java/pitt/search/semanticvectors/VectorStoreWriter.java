@@ -40,12 +40,19 @@ import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.IndexOutput;
 
 import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.vectors.ComplexVector;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorEncoding;
+import pitt.search.semanticvectors.vectors.VectorType;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.FileSystems;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Enumeration;
 
 /**
@@ -76,7 +83,45 @@ public class VectorStoreWriter {
   }
 
   /**
-   * Writes vectors in text or lucene format depending on {@link FlagConfig#indexfileformat}.
+   * As {@link #generateHeaderString(FlagConfig)}, adding "-normalizevectors" if the vectors
+   * that follow are known to have unit length. Complex vectors only have unit length if they
+   * were normalized in {@link ComplexVector.Mode#HERMITIAN} mode, which readers score in,
+   * so the flag is left out for complex vectors normalized in any other mode.
+   */
+  public static String generateHeaderString(FlagConfig flagConfig, boolean normalized) {
+    String header = generateHeaderString(flagConfig);
+    if (flagConfig.vectortype() == VectorType.COMPLEX
+        && ComplexVector.getDominantMode() != ComplexVector.Mode.HERMITIAN) {
+      normalized = false;
+    }
+    return normalized ? header + " -normalizevectors" : header;
+  }
+
+  /**
+   * As {@link #generateHeaderString(FlagConfig, boolean)}, adding "-vectorencoding" if the
+   * vectors that follow are written with an encoding other than {@link VectorEncoding#FLOAT32}.
+   */
+  public static String generateHeaderString(FlagConfig flagConfig, boolean normalized, VectorEncoding encoding) {
+    String header = generateHeaderString(flagConfig, normalized);
+    return encoding == VectorEncoding.FLOAT32 ? header
+        : header + " -vectorencoding " + encoding.toString().toLowerCase();
+  }
+
+  /**
+   * Returns the vector to write for this object vector: the vector itself, or a normalized copy
+   * if {@link FlagConfig#normalizevectors()} is set.
+   */
+  private static Vector getVectorToWrite(ObjectVector objectVector, FlagConfig flagConfig) {
+    Vector vector = objectVector.getVector();
+    if (flagConfig.normalizevectors() && !vector.isZeroVector()) {
+      vector = vector.copy();
+      vector.normalize();
+    }
+    return vector;
+  }
+
+  /**
+   * Writes vectors in text, lucene or mapped format depending on {@link FlagConfig#indexfileformat}.
    * 
    * @param storeName The name of the vector store to write to
    * @param objectVectors The vector store to be written to disk
@@ -91,6 +136,9 @@ public class VectorStoreWriter {
     case TEXT:
       writeVectorsInTextFormat(vectorFileName, flagConfig, objectVectors);
       break;
+    case MAPPED:
+      writeVectorsInMappedFormat(vectorFileName, flagConfig, objectVectors);
+      break;
     default:
       throw new IllegalStateException("Unknown -indexfileformat: " + flagConfig.indexfileformat());
     }
@@ -123,18 +171,101 @@ public class VectorStoreWriter {
   public static void writeToIndexOutput(VectorStore objectVectors, FlagConfig flagConfig, IndexOutput outputStream)
       throws IOException {
     // Write header giving vector type and dimension for all vectors.
-    outputStream.writeString(generateHeaderString(flagConfig));
+    outputStream.writeString(generateHeaderString(
+        flagConfig, flagConfig.normalizevectors(), flagConfig.vectorencoding()));
     Enumeration<ObjectVector> vecEnum = objectVectors.getAllVectors();
 
     // Write each vector.
     while (vecEnum.hasMoreElements()) {
       ObjectVector objectVector = vecEnum.nextElement();
       outputStream.writeString(objectVector.getObject().toString());
-      objectVector.getVector().writeToLuceneStream(outputStream);
+      getVectorToWrite(objectVector, flagConfig).writeToLuceneStream(
+          outputStream, flagConfig.vectorencoding());
     }
     VerbatimLogger.info("finished writing vectors.\n");
   }
 
+  /**
+   * Outputs a vector store in the fixed-stride format read by {@link VectorStoreReaderMapped}.
+   * 
+   * @param vectorFileName The name of the file to write to
+   * @param objectVectors The vector store to be written to disk
+   */
+  public static void writeVectorsInMappedFormat(String vectorFileName, FlagConfig flagConfig, VectorStore objectVectors)
+      throws IOException {
+    VerbatimLogger.info("About to write " + objectVectors.getNumVectors() + " vectors of dimension "
+        + flagConfig.dimension() + " to mapped format file: " + vectorFileName + " ... ");
+    File vectorFile = new File(vectorFileName);
+    String parentPath = vectorFile.getParent();
+    if (parentPath == null) parentPath = "";
+    FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    IndexOutput outputStream = fsDirectory.createOutput(vectorFile.getName(), IOContext.DEFAULT);
+    writeToMappedIndexOutput(objectVectors, flagConfig, outputStream);
+    outputStream.close();
+    fsDirectory.close();
+  }
+
+  /**
+   * Writes the object vectors to this Lucene output stream in the layout expected by
+   * {@link VectorStoreReaderMapped}:
+   * <ul>
+   * <li>the header string from {@link #generateHeaderString};</li>
+   * <li>all vectors, back to back, each taking exactly
+   *   {@link pitt.search.semanticvectors.vectors.VectorFactory#getLuceneByteSize} bytes;</li>
+   * <li>the object strings, in the same order as the vectors;</li>
+   * <li>an index of (key offset, ordinal) pairs sorted by object string;</li>
+   * <li>a footer giving the number of vectors and the offsets of the three regions above.</li>
+   * </ul>
+   * Caller is responsible for opening and closing stream output stream.
+   */
+  public static void writeToMappedIndexOutput(VectorStore objectVectors, FlagConfig flagConfig, IndexOutput outputStream)
+      throws IOException {
+    outputStream.writeString(generateHeaderString(
+        flagConfig, flagConfig.normalizevectors(), flagConfig.vectorencoding()));
+
+    // Write vectors, keeping the object strings for the key table.
+    final ArrayList<String> keys = new ArrayList<String>();
+    long vectorsOffset = outputStream.getFilePointer();
+    Enumeration<ObjectVector> vecEnum = objectVectors.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      ObjectVector objectVector = vecEnum.nextElement();
+      keys.add(objectVector.getObject().toString());
+      getVectorToWrite(objectVector, flagConfig).writeToLuceneStream(
+          outputStream, flagConfig.vectorencoding());
+    }
+
+    // Write object strings in ordinal order.
+    long keysOffset = outputStream.getFilePointer();
+    long[] keyOffsets = new long[keys.size()];
+    for (int i = 0; i < keys.size(); ++i) {
+      keyOffsets[i] = outputStream.getFilePointer();
+      outputStream.writeString(keys.get(i));
+    }
+
+    // Write index of ordinals sorted by object string.
+    long indexOffset = outputStream.getFilePointer();
+    Integer[] sortedOrdinals = new Integer[keys.size()];
+    for (int i = 0; i < sortedOrdinals.length; ++i) {
+      sortedOrdinals[i] = i;
+    }
+    Arrays.sort(sortedOrdinals, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer o1, Integer o2) {
+        return keys.get(o1).compareTo(keys.get(o2));
+      }
+    });
+    for (int ordinal : sortedOrdinals) {
+      outputStream.writeLong(keyOffsets[ordinal]);
+      outputStream.writeInt(ordinal);
+    }
+
+    outputStream.writeInt(keys.size());
+    outputStream.writeLong(vectorsOffset);
+    outputStream.writeLong(keysOffset);
+    outputStream.writeLong(indexOffset);
+    VerbatimLogger.info("finished writing vectors.\n");
+  }
+
   /**
    * Outputs a vector store as a plain text file.
    * 
@@ -157,13 +288,13 @@ public class VectorStoreWriter {
     Enumeration<ObjectVector> vecEnum = objectVectors.getAllVectors();
 
     // Write header giving vector type and dimension for all vectors.
-    outBuf.write(generateHeaderString(flagConfig) + "\n");
+    outBuf.write(generateHeaderString(flagConfig, flagConfig.normalizevectors()) + "\n");
 
     // Write each vector.
     while (vecEnum.hasMoreElements()) {
       ObjectVector objectVector = vecEnum.nextElement();
       outBuf.write(objectVector.getObject().toString() + "|");
-      outBuf.write(objectVector.getVector().writeToString());
+      outBuf.write(getVectorToWrite(objectVector, flagConfig).writeToString());
       outBuf.write("\n");
     }    
   }
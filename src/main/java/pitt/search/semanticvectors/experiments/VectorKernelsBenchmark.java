@@ -0,0 +1,183 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.experiments;
+
+import java.util.Random;
+
+import org.netlib.blas.BLAS;
+
+import pitt.search.semanticvectors.vectors.VectorKernels;
+
+/**
+ * Command line comparison of the loops in {@link VectorKernels} with the plain loops and BLAS
+ * calls they replace. Each kernel is run over a pool of random vectors, after a warm-up run
+ * so that the JIT compiler has compiled it, and the mean time per call is printed.
+ */
+public class VectorKernelsBenchmark {
+  public static String usageMessage = "VectorKernelsBenchmark class in pitt.search.semanticvectors.experiments"
+      + "\nUsage: java pitt.search.semanticvectors.experiments.VectorKernelsBenchmark [DIMENSION [ITERATIONS]]"
+      + "\nDefaults are dimension 512 and 1000000 iterations.";
+
+  private static final int POOL_SIZE = 64;
+
+  private final int dimension;
+  private final int iterations;
+  private final float[][] floats = new float[POOL_SIZE][];
+  private final long[][] words = new long[POOL_SIZE][];
+  private final BLAS blas = BLAS.getInstance();
+  /** Accumulates results so that the JIT compiler cannot discard the work being timed. */
+  private double sink = 0;
+
+  private VectorKernelsBenchmark(int dimension, int iterations) {
+    this.dimension = dimension;
+    this.iterations = iterations;
+    Random random = new Random(0);
+    for (int i = 0; i < POOL_SIZE; ++i) {
+      floats[i] = new float[dimension];
+      for (int j = 0; j < dimension; ++j) {
+        floats[i][j] = (float) random.nextGaussian();
+      }
+      words[i] = new long[(dimension + 63) / 64];
+      for (int j = 0; j < words[i].length; ++j) {
+        words[i][j] = random.nextLong();
+      }
+    }
+  }
+
+  private abstract class Kernel {
+    final String name;
+
+    Kernel(String name) {
+      this.name = name;
+    }
+
+    abstract double run(int i, int j);
+  }
+
+  private void time(Kernel kernel) {
+    for (int pass = 0; pass < 2; ++pass) {
+      long start = System.nanoTime();
+      for (int n = 0; n < iterations; ++n) {
+        sink += kernel.run(n % POOL_SIZE, (n * 7 + 1) % POOL_SIZE);
+      }
+      long elapsed = System.nanoTime() - start;
+      if (pass == 1) {
+        System.out.printf("%-24s %8.1f ns/call%n", kernel.name, (double) elapsed / iterations);
+      }
+    }
+  }
+
+  private void runAll() {
+    System.out.println("Dimension " + dimension + ", " + iterations + " calls per kernel.");
+    time(new Kernel("dot, plain loop") {
+      double run(int i, int j) {
+        float[] a = floats[i], b = floats[j];
+        double sum = 0;
+        for (int k = 0; k < dimension; ++k) sum += a[k] * b[k];
+        return sum;
+      }
+    });
+    time(new Kernel("dot, BLAS sdot") {
+      double run(int i, int j) {
+        return blas.sdot(dimension, floats[i], 1, floats[j], 1);
+      }
+    });
+    time(new Kernel("dot, kernel") {
+      double run(int i, int j) {
+        return VectorKernels.dot(floats[i], floats[j], dimension);
+      }
+    });
+    time(new Kernel("cosine, plain loop") {
+      double run(int i, int j) {
+        float[] a = floats[i], b = floats[j];
+        double product = 0, normA = 0, normB = 0;
+        for (int k = 0; k < dimension; ++k) {
+          product += a[k] * b[k];
+          normA += a[k] * a[k];
+          normB += b[k] * b[k];
+        }
+        return product / Math.sqrt(normA * normB);
+      }
+    });
+    time(new Kernel("cosine, kernel") {
+      double run(int i, int j) {
+        return VectorKernels.cosine(floats[i], floats[j], dimension);
+      }
+    });
+    time(new Kernel("axpy, BLAS saxpy") {
+      double run(int i, int j) {
+        blas.saxpy(dimension, 1e-6f, floats[i], 1, floats[j], 1);
+        return floats[j][0];
+      }
+    });
+    time(new Kernel("axpy, float kernel") {
+      double run(int i, int j) {
+        VectorKernels.axpy(1e-6f, floats[i], floats[j], dimension);
+        return floats[j][0];
+      }
+    });
+    time(new Kernel("axpy, double kernel") {
+      double run(int i, int j) {
+        VectorKernels.axpy(1e-6, floats[i], floats[j], dimension);
+        return floats[j][0];
+      }
+    });
+    time(new Kernel("xorCount, plain loop") {
+      double run(int i, int j) {
+        long[] a = words[i], b = words[j];
+        long count = 0;
+        for (int k = 0; k < a.length; ++k) count += Long.bitCount(a[k] ^ b[k]);
+        return count;
+      }
+    });
+    time(new Kernel("xorCount, kernel") {
+      double run(int i, int j) {
+        return VectorKernels.xorCount(words[i], words[j], words[i].length);
+      }
+    });
+    System.out.println("(checksum " + sink + ")");
+  }
+
+  public static void main(String[] args) {
+    if (args.length > 2) {
+      System.err.println(usageMessage);
+      throw new IllegalArgumentException();
+    }
+    int dimension = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+    new VectorKernelsBenchmark(dimension, iterations).runAll();
+  }
+}
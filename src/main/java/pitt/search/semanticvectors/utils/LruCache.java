@@ -0,0 +1,127 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thread-safe cache that keeps recently used entries up to a total size in bytes, evicting
+ * the least recently used entries first. Callers give an estimated size for each entry
+ * when it is added. Counts of hits, misses and evictions are kept for reporting.
+ */
+public class LruCache<K, V> {
+  private static class Entry<V> {
+    final V value;
+    final long sizeInBytes;
+
+    Entry(V value, long sizeInBytes) {
+      this.value = value;
+      this.sizeInBytes = sizeInBytes;
+    }
+  }
+
+  private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final long maxSizeInBytes;
+  private long sizeInBytes = 0;
+  private long hits = 0, misses = 0, evictions = 0;
+
+  /** Creates a cache holding entries up to a total of maxSizeInBytes. */
+  public LruCache(long maxSizeInBytes) {
+    this.maxSizeInBytes = maxSizeInBytes;
+  }
+
+  /** Returns the cached value for key, or null if there is none. */
+  public synchronized V get(K key) {
+    Entry<V> entry = entries.get(key);
+    if (entry == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    return entry.value;
+  }
+
+  /**
+   * Adds or replaces the value for key, then evicts least recently used entries until the
+   * cache fits in its maximum size. A value larger than the whole cache is not added.
+   */
+  public synchronized void put(K key, V value, long valueSizeInBytes) {
+    Entry<V> previous = entries.remove(key);
+    if (previous != null) {
+      sizeInBytes -= previous.sizeInBytes;
+    }
+    if (valueSizeInBytes > maxSizeInBytes) {
+      return;
+    }
+    entries.put(key, new Entry<V>(value, valueSizeInBytes));
+    sizeInBytes += valueSizeInBytes;
+    Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+    while (sizeInBytes > maxSizeInBytes && iterator.hasNext()) {
+      sizeInBytes -= iterator.next().getValue().sizeInBytes;
+      iterator.remove();
+      evictions++;
+    }
+  }
+
+  /** Removes all entries, keeping the statistics. */
+  public synchronized void clear() {
+    entries.clear();
+    sizeInBytes = 0;
+  }
+
+  public long getMaxSizeInBytes() { return maxSizeInBytes; }
+
+  public synchronized long getSizeInBytes() { return sizeInBytes; }
+
+  public synchronized int size() { return entries.size(); }
+
+  public synchronized long getHits() { return hits; }
+
+  public synchronized long getMisses() { return misses; }
+
+  public synchronized long getEvictions() { return evictions; }
+
+  /** Returns a one-line summary of the cache size and hit rate. */
+  @Override
+  public synchronized String toString() {
+    long lookups = hits + misses;
+    return String.format("%d entries, %d of %d bytes, %d hits, %d misses (%.1f%% hit rate), %d evictions",
+        entries.size(), sizeInBytes, maxSizeInBytes, hits, misses,
+        lookups == 0 ? 0.0 : 100.0 * hits / lookups, evictions);
+  }
+}
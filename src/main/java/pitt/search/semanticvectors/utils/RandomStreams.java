@@ -0,0 +1,83 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.utils;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Random number generators for training threads, derived from the master seed given by
+ * {@link pitt.search.semanticvectors.FlagConfig#seed()}. <p>
+ *
+ * Each unit of work, e.g., a document in a training cycle, gets a stream of its own, so
+ * threads never share a generator and the numbers drawn for a unit of work do not depend on
+ * which thread processes it, or when.
+ */
+public class RandomStreams {
+  private RandomStreams() {}
+
+  /**
+   * Returns a new generator seeded from the given seed, or seeded arbitrarily if seed is 0.
+   */
+  public static Random newRandom(int seed) {
+    return seed == 0 ? new Random() : new Random(mix(seed));
+  }
+
+  /**
+   * Returns a generator for the stream identified by the given ids, e.g., a training cycle and a
+   * document number. Streams with different ids are independent for practical purposes, and
+   * each stream is the same in every run with the same nonzero seed. If seed is 0, returns the
+   * calling thread's {@link ThreadLocalRandom}, which must not be passed to other threads.
+   */
+  public static Random forStream(int seed, long... streamIds) {
+    if (seed == 0) {
+      return ThreadLocalRandom.current();
+    }
+    long state = mix(seed);
+    for (long streamId : streamIds) {
+      state = mix(state ^ streamId);
+    }
+    return new Random(state);
+  }
+
+  /** The SplitMix64 finalizer, which spreads nearby inputs across all 64 bits. */
+  static long mix(long z) {
+    z += 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+}
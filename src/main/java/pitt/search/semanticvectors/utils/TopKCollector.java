@@ -0,0 +1,198 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.utils;
+
+/**
+ * Collects the k highest scores offered to it, each identified by an integer ordinal.
+ *
+ * <p>
+ * Implemented as a binary min-heap over parallel {@code double[]} and {@code int[]}
+ * arrays, so the weakest of the current top k is always at the root and offering a
+ * score costs O(log k) with no allocation. Callers that need objects for the winners
+ * (e.g., {@link pitt.search.semanticvectors.SearchResult}s) should create them only
+ * once collection is finished, using {@link #sortDescending}.
+ *
+ * <p>
+ * Not thread-safe: parallel searches should use one collector per thread and
+ * combine them using {@link #merge}.
+ */
+public class TopKCollector {
+  private final int k;
+  private final double[] scores;
+  private final int[] ordinals;
+  private int size = 0;
+
+  /**
+   * @param k the maximum number of entries kept; must be non-negative.
+   */
+  public TopKCollector(int k) {
+    if (k < 0) {
+      throw new IllegalArgumentException("Cannot collect " + k + " results.");
+    }
+    this.k = k;
+    this.scores = new double[k];
+    this.ordinals = new int[k];
+  }
+
+  /** Returns the number of entries currently held, at most k. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns the maximum number of entries held. */
+  public int capacity() {
+    return k;
+  }
+
+  /** Returns true if the collector already holds k entries. */
+  public boolean isFull() {
+    return size == k;
+  }
+
+  /**
+   * Returns the lowest score held, which a new score must beat once the collector
+   * is full, or {@link Double#NEGATIVE_INFINITY} if the collector is not yet full.
+   */
+  public double getMinScore() {
+    return (size < k || k == 0) ? Double.NEGATIVE_INFINITY : scores[0];
+  }
+
+  /** Returns true if {@link #offer} would keep an entry with this score. */
+  public boolean wouldAccept(double score) {
+    if (k == 0) return false;
+    return size < k || score > scores[0];
+  }
+
+  /**
+   * Offers an entry to the collector.
+   *
+   * @return the ordinal of an entry that was evicted to make room, or {@code ordinal}
+   *     itself if the new entry was rejected, or -1 if nothing was dropped.
+   */
+  public int offer(double score, int ordinal) {
+    if (size < k) {
+      scores[size] = score;
+      ordinals[size] = ordinal;
+      siftUp(size++);
+      return -1;
+    }
+    if (k == 0 || score <= scores[0]) {
+      return ordinal;
+    }
+    int evicted = ordinals[0];
+    scores[0] = score;
+    ordinals[0] = ordinal;
+    siftDown(0, size);
+    return evicted;
+  }
+
+  /**
+   * Offers every entry held by the other collector to this one.
+   */
+  public void merge(TopKCollector other) {
+    for (int i = 0; i < other.size; ++i) {
+      offer(other.scores[i], other.ordinals[i]);
+    }
+  }
+
+  /**
+   * Sorts the held entries by descending score and returns the number of entries.
+   * After this call, {@link #getScore} and {@link #getOrdinal} with index 0 give the best
+   * entry. The collector should not be offered further entries until {@link #clear} is called.
+   */
+  public int sortDescending() {
+    // Heapsort: repeatedly move the minimum to the end of the shrinking heap.
+    for (int end = size - 1; end > 0; --end) {
+      swap(0, end);
+      siftDown(0, end);
+    }
+    return size;
+  }
+
+  /** Returns the score at this position in the internal arrays. */
+  public double getScore(int index) {
+    return scores[index];
+  }
+
+  /**
+   * Returns the ordinal at this position in the internal arrays. While collecting, index 0
+   * holds the entry with the lowest score, which is the one the next accepted offer evicts
+   * once the collector is full.
+   */
+  public int getOrdinal(int index) {
+    return ordinals[index];
+  }
+
+  /** Removes all entries so the collector can be reused. */
+  public void clear() {
+    size = 0;
+  }
+
+  private void siftUp(int index) {
+    while (index > 0) {
+      int parent = (index - 1) >>> 1;
+      if (scores[parent] <= scores[index]) {
+        return;
+      }
+      swap(parent, index);
+      index = parent;
+    }
+  }
+
+  private void siftDown(int index, int heapSize) {
+    while (true) {
+      int smallest = index;
+      int left = 2 * index + 1;
+      int right = left + 1;
+      if (left < heapSize && scores[left] < scores[smallest]) smallest = left;
+      if (right < heapSize && scores[right] < scores[smallest]) smallest = right;
+      if (smallest == index) {
+        return;
+      }
+      swap(index, smallest);
+      index = smallest;
+    }
+  }
+
+  private void swap(int i, int j) {
+    double score = scores[i];
+    scores[i] = scores[j];
+    scores[j] = score;
+    int ordinal = ordinals[i];
+    ordinals[i] = ordinals[j];
+    ordinals[j] = ordinal;
+  }
+}
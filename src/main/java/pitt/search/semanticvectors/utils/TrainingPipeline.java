@@ -0,0 +1,217 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two-stage producer / consumer pipeline for training. <p>
+ *
+ * The calling thread reads items from a source, e.g., documents from a Lucene index, and puts
+ * them in batches into a bounded queue, so reading runs ahead of training by at most the
+ * capacity of the queue. Worker threads take batches from the queue and process each item.
+ * When the source is exhausted, each worker receives an empty batch that tells it to stop. <p>
+ *
+ * Time spent waiting on the queue is recorded: time the reader waits means training is the
+ * bottleneck, time the workers wait means reading is. These and the queue depth are reported
+ * by {@link #toString()}.
+ *
+ * @param <T> the type of item being trained on
+ */
+public class TrainingPipeline<T> {
+
+  /** Processes items for one worker thread. */
+  public interface Worker<T> {
+    public void process(T item);
+  }
+
+  /** Tells a worker that there are no more batches. */
+  private final List<T> endOfInput = Collections.emptyList();
+  private final int batchSize;
+  private final BlockingQueue<List<T>> batches;
+
+  private volatile Throwable failure = null;
+  private long numBatches = 0;
+  private long totalQueueDepth = 0;
+  private int maxQueueDepth = 0;
+  private long readerStallNanos = 0;
+  private final AtomicLong workerStallNanos = new AtomicLong();
+
+  /**
+   * @param batchSize number of items in each batch put in the queue
+   * @param capacity maximum number of batches waiting in the queue
+   */
+  public TrainingPipeline(int batchSize, int capacity) {
+    this.batchSize = batchSize;
+    this.batches = new ArrayBlockingQueue<List<T>>(capacity);
+  }
+
+  /**
+   * Reads all the items from the source on the calling thread and processes them with the
+   * workers, one thread for each, returning when all items are processed.
+   *
+   * @throws IllegalStateException if a worker fails, after stopping the others
+   */
+  public void run(Iterator<T> source, List<? extends Worker<T>> workers) throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(workers.size());
+    try {
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (Worker<T> worker : workers) {
+        futures.add(executor.submit(new WorkerTask(worker)));
+      }
+      List<T> batch = new ArrayList<T>(batchSize);
+      while (source.hasNext() && failure == null) {
+        batch.add(source.next());
+        if (batch.size() == batchSize) {
+          putBatch(batch);
+          batch = new ArrayList<T>(batchSize);
+        }
+      }
+      if (!batch.isEmpty()) {
+        putBatch(batch);
+      }
+      if (failure == null) {
+        for (int i = 0; i < workers.size(); ++i) {
+          putBatch(endOfInput);
+        }
+      } else {
+        // Interrupt the workers still waiting for batches.
+        executor.shutdownNow();
+      }
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          if (failure == null) failure = e.getCause();
+        }
+      }
+      if (failure != null) {
+        throw new IllegalStateException("Training worker failed", failure);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Puts the batch in the queue, waiting for space if necessary, unless a worker has failed
+   * and so may never take it.
+   */
+  private void putBatch(List<T> batch) throws InterruptedException {
+    int depth = batches.size();
+    totalQueueDepth += depth;
+    maxQueueDepth = Math.max(maxQueueDepth, depth);
+    if (batch != endOfInput) {
+      ++numBatches;
+    }
+    long start = System.nanoTime();
+    while (failure == null && !batches.offer(batch, 100, TimeUnit.MILLISECONDS)) {}
+    readerStallNanos += System.nanoTime() - start;
+  }
+
+  private class WorkerTask implements Callable<Void> {
+    private final Worker<T> worker;
+
+    WorkerTask(Worker<T> worker) {
+      this.worker = worker;
+    }
+
+    @Override
+    public Void call() throws InterruptedException {
+      try {
+        while (true) {
+          long start = System.nanoTime();
+          List<T> batch = batches.take();
+          workerStallNanos.addAndGet(System.nanoTime() - start);
+          if (batch == endOfInput) {
+            return null;
+          }
+          for (T item : batch) {
+            worker.process(item);
+          }
+        }
+      } catch (RuntimeException | Error e) {
+        failure = e;
+        throw e;
+      }
+    }
+  }
+
+  /** Returns the number of batches read so far. */
+  public long getNumBatches() {
+    return numBatches;
+  }
+
+  /** Returns the mean number of batches waiting in the queue when a batch was added. */
+  public double getMeanQueueDepth() {
+    return numBatches == 0 ? 0 : (double) totalQueueDepth / numBatches;
+  }
+
+  /** Returns the largest number of batches waiting in the queue when a batch was added. */
+  public int getMaxQueueDepth() {
+    return maxQueueDepth;
+  }
+
+  /** Returns the total time the reader waited for space in the queue. */
+  public long getReaderStallMillis() {
+    return readerStallNanos / 1000000;
+  }
+
+  /** Returns the total time, summed over workers, that workers waited for batches. */
+  public long getWorkerStallMillis() {
+    return workerStallNanos.get() / 1000000;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d batches of up to %d, queue depth mean %.1f max %d of %d, "
+        + "reader stalled %d ms, workers stalled %d ms",
+        numBatches, batchSize, getMeanQueueDepth(), maxQueueDepth,
+        batches.size() + batches.remainingCapacity(), getReaderStallMillis(), getWorkerStallMillis());
+  }
+}
@@ -0,0 +1,75 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.utils;
+
+import java.util.Arrays;
+
+/**
+ * Marks which of a set of integer ordinals have been visited, e.g., by a graph or index
+ * search. Marks are cleared in constant time by moving to a new generation, so one
+ * instance can be reused for many searches (typically one instance per thread).
+ */
+public class VisitedMarks {
+  private int[] marks = new int[0];
+  private int generation = 0;
+
+  /** Clears all marks and makes sure ordinals up to size - 1 can be marked. */
+  public void reset(int size) {
+    if (marks.length < size) {
+      marks = new int[Math.max(size, marks.length + (marks.length >> 1))];
+      generation = 0;
+    }
+    generation++;
+    if (generation == Integer.MAX_VALUE) {
+      Arrays.fill(marks, 0);
+      generation = 1;
+    }
+  }
+
+  /** Marks the ordinal as visited, returning false if it was already visited. */
+  public boolean visit(int ordinal) {
+    if (marks[ordinal] == generation) {
+      return false;
+    }
+    marks[ordinal] = generation;
+    return true;
+  }
+
+  /** Returns true if the ordinal has been visited since the last {@link #reset}. */
+  public boolean isVisited(int ordinal) {
+    return marks[ordinal] == generation;
+  }
+}
@@ -834,6 +834,24 @@ public class BinaryVector implements Vector {
     this.isSparse = true;
   }
 
+  @Override
+  /**
+   * Binary vectors are always written as bits, so this is the same as
+   * {@link #writeToLuceneStream(IndexOutput)}.
+   */
+  public void writeToLuceneStream(IndexOutput outputStream, VectorEncoding encoding) {
+    writeToLuceneStream(outputStream);
+  }
+
+  @Override
+  /**
+   * Binary vectors are always written as bits, so this is the same as
+   * {@link #readFromLuceneStream(IndexInput)}.
+   */
+  public void readFromLuceneStream(IndexInput inputStream, VectorEncoding encoding) {
+    readFromLuceneStream(inputStream);
+  }
+
   @Override
   /**
    * Writes vector to a string of the form 010 etc. (no delimiters). 
@@ -932,6 +950,14 @@ public class BinaryVector implements Vector {
     return votingRecord.size();
   }
 
+  /**
+   * Returns the words of the underlying bit string, which callers must not modify.
+   * Used for fast bitwise comparisons, e.g., by {@link pitt.search.semanticvectors.MultiIndexHash}.
+   */
+  public long[] getBits() {
+    return bitSet.getBits();
+  }
+
   //access bitset directly
   protected FixedBitSet getCoordinates() {
 	// TODO Auto-generated method stub
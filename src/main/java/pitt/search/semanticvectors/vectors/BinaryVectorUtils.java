@@ -189,8 +189,18 @@ public class BinaryVectorUtils {
     return conclusion;
   }
 
-  // Have not checked that this is optimal.
+  /**
+   * Returns the Hamming distance between two bit sets, using a single pass over their words.
+   */
   public static long xorCount(FixedBitSet first, FixedBitSet second) {
-    return FixedBitSet.andNotCount(first, second) + FixedBitSet.andNotCount(second, first);
+    return xorCount(first.getBits(), second.getBits());
+  }
+
+  /**
+   * Returns the number of bits set in {@code first ^ second}, i.e., the Hamming distance,
+   * over the words the two arrays have in common.
+   */
+  public static long xorCount(long[] first, long[] second) {
+    return VectorKernels.xorCount(first, second, Math.min(first.length, second.length));
   }
 }
@@ -335,15 +335,20 @@ public class ComplexVector implements Vector {
    */
   protected double measureHermitianOverlap(ComplexVector other) {
     other.toCartesian();
-    double result = 0;
-    double norm1 = 0;
-    double norm2 = 0;
-    for (int i = 0; i < dimension * 2; ++i) {
-      result += coordinates[i] * other.coordinates[i];
-      norm1 += coordinates[i] * coordinates[i];
-      norm2 += other.coordinates[i] * other.coordinates[i];
-    }
-    return result / Math.sqrt(norm1 * norm2);
+    return VectorKernels.cosine(coordinates, other.coordinates, dimension * 2);
+  }
+
+  /**
+   * Returns the Hermitian scalar product of this vector with the other, which is the same as
+   * {@link #measureHermitianOverlap} if both vectors are already normalized using
+   * {@link Mode#HERMITIAN}, at a third of the cost.
+   */
+  public double measureUnitLengthHermitianOverlap(ComplexVector other) {
+    IncompatibleVectorsException.checkVectorsCompatible(this, other);
+    if (isZeroVector() || other.isZeroVector()) return 0;
+    toCartesian();
+    other.toCartesian();
+    return VectorKernels.dot(coordinates, other.coordinates, dimension * 2);
   }
 
   /**
@@ -623,20 +628,8 @@ public class ComplexVector implements Vector {
     //get lengths of circular components
     float[] norms = new float[dimension];
     float[] otherNorms = new float[dimension];
-    for (int q = 0; q < dimension; q++) {
-      float norm = 0;
-      float othernorm = 0;
-
-      norm += Math.pow(this.coordinates[q * 2], 2);
-      norm += Math.pow(this.coordinates[2 * q + 1], 2);
-      othernorm += Math.pow(other.coordinates[q * 2], 2);
-      othernorm += Math.pow(other.coordinates[2 * q + 1], 2);
-
-      norm = (float) Math.sqrt(norm);
-      othernorm = (float) Math.sqrt(othernorm);
-      norms[q] = norm;
-      otherNorms[q] = othernorm;
-    }
+    VectorKernels.pairNorms(this.coordinates, norms, dimension);
+    VectorKernels.pairNorms(other.coordinates, otherNorms, dimension);
     toDensePolar();
     ComplexVector otherCopy = other.copy();
     otherCopy.toDensePolar();
@@ -684,14 +677,7 @@ public class ComplexVector implements Vector {
    * Transforms vector to cartesian form and writes vector out in dense format.
    */
   public void writeToLuceneStream(IndexOutput outputStream) {
-    toCartesian();
-    for (int i = 0; i < dimension * 2; ++i) {
-      try {
-        outputStream.writeInt(Float.floatToIntBits(coordinates[i]));
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
-    }
+    writeToLuceneStream(outputStream, VectorEncoding.FLOAT32);
   }
 
   /**
@@ -700,12 +686,10 @@ public class ComplexVector implements Vector {
    */
   public void writeToLuceneStream(IndexOutput outputStream, int k) {
     toCartesian();
-    for (int i = 0; i < k * 2; ++i) {
-      try {
-        outputStream.writeInt(Float.floatToIntBits(coordinates[i]));
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
+    try {
+      VectorEncoding.FLOAT32.writeCoordinates(outputStream, coordinates, k * 2);
+    } catch (IOException e) {
+      e.printStackTrace();
     }
       
       
@@ -729,17 +713,7 @@ public class ComplexVector implements Vector {
    * Reads a vector in Cartesian form from a Lucene input stream.
    */
   public void readFromLuceneStream(IndexInput inputStream) {
-    opMode = Mode.CARTESIAN;
-    coordinates = new float[dimension * 2];
-    for (int i = 0; i < dimension * 2; ++i) {
-      try {
-        coordinates[i] = Float.intBitsToFloat(inputStream.readInt());
-      } catch (IOException e) {
-        logger.severe("Failed to parse vector from Lucene stream.  This signifies a "
-            + "programming or runtime error, e.g., a dimension mismatch.");
-        e.printStackTrace();
-      }
-    }
+    readFromLuceneStream(inputStream, VectorEncoding.FLOAT32);
 
       /* DORMANT CODE!
     phaseAngles = new short[dimension];
@@ -756,6 +730,35 @@ public class ComplexVector implements Vector {
        */
   }
 
+  @Override
+  /**
+   * Transforms vector to cartesian form and writes vector out in dense format using the given encoding.
+   */
+  public void writeToLuceneStream(IndexOutput outputStream, VectorEncoding encoding) {
+    toCartesian();
+    try {
+      encoding.writeCoordinates(outputStream, coordinates, dimension * 2);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Override
+  /**
+   * Reads a vector in Cartesian form written with the given encoding from a Lucene input stream.
+   */
+  public void readFromLuceneStream(IndexInput inputStream, VectorEncoding encoding) {
+    opMode = Mode.CARTESIAN;
+    coordinates = new float[dimension * 2];
+    try {
+      encoding.readCoordinates(inputStream, coordinates, dimension * 2);
+    } catch (IOException e) {
+      logger.severe("Failed to parse vector from Lucene stream.  This signifies a "
+          + "programming or runtime error, e.g., a dimension mismatch.");
+      e.printStackTrace();
+    }
+  }
+
   @Override
   /**
    * Writes vector as cartesian form to a string of the form x1|x2|x3| ... where the x's are the
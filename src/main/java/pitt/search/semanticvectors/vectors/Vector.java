@@ -127,6 +127,18 @@ public interface Vector {
    * Reads vector from Lucene input stream.  Reads exactly {@link #getDimension} coordinates.
    */
   public abstract void readFromLuceneStream(IndexInput inputStream);
+
+  /**
+   * Writes vector to Lucene output stream using the given encoding of coordinates.
+   * Writes exactly {@link #getDimension} coordinates.
+   */
+  public abstract void writeToLuceneStream(IndexOutput outputStream, VectorEncoding encoding);
+
+  /**
+   * Reads vector written by {@link #writeToLuceneStream(IndexOutput, VectorEncoding)} with the
+   * given encoding from Lucene input stream.
+   */
+  public abstract void readFromLuceneStream(IndexInput inputStream, VectorEncoding encoding);
   
   /**
    * Writes vector to text representation.  Writes exactly {@link #getDimension} coordinates.
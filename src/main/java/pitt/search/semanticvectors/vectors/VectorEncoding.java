@@ -0,0 +1,247 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.vectors;
+
+import java.io.IOException;
+
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+
+/**
+ * Enumeration of the encodings that can be used for the coordinates of real and complex
+ * vectors in Lucene-format and mapped vector stores. Quantized encodings take less disk,
+ * page cache and memory bandwidth, at the cost of some precision.
+ *
+ * <p>
+ * Binary vectors are always written as bits, whatever the encoding.
+ */
+public enum VectorEncoding {
+  /**
+   * Four-byte IEEE floating point numbers, the default.
+   */
+  FLOAT32,
+  /**
+   * Two-byte IEEE half-precision floating point numbers, with about three significant
+   * decimal digits.
+   */
+  FLOAT16,
+  /**
+   * One signed byte per coordinate, preceded by a four-byte scale for the whole vector:
+   * coordinates are multiples of the scale, which is the largest absolute value divided by 127.
+   */
+  INT8;
+
+  /** Values of all 2^16 half-precision numbers, indexed by their bits. */
+  private static final float[] HALF_TO_FLOAT = new float[1 << 16];
+  static {
+    for (int i = 0; i < HALF_TO_FLOAT.length; ++i) {
+      HALF_TO_FLOAT[i] = computeHalfToFloat(i);
+    }
+  }
+
+  /** Returns the number of bytes taken by the given number of coordinates in this encoding. */
+  public int getByteSize(int numCoordinates) {
+    switch (this) {
+      case FLOAT32:
+        return 4 * numCoordinates;
+      case FLOAT16:
+        return 2 * numCoordinates;
+      case INT8:
+        return 4 + numCoordinates;
+      default:
+        throw new IllegalArgumentException("Unrecognized VectorEncoding: " + this);
+    }
+  }
+
+  /** Writes the first numCoordinates coordinates to the output stream in this encoding. */
+  public void writeCoordinates(IndexOutput outputStream, float[] coordinates, int numCoordinates)
+      throws IOException {
+    switch (this) {
+      case FLOAT32:
+        for (int i = 0; i < numCoordinates; ++i) {
+          outputStream.writeInt(Float.floatToIntBits(coordinates[i]));
+        }
+        break;
+      case FLOAT16:
+        for (int i = 0; i < numCoordinates; ++i) {
+          outputStream.writeShort(floatToHalf(coordinates[i]));
+        }
+        break;
+      case INT8:
+        float maxAbs = 0;
+        for (int i = 0; i < numCoordinates; ++i) {
+          maxAbs = Math.max(maxAbs, Math.abs(coordinates[i]));
+        }
+        float scale = maxAbs / 127;
+        byte[] bytes = new byte[numCoordinates];
+        if (scale > 0) {
+          for (int i = 0; i < numCoordinates; ++i) {
+            bytes[i] = (byte) Math.max(-127, Math.min(127, Math.round(coordinates[i] / scale)));
+          }
+        }
+        outputStream.writeInt(Float.floatToIntBits(scale));
+        outputStream.writeBytes(bytes, numCoordinates);
+        break;
+      default:
+        throw new IllegalArgumentException("Unrecognized VectorEncoding: " + this);
+    }
+  }
+
+  /** Reads numCoordinates coordinates in this encoding from the input stream. */
+  public void readCoordinates(IndexInput inputStream, float[] coordinates, int numCoordinates)
+      throws IOException {
+    switch (this) {
+      case FLOAT32:
+        for (int i = 0; i < numCoordinates; ++i) {
+          coordinates[i] = Float.intBitsToFloat(inputStream.readInt());
+        }
+        break;
+      case FLOAT16:
+        for (int i = 0; i < numCoordinates; ++i) {
+          coordinates[i] = halfToFloat(inputStream.readShort());
+        }
+        break;
+      case INT8:
+        float scale = Float.intBitsToFloat(inputStream.readInt());
+        byte[] bytes = new byte[numCoordinates];
+        inputStream.readBytes(bytes, 0, numCoordinates);
+        for (int i = 0; i < numCoordinates; ++i) {
+          coordinates[i] = bytes[i] * scale;
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Unrecognized VectorEncoding: " + this);
+    }
+  }
+
+  /**
+   * Returns the cosine similarity of a query of unit length with the coordinates encoded in
+   * {@code encoded}, as written by {@link #writeCoordinates}, without decoding them to floats.
+   * For {@link #INT8} the scale cancels out, so the sums are over the raw bytes.
+   */
+  public double measureEncodedOverlap(float[] unitQuery, byte[] encoded, int numCoordinates) {
+    double product = 0;
+    double norm = 0;
+    switch (this) {
+      case FLOAT32:
+        for (int i = 0, j = 0; i < numCoordinates; ++i, j += 4) {
+          float value = Float.intBitsToFloat(((encoded[j] & 0xFF) << 24) | ((encoded[j + 1] & 0xFF) << 16)
+              | ((encoded[j + 2] & 0xFF) << 8) | (encoded[j + 3] & 0xFF));
+          product += unitQuery[i] * value;
+          norm += value * value;
+        }
+        break;
+      case FLOAT16:
+        for (int i = 0, j = 0; i < numCoordinates; ++i, j += 2) {
+          float value = HALF_TO_FLOAT[((encoded[j] & 0xFF) << 8) | (encoded[j + 1] & 0xFF)];
+          product += unitQuery[i] * value;
+          norm += value * value;
+        }
+        break;
+      case INT8:
+        int intNorm = 0;
+        for (int i = 0; i < numCoordinates; ++i) {
+          int value = encoded[4 + i];
+          product += unitQuery[i] * value;
+          intNorm += value * value;
+        }
+        norm = intNorm;
+        break;
+      default:
+        throw new IllegalArgumentException("Unrecognized VectorEncoding: " + this);
+    }
+    return norm == 0 ? 0 : product / Math.sqrt(norm);
+  }
+
+  /**
+   * Returns the nearest half-precision number to the given float, rounding ties to even.
+   * Values too large for half precision become infinite.
+   */
+  public static short floatToHalf(float value) {
+    int bits = Float.floatToIntBits(value);
+    int sign = (bits >>> 16) & 0x8000;
+    int floatExponent = (bits >>> 23) & 0xFF;
+    int mantissa = bits & 0x7FFFFF;
+    if (floatExponent == 0xFF) {
+      return (short) (sign | 0x7C00 | (mantissa != 0 ? 0x200 : 0));
+    }
+    int exponent = floatExponent - 127 + 15;
+    if (exponent >= 0x1F) {
+      return (short) (sign | 0x7C00);
+    }
+    int shift;
+    int half;
+    if (exponent <= 0) {
+      // Subnormal half, or zero.
+      if (exponent < -10) {
+        return (short) sign;
+      }
+      mantissa |= 0x800000;
+      shift = 14 - exponent;
+      half = mantissa >> shift;
+    } else {
+      shift = 13;
+      half = (exponent << 10) | (mantissa >> shift);
+    }
+    int remainder = mantissa & ((1 << shift) - 1);
+    int halfway = 1 << (shift - 1);
+    if (remainder > halfway || (remainder == halfway && (half & 1) != 0)) {
+      // May carry into the exponent, which is still correct.
+      half++;
+    }
+    return (short) (sign | half);
+  }
+
+  /** Returns the value of the given half-precision number. */
+  public static float halfToFloat(short half) {
+    return HALF_TO_FLOAT[half & 0xFFFF];
+  }
+
+  private static float computeHalfToFloat(int half) {
+    int sign = (half & 0x8000) << 16;
+    int exponent = (half >>> 10) & 0x1F;
+    int mantissa = half & 0x3FF;
+    if (exponent == 0x1F) {
+      return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+    }
+    if (exponent == 0) {
+      // Subnormal: mantissa * 2^-24.
+      float value = mantissa * 0x1p-24f;
+      return sign == 0 ? value : -value;
+    }
+    return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+  }
+}
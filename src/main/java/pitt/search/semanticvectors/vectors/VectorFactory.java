@@ -105,14 +105,22 @@ public class VectorFactory {
    * of this vector in Lucene format.
    */
   public static int getLuceneByteSize(VectorType vectorType, int dimension) {
+    return getLuceneByteSize(vectorType, dimension, VectorEncoding.FLOAT32);
+  }
+
+  /**
+   * Returns the size in bytes expected to be taken up by the serialization
+   * of this vector in Lucene format with the given encoding.
+   */
+  public static int getLuceneByteSize(VectorType vectorType, int dimension, VectorEncoding encoding) {
     switch (vectorType) {
       case BINARY:
         return 8 * ((dimension / 64) );
       case REAL:
-        return 4 * dimension;
+        return encoding.getByteSize(dimension);
       case COMPLEX:
       case COMPLEXFLAT:
-        return 8 * dimension;
+        return encoding.getByteSize(2 * dimension);
       default:
         throw new IllegalArgumentException("Unrecognized VectorType: " + vectorType);
     }
@@ -0,0 +1,218 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.vectors;
+
+/**
+ * Loops over coordinate arrays that are used by the vector classes in their inner loops.
+ *
+ * <p>
+ * Sums are unrolled over several independent single-precision accumulators, which breaks the
+ * dependency of each addition on the one before so that several can be in flight, and avoids
+ * converting every product to double. The partial sums are short, and are added as doubles.
+ * Elementwise loops are kept in the simple counted form that the JIT compiler vectorizes by
+ * itself.
+ *
+ * @see pitt.search.semanticvectors.experiments.VectorKernelsBenchmark
+ */
+public final class VectorKernels {
+  private VectorKernels() {}
+
+  /** Returns the scalar product of the first length coordinates of a and b. */
+  public static double dot(float[] a, float[] b, int length) {
+    return dot(a, 0, b, 0, length);
+  }
+
+  /**
+   * Returns the scalar product of the length coordinates of a starting at aOffset
+   * with those of b starting at bOffset.
+   */
+  public static double dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+    float sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0, sum4 = 0, sum5 = 0, sum6 = 0, sum7 = 0;
+    int i = 0;
+    for (; i + 7 < length; i += 8) {
+      int j = aOffset + i, k = bOffset + i;
+      sum0 += a[j] * b[k];
+      sum1 += a[j + 1] * b[k + 1];
+      sum2 += a[j + 2] * b[k + 2];
+      sum3 += a[j + 3] * b[k + 3];
+      sum4 += a[j + 4] * b[k + 4];
+      sum5 += a[j + 5] * b[k + 5];
+      sum6 += a[j + 6] * b[k + 6];
+      sum7 += a[j + 7] * b[k + 7];
+    }
+    double sum = ((double) sum0 + sum1) + ((double) sum2 + sum3) + ((double) sum4 + sum5) + ((double) sum6 + sum7);
+    for (; i < length; ++i) {
+      sum += a[aOffset + i] * b[bOffset + i];
+    }
+    return sum;
+  }
+
+  /**
+   * Sets {@code out[i * bRows + j]} to the scalar product of row i of a with row j of b, where
+   * a and b are matrices stored row after row, with rows of the given length. Rows of a are
+   * taken four at a time, so that each coordinate of b is loaded once for four products.
+   */
+  public static void multiplyTransposed(
+      float[] a, int aRows, float[] b, int bRows, int length, float[] out) {
+    int i = 0;
+    for (; i + 3 < aRows; i += 4) {
+      int a0 = i * length, a1 = a0 + length, a2 = a1 + length, a3 = a2 + length;
+      for (int j = 0; j < bRows; ++j) {
+        int bj = j * length;
+        float sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+        for (int k = 0; k < length; ++k) {
+          float value = b[bj + k];
+          sum0 += a[a0 + k] * value;
+          sum1 += a[a1 + k] * value;
+          sum2 += a[a2 + k] * value;
+          sum3 += a[a3 + k] * value;
+        }
+        out[i * bRows + j] = sum0;
+        out[(i + 1) * bRows + j] = sum1;
+        out[(i + 2) * bRows + j] = sum2;
+        out[(i + 3) * bRows + j] = sum3;
+      }
+    }
+    for (; i < aRows; ++i) {
+      for (int j = 0; j < bRows; ++j) {
+        out[i * bRows + j] = (float) dot(a, i * length, b, j * length, length);
+      }
+    }
+  }
+
+  /**
+   * Returns the cosine of the angle between the first length coordinates of a and b,
+   * computing the scalar product and both norms in a single pass. The result is NaN if
+   * either is zero, as for the loops this replaces.
+   */
+  public static double cosine(float[] a, float[] b, int length) {
+    float product0 = 0, product1 = 0, product2 = 0, product3 = 0;
+    float normA0 = 0, normA1 = 0, normA2 = 0, normA3 = 0;
+    float normB0 = 0, normB1 = 0, normB2 = 0, normB3 = 0;
+    int i = 0;
+    for (; i + 3 < length; i += 4) {
+      float a0 = a[i], a1 = a[i + 1], a2 = a[i + 2], a3 = a[i + 3];
+      float b0 = b[i], b1 = b[i + 1], b2 = b[i + 2], b3 = b[i + 3];
+      product0 += a0 * b0;
+      product1 += a1 * b1;
+      product2 += a2 * b2;
+      product3 += a3 * b3;
+      normA0 += a0 * a0;
+      normA1 += a1 * a1;
+      normA2 += a2 * a2;
+      normA3 += a3 * a3;
+      normB0 += b0 * b0;
+      normB1 += b1 * b1;
+      normB2 += b2 * b2;
+      normB3 += b3 * b3;
+    }
+    double product = ((double) product0 + product1) + ((double) product2 + product3);
+    double normA = ((double) normA0 + normA1) + ((double) normA2 + normA3);
+    double normB = ((double) normB0 + normB1) + ((double) normB2 + normB3);
+    for (; i < length; ++i) {
+      product += a[i] * b[i];
+      normA += a[i] * a[i];
+      normB += b[i] * b[i];
+    }
+    return product / Math.sqrt(normA * normB);
+  }
+
+  /**
+   * Adds weight times the first length coordinates of x to those of y, in single precision
+   * as for BLAS {@code saxpy}. This is several times faster than
+   * {@link #axpy(double, float[], float[], int)}, since the loop needs no conversions.
+   */
+  public static void axpy(float weight, float[] x, float[] y, int length) {
+    for (int i = 0; i < length; ++i) {
+      y[i] += weight * x[i];
+    }
+  }
+
+  /**
+   * Adds weight times the length coordinates of x starting at xOffset to those of y starting
+   * at yOffset, in single precision, e.g., for rows of a matrix stored row after row.
+   */
+  public static void axpy(float weight, float[] x, int xOffset, float[] y, int yOffset, int length) {
+    for (int i = 0; i < length; ++i) {
+      y[yOffset + i] += weight * x[xOffset + i];
+    }
+  }
+
+  /**
+   * Adds weight times the first length coordinates of x to those of y, computing each sum
+   * in double precision before rounding to float.
+   */
+  public static void axpy(double weight, float[] x, float[] y, int length) {
+    for (int i = 0; i < length; ++i) {
+      y[i] += x[i] * weight;
+    }
+  }
+
+  /** Returns true if any of the first length coordinates is NaN. */
+  public static boolean containsNaN(float[] a, int length) {
+    for (int i = 0; i < length; ++i) {
+      if (a[i] != a[i]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Sets each of the first numPairs entries of norms to the length of the corresponding pair
+   * (x, y) of interleaved cartesian coordinates, as used by {@link ComplexVector}.
+   */
+  public static void pairNorms(float[] coordinates, float[] norms, int numPairs) {
+    for (int q = 0; q < numPairs; ++q) {
+      double x = coordinates[2 * q];
+      double y = coordinates[2 * q + 1];
+      norms[q] = (float) Math.sqrt(x * x + y * y);
+    }
+  }
+
+  /**
+   * Returns the number of bits set in {@code a[i] ^ b[i]} over the first numWords words,
+   * i.e., the Hamming distance. {@link Long#bitCount} compiles to a single instruction on
+   * most processors, and unrolling this loop does not make it faster.
+   */
+  public static long xorCount(long[] a, long[] b, int numWords) {
+    long count = 0;
+    for (int i = 0; i < numWords; ++i) {
+      count += Long.bitCount(a[i] ^ b[i]);
+    }
+    return count;
+  }
+}
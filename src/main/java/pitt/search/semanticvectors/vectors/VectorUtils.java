@@ -190,8 +190,10 @@ public class VectorUtils {
   }
 
   /**
-   * Utility method to compute scalar product (hopefully) quickly using BLAS routines
+   * Utility method to compute scalar product quickly using {@link VectorKernels}.
    * Arguably, this should be disseminated across the individual Vector classes
+   *
+   * @param blas no longer used: calling BLAS costs more than the product for typical dimensions.
    */
   public static double scalarProduct(Vector v1, Vector v2, FlagConfig flagConfig, BLAS blas) throws IncompatibleVectorsException {
     if (!v1.getVectorType().equals(v2.getVectorType()))
@@ -199,9 +201,9 @@ public class VectorUtils {
 
     switch (v1.getVectorType()) {
       case REAL:
-        return blas.sdot(flagConfig.dimension(), ((RealVector) v1).getCoordinates(), 1, ((RealVector) v2).getCoordinates(), 1);
+        return VectorKernels.dot(((RealVector) v1).getCoordinates(), ((RealVector) v2).getCoordinates(), flagConfig.dimension());
       case COMPLEX: //hermitian scalar product
-        return blas.sdot(flagConfig.dimension()*2, ((ComplexVector) v1).getCoordinates(), 1, ((ComplexVector) v2).getCoordinates(), 1);
+        return VectorKernels.dot(((ComplexVector) v1).getCoordinates(), ((ComplexVector) v2).getCoordinates(), flagConfig.dimension()*2);
       case BINARY:
         ((BinaryVector) v1).tallyVotes();
         ((BinaryVector) v2).tallyVotes();
@@ -214,14 +216,13 @@ public class VectorUtils {
 
 
   /**
-   * Utility method to perform superposition (hopefully) quickly using BLAS routines
+   * Utility method to perform superposition quickly using {@link VectorKernels}.
    * Arguably, this should be disseminated across the individual Vector classes
    *
    *
    * @param toBeAdded
    * @param toBeAltered
-   * @param blas
-   * @return
+   * @param blas no longer used: calling BLAS costs more than the sum for typical dimensions.
    */
   public static void superposeInPlace(Vector toBeAdded, Vector toBeAltered, FlagConfig flagConfig, BLAS blas, double weight) throws IncompatibleVectorsException {
     if (!toBeAdded.getVectorType().equals(toBeAltered.getVectorType()))
@@ -229,10 +230,10 @@ public class VectorUtils {
 
     switch (toBeAdded.getVectorType()) {
       case REAL:
-        blas.saxpy(flagConfig.dimension(), (float) weight, ((RealVector) toBeAdded).getCoordinates(), 1, ((RealVector) toBeAltered).getCoordinates(), 1);
+        VectorKernels.axpy((float) weight, ((RealVector) toBeAdded).getCoordinates(), ((RealVector) toBeAltered).getCoordinates(), flagConfig.dimension());
         break;
       case COMPLEX:
-        blas.saxpy(flagConfig.dimension()*2, (float) weight, ((ComplexVector) toBeAdded).getCoordinates(), 1, ((ComplexVector) toBeAltered).getCoordinates(), 1);
+        VectorKernels.axpy((float) weight, ((ComplexVector) toBeAdded).getCoordinates(), ((ComplexVector) toBeAltered).getCoordinates(), flagConfig.dimension()*2);
         break;
       case BINARY: //first attempt at this - add the results of the election multiplied by the number of votes to date
         ((BinaryVector) toBeAdded).tallyVotes();
@@ -48,7 +48,21 @@ public class AllTests {
     suite.addTestSuite(CompoundVectorBuilderTest.class);
     suite.addTestSuite(VectorStoreWriterTest.class);
     suite.addTestSuite(VectorStoreReaderLuceneTest.class);
+    suite.addTestSuite(VectorStoreReaderMappedTest.class);
     suite.addTestSuite(VectorStoreRAMTest.class);
+    suite.addTestSuite(VectorSearcherTest.class);
+    suite.addTestSuite(HnswIndexTest.class);
+    suite.addTestSuite(MultiIndexHashTest.class);
+    suite.addTestSuite(IvfIndexTest.class);
+    suite.addTestSuite(ProductQuantizedStoreTest.class);
+    suite.addTestSuite(BatchCosineSearcherTest.class);
+    suite.addTestSuite(SearchServerTest.class);
+    suite.addTestSuite(SketchIndexTest.class);
+    suite.addTestSuite(ExpandedVectorStoreTest.class);
+    suite.addTestSuite(VectorStoreSlabTest.class);
+    suite.addTestSuite(NegativeSamplerTest.class);
+    suite.addTestSuite(PositionalCorpusCacheTest.class);
+    suite.addTestSuite(EmbeddingMatricesTest.class);
     suite.addTestSuite(VectorStoreDeterministicTest.class);
     // suite.addTestSuite(RealVectorTest.class);  Updated to JUnit 4.
     suite.addTestSuite(BinaryVectorTest.class);
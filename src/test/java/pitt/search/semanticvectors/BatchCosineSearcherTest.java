@@ -0,0 +1,144 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import pitt.search.semanticvectors.vectors.RealVector;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorType;
+import pitt.search.semanticvectors.vectors.ZeroVectorException;
+
+import junit.framework.TestCase;
+
+public class BatchCosineSearcherTest extends TestCase {
+
+  /** More vectors than {@link BatchCosineSearcher#STORE_BLOCK_SIZE} so that several blocks are used. */
+  private static final int NUM_VECTORS = 600;
+
+  private static VectorStoreRAM createRealVectorStore(FlagConfig flagConfig, Random random) {
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (int i = 0; i < NUM_VECTORS; ++i) {
+      float[] coordinates = new float[flagConfig.dimension()];
+      for (int j = 0; j < coordinates.length; ++j) {
+        coordinates[j] = (float) random.nextGaussian();
+      }
+      store.putVector("vector" + i, new RealVector(coordinates));
+    }
+    // A zero vector in the store should score zero rather than NaN.
+    store.putVector("zero", new RealVector(new float[flagConfig.dimension()]));
+    return store;
+  }
+
+  /**
+   * Checks that each query in a batch gets the same results as a single cosine search.
+   * Scores are compared rank by rank since ties may be ordered differently.
+   */
+  private static void assertMatchesSingleSearches(
+      VectorStore store, Vector[] queries, FlagConfig flagConfig, int numResults)
+      throws ZeroVectorException {
+    List<LinkedList<SearchResult>> batchResults =
+        new BatchCosineSearcher(store, flagConfig).getNearestNeighbors(queries, numResults);
+    assertEquals(queries.length, batchResults.size());
+    for (int q = 0; q < queries.length; ++q) {
+      LinkedList<SearchResult> batch = batchResults.get(q);
+      if (queries[q] == null || queries[q].isZeroVector()) {
+        assertTrue(batch.isEmpty());
+        continue;
+      }
+      LinkedList<SearchResult> single = new VectorSearcher.VectorSearcherCosine(
+          store, store, null, flagConfig, queries[q].copy()).getNearestNeighbors(numResults);
+      assertEquals(single.size(), batch.size());
+      for (int i = 0; i < single.size(); ++i) {
+        assertEquals(single.get(i).getScore(), batch.get(i).getScore(), 1e-5);
+      }
+    }
+  }
+
+  @Test
+  public void testRealBatchMatchesSingleSearches() throws ZeroVectorException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "50"});
+    Random random = new Random(0);
+    VectorStoreRAM store = createRealVectorStore(flagConfig, random);
+    // A number of queries that is not a multiple of the kernel's row tile.
+    Vector[] queries = new Vector[7];
+    for (int q = 0; q < queries.length; ++q) {
+      queries[q] = store.getVector("vector" + random.nextInt(NUM_VECTORS)).copy();
+    }
+    queries[2] = null;
+    queries[5] = new RealVector(new float[flagConfig.dimension()]);
+    assertMatchesSingleSearches(store, queries, flagConfig, 10);
+
+    List<LinkedList<SearchResult>> results =
+        new BatchCosineSearcher(store, flagConfig).getNearestNeighbors(queries, 10);
+    assertEquals(1, results.get(0).getFirst().getScore(), 1e-5);
+  }
+
+  @Test
+  public void testBinaryBatchMatchesSingleSearches() throws ZeroVectorException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "binary", "-dimension", "128"});
+    Random random = new Random(0);
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (int i = 0; i < NUM_VECTORS; ++i) {
+      store.putVector("vector" + i, VectorFactory.generateRandomVector(
+          VectorType.BINARY, flagConfig.dimension(), flagConfig.dimension() / 2, random));
+    }
+    Vector[] queries = new Vector[3];
+    for (int q = 0; q < queries.length; ++q) {
+      queries[q] = store.getVector("vector" + random.nextInt(NUM_VECTORS)).copy();
+    }
+    assertMatchesSingleSearches(store, queries, flagConfig, 5);
+  }
+
+  @Test
+  public void testSearchResultsMinScore() {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "50", "-searchresultsminscore", "0.99"});
+    VectorStoreRAM store = createRealVectorStore(flagConfig, new Random(1));
+    Vector[] queries = new Vector[] {store.getVector("vector3").copy()};
+    List<LinkedList<SearchResult>> results =
+        new BatchCosineSearcher(store, flagConfig).getNearestNeighbors(queries, 10);
+    assertEquals(1, results.get(0).size());
+    assertEquals("vector3", results.get(0).getFirst().getObjectVector().getObject());
+  }
+}
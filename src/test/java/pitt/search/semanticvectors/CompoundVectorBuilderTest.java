@@ -104,4 +104,27 @@ public class CompoundVectorBuilderTest extends TestCase {
 		 queryVector.measureOverlap(vectorStore.getVector("vector2")),
 		 TOL);
   }
+
+  @Test
+  public void testCachedQueryVectors() {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "2", "-querycachemegabytes", "1"});
+    VectorStore vectorStore = createVectorStore();
+    long hits = CompoundVectorBuilder.getQueryVectorCache(flagConfig).getHits();
+    Vector queryVector =
+        CompoundVectorBuilder.getQueryVectorFromString(vectorStore, null, flagConfig, "vector1 vector2");
+    assertEquals(0.8944272, queryVector.measureOverlap(vectorStore.getVector("vector1")), TOL);
+
+    // Changing the returned vector must not change the cached copy.
+    queryVector.superpose(vectorStore.getVector("vector2"), 10, null);
+    Vector cachedVector =
+        CompoundVectorBuilder.getQueryVectorFromString(vectorStore, null, flagConfig, "vector1 vector2");
+    assertEquals(hits + 1, CompoundVectorBuilder.getQueryVectorCache(flagConfig).getHits());
+    assertEquals(0.8944272, cachedVector.measureOverlap(vectorStore.getVector("vector1")), TOL);
+
+    // A different store with the same terms is not a hit.
+    VectorStore normalizedStore = createNormalizedVectorStore();
+    CompoundVectorBuilder.getQueryVectorFromString(normalizedStore, null, flagConfig, "vector1 vector2");
+    assertEquals(hits + 1, CompoundVectorBuilder.getQueryVectorCache(flagConfig).getHits());
+  }
 }
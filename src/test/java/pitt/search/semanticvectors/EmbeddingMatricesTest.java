@@ -0,0 +1,151 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import pitt.search.semanticvectors.utils.SigmoidTable;
+import pitt.search.semanticvectors.vectors.RealVector;
+
+import junit.framework.TestCase;
+
+public class EmbeddingMatricesTest extends TestCase {
+
+  static final FlagConfig FLAG_CONFIG = FlagConfig.getFlagConfig(
+      new String[] {"-vectortype", "real", "-dimension", "2"});
+  static final SigmoidTable SIGMOID_TABLE = new SigmoidTable(6, 1000);
+
+  private VectorStoreRAM inputVectors;
+  private VectorStoreRAM outputVectors;
+  private EmbeddingMatrices matrices;
+
+  @Override
+  protected void setUp() {
+    inputVectors = new VectorStoreRAM(FLAG_CONFIG);
+    inputVectors.putVector("a", new RealVector(new float[] {1, 0}));
+    inputVectors.putVector("b", new RealVector(new float[] {0, 1}));
+    inputVectors.putVector("c", new RealVector(new float[] {1, 1}));
+    outputVectors = new VectorStoreRAM(FLAG_CONFIG);
+    outputVectors.putVector("a", new RealVector(new float[] {0.5f, 0}));
+    outputVectors.putVector("b", new RealVector(new float[] {0, 0.5f}));
+    // The same term may be sampled from several fields.
+    List<String> terms = Arrays.asList("a", "b", "a", "c");
+    NegativeSampler sampler = NegativeSampler.build(
+        terms, Arrays.asList(1d, 1d, 1d, 1d), outputVectors);
+    matrices = EmbeddingMatrices.build(sampler, inputVectors, outputVectors, 2, SIGMOID_TABLE, 6);
+  }
+
+  @Test
+  public void testBuildCopiesVectors() {
+    assertEquals(3, matrices.size());
+    assertEquals(0, matrices.getOrdinal("a"));
+    assertEquals(2, matrices.getOrdinal("c"));
+    assertEquals(-1, matrices.getOrdinal("missing"));
+    assertEquals("b", matrices.getTerm(1));
+    assertTrue(Arrays.equals(new float[] {1, 1}, matrices.getInputRow(2)));
+    assertTrue(Arrays.equals(new float[] {0, 0.5f}, matrices.getOutputRow(1)));
+    // Terms without output vectors start from zero.
+    assertTrue(Arrays.equals(new float[] {0, 0}, matrices.getOutputRow(2)));
+  }
+
+  @Test
+  public void testCanHold() {
+    assertTrue(EmbeddingMatrices.canHold(3, 2));
+    assertTrue(EmbeddingMatrices.canHold(Integer.MAX_VALUE, 1));
+    assertFalse(EmbeddingMatrices.canHold(5000000, 500));
+  }
+
+  @Test
+  public void testTrainStep() {
+    float alpha = 0.1f;
+    double positive = (1 - SIGMOID_TABLE.sigmoid(0.5)) * alpha;
+    double negative = (0 - SIGMOID_TABLE.sigmoid(0)) * alpha;
+    matrices.trainInput(0, 0, new int[] {1}, 1, alpha, new float[2]);
+
+    // Output rows move towards (or away from) the input vector (1, 0).
+    float[] outputA = matrices.getOutputRow(0);
+    assertEquals(0.5 + positive, outputA[0], 1e-6);
+    assertEquals(0, outputA[1], 1e-6);
+    float[] outputB = matrices.getOutputRow(1);
+    assertEquals(negative, outputB[0], 1e-6);
+    assertEquals(0.5, outputB[1], 1e-6);
+
+    // The input vector gets the gradient summed over both, using the output rows before update.
+    float[] inputA = matrices.getInputRow(0);
+    assertEquals(1 + positive * 0.5, inputA[0], 1e-6);
+    assertEquals(negative * 0.5, inputA[1], 1e-6);
+  }
+
+  @Test
+  public void testTrainOtherVector() {
+    float[] document = new float[] {0, 0, 1, 0};
+    matrices.train(document, 2, 0, new int[0], 0, 0.1f, new float[2]);
+    assertEquals(0, document[0], 0);
+    assertTrue(document[2] > 1);
+    assertTrue(matrices.getOutputRow(0)[0] > 0.5);
+    assertTrue(Arrays.equals(new float[] {1, 0}, matrices.getInputRow(0)));
+  }
+
+  @Test
+  public void testSampleNegativeSkipsContext() {
+    Random random = new Random(0);
+    int[] counts = new int[3];
+    for (int i = 0; i < 1000; ++i) {
+      ++counts[matrices.sampleNegative(random, 0)];
+    }
+    assertEquals(0, counts[0]);
+    assertTrue(counts[1] > 0);
+    assertTrue(counts[2] > 0);
+  }
+
+  @Test
+  public void testWriteTo() {
+    matrices.trainInput(2, 0, new int[] {1}, 1, 0.1f, new float[2]);
+    RealVector inputC = (RealVector) inputVectors.getVector("c");
+    matrices.writeTo(inputVectors, outputVectors);
+    assertSame(inputC, inputVectors.getVector("c"));
+    assertTrue(Arrays.equals(matrices.getInputRow(2), inputC.getCoordinates()));
+    assertTrue(Arrays.equals(matrices.getOutputRow(0),
+        ((RealVector) outputVectors.getVector("a")).getCoordinates()));
+    // Output vectors that were missing are added.
+    assertTrue(Arrays.equals(matrices.getOutputRow(2),
+        ((RealVector) outputVectors.getVector("c")).getCoordinates()));
+  }
+}
@@ -0,0 +1,216 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+import junit.framework.TestCase;
+
+public class ExpandedVectorStoreTest extends TestCase {
+  static final double TOL = 0.0001;
+
+  private static VectorStoreRAM createVectorStore(FlagConfig flagConfig, int numVectors, Random random) {
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (int i = 0; i < numVectors; ++i) {
+      store.putVector("p" + i, VectorFactory.generateRandomVector(
+          flagConfig.vectortype(), flagConfig.dimension(), flagConfig.dimension() / 2, random));
+    }
+    return store;
+  }
+
+  /**
+   * The expansion as originally materialized in a VectorStoreRAM, for comparison, except that
+   * reversed complex triples release the third vector, as checked below.
+   */
+  private static Map<String, Vector> materializeExpansion(
+      VectorStore store, FlagConfig flagConfig, boolean includeTriples) {
+    Map<String, Vector> expanded = new HashMap<String, Vector>();
+    ArrayList<ObjectVector> storeVectors = new ArrayList<ObjectVector>();
+    Enumeration<ObjectVector> allVectors = store.getAllVectors();
+    while (allVectors.hasMoreElements()) {
+      ObjectVector objectVector = allVectors.nextElement();
+      expanded.put(objectVector.getObject().toString(), objectVector.getVector());
+      storeVectors.add(objectVector);
+    }
+    boolean complex = flagConfig.vectortype().equals(VectorType.COMPLEX);
+    for (int x = 0; x < storeVectors.size() - 2; x++) {
+      for (int y = x + 1; y < storeVectors.size() - 1; y++) {
+        String obj1 = storeVectors.get(x).getObject().toString();
+        String obj2 = storeVectors.get(y).getObject().toString();
+        Vector vec1 = storeVectors.get(x).getVector().copy();
+        Vector vec2 = storeVectors.get(y).getVector().copy();
+        vec1.release(vec2);
+        expanded.put(obj2 + ":" + obj1, vec1.copy());
+        if (complex) {
+          vec2.release(storeVectors.get(x).getVector().copy());
+          expanded.put(obj1 + ":" + obj2, vec2.copy());
+        }
+        if (!includeTriples) continue;
+        for (int z = y + 1; z < storeVectors.size(); z++) {
+          String obj3 = storeVectors.get(z).getObject().toString();
+          Vector triple = vec1.copy();
+          triple.release(storeVectors.get(z).getVector().copy());
+          expanded.put(obj1 + ":" + obj2 + ":" + obj3, triple);
+          if (complex) {
+            Vector reversed = storeVectors.get(z).getVector().copy();
+            reversed.release(vec2.copy());
+            expanded.put(obj3 + ":" + obj2 + ":" + obj1, reversed);
+          }
+        }
+      }
+    }
+    return expanded;
+  }
+
+  private static Map<String, Vector> enumerate(Enumeration<ObjectVector> vecEnum, Map<String, Vector> into) {
+    while (vecEnum.hasMoreElements()) {
+      ObjectVector objectVector = vecEnum.nextElement();
+      assertNull("Duplicate " + objectVector.getObject(),
+          into.put(objectVector.getObject().toString(), objectVector.getVector()));
+    }
+    return into;
+  }
+
+  private static void checkMatchesMaterialized(String vectorType, boolean includeTriples) {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", vectorType, "-dimension", "64"});
+    VectorStoreRAM baseStore = createVectorStore(flagConfig, 7, new Random(0));
+    Map<String, Vector> expected = materializeExpansion(baseStore, flagConfig, includeTriples);
+    ExpandedVectorStore expandedStore = new ExpandedVectorStore(baseStore, flagConfig, includeTriples);
+
+    assertEquals(expected.size(), expandedStore.getNumVectors());
+    Map<String, Vector> enumerated = enumerate(expandedStore.getAllVectors(), new HashMap<String, Vector>());
+    assertEquals(expected.keySet(), enumerated.keySet());
+
+    Map<String, Vector> partitioned = new HashMap<String, Vector>();
+    for (int partition = 0; partition < 3; ++partition) {
+      enumerate(expandedStore.getAllVectors(partition, 3), partitioned);
+    }
+    assertEquals(expected.keySet(), partitioned.keySet());
+
+    for (Map.Entry<String, Vector> entry : expected.entrySet()) {
+      assertEquals(entry.getKey(), 1, entry.getValue().measureOverlap(enumerated.get(entry.getKey())), TOL);
+      assertEquals(entry.getKey(), 1, entry.getValue().measureOverlap(expandedStore.getVector(entry.getKey())), TOL);
+    }
+    assertNull(expandedStore.getVector("p0:p1"));
+    assertNull(expandedStore.getVector("p0:nosuchobject"));
+  }
+
+  @Test
+  public void testRealPairsMatchMaterializedExpansion() {
+    checkMatchesMaterialized("real", false);
+  }
+
+  @Test
+  public void testRealTriplesMatchMaterializedExpansion() {
+    checkMatchesMaterialized("real", true);
+  }
+
+  @Test
+  public void testBinaryTriplesMatchMaterializedExpansion() {
+    checkMatchesMaterialized("binary", true);
+  }
+
+  @Test
+  public void testComplexReversedTriplesReleaseThirdVector() {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "complex", "-dimension", "64"});
+    VectorStoreRAM baseStore = createVectorStore(flagConfig, 4, new Random(2));
+    ExpandedVectorStore expandedStore = new ExpandedVectorStore(baseStore, flagConfig, true);
+
+    // "p2:p1:p0" is p2 released from (p1 released from p0). The materialized expansion
+    // this replaced stored p1 released from p0 here, i.e., the same vector as "p0:p1".
+    Vector reversePair = baseStore.getVector("p1").copy();
+    reversePair.release(baseStore.getVector("p0").copy());
+    Vector expected = baseStore.getVector("p2").copy();
+    expected.release(reversePair.copy());
+
+    Map<String, Vector> enumerated = enumerate(expandedStore.getAllVectors(), new HashMap<String, Vector>());
+    assertEquals(1, expected.measureOverlap(enumerated.get("p2:p1:p0")), TOL);
+    assertEquals(1, expected.measureOverlap(expandedStore.getVector("p2:p1:p0")), TOL);
+    assertEquals(1, reversePair.measureOverlap(enumerated.get("p0:p1")), TOL);
+    assertTrue(reversePair.measureOverlap(enumerated.get("p2:p1:p0")) < 0.9);
+  }
+
+  @Test
+  public void testParallelSearchOfExpandedStore() throws Exception {
+    FlagConfig sequentialConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "64", "-expandsearchspace3"});
+    FlagConfig parallelConfig = FlagConfig.getFlagConfig(new String[] {
+        "-vectortype", "real", "-dimension", "64", "-expandsearchspace3", "-parallelsearch", "-numthreads", "3"});
+    VectorStoreRAM baseStore = createVectorStore(sequentialConfig, 30, new Random(1));
+    Vector queryVector = new ExpandedVectorStore(baseStore, sequentialConfig, true).getVector("p3:p8:p20");
+
+    LinkedList<SearchResult> sequentialResults = new VectorSearcher.VectorSearcherCosine(
+        baseStore, baseStore, null, sequentialConfig, queryVector.copy()).getNearestNeighbors(10);
+    LinkedList<SearchResult> parallelResults = new VectorSearcher.VectorSearcherCosine(
+        baseStore, baseStore, null, parallelConfig, queryVector.copy()).getNearestNeighbors(10);
+    assertEquals("p3:p8:p20", sequentialResults.getFirst().getObjectVector().getObject());
+    assertEquals(10, parallelResults.size());
+    for (int i = 0; i < 10; ++i) {
+      assertEquals(sequentialResults.get(i).getScore(), parallelResults.get(i).getScore(), TOL);
+    }
+
+    // Partitions are enumerated by the workers themselves, so a pool of exactly
+    // numthreads threads is enough.
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      VectorSearcher searcher = new VectorSearcher.VectorSearcherCosine(
+          baseStore, baseStore, null, parallelConfig, queryVector.copy());
+      searcher.setExecutorService(executor);
+      LinkedList<SearchResult> pooledResults = searcher.getNearestNeighbors(10);
+      assertEquals(10, pooledResults.size());
+      for (int i = 0; i < 10; ++i) {
+        assertEquals(sequentialResults.get(i).getScore(), pooledResults.get(i).getScore(), TOL);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
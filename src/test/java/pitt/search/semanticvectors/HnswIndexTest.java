@@ -0,0 +1,177 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.util.LinkedList;
+import java.util.Random;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+
+import pitt.search.semanticvectors.vectors.RealVector;
+import pitt.search.semanticvectors.vectors.Vector;
+
+import junit.framework.TestCase;
+
+public class HnswIndexTest extends TestCase {
+  static final int NUM_VECTORS = 2000;
+
+  private FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {
+      "-vectortype", "real", "-dimension", "32", "-hnswm", "8", "-hnswefconstruction", "100",
+      "-hnswefsearch", "64", "-numsearchresults", "10"});
+
+  private VectorStoreRAM createGaussianVectorStore(Random random) {
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (int i = 0; i < NUM_VECTORS; ++i) {
+      float[] coordinates = new float[flagConfig.dimension()];
+      for (int j = 0; j < coordinates.length; ++j) {
+        coordinates[j] = (float) random.nextGaussian();
+      }
+      store.putVector("vector" + i, new RealVector(coordinates));
+    }
+    return store;
+  }
+
+  private Vector[] getQueries(VectorStoreRAM store, int numQueries) {
+    Vector[] queries = new Vector[numQueries];
+    for (int q = 0; q < numQueries; ++q) {
+      queries[q] = store.getVector("vector" + (q * 37));
+    }
+    return queries;
+  }
+
+  @Test
+  public void testRecallAgainstExhaustiveSearch() throws Exception {
+    VectorStoreRAM store = createGaussianVectorStore(new Random(0));
+    HnswIndex index = HnswIndex.build(store, flagConfig);
+    assertEquals(NUM_VECTORS, index.size());
+    assertTrue(index.evaluateRecall(store, getQueries(store, 50), flagConfig) > 0.9);
+  }
+
+  @Test
+  public void testSearchFindsQueryVectorFirst() throws Exception {
+    VectorStoreRAM store = createGaussianVectorStore(new Random(1));
+    VectorSearcher.VectorSearcherCosine searcher = new VectorSearcher.VectorSearcherCosine(
+        store, store, null, flagConfig, store.getVector("vector42").copy());
+    searcher.hnswIndex = HnswIndex.build(store, flagConfig);
+    searcher.hnswEfSearch = flagConfig.hnswefsearch();
+    searcher.indexMinScore = flagConfig.searchresultsminscore();
+    LinkedList<SearchResult> results = searcher.getNearestNeighbors(10);
+    assertEquals(10, results.size());
+    assertEquals("vector42", results.getFirst().getObjectVector().getObject());
+    assertEquals(1.0, results.getFirst().getScore(), 0.0001);
+    assertSame(store.getVector("vector42"), results.getFirst().getObjectVector().getVector());
+  }
+
+  @Test
+  public void testNormalizedStoreIsIndexedWithoutCopies() throws Exception {
+    VectorStoreRAM store = createGaussianVectorStore(new Random(4));
+    RAMDirectory directory = new RAMDirectory();
+    IndexOutput indexOutput = directory.createOutput("normalized.mbin", IOContext.DEFAULT);
+    VectorStoreWriter.writeToMappedIndexOutput(store, FlagConfig.getFlagConfig(new String[] {
+        "-vectortype", "real", "-dimension", "32", "-normalizevectors"}), indexOutput);
+    indexOutput.close();
+    VectorStoreReaderMapped normalizedStore = new VectorStoreReaderMapped(directory, "normalized.mbin", flagConfig);
+    assertTrue(normalizedStore.isNormalized());
+
+    HnswIndex index = HnswIndex.build(store, flagConfig);
+    HnswIndex normalizedIndex = HnswIndex.build(normalizedStore, flagConfig);
+    for (Vector query : getQueries(store, 10)) {
+      LinkedList<SearchResult> expected = index.search(store, query, 10, 64, -1);
+      LinkedList<SearchResult> actual = normalizedIndex.search(normalizedStore, query, 10, 64, -1);
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); ++i) {
+        assertEquals(expected.get(i).getObjectVector().getObject(), actual.get(i).getObjectVector().getObject());
+        assertEquals(expected.get(i).getScore(), actual.get(i).getScore(), 0.0001);
+      }
+    }
+    // The indexed vectors are returned, rather than vectors read again from the store.
+    Vector query = store.getVector("vector7");
+    assertSame(normalizedIndex.search(normalizedStore, query, 1, 64, -1).getFirst().getObjectVector().getVector(),
+        normalizedIndex.search(normalizedStore, query, 1, 64, -1).getFirst().getObjectVector().getVector());
+    normalizedStore.close();
+  }
+
+  @Test
+  public void testMismatchedIndexFallsBackToExhaustiveSearch() throws Exception {
+    File storeFile = File.createTempFile("hnswindextest", ".bin");
+    File indexFile = new File(HnswIndex.getIndexFileName(storeFile.getPath()));
+    storeFile.deleteOnExit();
+    indexFile.deleteOnExit();
+    VectorStoreRAM indexedStore = createGaussianVectorStore(new Random(3));
+    HnswIndex.build(indexedStore, flagConfig).writeToFile(indexFile.getPath());
+
+    VectorStoreRAM searchedStore = new VectorStoreRAM(flagConfig);
+    searchedStore.putVector("other", indexedStore.getVector("vector0"));
+    FlagConfig searchConfig = FlagConfig.getFlagConfig(new String[] {
+        "-vectortype", "real", "-dimension", "32", "-hnswsearch", "-searchvectorfile", storeFile.getPath()});
+    assertNull(HnswIndex.getIndexForStore(searchedStore, searchConfig));
+    LinkedList<SearchResult> results = new VectorSearcher.VectorSearcherCosine(
+        searchedStore, searchedStore, null, searchConfig, indexedStore.getVector("vector0").copy())
+        .getNearestNeighbors(10);
+    assertEquals(1, results.size());
+    assertEquals("other", results.getFirst().getObjectVector().getObject());
+  }
+
+  @Test
+  public void testWriteAndReadIndex() throws Exception {
+    VectorStoreRAM store = createGaussianVectorStore(new Random(2));
+    HnswIndex index = HnswIndex.build(store, flagConfig);
+
+    RAMDirectory directory = new RAMDirectory();
+    IndexOutput indexOutput = directory.createOutput("vectors.bin" + HnswIndex.SUFFIX, IOContext.DEFAULT);
+    index.writeToIndexOutput(indexOutput);
+    indexOutput.close();
+    IndexInput indexInput = directory.openInput("vectors.bin" + HnswIndex.SUFFIX, IOContext.READONCE);
+    HnswIndex readIndex = HnswIndex.readFromIndexInput(indexInput);
+    indexInput.close();
+    readIndex.attachVectors(store);
+
+    assertEquals(index.size(), readIndex.size());
+    for (Vector query : getQueries(store, 10)) {
+      LinkedList<SearchResult> expected = index.search(store, query, 10, 64, -1);
+      LinkedList<SearchResult> actual = readIndex.search(store, query, 10, 64, -1);
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); ++i) {
+        assertEquals(expected.get(i).getObjectVector().getObject(), actual.get(i).getObjectVector().getObject());
+      }
+    }
+  }
+}
@@ -0,0 +1,173 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Random;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+
+import junit.framework.TestCase;
+
+public class IvfIndexTest extends TestCase {
+  static final double TOL = 0.0001;
+
+  private static FlagConfig getFlagConfig(String... extraArgs) {
+    return MyTestUtils.getFlagConfig(new String[] {"-vectortype", "real", "-dimension", "32", "-ivflists", "16"}, extraArgs);
+  }
+
+  @Test
+  public void testBuildListsEveryVectorOnce() throws Exception {
+    FlagConfig flagConfig = getFlagConfig();
+    VectorStoreRAM store = MyTestUtils.createClusteredVectorStore(flagConfig, new Random(0), 16, 50, 0.3);
+    IvfIndex index = IvfIndex.build(store, flagConfig);
+    assertEquals(16, index.getNumLists());
+    HashSet<Object> seen = new HashSet<Object>();
+    Enumeration<ObjectVector> candidates = index.getCandidateVectors(store.getVector("vector0_0"), 16);
+    while (candidates.hasMoreElements()) {
+      assertTrue(seen.add(candidates.nextElement().getObject()));
+    }
+    assertEquals(store.getNumVectors(), seen.size());
+  }
+
+  @Test
+  public void testWriteReadAndSearch() throws Exception {
+    FlagConfig flagConfig = getFlagConfig();
+    VectorStoreRAM store = MyTestUtils.createClusteredVectorStore(flagConfig, new Random(1), 16, 50, 0.3);
+    IvfIndex index = IvfIndex.build(store, flagConfig);
+
+    RAMDirectory directory = new RAMDirectory();
+    IndexOutput indexOutput = directory.createOutput("vectors.bin" + IvfIndex.SUFFIX, IOContext.DEFAULT);
+    index.writeToIndexOutput(indexOutput, flagConfig);
+    indexOutput.close();
+    IndexInput indexInput = directory.openInput("vectors.bin" + IvfIndex.SUFFIX, IOContext.READONCE);
+    IvfIndex readIndex = IvfIndex.readFromIndexInput(indexInput, flagConfig);
+    indexInput.close();
+    readIndex.attachVectors(store);
+
+    assertEquals(index.getNumLists(), readIndex.getNumLists());
+    for (int list = 0; list < index.getNumLists(); ++list) {
+      assertEquals(index.getListSize(list), readIndex.getListSize(list));
+    }
+    Vector query = store.getVector("vector3_3");
+    Enumeration<ObjectVector> candidates = readIndex.getCandidateVectors(query, 1);
+    boolean foundQuery = false;
+    while (candidates.hasMoreElements()) {
+      foundQuery |= candidates.nextElement().getObject().equals("vector3_3");
+    }
+    assertTrue(foundQuery);
+  }
+
+  @Test
+  public void testSearcherUsesIndexFile() throws Exception {
+    File storeFile = File.createTempFile("ivfindextest", ".bin");
+    File indexFile = new File(IvfIndex.getIndexFileName(storeFile.getPath()));
+    storeFile.deleteOnExit();
+    indexFile.deleteOnExit();
+    FlagConfig buildConfig = getFlagConfig();
+    VectorStoreRAM store = MyTestUtils.createClusteredVectorStore(buildConfig, new Random(2), 16, 50, 0.3);
+    IvfIndex.build(store, buildConfig).writeToFile(indexFile.getPath(), buildConfig);
+
+    Vector query = store.getVector("vector7_7");
+    LinkedList<SearchResult> exhaustiveResults = new VectorSearcher.VectorSearcherCosine(
+        store, store, null, buildConfig, query.copy()).getNearestNeighbors(10);
+
+    FlagConfig searchConfig = getFlagConfig(
+        "-ivfsearch", "-ivfnprobe", "2", "-searchvectorfile", storeFile.getPath());
+    LinkedList<SearchResult> ivfResults = new VectorSearcher.VectorSearcherCosine(
+        store, store, null, searchConfig, query.copy()).getNearestNeighbors(10);
+    assertEquals(10, ivfResults.size());
+    assertEquals("vector7_7", ivfResults.getFirst().getObjectVector().getObject());
+    int hits = 0;
+    HashSet<Object> exhaustiveObjects = new HashSet<Object>();
+    for (SearchResult result : exhaustiveResults) {
+      exhaustiveObjects.add(result.getObjectVector().getObject());
+    }
+    for (SearchResult result : ivfResults) {
+      if (exhaustiveObjects.contains(result.getObjectVector().getObject())) hits++;
+    }
+    assertTrue(hits >= 8);
+  }
+
+  @Test
+  public void testMismatchedIndexFallsBackToExhaustiveSearch() throws Exception {
+    File storeFile = File.createTempFile("ivfindextest", ".bin");
+    File indexFile = new File(IvfIndex.getIndexFileName(storeFile.getPath()));
+    storeFile.deleteOnExit();
+    indexFile.deleteOnExit();
+    FlagConfig buildConfig = getFlagConfig();
+    VectorStoreRAM indexedStore = MyTestUtils.createClusteredVectorStore(buildConfig, new Random(4), 16, 50, 0.3);
+    IvfIndex.build(indexedStore, buildConfig).writeToFile(indexFile.getPath(), buildConfig);
+
+    VectorStoreRAM searchedStore = new VectorStoreRAM(buildConfig);
+    searchedStore.putVector("other", indexedStore.getVector("vector7_7"));
+    FlagConfig searchConfig = getFlagConfig("-ivfsearch", "-searchvectorfile", storeFile.getPath());
+    assertNull(IvfIndex.getIndexForStore(searchedStore, searchConfig));
+    LinkedList<SearchResult> results = new VectorSearcher.VectorSearcherCosine(
+        searchedStore, searchedStore, null, searchConfig, indexedStore.getVector("vector7_7").copy())
+        .getNearestNeighbors(10);
+    assertEquals(1, results.size());
+    assertEquals("other", results.getFirst().getObjectVector().getObject());
+  }
+
+  @Test
+  public void testBinaryVectors() throws Exception {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {
+        "-vectortype", "binary", "-dimension", "128", "-ivflists", "4"});
+    Random random = new Random(3);
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (int i = 0; i < 200; ++i) {
+      store.putVector("vector" + i, VectorFactory.generateRandomVector(
+          flagConfig.vectortype(), flagConfig.dimension(), flagConfig.seedlength(), random));
+    }
+    IvfIndex index = IvfIndex.build(store, flagConfig);
+    int total = 0;
+    for (int list = 0; list < index.getNumLists(); ++list) {
+      total += index.getListSize(list);
+    }
+    assertEquals(200, total);
+  }
+}
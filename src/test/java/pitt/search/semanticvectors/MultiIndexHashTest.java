@@ -0,0 +1,129 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.util.Enumeration;
+import java.util.LinkedList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import pitt.search.semanticvectors.vectors.BinaryVector;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+import junit.framework.TestCase;
+
+public class MultiIndexHashTest extends TestCase {
+  static final int DIMENSION = 256;
+  static final double TOL = 0.0001;
+
+  private FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {
+      "-vectortype", "binary", "-dimension", Integer.toString(DIMENSION), "-mihsubstrings", "8"});
+
+  /** Creates clusters of binary vectors, each a few bit flips away from a random center. */
+  private VectorStoreRAM createClusteredVectorStore(Random random) {
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (int cluster = 0; cluster < 50; ++cluster) {
+      char[] center = new char[DIMENSION];
+      for (int i = 0; i < DIMENSION; ++i) {
+        center[i] = random.nextBoolean() ? '1' : '0';
+      }
+      for (int member = 0; member < 40; ++member) {
+        char[] bits = center.clone();
+        int numFlips = random.nextInt(30);
+        for (int flip = 0; flip < numFlips; ++flip) {
+          int position = random.nextInt(DIMENSION);
+          bits[position] = bits[position] == '1' ? '0' : '1';
+        }
+        Vector vector = VectorFactory.createZeroVector(VectorType.BINARY, DIMENSION);
+        vector.readFromString(new String(bits));
+        store.putVector("vector" + cluster + "_" + member, vector);
+      }
+    }
+    return store;
+  }
+
+  @Test
+  public void testSearchMatchesExhaustiveSearch() throws Exception {
+    VectorStoreRAM store = createClusteredVectorStore(new Random(0));
+    MultiIndexHash index = MultiIndexHash.build(store, flagConfig);
+    assertEquals(store.getNumVectors(), index.size());
+    FlagConfig exhaustiveConfig = FlagConfig.getFlagConfig(new String[] {
+        "-vectortype", "binary", "-dimension", Integer.toString(DIMENSION)});
+    for (int cluster = 0; cluster < 50; cluster += 7) {
+      Vector query = store.getVector("vector" + cluster + "_3");
+      LinkedList<SearchResult> expected = new VectorSearcher.VectorSearcherCosine(
+          store, store, null, exhaustiveConfig, query.copy()).getNearestNeighbors(15);
+      LinkedList<SearchResult> actual = index.search((BinaryVector) query, 15, -1);
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); ++i) {
+        assertEquals(expected.get(i).getScore(), actual.get(i).getScore(), TOL);
+      }
+      assertEquals(1.0, actual.getFirst().getScore(), TOL);
+    }
+  }
+
+  @Test
+  public void testSearchRadiusFindsAllWithinRadius() throws Exception {
+    VectorStoreRAM store = createClusteredVectorStore(new Random(1));
+    MultiIndexHash index = MultiIndexHash.build(store, flagConfig);
+    BinaryVector query = (BinaryVector) store.getVector("vector5_0");
+    int radius = 40;
+    int expected = 0;
+    Enumeration<ObjectVector> vecEnum = store.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      double overlap = query.measureOverlap(vecEnum.nextElement().getVector());
+      if (Math.round((1 - overlap) * DIMENSION / 2) <= radius) expected++;
+    }
+    LinkedList<SearchResult> results = index.searchRadius(query, radius);
+    assertEquals(expected, results.size());
+    assertTrue(expected >= 20);
+    assertTrue(results.getLast().getScore() >= 1 - 2 * (radius / (double) DIMENSION) - TOL);
+  }
+
+  @Test
+  public void testSearcherUsesIndexForBinaryStores() throws Exception {
+    VectorStoreRAM store = createClusteredVectorStore(new Random(2));
+    VectorSearcher.VectorSearcherCosine searcher = new VectorSearcher.VectorSearcherCosine(
+        store, store, null, flagConfig, store.getVector("vector9_9").copy());
+    assertNotNull(searcher.multiIndexHash);
+    LinkedList<SearchResult> results = searcher.getNearestNeighbors(5);
+    assertEquals(5, results.size());
+    assertEquals("vector9_9", results.getFirst().getObjectVector().getObject());
+  }
+}
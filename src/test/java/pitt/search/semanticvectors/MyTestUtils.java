@@ -35,6 +35,10 @@ package pitt.search.semanticvectors;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.Random;
+
+import pitt.search.semanticvectors.vectors.RealVector;
+
 public class MyTestUtils {
   
   public static void assertFloatArrayEquals(float[] expecteds, float[] actuals, double TOL) {
@@ -43,4 +47,36 @@ public class MyTestUtils {
       assertEquals(expecteds[i], actuals[i], TOL);
     }
   }
+
+  /** Returns the configuration given by args followed by extraArgs. */
+  public static FlagConfig getFlagConfig(String[] args, String... extraArgs) {
+    String[] allArgs = new String[args.length + extraArgs.length];
+    System.arraycopy(args, 0, allArgs, 0, args.length);
+    System.arraycopy(extraArgs, 0, allArgs, args.length, extraArgs.length);
+    return FlagConfig.getFlagConfig(allArgs);
+  }
+
+  /**
+   * Creates numClusters clusters of clusterSize real vectors, each scattered around a random
+   * center with standard deviation spread in each coordinate. Vectors are named
+   * "vector[cluster]_[member]".
+   */
+  public static VectorStoreRAM createClusteredVectorStore(
+      FlagConfig flagConfig, Random random, int numClusters, int clusterSize, double spread) {
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (int cluster = 0; cluster < numClusters; ++cluster) {
+      float[] center = new float[flagConfig.dimension()];
+      for (int j = 0; j < center.length; ++j) {
+        center[j] = (float) random.nextGaussian();
+      }
+      for (int member = 0; member < clusterSize; ++member) {
+        float[] coordinates = new float[center.length];
+        for (int j = 0; j < center.length; ++j) {
+          coordinates[j] = center[j] + (float) (spread * random.nextGaussian());
+        }
+        store.putVector("vector" + cluster + "_" + member, new RealVector(coordinates));
+      }
+    }
+    return store;
+  }
 }
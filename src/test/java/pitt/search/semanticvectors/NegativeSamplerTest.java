@@ -0,0 +1,96 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import pitt.search.semanticvectors.vectors.RealVector;
+
+import junit.framework.TestCase;
+
+public class NegativeSamplerTest extends TestCase {
+
+  static final FlagConfig FLAG_CONFIG = FlagConfig.getFlagConfig(
+      new String[] {"-vectortype", "real", "-dimension", "2"});
+
+  @Test
+  public void testSampleFrequenciesMatchWeights() {
+    List<String> terms = Arrays.asList("a", "b", "c", "d", "e");
+    List<Double> weights = Arrays.asList(1d, 2d, 0d, 4d, 3d);
+    NegativeSampler sampler = NegativeSampler.build(terms, weights, new VectorStoreRAM(FLAG_CONFIG));
+    assertEquals(5, sampler.size());
+
+    int numSamples = 200000;
+    int[] counts = new int[5];
+    Random random = new Random(0);
+    for (int i = 0; i < numSamples; ++i) {
+      ++counts[sampler.sample(random)];
+    }
+    assertEquals(0, counts[2]);
+    for (int i = 0; i < 5; ++i) {
+      assertEquals(terms.get(i), weights.get(i) / 10, (double) counts[i] / numSamples, 0.01);
+    }
+  }
+
+  @Test
+  public void testVectorsAreLookedUpOnce() {
+    VectorStoreRAM vectorStore = new VectorStoreRAM(FLAG_CONFIG);
+    vectorStore.putVector("a", new RealVector(new float[] {1, 0}));
+    List<String> terms = new ArrayList<String>(Arrays.asList("a", "missing"));
+    NegativeSampler sampler = NegativeSampler.build(terms, Arrays.asList(1d, 1d), vectorStore);
+
+    assertEquals("a", sampler.getTerm(0));
+    assertSame(vectorStore.getVector("a"), sampler.getVector(0));
+    vectorStore.putVector("a", new RealVector(new float[] {0, 1}));
+    assertEquals(1, ((RealVector) sampler.getVector(0)).getCoordinates()[0], 0);
+    assertNull(sampler.getVector(1));
+  }
+
+  @Test
+  public void testRejectsMismatchedWeights() {
+    try {
+      NegativeSampler.build(Arrays.asList("a", "b"), Arrays.asList(1d), new VectorStoreRAM(FLAG_CONFIG));
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,239 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.Test;
+
+import pitt.search.semanticvectors.PositionalCorpusCache.OrdinalSequence;
+import pitt.search.semanticvectors.PositionalCorpusCache.TermSequence;
+import pitt.search.semanticvectors.vectors.RealVector;
+
+import junit.framework.TestCase;
+
+public class PositionalCorpusCacheTest extends TestCase {
+
+  private static final String[] DOCUMENTS = new String[] {
+    "the cat sat on the mat",
+    "",
+    "a dog and a cat",
+  };
+
+  private File tempDir;
+  private LuceneUtils luceneUtils;
+
+  @Override
+  protected void setUp() throws IOException {
+    tempDir = Files.createTempDirectory("corpuscache").toFile();
+    File indexDir = new File(tempDir, "index");
+    writeIndex(indexDir, DOCUMENTS);
+    luceneUtils = new LuceneUtils(FlagConfig.getFlagConfig(
+        new String[] {"-luceneindexpath", indexDir.getPath()}));
+  }
+
+  private static void writeIndex(File indexDir, String[] documents) throws IOException {
+    FieldType fieldType = new FieldType(TextField.TYPE_NOT_STORED);
+    fieldType.setStoreTermVectors(true);
+    fieldType.setStoreTermVectorPositions(true);
+    try (IndexWriter writer = new IndexWriter(FSDirectory.open(indexDir.toPath()),
+        new IndexWriterConfig(new WhitespaceAnalyzer()))) {
+      for (String text : documents) {
+        Document document = new Document();
+        if (!text.isEmpty()) document.add(new Field("contents", text, fieldType));
+        writer.addDocument(document);
+      }
+    }
+  }
+
+  @Override
+  protected void tearDown() {
+    deleteRecursively(tempDir);
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) deleteRecursively(child);
+    }
+    file.delete();
+  }
+
+  private static List<OrdinalSequence> readAll(Iterator<OrdinalSequence> iterator) {
+    List<OrdinalSequence> sequences = new ArrayList<OrdinalSequence>();
+    while (iterator.hasNext()) sequences.add(iterator.next());
+    return sequences;
+  }
+
+  private static String[] termsOf(PositionalCorpusCache cache, OrdinalSequence sequence) {
+    String[] terms = new String[sequence.size()];
+    for (int i = 0; i < terms.length; ++i) terms[i] = cache.getTerm(sequence.ordinals[i]);
+    return terms;
+  }
+
+  private static int countNulls(PositionalCorpusCache cache) {
+    int count = 0;
+    for (int i = 0; i < cache.getNumTerms(); ++i) {
+      if (cache.getTerm(i) == null) ++count;
+    }
+    return count;
+  }
+
+  @Test
+  public void testReadTermVectorIsInPositionOrder() throws IOException {
+    TermSequence sequence = PositionalCorpusCache.readTermVector(
+        0, "contents", luceneUtils.getTermVector(0, "contents"), null);
+    assertTrue(Arrays.equals(new int[] {0, 1, 2, 3, 4, 5}, sequence.positions));
+    assertTrue(Arrays.equals(DOCUMENTS[0].split(" "), sequence.terms));
+  }
+
+  @Test
+  public void testWriteAndRead() throws IOException {
+    String cacheFile = new File(tempDir, "corpus.cache").getPath();
+    String[] fields = new String[] {"contents"};
+    PositionalCorpusCache.write(luceneUtils, fields, cacheFile);
+    assertFalse(new File(cacheFile + ".tmp").exists());
+
+    try (PositionalCorpusCache cache = new PositionalCorpusCache(cacheFile, null)) {
+      assertEquals(3, cache.getNumDocs());
+      assertTrue(Arrays.equals(fields, cache.getFields()));
+
+      List<OrdinalSequence> sequences = readAll(cache.read(0, 3));
+      assertEquals(2, sequences.size());
+      for (OrdinalSequence sequence : sequences) {
+        TermSequence expected = PositionalCorpusCache.readTermVector(sequence.docID, "contents",
+            luceneUtils.getTermVector(sequence.docID, "contents"), null);
+        assertEquals("contents", sequence.field);
+        assertEquals(0, sequence.fieldIndex);
+        assertTrue(Arrays.equals(expected.positions, sequence.positions));
+        assertTrue(Arrays.equals(expected.terms, termsOf(cache, sequence)));
+      }
+
+      List<OrdinalSequence> lastDoc = readAll(cache.read(1, 3));
+      assertEquals(1, lastDoc.size());
+      assertEquals(2, lastDoc.get(0).docID);
+      assertEquals(0, readAll(cache.read(1, 2)).size());
+    }
+  }
+
+  @Test
+  public void testHeaderRecordsIndexVersionAndTermFilters() throws IOException {
+    String cacheFile = new File(tempDir, "corpus.cache").getPath();
+    PositionalCorpusCache.write(luceneUtils, new String[] {"contents"}, cacheFile);
+    try (PositionalCorpusCache cache = new PositionalCorpusCache(cacheFile, null)) {
+      assertEquals(luceneUtils.getIndexVersion(), cache.getIndexVersion());
+      assertEquals(luceneUtils.getTermFilterSettings(), cache.getTermFilterSettings());
+
+      String indexPath = new File(tempDir, "index").getPath();
+      LuceneUtils filtered = new LuceneUtils(FlagConfig.getFlagConfig(
+          new String[] {"-luceneindexpath", indexPath, "-minfrequency", "2"}));
+      assertFalse(filtered.getTermFilterSettings().equals(cache.getTermFilterSettings()));
+
+      try (IndexWriter writer = new IndexWriter(FSDirectory.open(new File(indexPath).toPath()),
+          new IndexWriterConfig(new WhitespaceAnalyzer()))) {
+        writer.addDocument(new Document());
+      }
+      LuceneUtils changed = new LuceneUtils(FlagConfig.getFlagConfig(
+          new String[] {"-luceneindexpath", indexPath}));
+      assertFalse(changed.getIndexVersion() == cache.getIndexVersion());
+    }
+  }
+
+  @Test
+  public void testVocabularyFiltersTerms() throws IOException {
+    String cacheFile = new File(tempDir, "corpus.cache").getPath();
+    PositionalCorpusCache.write(luceneUtils, new String[] {"contents"}, cacheFile);
+
+    VectorStoreRAM vocabulary = new VectorStoreRAM(
+        FlagConfig.getFlagConfig(new String[] {"-vectortype", "real", "-dimension", "2"}));
+    vocabulary.putVector("cat", new RealVector(new float[] {1, 0}));
+    vocabulary.putVector("mat", new RealVector(new float[] {0, 1}));
+    try (PositionalCorpusCache cache = new PositionalCorpusCache(cacheFile, vocabulary)) {
+      OrdinalSequence first = cache.read(0, 1).next();
+      assertTrue(Arrays.equals(new int[] {1, 5}, first.positions));
+      assertTrue(Arrays.equals(new String[] {"cat", "mat"}, termsOf(cache, first)));
+      assertNull(cache.getTerm(0));
+      assertEquals(cache.getNumTerms() - 2, countNulls(cache));
+    }
+  }
+
+  @Test
+  public void testEmbeddingsFromCacheMatchTermVectors() throws IOException {
+    String[] words = "the cat sat on a mat and dog ran by".split(" ");
+    String[] documents = new String[40];
+    for (int doc = 0; doc < documents.length; ++doc) {
+      StringBuilder text = new StringBuilder();
+      for (int i = 0; i < 12; ++i) {
+        text.append(words[(doc * 7 + i * (doc % 3 + 1)) % words.length]).append(' ');
+      }
+      documents[doc] = text.toString().trim();
+    }
+    File indexDir = new File(tempDir, "embeddings");
+    writeIndex(indexDir, documents);
+
+    String[] args = new String[] {"-luceneindexpath", indexDir.getPath(), "-positionalmethod", "embeddings",
+        "-vectortype", "real", "-dimension", "8", "-numthreads", "1", "-trainingcycles", "1",
+        "-samplingthreshold", "0.05", "-windowradius", "2", "-seed", "1",
+        "-elementalvectorfile", new File(tempDir, "elementalvectors").getPath()};
+    VectorStore fromTermVectors = new TermTermVectorsFromLucene(
+        FlagConfig.getFlagConfig(args), null).getSemanticTermVectors();
+    String[] cacheArgs = Arrays.copyOf(args, args.length + 2);
+    cacheArgs[args.length] = "-corpuscache";
+    cacheArgs[args.length + 1] = new File(tempDir, "embeddings.cache").getPath();
+    VectorStore fromCache = new TermTermVectorsFromLucene(
+        FlagConfig.getFlagConfig(cacheArgs), null).getSemanticTermVectors();
+
+    assertEquals(fromTermVectors.getNumVectors(), fromCache.getNumVectors());
+    for (String word : words) {
+      assertTrue(word, Arrays.equals(((RealVector) fromTermVectors.getVector(word)).getCoordinates(),
+          ((RealVector) fromCache.getVector(word)).getCoordinates()));
+    }
+  }
+}
@@ -0,0 +1,194 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Random;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+
+import pitt.search.semanticvectors.vectors.Vector;
+
+import junit.framework.TestCase;
+
+public class ProductQuantizedStoreTest extends TestCase {
+
+  private static FlagConfig getFlagConfig(String... extraArgs) {
+    return MyTestUtils.getFlagConfig(new String[] {"-vectortype", "real", "-dimension", "32", "-pqsubspaces", "4"}, extraArgs);
+  }
+
+  private static HashSet<Object> getObjects(LinkedList<SearchResult> results) {
+    HashSet<Object> objects = new HashSet<Object>();
+    for (SearchResult result : results) {
+      objects.add(result.getObjectVector().getObject());
+    }
+    return objects;
+  }
+
+  @Test
+  public void testBuildAndApproximateScores() throws Exception {
+    FlagConfig flagConfig = getFlagConfig();
+    VectorStoreRAM store = MyTestUtils.createClusteredVectorStore(flagConfig, new Random(0), 20, 30, 0.3);
+    ProductQuantizedStore quantized = ProductQuantizedStore.build(store, flagConfig);
+    assertEquals(600, quantized.getNumVectors());
+    assertEquals(4, quantized.getNumSubspaces());
+    assertEquals(256, quantized.getNumCentroids());
+
+    Vector query = store.getVector("vector5_5");
+    LinkedList<SearchResult> results = quantized.search(query, 10, 0, null, -1);
+    assertEquals(10, results.size());
+    for (SearchResult result : results) {
+      assertTrue(result.getObjectVector().getObject().toString().startsWith("vector5_"));
+      double exact = query.measureOverlap(store.getVector(result.getObjectVector().getObject()));
+      assertEquals(exact, result.getScore(), 0.1);
+    }
+  }
+
+  @Test
+  public void testRerankGivesExactScores() throws Exception {
+    FlagConfig flagConfig = getFlagConfig();
+    VectorStoreRAM store = MyTestUtils.createClusteredVectorStore(flagConfig, new Random(1), 20, 30, 0.3);
+    ProductQuantizedStore quantized = ProductQuantizedStore.build(store, flagConfig);
+    Vector query = store.getVector("vector2_2");
+    LinkedList<SearchResult> exhaustiveResults = new VectorSearcher.VectorSearcherCosine(
+        store, store, null, flagConfig, query.copy()).getNearestNeighbors(10);
+
+    LinkedList<SearchResult> results = quantized.search(query, 10, 50, store, -1);
+    assertEquals(10, results.size());
+    assertEquals("vector2_2", results.getFirst().getObjectVector().getObject());
+    assertEquals(1.0, results.getFirst().getScore(), 0.0001);
+    for (SearchResult result : results) {
+      Object object = result.getObjectVector().getObject();
+      assertSame(store.getVector(object), result.getObjectVector().getVector());
+      assertEquals(query.measureOverlap(store.getVector(object)), result.getScore(), 0.0001);
+    }
+    HashSet<Object> exhaustiveObjects = getObjects(exhaustiveResults);
+    int hits = 0;
+    for (Object object : getObjects(results)) {
+      if (exhaustiveObjects.contains(object)) hits++;
+    }
+    assertTrue(hits >= 9);
+  }
+
+  @Test
+  public void testWriteReadAndSearcherUsesStoreFile() throws Exception {
+    FlagConfig buildConfig = getFlagConfig();
+    VectorStoreRAM store = MyTestUtils.createClusteredVectorStore(buildConfig, new Random(2), 20, 30, 0.3);
+    ProductQuantizedStore quantized = ProductQuantizedStore.build(store, buildConfig);
+
+    RAMDirectory directory = new RAMDirectory();
+    IndexOutput indexOutput = directory.createOutput("vectors.bin" + ProductQuantizedStore.SUFFIX, IOContext.DEFAULT);
+    quantized.writeToIndexOutput(indexOutput, buildConfig);
+    indexOutput.close();
+    IndexInput indexInput = directory.openInput("vectors.bin" + ProductQuantizedStore.SUFFIX, IOContext.READONCE);
+    ProductQuantizedStore readStore = ProductQuantizedStore.readFromIndexInput(indexInput, getFlagConfig());
+    indexInput.close();
+    assertEquals(quantized.getNumVectors(), readStore.getNumVectors());
+    float[] decoded = quantized.decode(7).getCoordinates();
+    float[] readDecoded = readStore.decode(7).getCoordinates();
+    for (int i = 0; i < decoded.length; ++i) {
+      assertEquals(decoded[i], readDecoded[i], 0);
+    }
+
+    File storeFile = File.createTempFile("pqstoretest", ".bin");
+    File quantizedFile = new File(ProductQuantizedStore.getStoreFileName(storeFile.getPath()));
+    storeFile.deleteOnExit();
+    quantizedFile.deleteOnExit();
+    quantized.writeToFile(quantizedFile.getPath(), buildConfig);
+    FlagConfig searchConfig = getFlagConfig(
+        "-pqsearch", "-pqrerank", "30", "-searchvectorfile", storeFile.getPath());
+    Vector query = store.getVector("vector9_9");
+    LinkedList<SearchResult> results = new VectorSearcher.VectorSearcherCosine(
+        store, store, null, searchConfig, query.copy()).getNearestNeighbors(5);
+    assertEquals(5, results.size());
+    assertEquals("vector9_9", results.getFirst().getObjectVector().getObject());
+  }
+
+  @Test
+  public void testRerankNeedsOffsetIndexForLuceneStores() throws Exception {
+    FlagConfig flagConfig = getFlagConfig();
+    VectorStoreRAM store = MyTestUtils.createClusteredVectorStore(flagConfig, new Random(4), 20, 30, 0.3);
+    final RAMDirectory directory = new RAMDirectory();
+    IndexOutput indexOutput = directory.createOutput("vectors.bin", IOContext.DEFAULT);
+    VectorStoreWriter.writeToIndexOutput(store, flagConfig, indexOutput);
+    indexOutput.close();
+    ThreadLocal<IndexInput> input = new ThreadLocal<IndexInput>() {
+      @Override
+      protected IndexInput initialValue() {
+        try {
+          return directory.openInput("vectors.bin", IOContext.READ);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+
+    assertSame(store, ProductQuantizedStore.getRerankStore(store));
+    VectorStoreReaderLucene scannedStore = new VectorStoreReaderLucene(input, flagConfig);
+    assertNull(ProductQuantizedStore.getRerankStore(scannedStore));
+    VectorStoreReaderLucene indexedStore =
+        new VectorStoreReaderLucene(input, getFlagConfig("-vectorstoreindex"));
+    assertSame(indexedStore, ProductQuantizedStore.getRerankStore(indexedStore));
+  }
+
+  @Test
+  public void testMismatchedStoreFallsBackToExhaustiveSearch() throws Exception {
+    FlagConfig buildConfig = getFlagConfig();
+    VectorStoreRAM quantizedStore = MyTestUtils.createClusteredVectorStore(buildConfig, new Random(3), 20, 30, 0.3);
+    File storeFile = File.createTempFile("pqstoretest", ".bin");
+    File quantizedFile = new File(ProductQuantizedStore.getStoreFileName(storeFile.getPath()));
+    storeFile.deleteOnExit();
+    quantizedFile.deleteOnExit();
+    ProductQuantizedStore.build(quantizedStore, buildConfig).writeToFile(quantizedFile.getPath(), buildConfig);
+
+    VectorStoreRAM searchedStore = new VectorStoreRAM(buildConfig);
+    searchedStore.putVector("other", quantizedStore.getVector("vector9_9"));
+    FlagConfig searchConfig = getFlagConfig("-pqsearch", "-searchvectorfile", storeFile.getPath());
+    assertNull(ProductQuantizedStore.getStoreForSearch(searchedStore, searchConfig));
+    LinkedList<SearchResult> results = new VectorSearcher.VectorSearcherCosine(
+        searchedStore, searchedStore, null, searchConfig, quantizedStore.getVector("vector9_9").copy())
+        .getNearestNeighbors(5);
+    assertEquals(1, results.size());
+    assertEquals("other", results.getFirst().getObjectVector().getObject());
+  }
+}
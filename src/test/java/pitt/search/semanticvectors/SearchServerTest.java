@@ -0,0 +1,209 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import pitt.search.semanticvectors.vectors.RealVector;
+
+import junit.framework.TestCase;
+
+public class SearchServerTest extends TestCase {
+
+  /** Writes a small store of random real vectors and returns its file name. */
+  private static String writeTestStore() throws Exception {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "20"});
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    Random random = new Random(0);
+    for (int i = 0; i < 50; ++i) {
+      float[] coordinates = new float[flagConfig.dimension()];
+      for (int j = 0; j < coordinates.length; ++j) {
+        coordinates[j] = (float) random.nextGaussian();
+      }
+      store.putVector("term" + i, new RealVector(coordinates));
+    }
+    File storeFile = File.createTempFile("searchservertest", ".bin");
+    storeFile.deleteOnExit();
+    VectorStoreWriter.writeVectors(storeFile.getPath(), flagConfig, store);
+    return storeFile.getPath();
+  }
+
+  /** Sends a request and reads response lines up to the terminating empty line. */
+  private static List<String> sendRequest(
+      PrintWriter writer, BufferedReader reader, String request) throws Exception {
+    writer.println(request);
+    writer.flush();
+    List<String> lines = new ArrayList<String>();
+    String line;
+    while ((line = reader.readLine()) != null && !line.isEmpty()) {
+      lines.add(line);
+    }
+    return lines;
+  }
+
+  @Test
+  public void testServerMatchesSearch() throws Exception {
+    String storeFile = writeTestStore();
+    final SearchServer server = new SearchServer(new String[] {
+        "-searchserverport", "0", "-queryvectorfile", storeFile, "-numthreads", "2",
+        "-querycachemegabytes", "1", "-cachesearchresults"});
+    Thread serverThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          server.serve();
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    serverThread.start();
+
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+         BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+         PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"))) {
+      String[][] requests = new String[][] {
+          {"-numsearchresults", "5", "term3"},
+          {"-searchtype", "maxsim", "-numsearchresults", "4", "term3", "term7"}};
+      for (String[] request : requests) {
+        StringBuilder requestLine = new StringBuilder();
+        for (String arg : request) {
+          requestLine.append(arg).append(' ');
+        }
+        List<String> lines = sendRequest(writer, reader, requestLine.toString());
+
+        String[] searchArgs = new String[request.length + 2];
+        searchArgs[0] = "-queryvectorfile";
+        searchArgs[1] = storeFile;
+        System.arraycopy(request, 0, searchArgs, 2, request.length);
+        List<SearchResult> expected = Search.runSearch(FlagConfig.getFlagConfig(searchArgs));
+        assertEquals(expected.size(), lines.size());
+        for (int i = 0; i < expected.size(); ++i) {
+          assertEquals(expected.get(i).toSimpleString(), lines.get(i));
+        }
+      }
+
+      // Repeated requests are answered from the result cache.
+      List<String> lines = sendRequest(writer, reader, "-numsearchresults 5 term3");
+      assertEquals(5, lines.size());
+      assertTrue(server.getCacheStatistics().contains("Result cache: 2 entries"));
+      assertTrue(server.getCacheStatistics().contains(" 1 hits"));
+
+      lines = sendRequest(writer, reader, "-nosuchflag term3");
+      assertEquals(1, lines.size());
+      assertTrue(lines.get(0).startsWith("ERROR"));
+      lines = sendRequest(writer, reader, "-numsearchresults 3");
+      assertEquals(1, lines.size());
+      assertTrue(lines.get(0).startsWith("ERROR"));
+    } finally {
+      server.close();
+      serverThread.join();
+    }
+  }
+
+  @Test
+  public void testIdleConnectionDoesNotBlockRequests() throws Exception {
+    String storeFile = writeTestStore();
+    final SearchServer server = new SearchServer(new String[] {
+        "-searchserverport", "0", "-queryvectorfile", storeFile, "-numthreads", "1"});
+    Thread serverThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          server.serve();
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    serverThread.start();
+
+    try (Socket idleSocket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+         Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+      socket.setSoTimeout(10000);
+      BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+      PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+      List<String> lines = sendRequest(writer, reader,
+          "-searchvectorfile nosuchfile -realbindmethod permutation -numsearchresults 3 term3");
+      assertEquals(3, lines.size());
+      assertTrue(lines.get(0).endsWith("term3"));
+    } finally {
+      server.close();
+      serverThread.join();
+    }
+  }
+
+  @Test
+  public void testRequestsCannotResizeQueryCache() throws Exception {
+    String storeFile = writeTestStore();
+    SearchServer server = new SearchServer(new String[] {
+        "-searchserverport", "0", "-queryvectorfile", storeFile, "-querycachemegabytes", "1"});
+    try {
+      FlagConfig serverConfig = FlagConfig.getFlagConfig(new String[] {"-querycachemegabytes", "1"});
+      server.answerRequest("term3");
+      Object cache = CompoundVectorBuilder.getQueryVectorCache(serverConfig);
+      assertEquals(3, server.answerRequest("-querycachemegabytes 2 -numsearchresults 3 term3").size());
+      assertEquals(1, server.answerRequest("-querycachemegabytes 0 -numsearchresults 1 term3").size());
+      assertSame(cache, CompoundVectorBuilder.getQueryVectorCache(serverConfig));
+    } finally {
+      server.close();
+    }
+  }
+
+  @Test
+  public void testRemoveServerOnlyFlags() {
+    assertEquals(Arrays.asList("-stdev", "-numsearchresults", "3", "term3"),
+        Arrays.asList(SearchServer.removeServerOnlyFlags(new String[] {
+            "-searchvectorfile", "other", "-stdev", "--realbindmethod", "permutation",
+            "-numsearchresults", "3", "term3"})));
+    assertEquals(Arrays.asList("-nosuchflag", "-queryvectorfile", "other", "term3"),
+        Arrays.asList(SearchServer.removeServerOnlyFlags(new String[] {
+            "-nosuchflag", "-queryvectorfile", "other", "term3"})));
+  }
+}
@@ -0,0 +1,112 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import pitt.search.semanticvectors.vectors.Vector;
+
+import junit.framework.TestCase;
+
+public class SketchIndexTest extends TestCase {
+  static final double TOL = 0.0001;
+
+  private static FlagConfig getFlagConfig(String... extraArgs) {
+    return MyTestUtils.getFlagConfig(new String[] {"-vectortype", "real", "-dimension", "64"}, extraArgs);
+  }
+
+  @Test
+  public void testRerankingEverythingIsExact() throws Exception {
+    FlagConfig flagConfig = getFlagConfig("-sketchbits", "64", "-sketchrerank", "2000");
+    VectorStoreRAM store = MyTestUtils.createClusteredVectorStore(flagConfig, new Random(0), 40, 50, 0.5);
+    Vector query = store.getVector("vector3_3").copy();
+    LinkedList<SearchResult> exhaustiveResults = new VectorSearcher.VectorSearcherCosine(
+        store, store, null, getFlagConfig(), query.copy()).getNearestNeighbors(10);
+    LinkedList<SearchResult> sketchResults = new VectorSearcher.VectorSearcherCosine(
+        store, store, null, flagConfig, query.copy()).getNearestNeighbors(10);
+    assertEquals(10, sketchResults.size());
+    for (int i = 0; i < 10; ++i) {
+      assertEquals(exhaustiveResults.get(i).getScore(), sketchResults.get(i).getScore(), TOL);
+    }
+  }
+
+  @Test
+  public void testSketchCandidatesGiveGoodRecall() throws Exception {
+    FlagConfig flagConfig = getFlagConfig("-sketchbits", "256", "-sketchrerank", "100");
+    VectorStoreRAM store = MyTestUtils.createClusteredVectorStore(flagConfig, new Random(1), 40, 50, 0.5);
+    SketchIndex index = SketchIndex.getIndexForStore(store, flagConfig);
+    assertEquals(2000, index.size());
+    assertSame(index, SketchIndex.getIndexForStore(store, flagConfig));
+    SketchIndex otherIndex = SketchIndex.getIndexForStore(store, getFlagConfig("-sketchbits", "64"));
+    assertNotSame(index, otherIndex);
+    assertSame(index, SketchIndex.getIndexForStore(store, flagConfig));
+    assertSame(otherIndex, SketchIndex.getIndexForStore(store, getFlagConfig("-sketchbits", "64")));
+
+    int hits = 0;
+    for (int q = 0; q < 10; ++q) {
+      Vector query = store.getVector("vector" + (3 * q) + "_" + q).copy();
+      LinkedList<SearchResult> exhaustiveResults = new VectorSearcher.VectorSearcherCosine(
+          store, store, null, getFlagConfig(), query.copy()).getNearestNeighbors(10);
+      LinkedList<SearchResult> sketchResults = new VectorSearcher.VectorSearcherCosine(
+          store, store, null, flagConfig, query.copy()).getNearestNeighbors(10);
+      assertEquals("vector" + (3 * q) + "_" + q, sketchResults.getFirst().getObjectVector().getObject());
+      HashSet<Object> exhaustiveObjects = new HashSet<Object>();
+      for (SearchResult result : exhaustiveResults) {
+        exhaustiveObjects.add(result.getObjectVector().getObject());
+      }
+      for (SearchResult result : sketchResults) {
+        if (exhaustiveObjects.contains(result.getObjectVector().getObject())) hits++;
+      }
+    }
+    assertTrue("Recall too low: " + hits + " of 100", hits >= 90);
+  }
+
+  @Test
+  public void testBinaryStoresAreRejected() {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "binary", "-dimension", "64", "-sketchbits", "64"});
+    try {
+      SketchIndex.build(new VectorStoreRAM(flagConfig), flagConfig);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+}
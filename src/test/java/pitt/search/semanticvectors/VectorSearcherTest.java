@@ -0,0 +1,223 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.util.LinkedList;
+import java.util.Random;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+
+import pitt.search.semanticvectors.vectors.RealVector;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+import junit.framework.TestCase;
+
+public class VectorSearcherTest extends TestCase {
+  static final int NUM_VECTORS = 5000;
+  static final double TOL = 0.0001;
+
+  private VectorStoreRAM createRandomVectorStore(FlagConfig flagConfig, Random random) {
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (int i = 0; i < NUM_VECTORS; ++i) {
+      Vector vector = VectorFactory.generateRandomVector(
+          flagConfig.vectortype(), flagConfig.dimension(), flagConfig.seedlength(), random);
+      store.putVector("vector" + i, vector);
+    }
+    return store;
+  }
+
+  private void assertSameResults(LinkedList<SearchResult> expected, LinkedList<SearchResult> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); ++i) {
+      assertEquals(expected.get(i).getScore(), actual.get(i).getScore(), TOL);
+    }
+  }
+
+  private void checkParallelMatchesSequential(String[] args) throws Exception {
+    Random random = new Random(0);
+    FlagConfig sequentialConfig = FlagConfig.getFlagConfig(args);
+    VectorStoreRAM store = createRandomVectorStore(sequentialConfig, random);
+    Vector queryVector = VectorFactory.generateRandomVector(sequentialConfig.vectortype(),
+        sequentialConfig.dimension(), sequentialConfig.seedlength(), random);
+
+    LinkedList<SearchResult> sequentialResults = new VectorSearcher.VectorSearcherCosine(
+        store, store, null, sequentialConfig, queryVector.copy()).getNearestNeighbors(20);
+
+    String[] parallelArgs = new String[args.length + 3];
+    System.arraycopy(args, 0, parallelArgs, 0, args.length);
+    parallelArgs[args.length] = "-parallelsearch";
+    parallelArgs[args.length + 1] = "-numthreads";
+    parallelArgs[args.length + 2] = "4";
+    FlagConfig parallelConfig = FlagConfig.getFlagConfig(parallelArgs);
+    LinkedList<SearchResult> parallelResults = new VectorSearcher.VectorSearcherCosine(
+        store, store, null, parallelConfig, queryVector.copy()).getNearestNeighbors(20);
+
+    assertEquals(20, sequentialResults.size());
+    assertSameResults(sequentialResults, parallelResults);
+  }
+
+  @Test
+  public void testParallelSearchMatchesSequentialReal() throws Exception {
+    checkParallelMatchesSequential(new String[] {"-vectortype", "real", "-dimension", "100"});
+  }
+
+  @Test
+  public void testParallelSearchMatchesSequentialBinary() throws Exception {
+    checkParallelMatchesSequential(new String[] {"-vectortype", "binary", "-dimension", "256"});
+  }
+
+  @Test
+  public void testParallelSearchRespectsMinScore() throws Exception {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {
+        "-vectortype", "real", "-dimension", "100", "-searchresultsminscore", "0.99",
+        "-parallelsearch", "-numthreads", "3"});
+    VectorStoreRAM store = createRandomVectorStore(flagConfig, new Random(1));
+    Vector queryVector = store.getVector("vector7").copy();
+    LinkedList<SearchResult> results = new VectorSearcher.VectorSearcherCosine(
+        store, store, null, flagConfig, queryVector).getNearestNeighbors(20);
+    assertEquals(1, results.size());
+    assertEquals("vector7", results.getFirst().getObjectVector().getObject());
+  }
+
+  @Test
+  public void testParallelThresholdStreamMatchesSequential() throws Exception {
+    FlagConfig sequentialConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "100"});
+    FlagConfig parallelConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "100", "-parallelsearch", "-numthreads", "4"});
+    Random random = new Random(2);
+    VectorStoreRAM store = createRandomVectorStore(sequentialConfig, random);
+    Vector queryVector = store.getVector("vector11").copy();
+
+    LinkedList<SearchResult> sequentialResults = new VectorSearcher.VectorSearcherCosine(
+        store, store, null, sequentialConfig, queryVector.copy()).getAllAboveThreshold(0.05f);
+    assertTrue(sequentialResults.size() > 100);
+
+    final int[] numStreamed = new int[1];
+    VectorSearcher.BoundedSortingConsumer topResults = new VectorSearcher.BoundedSortingConsumer(10) {
+      @Override
+      public void accept(SearchResult result) {
+        numStreamed[0]++;
+        super.accept(result);
+      }
+    };
+    new VectorSearcher.VectorSearcherCosine(store, store, null, parallelConfig, queryVector.copy())
+        .streamAllAboveThreshold(0.05f, topResults);
+    assertEquals(sequentialResults.size(), numStreamed[0]);
+    assertSameResults(new LinkedList<SearchResult>(sequentialResults.subList(0, 10)),
+        topResults.getResults());
+    assertEquals("vector11", topResults.getResults().getFirst().getObjectVector().getObject());
+
+    LinkedList<SearchResult> parallelResults = new VectorSearcher.VectorSearcherCosine(
+        store, store, null, parallelConfig, queryVector.copy()).getAllAboveThreshold(0.05f);
+    assertSameResults(sequentialResults, parallelResults);
+  }
+
+  @Test
+  public void testNormalizedStoreGivesSameResults() throws Exception {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {
+        "-vectortype", "real", "-dimension", "50", "-normalizevectors"});
+    Random random = new Random(2);
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (int i = 0; i < 500; ++i) {
+      float[] coordinates = new float[flagConfig.dimension()];
+      for (int j = 0; j < coordinates.length; ++j) {
+        coordinates[j] = (float) (random.nextGaussian() * (1 + i % 7));
+      }
+      store.putVector("vector" + i, new RealVector(coordinates));
+    }
+    assertFalse(store.isNormalized());
+
+    RAMDirectory directory = new RAMDirectory();
+    IndexOutput indexOutput = directory.createOutput("normalized.mbin", IOContext.DEFAULT);
+    VectorStoreWriter.writeToMappedIndexOutput(store, flagConfig, indexOutput);
+    indexOutput.close();
+    VectorStoreReaderMapped normalizedStore =
+        new VectorStoreReaderMapped(directory, "normalized.mbin", flagConfig);
+    assertTrue(normalizedStore.isNormalized());
+
+    Vector queryVector = store.getVector("vector3").copy();
+    VectorSearcher.VectorSearcherCosine plainSearcher = new VectorSearcher.VectorSearcherCosine(
+        store, store, null, flagConfig, queryVector.copy());
+    VectorSearcher.VectorSearcherCosine fastSearcher = new VectorSearcher.VectorSearcherCosine(
+        store, normalizedStore, null, flagConfig, queryVector.copy());
+    assertFalse(plainSearcher.unitLengthScoring);
+    assertTrue(fastSearcher.unitLengthScoring);
+    assertSameResults(plainSearcher.getNearestNeighbors(20), fastSearcher.getNearestNeighbors(20));
+    normalizedStore.close();
+  }
+
+  @Test
+  public void testFloat16StoreIsScoredWithoutDecoding() throws Exception {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {
+        "-vectortype", "real", "-dimension", "100", "-vectorencoding", "float16"});
+    VectorStoreRAM store = createRandomVectorStore(flagConfig, new Random(3));
+    RAMDirectory directory = new RAMDirectory();
+    IndexOutput indexOutput = directory.createOutput("float16.mbin", IOContext.DEFAULT);
+    VectorStoreWriter.writeToMappedIndexOutput(store, flagConfig, indexOutput);
+    indexOutput.close();
+    VectorStoreReaderMapped encodedStore =
+        new VectorStoreReaderMapped(directory, "float16.mbin", flagConfig);
+
+    Vector queryVector = store.getVector("vector11").copy();
+    VectorSearcher.VectorSearcherCosine plainSearcher = new VectorSearcher.VectorSearcherCosine(
+        store, store, null, flagConfig, queryVector.copy());
+    VectorSearcher.VectorSearcherCosine encodedSearcher = new VectorSearcher.VectorSearcherCosine(
+        store, encodedStore, null, flagConfig, queryVector.copy());
+    assertNull(plainSearcher.encodedStore);
+    assertSame(encodedStore, encodedSearcher.encodedStore);
+    LinkedList<SearchResult> plainResults = plainSearcher.getNearestNeighbors(5);
+    LinkedList<SearchResult> encodedResults = encodedSearcher.getNearestNeighbors(5);
+    assertEquals("vector11", encodedResults.getFirst().getObjectVector().getObject());
+    assertEquals(plainResults.size(), encodedResults.size());
+    for (int i = 0; i < plainResults.size(); ++i) {
+      assertEquals(plainResults.get(i).getScore(), encodedResults.get(i).getScore(), 0.001);
+    }
+
+    FlagConfig parallelConfig = FlagConfig.getFlagConfig(new String[] {"-vectortype", "real",
+        "-dimension", "100", "-vectorencoding", "float16", "-parallelsearch", "-numthreads", "3"});
+    VectorSearcher.VectorSearcherCosine parallelSearcher = new VectorSearcher.VectorSearcherCosine(
+        store, encodedStore, null, parallelConfig, queryVector.copy());
+    assertEquals(3, parallelSearcher.encodedPartitions);
+    assertSameResults(encodedResults, parallelSearcher.getNearestNeighbors(5));
+    encodedStore.close();
+  }
+}
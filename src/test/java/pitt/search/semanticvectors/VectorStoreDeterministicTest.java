@@ -5,6 +5,13 @@ import junit.framework.TestCase;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import pitt.search.semanticvectors.vectors.Vector;
 import pitt.search.semanticvectors.vectors.VectorType;
 
@@ -75,4 +82,33 @@ public class VectorStoreDeterministicTest extends TestCase  {
     //assertEquals(-0.03718622401356697d, v1.measureOverlap(v3));
     assertEquals(0.008059127256274223d, v1.measureOverlap(v3));
   }
+
+  @Test
+  public void testConcurrentVectorsMatchSequential() throws Exception {
+    final FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "256", "-seedlength", "20"});
+    final VectorStoreDeterministic sequentialStore = new VectorStoreDeterministic(flagConfig);
+    final VectorStoreDeterministic concurrentStore = new VectorStoreDeterministic(flagConfig);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    for (int t = 0; t < 4; ++t) {
+      futures.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() {
+          for (int i = 0; i < 500; ++i) {
+            concurrentStore.getVector("term" + i);
+          }
+          return null;
+        }
+      }));
+    }
+    for (Future<Void> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+    for (int i = 0; i < 500; ++i) {
+      assertEquals(1d, sequentialStore.getVector("term" + i).measureOverlap(
+          concurrentStore.getVector("term" + i)), 0.0001);
+    }
+  }
 }
@@ -36,6 +36,7 @@ package pitt.search.semanticvectors;
 import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.IndexInput;
 import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.RAMDirectory;
 import org.junit.Before;
 import org.junit.Test;
@@ -44,11 +45,17 @@ import pitt.search.semanticvectors.ObjectVector;
 import pitt.search.semanticvectors.VectorStoreReaderLucene;
 import pitt.search.semanticvectors.vectors.RealVector;
 import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorEncoding;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorType;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.NoSuchElementException;
+import java.util.Random;
 
 import junit.framework.TestCase;
 
@@ -97,6 +104,247 @@ public class VectorStoreReaderLuceneTest extends TestCase {
     assertEquals(0.707106f, abraham.measureOverlap(new RealVector(new float[] {1, 0})), TOL);
   }
 
+  @Test
+  public void testReadWithOffsetIndex() throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "2", "-vectorstoreindex"});
+    VectorStoreReaderLucene reader = new VectorStoreReaderLucene(threadLocalIndexInput, flagConfig);
+    assertNotNull(reader.getOffsetIndex());
+    assertEquals(2, reader.getNumVectors());
+    assertTrue(reader.containsVector("isaac"));
+    assertFalse(reader.containsVector("jacob"));
+    assertNull(reader.getVector("jacob"));
+    Vector abraham = reader.getVector("abraham");
+    assertEquals(0.707106f, abraham.measureOverlap(new RealVector(new float[] {1, 0})), TOL);
+  }
+
+  @Test
+  public void testOffsetIndexSidecarFile() throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(COMMAND_LINE_ARGS);
+    File tmpFile = File.createTempFile("realvectors", ".bin");
+    File indexFile = new File(VectorStoreOffsetIndex.getIndexFileName(tmpFile.getPath()));
+    tmpFile.deleteOnExit();
+    indexFile.deleteOnExit();
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    store.putVector("isaac", new RealVector(new float[] {1, 0}));
+    store.putVector("abraham", new RealVector(new float[] {0.7f, 0.7f}));
+    VectorStoreWriter.writeVectors(tmpFile.getPath(), flagConfig, store);
+
+    // Without the flag or a sidecar file, no index is used.
+    VectorStoreReaderLucene reader = new VectorStoreReaderLucene(tmpFile.getPath(), flagConfig);
+    assertNull(reader.getOffsetIndex());
+    reader.close();
+
+    VectorStoreOffsetIndex.buildAndWriteIndex(tmpFile.getPath(), flagConfig);
+    assertTrue(indexFile.exists());
+    reader = new VectorStoreReaderLucene(tmpFile.getPath(), flagConfig);
+    assertNotNull(reader.getOffsetIndex());
+    assertEquals(2, reader.getNumVectors());
+    assertEquals(1, reader.getVector("isaac").measureOverlap(new RealVector(new float[] {1, 0})), TOL);
+    reader.close();
+  }
+
+  @Test
+  public void testOffsetIndexMatchesScanForRepeatedObjects() throws IOException {
+    String fileName = "repeated.bin";
+    IndexOutput output = directory.createOutput(fileName, IOContext.DEFAULT);
+    output.writeString(VectorStoreWriter.generateHeaderString(FLAG_CONFIG));
+    output.writeString("isaac");
+    new RealVector(new float[] {1, 0}).writeToLuceneStream(output);
+    output.writeString("isaac");
+    new RealVector(new float[] {0, 1}).writeToLuceneStream(output);
+    output.close();
+    ThreadLocal<IndexInput> input = new ThreadLocal<IndexInput>() {
+      @Override
+      protected IndexInput initialValue() {
+        try {
+          return directory.openInput("repeated.bin", IOContext.READ);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+
+    VectorStoreReaderLucene scanned = new VectorStoreReaderLucene(input, FLAG_CONFIG);
+    FlagConfig indexedConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "2", "-vectorstoreindex"});
+    VectorStoreReaderLucene indexed = new VectorStoreReaderLucene(input, indexedConfig);
+    assertNotNull(indexed.getOffsetIndex());
+    for (VectorStoreReaderLucene reader : new VectorStoreReaderLucene[] {scanned, indexed}) {
+      assertEquals(2, reader.getNumVectors());
+      assertEquals(1, reader.getVector("isaac").measureOverlap(new RealVector(new float[] {1, 0})), TOL);
+    }
+  }
+
+  @Test
+  public void testInt8EncodedStore() throws IOException {
+    FlagConfig writeConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "2", "-vectorencoding", "int8"});
+    File tmpFile = File.createTempFile("int8vectors", ".bin");
+    File indexFile = new File(VectorStoreOffsetIndex.getIndexFileName(tmpFile.getPath()));
+    tmpFile.deleteOnExit();
+    indexFile.deleteOnExit();
+    VectorStoreRAM store = new VectorStoreRAM(writeConfig);
+    store.putVector("isaac", new RealVector(new float[] {1, 0}));
+    store.putVector("abraham", new RealVector(new float[] {0.7f, 0.7f}));
+    VectorStoreWriter.writeVectors(tmpFile.getPath(), writeConfig, store);
+
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(COMMAND_LINE_ARGS);
+    VectorStoreOffsetIndex.buildAndWriteIndex(tmpFile.getPath(), flagConfig);
+    VectorStoreReaderLucene reader = new VectorStoreReaderLucene(tmpFile.getPath(), flagConfig);
+    assertEquals(VectorEncoding.INT8, reader.getVectorEncoding());
+    assertNotNull(reader.getOffsetIndex());
+    assertEquals(2, reader.getNumVectors());
+    assertEquals(0.707106f, reader.getVector("abraham").measureOverlap(new RealVector(new float[] {1, 0})), 0.01);
+    assertEquals(1, reader.getVector("isaac").measureOverlap(new RealVector(new float[] {1, 0})), TOL);
+    reader.close();
+  }
+
+  /** Writes a store of random vectors with keys of varying length to a temporary file. */
+  private static File writeRandomStore(FlagConfig flagConfig, int numVectors) throws IOException {
+    File tmpFile = File.createTempFile("slicedvectors", ".bin");
+    tmpFile.deleteOnExit();
+    new File(VectorStoreOffsetIndex.getIndexFileName(tmpFile.getPath())).deleteOnExit();
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    Random random = new Random(0);
+    StringBuilder key = new StringBuilder();
+    for (int i = 0; i < numVectors; ++i) {
+      // Some keys are long enough to need two bytes for their length.
+      key.append((char) ('a' + i % 26));
+      if (key.length() > 200) key.setLength(1);
+      store.putVector(key.toString() + i, VectorFactory.generateRandomVector(
+          VectorType.REAL, flagConfig.dimension(), 4, random));
+    }
+    VectorStoreWriter.writeVectors(tmpFile.getPath(), flagConfig, store);
+    return tmpFile;
+  }
+
+  private static void checkSlicesMatchEnumeration(VectorStoreReaderLucene reader, int numSlices) {
+    HashMap<Object, Vector> expected = new HashMap<Object, Vector>();
+    Enumeration<ObjectVector> vecEnum = reader.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      ObjectVector objectVector = vecEnum.nextElement();
+      expected.put(objectVector.getObject(), objectVector.getVector());
+    }
+    int count = 0;
+    for (int slice = 0; slice < numSlices; ++slice) {
+      vecEnum = reader.getAllVectors(slice, numSlices);
+      while (vecEnum.hasMoreElements()) {
+        ObjectVector objectVector = vecEnum.nextElement();
+        assertEquals(1, expected.get(objectVector.getObject()).measureOverlap(objectVector.getVector()), TOL);
+        ++count;
+      }
+    }
+    assertEquals(expected.size(), count);
+  }
+
+  @Test
+  public void testSlicedEnumeration() throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {"-vectortype", "real", "-dimension", "16"});
+    File tmpFile = writeRandomStore(flagConfig, 500);
+    VectorStoreReaderLucene reader = new VectorStoreReaderLucene(tmpFile.getPath(), flagConfig);
+    assertNull(reader.getOffsetIndex());
+    checkSlicesMatchEnumeration(reader, 7);
+    checkSlicesMatchEnumeration(reader, 1);
+    // More slices than vectors leaves some slices empty.
+    checkSlicesMatchEnumeration(reader, 1000);
+    reader.close();
+
+    VectorStoreOffsetIndex.buildAndWriteIndex(tmpFile.getPath(), flagConfig);
+    reader = new VectorStoreReaderLucene(tmpFile.getPath(), flagConfig);
+    assertNotNull(reader.getOffsetIndex());
+    checkSlicesMatchEnumeration(reader, 7);
+    checkSlicesMatchEnumeration(reader, 1000);
+    reader.close();
+  }
+
+  @Test
+  public void testOffsetIndexFindsEveryObject() throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {"-vectortype", "real", "-dimension", "16"});
+    File tmpFile = writeRandomStore(flagConfig, 500);
+    VectorStoreRAM store = VectorStoreRAM.readFromFile(flagConfig, tmpFile.getPath());
+    VectorStoreOffsetIndex.buildAndWriteIndex(tmpFile.getPath(), flagConfig);
+    VectorStoreReaderLucene reader = new VectorStoreReaderLucene(tmpFile.getPath(), flagConfig);
+    assertNotNull(reader.getOffsetIndex());
+    Enumeration<ObjectVector> vecEnum = store.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      ObjectVector objectVector = vecEnum.nextElement();
+      assertTrue(reader.containsVector(objectVector.getObject()));
+      assertEquals(1, objectVector.getVector().measureOverlap(reader.getVector(objectVector.getObject())), TOL);
+    }
+    assertFalse(reader.containsVector("a"));
+    assertFalse(reader.containsVector("zzz"));
+    reader.close();
+  }
+
+  @Test
+  public void testParallelReadIntoVectorStoreRAM() throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "16", "-numthreads", "1"});
+    File tmpFile = writeRandomStore(flagConfig, 500);
+    VectorStoreRAM sequentialStore = VectorStoreRAM.readFromFile(flagConfig, tmpFile.getPath());
+    FlagConfig parallelConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "16", "-numthreads", "6"});
+    VectorStoreRAM parallelStore = VectorStoreRAM.readFromFile(parallelConfig, tmpFile.getPath());
+    assertEquals(500, sequentialStore.getNumVectors());
+    assertEquals(500, parallelStore.getNumVectors());
+    Enumeration<ObjectVector> vecEnum = sequentialStore.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      ObjectVector objectVector = vecEnum.nextElement();
+      assertEquals(1, objectVector.getVector().measureOverlap(
+          parallelStore.getVector(objectVector.getObject())), TOL);
+    }
+  }
+
+  @Test
+  public void testRepeatedObjectsKeepFirstVectorInEveryLoad() throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {"-vectortype", "real", "-dimension", "16"});
+    File tmpFile = File.createTempFile("repeatedvectors", ".bin");
+    tmpFile.deleteOnExit();
+    new File(VectorStoreOffsetIndex.getIndexFileName(tmpFile.getPath())).deleteOnExit();
+    // Each of 100 objects appears three times, with a different vector each time.
+    Vector[] firstVectors = new Vector[100];
+    Random random = new Random(1);
+    try (FSDirectory fsDirectory = FSDirectory.open(tmpFile.getParentFile().toPath());
+        IndexOutput output = fsDirectory.createOutput(tmpFile.getName(), IOContext.DEFAULT)) {
+      output.writeString(VectorStoreWriter.generateHeaderString(flagConfig));
+      for (int i = 0; i < 300; ++i) {
+        Vector vector = VectorFactory.generateRandomVector(VectorType.REAL, flagConfig.dimension(), 4, random);
+        if (i < 100) firstVectors[i] = vector;
+        output.writeString("object" + (i % 100));
+        vector.writeToLuceneStream(output);
+      }
+    }
+
+    VectorStoreOffsetIndex.buildAndWriteIndex(tmpFile.getPath(), flagConfig);
+    VectorStoreReaderLucene reader = new VectorStoreReaderLucene(tmpFile.getPath(), flagConfig);
+    assertEquals(300, reader.getOffsetIndex().size());
+    int count = 0;
+    for (int slice = 0; slice < 7; ++slice) {
+      Enumeration<ObjectVector> vecEnum = reader.getAllVectors(slice, 7);
+      while (vecEnum.hasMoreElements()) {
+        vecEnum.nextElement();
+        ++count;
+      }
+    }
+    assertEquals(300, count);
+
+    VectorStoreRAM sequentialStore = VectorStoreRAM.readFromFile(FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "16", "-numthreads", "1"}), tmpFile.getPath());
+    VectorStoreRAM parallelStore = VectorStoreRAM.readFromFile(FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "16", "-numthreads", "6"}), tmpFile.getPath());
+    VectorStoreSlab slabStore = VectorStoreSlab.readFromStore(flagConfig, reader);
+    assertEquals(100, sequentialStore.getNumVectors());
+    assertEquals(100, parallelStore.getNumVectors());
+    assertEquals(100, slabStore.getNumVectors());
+    for (VectorStore store : new VectorStore[] {reader, sequentialStore, parallelStore, slabStore}) {
+      for (int i = 0; i < 100; ++i) {
+        assertEquals(1, firstVectors[i].measureOverlap(store.getVector("object" + i)), TOL);
+      }
+    }
+    reader.close();
+  }
+
   @Test
   public void testOpensAndCloses() throws IOException {
     VectorStoreReaderLucene reader;
@@ -0,0 +1,146 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.LinkedList;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+
+import pitt.search.semanticvectors.VectorStoreUtils.VectorStoreFormat;
+import pitt.search.semanticvectors.vectors.RealVector;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorEncoding;
+
+import junit.framework.TestCase;
+
+public class VectorStoreReaderMappedTest extends TestCase {
+  private static final String[] COMMAND_LINE_ARGS = {"-vectortype", "real", "-dimension", "2"};
+  private static final String TEST_VECTOR_FILE = "realvectors.mbin";
+  private static double TOL = 0.0001;
+
+  private VectorStoreRAM createTestVectorStore(FlagConfig flagConfig) {
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    store.putVector("isaac", new RealVector(new float[] {1, 0}));
+    store.putVector("abraham", new RealVector(new float[] {0.7f, 0.7f}));
+    store.putVector("jacob", new RealVector(new float[] {0, 1}));
+    return store;
+  }
+
+  private VectorStoreReaderMapped createTestReader(FlagConfig flagConfig) throws IOException {
+    return createTestReader(flagConfig, flagConfig);
+  }
+
+  private VectorStoreReaderMapped createTestReader(FlagConfig readConfig, FlagConfig writeConfig)
+      throws IOException {
+    RAMDirectory directory = new RAMDirectory();
+    IndexOutput indexOutput = directory.createOutput(TEST_VECTOR_FILE, IOContext.DEFAULT);
+    VectorStoreWriter.writeToMappedIndexOutput(createTestVectorStore(writeConfig), writeConfig, indexOutput);
+    indexOutput.close();
+    return new VectorStoreReaderMapped(directory, TEST_VECTOR_FILE, readConfig);
+  }
+
+  @Test
+  public void testGetVectorAndContains() throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(COMMAND_LINE_ARGS);
+    VectorStoreReaderMapped reader = createTestReader(flagConfig);
+    assertEquals(3, reader.getNumVectors());
+    Vector abraham = reader.getVector("abraham");
+    assertEquals(0.707106f, abraham.measureOverlap(new RealVector(new float[] {1, 0})), TOL);
+    assertEquals(1, reader.getVector("jacob").measureOverlap(new RealVector(new float[] {0, 1})), TOL);
+    assertTrue(reader.containsVector("isaac"));
+    assertFalse(reader.containsVector("esau"));
+    assertNull(reader.getVector("esau"));
+    reader.close();
+  }
+
+  @Test
+  public void testEnumerationMatchesRandomAccess() throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(COMMAND_LINE_ARGS);
+    VectorStoreReaderMapped reader = createTestReader(flagConfig);
+    Enumeration<ObjectVector> vecEnum = reader.getAllVectors();
+    int ordinal = 0;
+    while (vecEnum.hasMoreElements()) {
+      ObjectVector objectVector = vecEnum.nextElement();
+      assertEquals(ordinal, reader.getOrdinal(objectVector.getObject()));
+      assertEquals(1, objectVector.getVector().measureOverlap(reader.getVector(ordinal)), TOL);
+      ++ordinal;
+    }
+    assertEquals(3, ordinal);
+    reader.close();
+  }
+
+  @Test
+  public void testWriteAndOpenFromFile() throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "2", "-indexfileformat", "mapped"});
+    assertEquals(VectorStoreFormat.MAPPED, flagConfig.indexfileformat());
+    File tmpFile = File.createTempFile("mappedvectors", ".mbin");
+    tmpFile.deleteOnExit();
+    VectorStoreWriter.writeVectors(tmpFile.getPath(), flagConfig, createTestVectorStore(flagConfig));
+    CloseableVectorStore reader = VectorStoreReader.openVectorStore(tmpFile.getPath(), flagConfig);
+    assertTrue(reader instanceof VectorStoreReaderMapped);
+    assertEquals(3, reader.getNumVectors());
+    assertEquals(1, reader.getVector("isaac").measureOverlap(new RealVector(new float[] {1, 0})), TOL);
+    reader.close();
+  }
+
+  @Test
+  public void testQuantizedEncodings() throws IOException {
+    for (String encoding : new String[] {"float16", "int8"}) {
+      FlagConfig flagConfig = FlagConfig.getFlagConfig(
+          new String[] {"-vectortype", "real", "-dimension", "2", "-vectorencoding", encoding});
+      VectorStoreReaderMapped reader = createTestReader(FlagConfig.getFlagConfig(COMMAND_LINE_ARGS), flagConfig);
+      assertEquals(VectorEncoding.valueOf(encoding.toUpperCase()), reader.getVectorEncoding());
+      assertEquals(0.707106f, reader.getVector("abraham").measureOverlap(new RealVector(new float[] {1, 0})), 0.01);
+
+      Vector query = new RealVector(new float[] {1, 0.1f});
+      assertTrue(reader.supportsEncodedSearch(query));
+      LinkedList<SearchResult> results = reader.searchEncoded(query, 2, -1);
+      assertEquals(2, results.size());
+      assertEquals("isaac", results.get(0).getObjectVector().getObject());
+      assertEquals("abraham", results.get(1).getObjectVector().getObject());
+      assertEquals(query.measureOverlap(reader.getVector("abraham")), results.get(1).getScore(), TOL);
+      assertEquals(1, reader.searchEncoded(query, 3, 0.9).size());
+      reader.close();
+    }
+  }
+}
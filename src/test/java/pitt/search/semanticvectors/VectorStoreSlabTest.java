@@ -0,0 +1,156 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.util.Enumeration;
+import java.util.Random;
+
+import org.junit.*;
+
+import pitt.search.semanticvectors.vectors.RealVector;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+import junit.framework.TestCase;
+
+public class VectorStoreSlabTest extends TestCase {
+
+  static final String[] COMMAND_LINE_ARGS = {"-vectortype", "real", "-dimension", "2"};
+  static final FlagConfig FLAG_CONFIG = FlagConfig.getFlagConfig(COMMAND_LINE_ARGS);
+  static double TOL = 0.0001;
+
+  @Test
+  public void testCreateWriteAndRead() {
+    VectorStoreSlab vectorStore = new VectorStoreSlab(FLAG_CONFIG);
+    assertEquals(0, vectorStore.getNumVectors());
+    Vector vector = new RealVector(new float[] {1.0f, 0.0f});
+    vectorStore.putVector("my vector", vector);
+    assertEquals(1, vectorStore.getNumVectors());
+    assertTrue(vectorStore.containsVector("my vector"));
+    assertFalse(vectorStore.containsVector("other vector"));
+    assertNull(vectorStore.getVector("other vector"));
+    Vector vectorOut = vectorStore.getVector("my vector");
+    assertEquals(2, vectorOut.getDimension());
+    assertEquals(1, vectorOut.measureOverlap(vector), TOL);
+
+    vectorStore.putVector("my vector", new RealVector(new float[] {0.0f, 3.0f}));
+    assertEquals(1, vectorStore.getNumVectors());
+    assertEquals(3.0f, ((RealVector) vectorStore.getVector("my vector")).getCoordinates()[1], TOL);
+  }
+
+  @Test
+  public void testMatchesVectorStoreRAM() {
+    checkMatchesVectorStoreRAM(FlagConfig.getFlagConfig(new String[] {"-vectortype", "real", "-dimension", "300"}));
+  }
+
+  @Test
+  public void testOffHeapMatchesVectorStoreRAM() {
+    checkMatchesVectorStoreRAM(FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "300", "-offheapvectors"}));
+  }
+
+  private void checkMatchesVectorStoreRAM(FlagConfig flagConfig) {
+    VectorStoreRAM ramStore = new VectorStoreRAM(flagConfig);
+    VectorStoreSlab slabStore = new VectorStoreSlab(flagConfig);
+    Random random = new Random(0);
+    // Enough vectors to span several pages and several rehashes.
+    for (int i = 0; i < 10000; ++i) {
+      Vector vector = VectorFactory.generateRandomVector(VectorType.REAL, 300, 20, random);
+      ramStore.putVector("term" + i, vector);
+      slabStore.putVector("term" + i, vector);
+    }
+    assertEquals(ramStore.getNumVectors(), slabStore.getNumVectors());
+
+    int count = 0;
+    Enumeration<ObjectVector> vecEnum = slabStore.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      ObjectVector objectVector = vecEnum.nextElement();
+      assertEquals("term" + count, objectVector.getObject());
+      assertEquals(count, slabStore.getOrdinal(objectVector.getObject()));
+      Vector expected = ramStore.getVector(objectVector.getObject());
+      assertEquals(1, expected.measureOverlap(objectVector.getVector()), TOL);
+      assertEquals(1, slabStore.getVectorView(count).measureOverlap(expected), TOL);
+      ++count;
+    }
+    assertEquals(10000, count);
+  }
+
+  @Test
+  public void testVectorViewWritesThrough() {
+    checkVectorViewWritesThrough(FLAG_CONFIG);
+  }
+
+  @Test
+  public void testOffHeapVectorViewWritesThrough() {
+    checkVectorViewWritesThrough(FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "2", "-offheapvectors"}));
+  }
+
+  private void checkVectorViewWritesThrough(FlagConfig flagConfig) {
+    VectorStoreSlab vectorStore = new VectorStoreSlab(flagConfig);
+    vectorStore.putVector("a", new RealVector(new float[] {1.0f, 0.0f}));
+    vectorStore.putVector("b", new RealVector(new float[] {0.0f, 1.0f}));
+
+    VectorStoreSlab.VectorView viewA = vectorStore.getVectorView("a");
+    assertEquals(0, viewA.measureOverlap(vectorStore.getVectorView("b")), TOL);
+    viewA.superpose(vectorStore.getVectorView("b"), 1, null);
+    viewA.superpose(new RealVector(new float[] {1.0f, 0.0f}), 2, null);
+    float[] coordinates = ((RealVector) vectorStore.getVector("a")).getCoordinates();
+    assertEquals(3, coordinates[0], TOL);
+    assertEquals(1, coordinates[1], TOL);
+
+    viewA.normalize();
+    assertEquals(1, viewA.copy().measureOverlap(viewA.copy()), TOL);
+    assertEquals(3 / Math.sqrt(10), ((RealVector) vectorStore.getVector("a")).getCoordinates()[0], TOL);
+    assertTrue(vectorStore.getVectorView("c") == null);
+
+    vectorStore.close();
+    assertEquals(0, vectorStore.getNumVectors());
+    assertFalse(vectorStore.containsVector("a"));
+    assertEquals(3 / Math.sqrt(10), viewA.copy().getCoordinates()[0], TOL);
+  }
+
+  @Test
+  public void testRejectsOtherVectorTypes() {
+    try {
+      new VectorStoreSlab(FlagConfig.getFlagConfig(new String[] {"-vectortype", "binary"}));
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+}
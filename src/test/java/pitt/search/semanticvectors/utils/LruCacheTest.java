@@ -0,0 +1,87 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LruCacheTest {
+
+  @Test
+  public void testEvictsLeastRecentlyUsedBySize() {
+    LruCache<String, String> cache = new LruCache<>(30);
+    cache.put("a", "A", 10);
+    cache.put("b", "B", 10);
+    cache.put("c", "C", 10);
+    Assert.assertEquals("A", cache.get("a"));
+    // "b" is now least recently used.
+    cache.put("d", "D", 10);
+    Assert.assertNull(cache.get("b"));
+    Assert.assertEquals("A", cache.get("a"));
+    Assert.assertEquals("C", cache.get("c"));
+    Assert.assertEquals(30, cache.getSizeInBytes());
+    Assert.assertEquals(1, cache.getEvictions());
+
+    // A large entry evicts several smaller ones.
+    cache.put("e", "E", 25);
+    Assert.assertEquals(1, cache.size());
+    Assert.assertEquals(25, cache.getSizeInBytes());
+  }
+
+  @Test
+  public void testReplacementAndOversizedEntries() {
+    LruCache<String, String> cache = new LruCache<>(30);
+    cache.put("a", "A", 10);
+    cache.put("a", "A2", 20);
+    Assert.assertEquals("A2", cache.get("a"));
+    Assert.assertEquals(20, cache.getSizeInBytes());
+    cache.put("big", "BIG", 31);
+    Assert.assertNull(cache.get("big"));
+    Assert.assertEquals("A2", cache.get("a"));
+  }
+
+  @Test
+  public void testStatistics() {
+    LruCache<String, String> cache = new LruCache<>(100);
+    cache.get("a");
+    cache.put("a", "A", 10);
+    cache.get("a");
+    cache.get("a");
+    Assert.assertEquals(2, cache.getHits());
+    Assert.assertEquals(1, cache.getMisses());
+    Assert.assertTrue(cache.toString().contains("66.7% hit rate"));
+  }
+}
@@ -0,0 +1,75 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.utils;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RandomStreamsTest {
+
+  private static long[] draw(Random random, int count) {
+    long[] values = new long[count];
+    for (int i = 0; i < count; ++i) {
+      values[i] = random.nextLong();
+    }
+    return values;
+  }
+
+  @Test
+  public void testStreamsAreReproducible() {
+    Assert.assertArrayEquals(draw(RandomStreams.forStream(42, 3, 1000), 10),
+        draw(RandomStreams.forStream(42, 3, 1000), 10));
+    Assert.assertArrayEquals(draw(RandomStreams.newRandom(42), 10), draw(RandomStreams.newRandom(42), 10));
+  }
+
+  @Test
+  public void testStreamsDifferByIdAndSeed() {
+    long first = RandomStreams.forStream(42, 3, 1000).nextLong();
+    Assert.assertNotEquals(first, RandomStreams.forStream(42, 3, 1001).nextLong());
+    Assert.assertNotEquals(first, RandomStreams.forStream(42, 4, 1000).nextLong());
+    Assert.assertNotEquals(first, RandomStreams.forStream(43, 3, 1000).nextLong());
+    // Ids are not interchangeable.
+    Assert.assertNotEquals(first, RandomStreams.forStream(42, 1000, 3).nextLong());
+  }
+
+  @Test
+  public void testZeroSeedIsUnseeded() {
+    Assert.assertSame(ThreadLocalRandom.current(), RandomStreams.forStream(0, 3, 1000));
+  }
+}
@@ -0,0 +1,65 @@
+package pitt.search.semanticvectors.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests for {@link TopKCollector} class.
+ */
+public class TopKCollectorTest {
+  public static double TOL = 0.00001;
+
+  @Test
+  public void testKeepsHighestScoresInOrder() {
+    Random random = new Random(0);
+    double[] scores = new double[500];
+    TopKCollector collector = new TopKCollector(10);
+    for (int i = 0; i < scores.length; ++i) {
+      scores[i] = random.nextDouble();
+      collector.offer(scores[i], i);
+    }
+    Assert.assertEquals(10, collector.sortDescending());
+    double[] sorted = scores.clone();
+    Arrays.sort(sorted);
+    for (int i = 0; i < 10; ++i) {
+      Assert.assertEquals(sorted[sorted.length - 1 - i], collector.getScore(i), TOL);
+      Assert.assertEquals(scores[collector.getOrdinal(i)], collector.getScore(i), TOL);
+    }
+  }
+
+  @Test
+  public void testOfferReturnsDroppedOrdinal() {
+    TopKCollector collector = new TopKCollector(2);
+    Assert.assertEquals(-1, collector.offer(0.5, 0));
+    Assert.assertEquals(-1, collector.offer(0.7, 1));
+    Assert.assertEquals(0.5, collector.getMinScore(), TOL);
+    Assert.assertFalse(collector.wouldAccept(0.1));
+    Assert.assertEquals(2, collector.offer(0.1, 2));
+    Assert.assertEquals(0, collector.getOrdinal(0));
+    Assert.assertEquals(0, collector.offer(0.9, 3));
+    Assert.assertEquals(0.7, collector.getMinScore(), TOL);
+  }
+
+  @Test
+  public void testMergeAndSmallInputs() {
+    TopKCollector first = new TopKCollector(3);
+    TopKCollector second = new TopKCollector(3);
+    first.offer(1, 1);
+    first.offer(4, 4);
+    second.offer(3, 3);
+    second.offer(2, 2);
+    first.merge(second);
+    Assert.assertEquals(3, first.sortDescending());
+    Assert.assertEquals(4, first.getOrdinal(0));
+    Assert.assertEquals(3, first.getOrdinal(1));
+    Assert.assertEquals(2, first.getOrdinal(2));
+
+    TopKCollector empty = new TopKCollector(0);
+    Assert.assertFalse(empty.wouldAccept(1));
+    Assert.assertEquals(5, empty.offer(1, 5));
+    Assert.assertEquals(0, empty.sortDescending());
+  }
+}
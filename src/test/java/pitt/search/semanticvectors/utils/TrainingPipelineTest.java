@@ -0,0 +1,110 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TrainingPipelineTest {
+
+  private static List<Integer> range(int count) {
+    List<Integer> items = new ArrayList<Integer>();
+    for (int i = 0; i < count; ++i) {
+      items.add(i);
+    }
+    return items;
+  }
+
+  @Test
+  public void testProcessesEachItemOnce() throws InterruptedException {
+    final AtomicIntegerArray counts = new AtomicIntegerArray(1005);
+    List<TrainingPipeline.Worker<Integer>> workers = new ArrayList<TrainingPipeline.Worker<Integer>>();
+    for (int i = 0; i < 4; ++i) {
+      workers.add(new TrainingPipeline.Worker<Integer>() {
+        @Override
+        public void process(Integer item) {
+          counts.incrementAndGet(item);
+        }
+      });
+    }
+    TrainingPipeline<Integer> pipeline = new TrainingPipeline<Integer>(10, 2);
+    pipeline.run(range(1005).iterator(), workers);
+    for (int i = 0; i < counts.length(); ++i) {
+      Assert.assertEquals(1, counts.get(i));
+    }
+    Assert.assertEquals(101, pipeline.getNumBatches());
+    Assert.assertTrue(pipeline.getMaxQueueDepth() <= 2);
+    Assert.assertTrue(pipeline.getMeanQueueDepth() >= 0);
+    Assert.assertTrue(pipeline.getReaderStallMillis() >= 0);
+    Assert.assertTrue(pipeline.getWorkerStallMillis() >= 0);
+  }
+
+  @Test
+  public void testEmptySource() throws InterruptedException {
+    TrainingPipeline.Worker<Integer> worker = new TrainingPipeline.Worker<Integer>() {
+      @Override
+      public void process(Integer item) {
+        Assert.fail();
+      }
+    };
+    TrainingPipeline<Integer> pipeline = new TrainingPipeline<Integer>(10, 1);
+    pipeline.run(range(0).iterator(), Arrays.asList(worker, worker, worker));
+    Assert.assertEquals(0, pipeline.getNumBatches());
+  }
+
+  @Test(timeout = 10000)
+  public void testWorkerFailureStopsPipeline() throws InterruptedException {
+    TrainingPipeline.Worker<Integer> worker = new TrainingPipeline.Worker<Integer>() {
+      @Override
+      public void process(Integer item) {
+        if (item == 50) throw new IllegalArgumentException("bad item");
+      }
+    };
+    List<TrainingPipeline.Worker<Integer>> workers = Arrays.asList(worker, worker);
+    TrainingPipeline<Integer> pipeline = new TrainingPipeline<Integer>(1, 1);
+    try {
+      pipeline.run(range(100000).iterator(), workers);
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+    }
+  }
+}
@@ -45,6 +45,9 @@ import org.apache.lucene.store.IndexOutput;
 import org.apache.lucene.store.RAMDirectory;
 import org.junit.Test;
 
+import pitt.search.semanticvectors.FlagConfig;
+import pitt.search.semanticvectors.VectorStoreWriter;
+
 import static pitt.search.semanticvectors.MyTestUtils.assertFloatArrayEquals;
 import static pitt.search.semanticvectors.vectors.ComplexVector.Mode;
 
@@ -156,6 +159,21 @@ public class ComplexVectorTest extends TestCase {
     assertArrayEquals(new short[] {2417, 1676, 1676, 4096}, cv.getPhaseAngles());
   }
 
+  @Test
+  public void testNormalizedHeaderOnlyInHermitianMode() {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "complex", "-dimension", "2"});
+    Mode mode = ComplexVector.getDominantMode();
+    try {
+      ComplexVector.setDominantMode(Mode.CARTESIAN);
+      assertFalse(VectorStoreWriter.generateHeaderString(flagConfig, true).contains("-normalizevectors"));
+      ComplexVector.setDominantMode(Mode.HERMITIAN);
+      assertTrue(VectorStoreWriter.generateHeaderString(flagConfig, true).contains("-normalizevectors"));
+    } finally {
+      ComplexVector.setDominantMode(mode);
+    }
+  }
+
   @Test
   public void testMeasurePolarOverlap() {
     int RES = CircleLookupTable.PHASE_RESOLUTION;
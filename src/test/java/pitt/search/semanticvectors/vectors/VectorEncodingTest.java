@@ -0,0 +1,116 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.vectors;
+
+import java.util.Random;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class VectorEncodingTest {
+  public static final double TOL = 0.00001;
+
+  @Test
+  public void testHalfConversion() {
+    float[] exactValues = {0, 1, -2.5f, 0.333251953125f, 65504, 0x1p-24f, -0x1p-14f};
+    for (float value : exactValues) {
+      assertEquals(value, VectorEncoding.halfToFloat(VectorEncoding.floatToHalf(value)), 0);
+    }
+    // Rounds to nearest, with ties to even.
+    assertEquals(1, VectorEncoding.halfToFloat(VectorEncoding.floatToHalf(1 + 0x1p-11f)), 0);
+    assertEquals(1 + 0x1p-9f, VectorEncoding.halfToFloat(VectorEncoding.floatToHalf(1 + 0x1.8p-10f)), 0);
+    assertEquals(0.1f, VectorEncoding.halfToFloat(VectorEncoding.floatToHalf(0.1f)), 0.0001);
+    assertEquals(Float.POSITIVE_INFINITY, VectorEncoding.halfToFloat(VectorEncoding.floatToHalf(1e6f)), 0);
+    assertEquals(0, VectorEncoding.halfToFloat(VectorEncoding.floatToHalf(1e-10f)), 0);
+    assertTrue(Float.isNaN(VectorEncoding.halfToFloat(VectorEncoding.floatToHalf(Float.NaN))));
+  }
+
+  @Test
+  public void testWriteReadAndEncodedOverlap() throws Exception {
+    Random random = new Random(0);
+    float[] coordinates = new float[100];
+    for (int i = 0; i < coordinates.length; ++i) {
+      coordinates[i] = (float) random.nextGaussian();
+    }
+    RealVector vector = new RealVector(coordinates);
+    RealVector query = (RealVector) VectorFactory.generateRandomVector(VectorType.REAL, 100, 100, random);
+    query.normalize();
+    double exactOverlap = query.measureOverlap(vector);
+
+    for (VectorEncoding encoding : VectorEncoding.values()) {
+      RAMDirectory directory = new RAMDirectory();
+      IndexOutput outputStream = directory.createOutput("vector", IOContext.DEFAULT);
+      vector.writeToLuceneStream(outputStream, encoding);
+      outputStream.close();
+      assertEquals(VectorFactory.getLuceneByteSize(VectorType.REAL, 100, encoding),
+          directory.fileLength("vector"));
+
+      IndexInput inputStream = directory.openInput("vector", IOContext.READONCE);
+      RealVector readVector = new RealVector(100);
+      readVector.readFromLuceneStream(inputStream, encoding);
+      inputStream.close();
+      assertEquals(1, readVector.measureOverlap(vector), encoding == VectorEncoding.INT8 ? 0.001 : TOL);
+
+      byte[] encoded = new byte[(int) directory.fileLength("vector")];
+      inputStream = directory.openInput("vector", IOContext.READONCE);
+      inputStream.readBytes(encoded, 0, encoded.length);
+      inputStream.close();
+      assertEquals(query.measureOverlap(readVector),
+          encoding.measureEncodedOverlap(query.getCoordinates(), encoded, 100), TOL);
+      assertEquals(exactOverlap, encoding.measureEncodedOverlap(query.getCoordinates(), encoded, 100), 0.01);
+    }
+  }
+
+  @Test
+  public void testComplexVectorsUseCartesianCoordinates() throws Exception {
+    ComplexVector vector = new ComplexVector(new float[] {0.5f, -1, 0.25f, 2});
+    RAMDirectory directory = new RAMDirectory();
+    IndexOutput outputStream = directory.createOutput("vector", IOContext.DEFAULT);
+    vector.writeToLuceneStream(outputStream, VectorEncoding.FLOAT16);
+    outputStream.close();
+    assertEquals(8, directory.fileLength("vector"));
+    IndexInput inputStream = directory.openInput("vector", IOContext.READONCE);
+    ComplexVector readVector = new ComplexVector(2, ComplexVector.Mode.CARTESIAN);
+    readVector.readFromLuceneStream(inputStream, VectorEncoding.FLOAT16);
+    inputStream.close();
+    assertArrayEquals(new float[] {0.5f, -1, 0.25f, 2}, readVector.getCoordinates(), 0);
+  }
+}
@@ -0,0 +1,122 @@
+/**
+   Copyright (c) 2008 and ongoing, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.vectors;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class VectorKernelsTest {
+  public static final double TOL = 0.00001;
+
+  private static float[] randomFloats(int length, Random random) {
+    float[] values = new float[length];
+    for (int i = 0; i < length; ++i) {
+      values[i] = (float) random.nextGaussian();
+    }
+    return values;
+  }
+
+  @Test
+  public void testSumsMatchPlainLoops() {
+    Random random = new Random(0);
+    // Lengths with every remainder after unrolling.
+    for (int length = 0; length < 40; ++length) {
+      float[] a = randomFloats(length, random);
+      float[] b = randomFloats(length, random);
+      double product = 0, normA = 0, normB = 0;
+      for (int i = 0; i < length; ++i) {
+        product += a[i] * b[i];
+        normA += a[i] * a[i];
+        normB += b[i] * b[i];
+      }
+      assertEquals(product, VectorKernels.dot(a, b, length), TOL);
+      if (length > 0) {
+        assertEquals(product / Math.sqrt(normA * normB), VectorKernels.cosine(a, b, length), TOL);
+      }
+    }
+  }
+
+  @Test
+  public void testElementwiseKernels() {
+    float[] x = {1, 2, 3, 4, 5};
+    float[] y = {1, 1, 1, 1, 1};
+    VectorKernels.axpy(2f, x, y, 4);
+    assertArrayEquals(new float[] {3, 5, 7, 9, 1}, y, 0);
+    VectorKernels.axpy(-0.5, x, y, 5);
+    assertArrayEquals(new float[] {2.5f, 4, 5.5f, 7, -1.5f}, y, 0);
+    VectorKernels.axpy(2f, x, 3, y, 1, 2);
+    assertArrayEquals(new float[] {2.5f, 12, 15.5f, 7, -1.5f}, y, 0);
+
+    assertFalse(VectorKernels.containsNaN(y, 5));
+    y[4] = Float.NaN;
+    assertFalse(VectorKernels.containsNaN(y, 4));
+    assertTrue(VectorKernels.containsNaN(y, 5));
+
+    float[] norms = new float[2];
+    VectorKernels.pairNorms(new float[] {3, 4, -5, 12}, norms, 2);
+    assertArrayEquals(new float[] {5, 13}, norms, 0);
+  }
+
+  @Test
+  public void testXorCount() {
+    long[] a = {0L, -1L, 0xF0L};
+    long[] b = {1L, 0L, 0x0FL};
+    assertEquals(1, VectorKernels.xorCount(a, b, 1));
+    assertEquals(1 + 64 + 8, VectorKernels.xorCount(a, b, 3));
+  }
+
+  @Test
+  public void testMultiplyTransposed() {
+    Random random = new Random(0);
+    int aRows = 5, bRows = 3, length = 11;
+    float[] a = new float[aRows * length];
+    float[] b = new float[bRows * length];
+    for (int i = 0; i < a.length; ++i) a[i] = random.nextFloat() - 0.5f;
+    for (int i = 0; i < b.length; ++i) b[i] = random.nextFloat() - 0.5f;
+    float[] out = new float[aRows * bRows];
+    VectorKernels.multiplyTransposed(a, aRows, b, bRows, length, out);
+    for (int i = 0; i < aRows; ++i) {
+      for (int j = 0; j < bRows; ++j) {
+        double expected = 0;
+        for (int k = 0; k < length; ++k) expected += a[i * length + k] * b[j * length + k];
+        assertEquals(expected, out[i * bRows + j], 1e-5);
+      }
+    }
+  }
+}